@@ -0,0 +1,133 @@
+package com.netcetera.trema.core;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+
+
+/**
+ * Delivers database events asynchronously on an executor, see
+ * {@link XMLDatabase#setEventDispatcher(AsyncEventDispatcher)}.
+ * <p>
+ * Events are enqueued on a lock-free queue and delivered one at a time
+ * in the order they have been dispatched, even if the executor runs
+ * tasks in parallel. The number of pending events is bounded: if the
+ * queue is full, {@link #dispatch(Runnable)} blocks until the listeners
+ * have caught up. Events dispatched while delivering an event (e.g. by a
+ * listener modifying the database) never block.
+ * <p>
+ * Note that the listeners see the nodes in the state at delivery time,
+ * which may be more recent than the state at the time of the event.
+ */
+public class AsyncEventDispatcher {
+
+  public static final Logger LOG = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final Executor executor;
+  private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+  private final Semaphore capacity;
+  private final AtomicBoolean scheduled = new AtomicBoolean(false);
+  private volatile Thread deliveryThread = null;
+
+  /**
+   * Creates a new dispatcher.
+   * @param executor the executor to deliver the events on
+   * @param capacity the maximum number of pending events
+   * @throws IllegalArgumentException if the capacity is not positive
+   */
+  public AsyncEventDispatcher(Executor executor, int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+    }
+    this.executor = executor;
+    this.capacity = new Semaphore(capacity);
+  }
+
+  /**
+   * Enqueues an event for delivery. Blocks while the maximum number of
+   * events is pending.
+   * @param event the delivery of the event to the listeners
+   * @throws java.util.concurrent.RejectedExecutionException if the
+   * executor rejects the delivery, the event stays pending
+   */
+  public void dispatch(Runnable event) {
+    if (Thread.currentThread() != deliveryThread) {
+      capacity.acquireUninterruptibly();
+      queue.add(() -> {
+        capacity.release();
+        event.run();
+      });
+    } else {
+      queue.add(event);
+    }
+    schedule();
+  }
+
+  /**
+   * Waits until all events dispatched so far have been delivered.
+   * @throws InterruptedException if interrupted while waiting
+   * @throws IllegalStateException if called while delivering an event
+   */
+  public void flush() throws InterruptedException {
+    if (Thread.currentThread() == deliveryThread) {
+      throw new IllegalStateException("Cannot flush the events while delivering an event.");
+    }
+    CountDownLatch delivered = new CountDownLatch(1);
+    queue.add(delivered::countDown);
+    schedule();
+    delivered.await();
+  }
+
+  /**
+   * Gets the number of events that have not been delivered yet.
+   * @return the number of pending events
+   */
+  public int getPendingEvents() {
+    return queue.size();
+  }
+
+  private void schedule() {
+    if (scheduled.compareAndSet(false, true)) {
+      try {
+        executor.execute(this::deliver);
+      } catch (RuntimeException e) {
+        // e.g. rejected, the events stay queued for the next dispatch
+        scheduled.set(false);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Delivers the pending events. Only one delivery runs at a time.
+   */
+  private void deliver() {
+    deliveryThread = Thread.currentThread();
+    try {
+      Runnable event;
+      while ((event = queue.poll()) != null) {
+        try {
+          event.run();
+        } catch (RuntimeException e) {
+          LOG.error("Database listener failed", e);
+        }
+      }
+    } finally {
+      deliveryThread = null;
+      scheduled.set(false);
+    }
+    // events enqueued after the last poll but before resetting the flag
+    if (!queue.isEmpty()) {
+      schedule();
+    }
+  }
+
+}
@@ -0,0 +1,93 @@
+package com.netcetera.trema.core;
+
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.api.IValueNode;
+
+
+
+/**
+ * Computes 64 bit hashes of the contents of text and value nodes. Nodes
+ * with the same contents always have the same hash, nodes with different
+ * contents have the same hash only with a negligible probability. A
+ * difference in hashes is therefore a cheap proof of a difference in
+ * contents.
+ * <p>
+ * The hash of a text node covers its key, its context and all of its
+ * value nodes, independently of the order of the value nodes.
+ */
+public final class ContentHashes {
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  private static final long NULL_HASH = 0x9e3779b97f4a7c15L;
+
+  private ContentHashes() {
+  }
+
+  /**
+   * Computes the hash of a text node.
+   * @param textNode the text node
+   * @return the hash of the key, the context and the value nodes
+   */
+  public static long hash(ITextNode textNode) {
+    long valueHashes = 0;
+    for (IValueNode valueNode : textNode.getValueNodes()) {
+      // summing up makes the hash independent of the order of the value nodes
+      valueHashes += hash(valueNode);
+    }
+    return combine(combine(hash(textNode.getKey()), hash(textNode.getContext())), valueHashes);
+  }
+
+  /**
+   * Computes the hash of a value node.
+   * @param valueNode the value node
+   * @return the hash of the language, the status and the value
+   */
+  public static long hash(IValueNode valueNode) {
+    Status status = valueNode.getStatus();
+    long hash = combine(hash(valueNode.getLanguage()), hash(valueNode.getValue()));
+    return combine(hash, status != null ? status.getPosition() : -1);
+  }
+
+  /**
+   * Computes the hash of a string.
+   * @param string the string, may be <code>null</code>
+   * @return the hash of the string
+   */
+  public static long hash(String string) {
+    if (string == null) {
+      return NULL_HASH;
+    }
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = 0; i < string.length(); i++) {
+      hash = (hash ^ string.charAt(i)) * FNV_PRIME;
+    }
+    return mix(hash);
+  }
+
+  /**
+   * Combines two hashes, the order of the hashes matters.
+   * @param hash the first hash
+   * @param other the second hash
+   * @return the combined hash
+   */
+  public static long combine(long hash, long other) {
+    return mix(hash * 31 + other);
+  }
+
+  /**
+   * Spreads the bits of a hash (the finalizer of MurmurHash3).
+   * @param hash the hash
+   * @return the mixed hash
+   */
+  private static long mix(long hash) {
+    long h = hash;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb93e1fe53e2bL;
+    h ^= h >>> 33;
+    return h;
+  }
+
+}
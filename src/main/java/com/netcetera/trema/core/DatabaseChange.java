@@ -0,0 +1,243 @@
+package com.netcetera.trema.core;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.netcetera.trema.core.api.IDatabaseChange;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.api.IValueNode;
+
+
+
+/**
+ * Records the modifications of a database during a batch. The record
+ * methods correspond to the events of
+ * {@link com.netcetera.trema.core.api.IDatabaseListener} and can be
+ * used by any database implementation supporting batches.
+ */
+public final class DatabaseChange implements IDatabaseChange {
+
+  private boolean masterLanguageChanged = false;
+  private boolean orderChanged = false;
+  private final Set<ITextNode> addedTextNodes = new LinkedHashSet<>();
+  private final Set<ITextNode> removedTextNodes = new LinkedHashSet<>();
+  private final Set<ITextNode> changedTextNodes = new LinkedHashSet<>();
+  private final Set<ITextNode> movedTextNodes = new LinkedHashSet<>();
+  private final Set<IValueNode> addedValueNodes = new LinkedHashSet<>();
+  private final Set<IValueNode> removedValueNodes = new LinkedHashSet<>();
+  private final Set<IValueNode> changedValueNodes = new LinkedHashSet<>();
+  private int minRemovalIndex = Integer.MAX_VALUE;
+  private int maxRemovalIndex = -1;
+  private int firstAffectedIndex = -1;
+  private int lastAffectedIndex = -1;
+
+  /**
+   * Records a change of the master language.
+   */
+  public void recordMasterLanguageChanged() {
+    masterLanguageChanged = true;
+  }
+
+  /**
+   * Records a change of the key or context of a text node.
+   * @param textNode the text node
+   */
+  public void recordTextNodeChanged(ITextNode textNode) {
+    if (!addedTextNodes.contains(textNode)) {
+      changedTextNodes.add(textNode);
+    }
+  }
+
+  /**
+   * Records the addition of a text node.
+   * @param textNode the text node
+   */
+  public void recordTextNodeAdded(ITextNode textNode) {
+    if (!removedTextNodes.remove(textNode)) {
+      addedTextNodes.add(textNode);
+    } else {
+      // removed and added again
+      changedTextNodes.add(textNode);
+    }
+  }
+
+  /**
+   * Records the removal of text nodes.
+   * @param textNodes the text nodes
+   * @param index the position of the topmost text node that has been
+   * removed
+   */
+  public void recordTextNodesRemoved(ITextNode[] textNodes, int index) {
+    boolean removedExisting = false;
+    for (ITextNode textNode : textNodes) {
+      changedTextNodes.remove(textNode);
+      movedTextNodes.remove(textNode);
+      if (!addedTextNodes.remove(textNode)) {
+        removedTextNodes.add(textNode);
+        removedExisting = true;
+      }
+      for (IValueNode valueNode : textNode.getValueNodes()) {
+        addedValueNodes.remove(valueNode);
+        changedValueNodes.remove(valueNode);
+      }
+    }
+    if (removedExisting) {
+      minRemovalIndex = Math.min(minRemovalIndex, index);
+      maxRemovalIndex = Math.max(maxRemovalIndex, index);
+    }
+  }
+
+  /**
+   * Records the moving of text nodes.
+   * @param textNodes the text nodes
+   */
+  public void recordTextNodesMoved(ITextNode[] textNodes) {
+    orderChanged = true;
+    Collections.addAll(movedTextNodes, textNodes);
+  }
+
+  /**
+   * Records a change of the value or status of a value node.
+   * @param valueNode the value node
+   */
+  public void recordValueNodeChanged(IValueNode valueNode) {
+    if (!addedValueNodes.contains(valueNode) && !addedTextNodes.contains(valueNode.getParent())) {
+      changedValueNodes.add(valueNode);
+    }
+  }
+
+  /**
+   * Records the addition of a value node.
+   * @param valueNode the value node
+   */
+  public void recordValueNodeAdded(IValueNode valueNode) {
+    if (addedTextNodes.contains(valueNode.getParent())) {
+      // part of an added text node
+      return;
+    }
+    if (!removedValueNodes.remove(valueNode)) {
+      addedValueNodes.add(valueNode);
+    } else {
+      changedValueNodes.add(valueNode);
+    }
+  }
+
+  /**
+   * Records the removal of a value node.
+   * @param valueNode the value node
+   */
+  public void recordValueNodeRemoved(IValueNode valueNode) {
+    changedValueNodes.remove(valueNode);
+    if (!addedValueNodes.remove(valueNode) && !addedTextNodes.contains(valueNode.getParent())) {
+      removedValueNodes.add(valueNode);
+    }
+  }
+
+  /**
+   * Checks whether any modification has been recorded.
+   * @return true if no modification has been recorded.
+   */
+  public boolean isEmpty() {
+    return !masterLanguageChanged && !orderChanged && addedTextNodes.isEmpty() && removedTextNodes.isEmpty()
+      && changedTextNodes.isEmpty() && addedValueNodes.isEmpty() && removedValueNodes.isEmpty()
+      && changedValueNodes.isEmpty();
+  }
+
+  /**
+   * Computes the range of affected positions from the current text nodes
+   * of the database. To be called once, when the batch is committed.
+   * @param textNodes the text nodes of the database
+   */
+  public void computeAffectedRange(List<ITextNode> textNodes) {
+    Set<ITextNode> affected = Collections.newSetFromMap(new IdentityHashMap<>());
+    affected.addAll(addedTextNodes);
+    affected.addAll(changedTextNodes);
+    affected.addAll(movedTextNodes);
+    for (IValueNode valueNode : addedValueNodes) {
+      affected.add(valueNode.getParent());
+    }
+    for (IValueNode valueNode : removedValueNodes) {
+      affected.add(valueNode.getParent());
+    }
+    for (IValueNode valueNode : changedValueNodes) {
+      affected.add(valueNode.getParent());
+    }
+
+    int first = minRemovalIndex;
+    int last = maxRemovalIndex;
+    if (!affected.isEmpty()) {
+      for (int i = 0; i < textNodes.size(); i++) {
+        if (affected.contains(textNodes.get(i))) {
+          first = Math.min(first, i);
+          last = Math.max(last, i);
+        }
+      }
+    }
+    firstAffectedIndex = last >= 0 ? first : -1;
+    lastAffectedIndex = last;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isMasterLanguageChanged() {
+    return masterLanguageChanged;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isOrderChanged() {
+    return orderChanged;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ITextNode[] getAddedTextNodes() {
+    return addedTextNodes.toArray(new ITextNode[addedTextNodes.size()]);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ITextNode[] getRemovedTextNodes() {
+    return removedTextNodes.toArray(new ITextNode[removedTextNodes.size()]);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ITextNode[] getChangedTextNodes() {
+    return changedTextNodes.toArray(new ITextNode[changedTextNodes.size()]);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public IValueNode[] getAddedValueNodes() {
+    return addedValueNodes.toArray(new IValueNode[addedValueNodes.size()]);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public IValueNode[] getRemovedValueNodes() {
+    return removedValueNodes.toArray(new IValueNode[removedValueNodes.size()]);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public IValueNode[] getChangedValueNodes() {
+    return changedValueNodes.toArray(new IValueNode[changedValueNodes.size()]);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int getFirstAffectedIndex() {
+    return firstAffectedIndex;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int getLastAffectedIndex() {
+    return lastAffectedIndex;
+  }
+
+}
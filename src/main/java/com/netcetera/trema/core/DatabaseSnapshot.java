@@ -0,0 +1,415 @@
+package com.netcetera.trema.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.netcetera.trema.core.api.IDatabase;
+import com.netcetera.trema.core.api.IDatabaseListener;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.api.IValueNode;
+
+
+
+/**
+ * An immutable view of a database at a point in time, see
+ * {@link XMLDatabase#snapshot()}. A snapshot can be read by any number
+ * of threads without locking while the database keeps being modified.
+ * <p>
+ * The text nodes of a snapshot are frozen copies that are shared with
+ * the other snapshots of the same database as long as they are not
+ * modified. Since a frozen text node may belong to several snapshots,
+ * its parent is <code>null</code>. All modifying methods throw an
+ * <code>UnsupportedOperationException</code>.
+ */
+public final class DatabaseSnapshot implements IDatabase {
+
+  private static final String READ_ONLY_MESSAGE = "The database snapshot is read-only.";
+
+  private final String masterLanguage;
+  private final PersistentList order;
+  private final PersistentHashMap<Integer, ITextNode> frozenTextNodes;
+  private volatile ITextNode[] textNodeArray = null;
+  private volatile Map<String, ITextNode> keyIndex = null;
+
+  /**
+   * Creates a new snapshot.
+   * @param masterLanguage the master language
+   * @param order the ids of the text nodes in order
+   * @param frozenTextNodes the frozen text nodes by id, see
+   * {@link #freeze(ITextNode)}
+   */
+  DatabaseSnapshot(String masterLanguage, PersistentList order, PersistentHashMap<Integer, ITextNode> frozenTextNodes) {
+    this.masterLanguage = masterLanguage;
+    this.order = order;
+    this.frozenTextNodes = frozenTextNodes;
+  }
+
+  /**
+   * Gets the text nodes in order, resolving them on first use.
+   * @return the text nodes, not to be modified
+   */
+  private ITextNode[] getTextNodeArray() {
+    ITextNode[] textNodes = textNodeArray;
+    if (textNodes == null) {
+      // resolved lazily, concurrent readers at worst resolve them twice
+      int[] ids = order.toArray();
+      textNodes = new ITextNode[ids.length];
+      for (int i = 0; i < ids.length; i++) {
+        textNodes[i] = frozenTextNodes.get(ids[i]);
+      }
+      textNodeArray = textNodes;
+    }
+    return textNodes;
+  }
+
+  /**
+   * Creates a frozen copy of a text node and its value nodes.
+   * @param textNode the text node
+   * @return the frozen copy
+   */
+  static ITextNode freeze(ITextNode textNode) {
+    return new FrozenTextNode(textNode);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getMasterLanguage() {
+    return masterLanguage;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int getSize() {
+    return order.size();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ITextNode[] getTextNodes() {
+    return getTextNodeArray().clone();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int indexOf(ITextNode textNode) {
+    ITextNode[] textNodes = getTextNodeArray();
+    for (int i = 0; i < textNodes.length; i++) {
+      if (textNodes[i].equals(textNode)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ITextNode getTextNode(int index) {
+    if (index < 0 || index >= order.size()) {
+      return null;
+    }
+    return frozenTextNodes.get(order.get(index));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ITextNode getTextNode(String key) {
+    Map<String, ITextNode> index = keyIndex;
+    if (index == null) {
+      // built lazily, concurrent readers at worst build it twice
+      ITextNode[] textNodes = getTextNodeArray();
+      index = new HashMap<>(textNodes.length * 4 / 3 + 1);
+      for (ITextNode textNode : textNodes) {
+        index.putIfAbsent(textNode.getKey(), textNode);
+      }
+      keyIndex = index;
+    }
+    return index.get(key);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean existsTextNode(String key) {
+    return getTextNode(key) != null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Collection<String> getKeysAsCollection() {
+    ITextNode[] textNodes = getTextNodeArray();
+    List<String> keyList = new ArrayList<>(textNodes.length);
+    for (ITextNode textNode : textNodes) {
+      keyList.add(textNode.getKey());
+    }
+    return keyList;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void setMasterLanguage(String language) {
+    throw new UnsupportedOperationException(READ_ONLY_MESSAGE);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void addTextNode(ITextNode textNode) {
+    throw new UnsupportedOperationException(READ_ONLY_MESSAGE);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void addTextNode(int position, ITextNode textNode) {
+    throw new UnsupportedOperationException(READ_ONLY_MESSAGE);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void removeTextNodes(ITextNode[] nodes) {
+    throw new UnsupportedOperationException(READ_ONLY_MESSAGE);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void removeTextNode(String key) {
+    throw new UnsupportedOperationException(READ_ONLY_MESSAGE);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void moveTextNode(ITextNode textNode, int targetIndex) {
+    throw new UnsupportedOperationException(READ_ONLY_MESSAGE);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void moveUpTextNodes(ITextNode[] nodes) {
+    throw new UnsupportedOperationException(READ_ONLY_MESSAGE);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void moveDownTextNodes(ITextNode[] nodes) {
+    throw new UnsupportedOperationException(READ_ONLY_MESSAGE);
+  }
+
+  /**
+   * Does nothing, a snapshot never changes.
+   * @param listener the listener
+   */
+  @Override
+  public void addListener(IDatabaseListener listener) {
+    // a snapshot never changes
+  }
+
+  /**
+   * Does nothing, a snapshot never changes.
+   * @param listener the listener
+   */
+  @Override
+  public void removeListener(IDatabaseListener listener) {
+    // a snapshot never changes
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void fireValueNodeChanged(IValueNode valueNode) {
+    throw new UnsupportedOperationException(READ_ONLY_MESSAGE);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void fireValueNodeAdded(IValueNode valueNode) {
+    throw new UnsupportedOperationException(READ_ONLY_MESSAGE);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void fireValueNodeRemoved(IValueNode valueNode) {
+    throw new UnsupportedOperationException(READ_ONLY_MESSAGE);
+  }
+
+  /**
+   * A frozen copy of a text node. The value nodes are ordered by
+   * language like the ones of {@link XMLTextNode}.
+   */
+  private static final class FrozenTextNode implements ITextNode {
+
+    private final String key;
+    private final String context;
+    private final IValueNode[] valueNodes;
+
+    FrozenTextNode(ITextNode textNode) {
+      key = textNode.getKey();
+      context = textNode.getContext();
+      IValueNode[] originals = textNode.getValueNodes();
+      valueNodes = new IValueNode[originals.length];
+      for (int i = 0; i < originals.length; i++) {
+        valueNodes[i] = new FrozenValueNode(this, originals[i]);
+      }
+      Arrays.sort(valueNodes, (a, b) -> a.getLanguage().compareTo(b.getLanguage()));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getKey() {
+      return key;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getContext() {
+      return context;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public IValueNode getValueNode(String language) {
+      for (IValueNode valueNode : valueNodes) {
+        if (valueNode.getLanguage().equals(language)) {
+          return valueNode;
+        }
+      }
+      return null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public IValueNode[] getValueNodes() {
+      return valueNodes.clone();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String[] getLanguages() {
+      String[] languages = new String[valueNodes.length];
+      for (int i = 0; i < valueNodes.length; i++) {
+        languages[i] = valueNodes[i].getLanguage();
+      }
+      return languages;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean existsValueNode(String language) {
+      return getValueNode(language) != null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public IDatabase getParent() {
+      return null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setKey(String key) {
+      throw new UnsupportedOperationException(READ_ONLY_MESSAGE);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setContext(String context) {
+      throw new UnsupportedOperationException(READ_ONLY_MESSAGE);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void addValueNode(IValueNode valueNode) {
+      throw new UnsupportedOperationException(READ_ONLY_MESSAGE);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void removeValueNode(IValueNode valueNode) {
+      throw new UnsupportedOperationException(READ_ONLY_MESSAGE);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void fireValueNodeChanged(IValueNode valueNode) {
+      throw new UnsupportedOperationException(READ_ONLY_MESSAGE);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setParent(IDatabase parent) {
+      throw new UnsupportedOperationException(READ_ONLY_MESSAGE);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+      return key;
+    }
+  }
+
+  /**
+   * A frozen copy of a value node.
+   */
+  private static final class FrozenValueNode implements IValueNode {
+
+    private final ITextNode parent;
+    private final String language;
+    private final Status status;
+    private final String value;
+
+    FrozenValueNode(ITextNode parent, IValueNode valueNode) {
+      this.parent = parent;
+      language = valueNode.getLanguage();
+      status = valueNode.getStatus();
+      value = valueNode.getValue();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getLanguage() {
+      return language;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Status getStatus() {
+      return status;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getValue() {
+      return value;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public ITextNode getParent() {
+      return parent;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setStatus(Status status) {
+      throw new UnsupportedOperationException(READ_ONLY_MESSAGE);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setValue(String value) {
+      throw new UnsupportedOperationException(READ_ONLY_MESSAGE);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setParent(ITextNode parent) {
+      throw new UnsupportedOperationException(READ_ONLY_MESSAGE);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+      return language + ": " + value;
+    }
+  }
+
+}
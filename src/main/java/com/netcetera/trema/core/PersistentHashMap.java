@@ -0,0 +1,289 @@
+package com.netcetera.trema.core;
+
+import java.util.Arrays;
+
+
+
+/**
+ * An immutable hash array mapped trie (HAMT). Every modification returns
+ * a new map sharing all unchanged nodes with this one, so a modification
+ * copies only the O(log32 n) nodes on the path to the modified entry.
+ * <p>
+ * Keys must not be <code>null</code>, values are compared by identity.
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public final class PersistentHashMap<K, V> {
+
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+
+  @SuppressWarnings("rawtypes")
+  private static final PersistentHashMap EMPTY = new PersistentHashMap<>(null, 0);
+
+  private final Node root;
+  private final int size;
+
+  private PersistentHashMap(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * Gets the empty map.
+   * @param <K> the type of the keys
+   * @param <V> the type of the values
+   * @return the empty map
+   */
+  @SuppressWarnings("unchecked")
+  public static <K, V> PersistentHashMap<K, V> empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Gets the number of entries.
+   * @return the number of entries
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the value of a key.
+   * @param key the key
+   * @return the value or <code>null</code> if the key is not mapped
+   */
+  @SuppressWarnings("unchecked")
+  public V get(K key) {
+    return root != null ? (V) root.get(0, hash(key), key) : null;
+  }
+
+  /**
+   * Maps a key to a value.
+   * @param key the key
+   * @param value the value
+   * @return the new map, this map if the key is already mapped to the
+   * value
+   */
+  public PersistentHashMap<K, V> put(K key, V value) {
+    boolean[] added = new boolean[1];
+    Node start = root != null ? root : BitmapNode.EMPTY;
+    Node newRoot = start.put(0, hash(key), key, value, added);
+    if (newRoot == root) {
+      return this;
+    }
+    return new PersistentHashMap<>(newRoot, added[0] ? size + 1 : size);
+  }
+
+  /**
+   * Removes the mapping of a key.
+   * @param key the key
+   * @return the new map, this map if the key is not mapped
+   */
+  public PersistentHashMap<K, V> remove(K key) {
+    if (root == null) {
+      return this;
+    }
+    Node newRoot = root.remove(0, hash(key), key);
+    if (newRoot == root) {
+      return this;
+    }
+    return newRoot != null ? new PersistentHashMap<>(newRoot, size - 1) : empty();
+  }
+
+  private static int hash(Object key) {
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  private static int bit(int hash, int shift) {
+    return 1 << ((hash >>> shift) & MASK);
+  }
+
+  private static Object[] copyAndSet(Object[] array, int index, Object value) {
+    Object[] copy = array.clone();
+    copy[index] = value;
+    return copy;
+  }
+
+  /**
+   * A node of the trie.
+   */
+  private interface Node {
+
+    Object get(int shift, int hash, Object key);
+
+    Node put(int shift, int hash, Object key, Object value, boolean[] added);
+
+    /** Returns <code>null</code> if the node became empty. */
+    Node remove(int shift, int hash, Object key);
+  }
+
+  /**
+   * A node storing the entries and sub-nodes of the 32 possible hash
+   * fragments of its level in a compressed array. A pair
+   * <code>(key, value)</code> is an entry, a pair
+   * <code>(null, node)</code> a sub-node.
+   */
+  private static final class BitmapNode implements Node {
+
+    static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+    private final int bitmap;
+    private final Object[] array;
+
+    BitmapNode(int bitmap, Object[] array) {
+      this.bitmap = bitmap;
+      this.array = array;
+    }
+
+    private int index(int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Override
+    public Object get(int shift, int hash, Object key) {
+      int bit = bit(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return null;
+      }
+      int index = index(bit);
+      Object entryKey = array[2 * index];
+      Object entryValue = array[2 * index + 1];
+      if (entryKey == null) {
+        return ((Node) entryValue).get(shift + BITS, hash, key);
+      }
+      return key.equals(entryKey) ? entryValue : null;
+    }
+
+    @Override
+    public Node put(int shift, int hash, Object key, Object value, boolean[] added) {
+      int bit = bit(hash, shift);
+      int index = index(bit);
+      if ((bitmap & bit) == 0) {
+        added[0] = true;
+        Object[] newArray = new Object[array.length + 2];
+        System.arraycopy(array, 0, newArray, 0, 2 * index);
+        newArray[2 * index] = key;
+        newArray[2 * index + 1] = value;
+        System.arraycopy(array, 2 * index, newArray, 2 * index + 2, array.length - 2 * index);
+        return new BitmapNode(bitmap | bit, newArray);
+      }
+
+      Object entryKey = array[2 * index];
+      Object entryValue = array[2 * index + 1];
+      if (entryKey == null) {
+        Node node = ((Node) entryValue).put(shift + BITS, hash, key, value, added);
+        return node == entryValue ? this : new BitmapNode(bitmap, copyAndSet(array, 2 * index + 1, node));
+      }
+      if (key.equals(entryKey)) {
+        return value == entryValue ? this : new BitmapNode(bitmap, copyAndSet(array, 2 * index + 1, value));
+      }
+      added[0] = true;
+      Node node = createNode(shift + BITS, entryKey, entryValue, hash, key, value);
+      Object[] newArray = copyAndSet(array, 2 * index, null);
+      newArray[2 * index + 1] = node;
+      return new BitmapNode(bitmap, newArray);
+    }
+
+    @Override
+    public Node remove(int shift, int hash, Object key) {
+      int bit = bit(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return this;
+      }
+      int index = index(bit);
+      Object entryKey = array[2 * index];
+      Object entryValue = array[2 * index + 1];
+      if (entryKey == null) {
+        Node node = ((Node) entryValue).remove(shift + BITS, hash, key);
+        if (node == entryValue) {
+          return this;
+        } else if (node != null) {
+          return new BitmapNode(bitmap, copyAndSet(array, 2 * index + 1, node));
+        }
+      } else if (!key.equals(entryKey)) {
+        return this;
+      }
+      if (bitmap == bit) {
+        return null;
+      }
+      Object[] newArray = new Object[array.length - 2];
+      System.arraycopy(array, 0, newArray, 0, 2 * index);
+      System.arraycopy(array, 2 * index + 2, newArray, 2 * index, newArray.length - 2 * index);
+      return new BitmapNode(bitmap ^ bit, newArray);
+    }
+
+    private static Node createNode(int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+      int hash1 = hash(key1);
+      if (hash1 == hash2) {
+        return new CollisionNode(hash1, new Object[] {key1, value1, key2, value2});
+      }
+      boolean[] added = new boolean[1];
+      return EMPTY.put(shift, hash1, key1, value1, added).put(shift, hash2, key2, value2, added);
+    }
+  }
+
+  /**
+   * A node storing the entries of keys with the same hash code.
+   */
+  private static final class CollisionNode implements Node {
+
+    private final int hash;
+    private final Object[] array;
+
+    CollisionNode(int hash, Object[] array) {
+      this.hash = hash;
+      this.array = array;
+    }
+
+    private int find(Object key) {
+      for (int i = 0; i < array.length; i += 2) {
+        if (key.equals(array[i])) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    public Object get(int shift, int hash, Object key) {
+      int index = find(key);
+      return index >= 0 ? array[index + 1] : null;
+    }
+
+    @Override
+    public Node put(int shift, int hash, Object key, Object value, boolean[] added) {
+      if (hash != this.hash) {
+        // nest this node into a bitmap node of its level
+        BitmapNode node = new BitmapNode(bit(this.hash, shift), new Object[] {null, this});
+        return node.put(shift, hash, key, value, added);
+      }
+      int index = find(key);
+      if (index >= 0) {
+        return array[index + 1] == value ? this : new CollisionNode(hash, copyAndSet(array, index + 1, value));
+      }
+      added[0] = true;
+      Object[] newArray = Arrays.copyOf(array, array.length + 2);
+      newArray[array.length] = key;
+      newArray[array.length + 1] = value;
+      return new CollisionNode(hash, newArray);
+    }
+
+    @Override
+    public Node remove(int shift, int hash, Object key) {
+      int index = find(key);
+      if (index < 0) {
+        return this;
+      }
+      if (array.length == 2) {
+        return null;
+      }
+      Object[] newArray = new Object[array.length - 2];
+      System.arraycopy(array, 0, newArray, 0, index);
+      System.arraycopy(array, index + 2, newArray, index, newArray.length - index);
+      return new CollisionNode(hash, newArray);
+    }
+  }
+
+}
@@ -0,0 +1,226 @@
+package com.netcetera.trema.core;
+
+
+
+/**
+ * An immutable list of <code>int</code> elements, implemented as AVL
+ * tree with subtree sizes. Getting, inserting and removing an element at
+ * a position take O(log n); a modification returns a new list sharing
+ * all unchanged nodes with this one.
+ */
+public final class PersistentList {
+
+  private static final PersistentList EMPTY = new PersistentList(null);
+
+  private final Node root;
+
+  private PersistentList(Node root) {
+    this.root = root;
+  }
+
+  /**
+   * Gets the empty list.
+   * @return the empty list
+   */
+  public static PersistentList empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Gets the number of elements.
+   * @return the number of elements
+   */
+  public int size() {
+    return size(root);
+  }
+
+  /**
+   * Gets the element at a position.
+   * @param index the position
+   * @return the element
+   * @throws IndexOutOfBoundsException if the position is out of range
+   */
+  public int get(int index) {
+    checkIndex(index, size());
+    Node node = root;
+    while (true) {
+      int leftSize = size(node.left);
+      if (index < leftSize) {
+        node = node.left;
+      } else if (index > leftSize) {
+        index -= leftSize + 1;
+        node = node.right;
+      } else {
+        return node.element;
+      }
+    }
+  }
+
+  /**
+   * Inserts an element at a position.
+   * @param index the position, between 0 and the size of the list
+   * @param element the element
+   * @return the new list
+   * @throws IndexOutOfBoundsException if the position is out of range
+   */
+  public PersistentList insert(int index, int element) {
+    checkIndex(index, size() + 1);
+    return new PersistentList(insert(root, index, element));
+  }
+
+  /**
+   * Removes the element at a position.
+   * @param index the position
+   * @return the new list
+   * @throws IndexOutOfBoundsException if the position is out of range
+   */
+  public PersistentList remove(int index) {
+    checkIndex(index, size());
+    return new PersistentList(remove(root, index));
+  }
+
+  /**
+   * Replaces the element at a position.
+   * @param index the position
+   * @param element the element
+   * @return the new list
+   * @throws IndexOutOfBoundsException if the position is out of range
+   */
+  public PersistentList set(int index, int element) {
+    checkIndex(index, size());
+    return new PersistentList(set(root, index, element));
+  }
+
+  /**
+   * Gets the position of the first occurrence of an element. Takes
+   * linear time.
+   * @param element the element
+   * @return the position or -1 if the list does not contain the element
+   */
+  public int indexOf(int element) {
+    int[] elements = toArray();
+    for (int i = 0; i < elements.length; i++) {
+      if (elements[i] == element) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Gets the elements in order.
+   * @return the elements
+   */
+  public int[] toArray() {
+    int[] elements = new int[size()];
+    fill(root, elements, 0);
+    return elements;
+  }
+
+  private static void checkIndex(int index, int size) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+
+  private static int fill(Node node, int[] elements, int offset) {
+    if (node == null) {
+      return offset;
+    }
+    int index = fill(node.left, elements, offset);
+    elements[index] = node.element;
+    return fill(node.right, elements, index + 1);
+  }
+
+  private static int size(Node node) {
+    return node != null ? node.size : 0;
+  }
+
+  private static int height(Node node) {
+    return node != null ? node.height : 0;
+  }
+
+  private static Node insert(Node node, int index, int element) {
+    if (node == null) {
+      return new Node(null, element, null);
+    }
+    int leftSize = size(node.left);
+    if (index <= leftSize) {
+      return balance(insert(node.left, index, element), node.element, node.right);
+    }
+    return balance(node.left, node.element, insert(node.right, index - leftSize - 1, element));
+  }
+
+  private static Node remove(Node node, int index) {
+    int leftSize = size(node.left);
+    if (index < leftSize) {
+      return balance(remove(node.left, index), node.element, node.right);
+    } else if (index > leftSize) {
+      return balance(node.left, node.element, remove(node.right, index - leftSize - 1));
+    } else if (node.left == null) {
+      return node.right;
+    } else if (node.right == null) {
+      return node.left;
+    }
+    // replace by the successor
+    Node successor = node.right;
+    while (successor.left != null) {
+      successor = successor.left;
+    }
+    return balance(node.left, successor.element, remove(node.right, 0));
+  }
+
+  private static Node set(Node node, int index, int element) {
+    int leftSize = size(node.left);
+    if (index < leftSize) {
+      return new Node(set(node.left, index, element), node.element, node.right);
+    } else if (index > leftSize) {
+      return new Node(node.left, node.element, set(node.right, index - leftSize - 1, element));
+    }
+    return new Node(node.left, element, node.right);
+  }
+
+  /**
+   * Creates a node from two subtrees whose heights differ by at most two,
+   * rotating if necessary.
+   */
+  private static Node balance(Node left, int element, Node right) {
+    int leftHeight = height(left);
+    int rightHeight = height(right);
+    if (leftHeight > rightHeight + 1) {
+      if (height(left.left) >= height(left.right)) {
+        return new Node(left.left, left.element, new Node(left.right, element, right));
+      }
+      return new Node(new Node(left.left, left.element, left.right.left), left.right.element,
+                      new Node(left.right.right, element, right));
+    } else if (rightHeight > leftHeight + 1) {
+      if (height(right.right) >= height(right.left)) {
+        return new Node(new Node(left, element, right.left), right.element, right.right);
+      }
+      return new Node(new Node(left, element, right.left.left), right.left.element,
+                      new Node(right.left.right, right.element, right.right));
+    }
+    return new Node(left, element, right);
+  }
+
+  /**
+   * An immutable node of the tree.
+   */
+  private static final class Node {
+
+    private final Node left;
+    private final Node right;
+    private final int element;
+    private final int size;
+    private final int height;
+
+    Node(Node left, int element, Node right) {
+      this.left = left;
+      this.right = right;
+      this.element = element;
+      this.size = size(left) + size(right) + 1;
+      this.height = Math.max(height(left), height(right)) + 1;
+    }
+  }
+
+}
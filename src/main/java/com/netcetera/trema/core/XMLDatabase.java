@@ -1,6 +1,8 @@
 package com.netcetera.trema.core;
 
 import com.netcetera.trema.core.api.IDatabase;
+import com.netcetera.trema.core.api.IDatabaseBatchListener;
+import com.netcetera.trema.core.api.IDatabaseChange;
 import com.netcetera.trema.core.api.IDatabaseListener;
 import com.netcetera.trema.core.api.ITextNode;
 import com.netcetera.trema.core.api.IValueNode;
@@ -23,11 +25,19 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 
 
@@ -48,7 +58,17 @@ public class XMLDatabase implements IDatabase {
   private static final String LANGUAGE_ATTRIBUTE_NAME = "lang";
   private static final String STATUS_ATTRIBUTE_NAME = "status";
 
-  private final List<IDatabaseListener> listeners = new ArrayList<>();
+  // xml element and attribute names of the compact dialect
+  private static final String COMPACT_ROOT_ELEMENT_NAME = "trema-compact";
+  private static final String COMPACT_TEXT_ELEMENT_NAME = "t";
+  private static final String COMPACT_KEY_ATTRIBUTE_NAME = "k";
+  private static final String COMPACT_CONTEXT_ATTRIBUTE_NAME = "c";
+  private static final String COMPACT_VALUE_ATTRIBUTE_PREFIX = "v.";
+  private static final String COMPACT_STATUS_ATTRIBUTE_PREFIX = "s.";
+  private static final String VERSION_ATTRIBUTE_NAME = "version";
+  private static final String COMPACT_VERSION = "1";
+
+  private final List<IDatabaseListener> listeners = new CopyOnWriteArrayList<>();
   private String masterLanguage = null;
   //root element attributes besides "masterLang"
   private final List<Attribute> additionalRootAttrs = new ArrayList<>();
@@ -57,6 +77,18 @@ public class XMLDatabase implements IDatabase {
   private boolean treatWarningsAsErrors = true;
   private final List<ParseWarning> parseWarnings = new ArrayList<>();
   private boolean xmlInternalized = false;
+  private boolean compactDialect = false;
+  private int batchDepth = 0;
+  private DatabaseChange batchChange = null;
+  private AsyncEventDispatcher eventDispatcher = null;
+  // the state of the snapshots: the ids of the text nodes in order and the frozen copies by id, shared by the
+  // snapshots and updated in O(log n) per modification; the order is null while it has to be rebuilt
+  private final Map<ITextNode, Integer> textNodeIds = new IdentityHashMap<>();
+  private final Set<ITextNode> unfrozenTextNodes = Collections.newSetFromMap(new IdentityHashMap<>());
+  private int nextTextNodeId = 0;
+  private PersistentList frozenOrder = null;
+  private PersistentHashMap<Integer, ITextNode> frozenTextNodes = PersistentHashMap.empty();
+  private DatabaseSnapshot snapshot = null;
 
 
   /**
@@ -122,6 +154,164 @@ public class XMLDatabase implements IDatabase {
     this.xmlInternalized = true;
   }
 
+  /**
+   * Reloads this database from a given input stream containing a new
+   * version of the XML document this database was built from, e.g.
+   * after the file has been changed on disk.
+   * <p>
+   * Unlike {@link #build(InputStream, boolean)}, the existing text and
+   * value nodes are kept: the new document is compared to this database
+   * by key and {@link ContentHashes content hash}, and only the text
+   * nodes which were added, removed, moved or changed are modified. The
+   * registered database listeners are notified of these modifications
+   * within a single batch. If the new document cannot be parsed, this
+   * database remains unchanged.
+   * @param inputStream the input stream to read from
+   * @param treatWarningsAsError see {@link #build(InputStream, boolean)}
+   * @throws IOException if any IO errors occur
+   * @throws ParseException if any parse errors occur
+   */
+  public void reload(InputStream inputStream, boolean treatWarningsAsError) throws IOException, ParseException {
+    reload(new InputSource(inputStream), treatWarningsAsError);
+  }
+
+  /**
+   * Reloads this database from a given <code>String</code> containing a
+   * new version of the XML document, see
+   * {@link #reload(InputStream, boolean)}.
+   * @param input the input string containing XML code
+   * @param treatWarningsAsError see {@link #build(InputStream, boolean)}
+   * @throws IOException if any IO errors occur
+   * @throws ParseException if any parse errors occur
+   */
+  public void reload(String input, boolean treatWarningsAsError) throws IOException, ParseException {
+    reload(new InputSource(new StringReader(input)), treatWarningsAsError);
+  }
+
+  private void reload(InputSource inputSource, boolean treatWarningsAsError) throws IOException, ParseException {
+    XMLDatabase parsed = new XMLDatabase();
+    parsed.build(inputSource, treatWarningsAsError);
+
+    this.treatWarningsAsErrors = treatWarningsAsError;
+    additionalRootAttrs.clear();
+    additionalRootAttrs.addAll(parsed.additionalRootAttrs);
+    additionalNamespaces = parsed.additionalNamespaces;
+    parseWarnings.clear();
+    parseWarnings.addAll(parsed.parseWarnings);
+    this.compactDialect = parsed.compactDialect;
+    this.xmlInternalized = true;
+
+    beginBatch();
+    try {
+      if (!parsed.masterLanguage.equals(masterLanguage)) {
+        setMasterLanguage(parsed.masterLanguage);
+      }
+      // match the text nodes by key, duplicate keys in the order of their occurrence
+      Map<String, Deque<ITextNode>> currentByKey = new HashMap<>();
+      for (ITextNode textNode : textNodeList) {
+        currentByKey.computeIfAbsent(textNode.getKey(), key -> new ArrayDeque<>()).add(textNode);
+      }
+      List<ITextNode> target = new ArrayList<>(parsed.textNodeList.size());
+      Map<ITextNode, ITextNode> matched = new IdentityHashMap<>();
+      for (ITextNode parsedTextNode : parsed.textNodeList) {
+        Deque<ITextNode> candidates = currentByKey.get(parsedTextNode.getKey());
+        ITextNode textNode = candidates != null ? candidates.poll() : null;
+        if (textNode != null) {
+          matched.put(textNode, parsedTextNode);
+          target.add(textNode);
+        } else {
+          target.add(parsedTextNode);
+        }
+      }
+
+      removeUnmatchedTextNodes(matched);
+      reorderTextNodes(target, matched);
+      for (int i = 0; i < target.size(); i++) {
+        if (!matched.containsKey(target.get(i))) {
+          addTextNode(i, target.get(i));
+        }
+      }
+      for (Map.Entry<ITextNode, ITextNode> entry : matched.entrySet()) {
+        if (ContentHashes.hash(entry.getKey()) != ContentHashes.hash(entry.getValue())) {
+          update(entry.getKey(), entry.getValue());
+        }
+      }
+    } finally {
+      commitBatch();
+    }
+  }
+
+  private void removeUnmatchedTextNodes(Map<ITextNode, ITextNode> matched) {
+    List<ITextNode> removed = new ArrayList<>();
+    int index = -1;
+    for (int i = 0; i < textNodeList.size(); i++) {
+      ITextNode textNode = textNodeList.get(i);
+      if (!matched.containsKey(textNode)) {
+        if (index < 0) {
+          index = i;
+        }
+        removed.add(textNode);
+      }
+    }
+    if (!removed.isEmpty()) {
+      textNodeList.removeIf(textNode -> !matched.containsKey(textNode));
+      for (ITextNode textNode : removed) {
+        discardFrozenTextNode(textNode);
+      }
+      frozenOrder = null;
+      fireTextNodesRemoved(removed.toArray(new ITextNode[0]), index);
+    }
+  }
+
+  /**
+   * Brings the remaining text nodes into the order of the target.
+   */
+  private void reorderTextNodes(List<ITextNode> target, Map<ITextNode, ITextNode> matched) {
+    List<ITextNode> moved = new ArrayList<>();
+    int position = 0;
+    for (ITextNode textNode : target) {
+      if (matched.containsKey(textNode)) {
+        if (textNodeList.get(position) != textNode) {
+          moved.add(textNode);
+        }
+        position++;
+      }
+    }
+    if (!moved.isEmpty()) {
+      textNodeList.clear();
+      for (ITextNode textNode : target) {
+        if (matched.containsKey(textNode)) {
+          textNodeList.add(textNode);
+        }
+      }
+      frozenOrder = null;
+      fireTextNodesMoved(moved.toArray(new ITextNode[0]));
+    }
+  }
+
+  /**
+   * Updates the context and the value nodes of a text node to the ones
+   * of a reloaded text node with the same key.
+   */
+  private static void update(ITextNode textNode, ITextNode reloaded) {
+    textNode.setContext(reloaded.getContext());
+    for (IValueNode reloadedValueNode : reloaded.getValueNodes()) {
+      IValueNode valueNode = textNode.getValueNode(reloadedValueNode.getLanguage());
+      if (valueNode == null) {
+        textNode.addValueNode(new XMLValueNode(reloadedValueNode.getLanguage(), reloadedValueNode.getStatus(),
+                                               reloadedValueNode.getValue()));
+      } else if (ContentHashes.hash(valueNode) != ContentHashes.hash(reloadedValueNode)) {
+        valueNode.setValue(reloadedValueNode.getValue());
+        valueNode.setStatus(reloadedValueNode.getStatus());
+      }
+    }
+    for (IValueNode valueNode : textNode.getValueNodes()) {
+      if (reloaded.getValueNode(valueNode.getLanguage()) == null) {
+        textNode.removeValueNode(valueNode);
+      }
+    }
+  }
+
   /**
    * Creates a <code>SAXBuilder</code> to build a JDOM tree using SAX.
    * @return a <code>SAXBuilder</code> to build a JDOM tree using SAX.
@@ -171,6 +361,12 @@ public class XMLDatabase implements IDatabase {
     additionalNamespaces = new ArrayList<>();
     textNodeList.clear();
     parseWarnings.clear();
+    compactDialect = false;
+    textNodeIds.clear();
+    unfrozenTextNodes.clear();
+    frozenOrder = null;
+    frozenTextNodes = PersistentHashMap.empty();
+    snapshot = null;
   }
 
   /**
@@ -190,12 +386,16 @@ public class XMLDatabase implements IDatabase {
     try {
       Element rootElement = document.getRootElement();
       List<Attribute> rootAttrs = rootElement.getAttributes();
+      compactDialect = COMPACT_ROOT_ELEMENT_NAME.equals(rootElement.getName());
+      String version = null;
 
       // extract the master language and put all other root element
       // attributes aside
       for (Attribute attribute : rootAttrs) {
         if (MASTER_LANGUAGE_ATTRIBUTE_NAME.equals(attribute.getName())) {
           masterLanguage = attribute.getValue();
+        } else if (compactDialect && VERSION_ATTRIBUTE_NAME.equals(attribute.getName())) {
+          version = attribute.getValue();
         } else {
           additionalRootAttrs.add(attribute);
         }
@@ -210,6 +410,14 @@ public class XMLDatabase implements IDatabase {
         throw new ParseException("Master language missing.", 0);
       }
 
+      if (compactDialect) {
+        if (!COMPACT_VERSION.equals(version)) {
+          throw new ParseException("Unsupported version of the compact dialect: " + version, 0);
+        }
+        internalizeCompactTexts(rootElement, keyMap);
+        return;
+      }
+
       List<Element> textList = rootElement.getChildren(TEXT_ELEMENT_NAME);
 
       // the validation in here is kind of unnecessary when the xsd is used for validation.
@@ -255,6 +463,99 @@ public class XMLDatabase implements IDatabase {
     }
   }
 
+  /**
+   * Internalizes the <code>t</code> elements of the compact dialect. The
+   * key and the context are attributes, as are the value and the status
+   * position of each language, e.g. <code>v.de</code> and
+   * <code>s.de</code>. A missing context is empty, a missing status is
+   * {@link Status#INITIAL}.
+   */
+  private void internalizeCompactTexts(Element rootElement, Map<String, String> keyMap) throws ParseException {
+    for (Element textElement : rootElement.getChildren(COMPACT_TEXT_ELEMENT_NAME)) {
+      String key = textElement.getAttributeValue(COMPACT_KEY_ATTRIBUTE_NAME);
+      if (key == null) {
+        throw new ParseException("No key found for text.");
+      }
+
+      if (keyMap.containsKey(key)) {
+        parseWarnings.add(new ParseWarning("Duplicate key: " + key, 0));
+      } else {
+        keyMap.put(key, "");
+      }
+
+      ITextNode textNode = new XMLTextNode(key, textElement.getAttributeValue(COMPACT_CONTEXT_ATTRIBUTE_NAME, ""));
+      addTextNode(textNode);
+
+      for (Attribute attribute : textElement.getAttributes()) {
+        String name = attribute.getName();
+        if (name.startsWith(COMPACT_VALUE_ATTRIBUTE_PREFIX)) {
+          String language = name.substring(COMPACT_VALUE_ATTRIBUTE_PREFIX.length());
+          String statusPosition = textElement.getAttributeValue(COMPACT_STATUS_ATTRIBUTE_PREFIX + language);
+          Status status = statusPosition == null ? Status.INITIAL : parseStatusPosition(statusPosition);
+          if (status == null) {
+            throw new ParseException("Invalid status for key \"" + key + "\": " + statusPosition);
+          }
+          textNode.addValueNode(new XMLValueNode(language, status, attribute.getValue()));
+        } else if (name.startsWith(COMPACT_STATUS_ATTRIBUTE_PREFIX)) {
+          String language = name.substring(COMPACT_STATUS_ATTRIBUTE_PREFIX.length());
+          if (textElement.getAttribute(COMPACT_VALUE_ATTRIBUTE_PREFIX + language) == null) {
+            throw new ParseException("Status without value for key \"" + key + "\": " + language);
+          }
+        } else if (!COMPACT_KEY_ATTRIBUTE_NAME.equals(name) && !COMPACT_CONTEXT_ATTRIBUTE_NAME.equals(name)) {
+          throw new ParseException("Invalid attribute for key \"" + key + "\": " + name);
+        }
+      }
+    }
+  }
+
+  private static Status parseStatusPosition(String position) {
+    try {
+      return Status.valueOf(Integer.valueOf(position));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns whether this database has been built from a document in the
+   * compact dialect, see {@link #writeCompactXML(OutputStream, String, String, String)}.
+   *
+   * @return true if the document was in the compact dialect
+   */
+  public boolean isCompactDialect() {
+    return compactDialect;
+  }
+
+  /**
+   * Sets the dialect written by
+   * {@link #write(OutputStream, String, String, String)}, e.g. for a
+   * database copied from one in the compact dialect. Building the
+   * database sets the dialect of the document.
+   *
+   * @param compactDialect true for the compact dialect
+   */
+  public void setCompactDialect(boolean compactDialect) {
+    this.compactDialect = compactDialect;
+  }
+
+  /**
+   * Creates the pretty format of the written XML code, also used for
+   * other XML files of a trema database. Like all pretty formats, it
+   * trims leading and trailing whitespace of the text content, e.g. of
+   * values and contexts.
+   * @param encoding the encoding to use
+   * @param indent the indent
+   * @param lineSeparator the line separator
+   * @return the format
+   */
+  public static Format createFormat(String encoding, String indent, String lineSeparator) {
+    Format format = Format.getPrettyFormat();
+    format.setEncoding(encoding);
+    format.setIndent(indent);
+    format.setLineSeparator(lineSeparator);
+    return format;
+  }
+
   /**
    * Serializes the database to the output stream.
    *
@@ -266,12 +567,7 @@ public class XMLDatabase implements IDatabase {
    */
   public void writeXML(OutputStream outputStream, String encoding, String indent, String lineSeparator)
   throws IOException {
-    XMLOutputter outputter = new XMLOutputter();
-    Format format = Format.getPrettyFormat();
-    format.setEncoding(encoding);
-    format.setIndent(indent);
-    format.setLineSeparator(lineSeparator);
-    outputter.setFormat(format);
+    XMLOutputter outputter = new XMLOutputter(createFormat(encoding, indent, lineSeparator));
     outputter.output(getDocument(), outputStream);
   }
 
@@ -286,27 +582,93 @@ public class XMLDatabase implements IDatabase {
    */
   public void writeXML(StringWriter stringWriter, String encoding, String indent, String lineSeparator)
   throws IOException {
-    XMLOutputter outputter = new XMLOutputter();
-    Format format = Format.getPrettyFormat();
-    format.setEncoding(encoding);
-    format.setIndent(indent);
-    format.setLineSeparator(lineSeparator);
-    outputter.setFormat(format);
+    XMLOutputter outputter = new XMLOutputter(createFormat(encoding, indent, lineSeparator));
     outputter.output(getDocument(), stringWriter);
   }
 
   /**
-   * Creates a <code>Document</code> object for the current state of this xml database.
+   * Serializes the database to the output stream in the dialect it has
+   * been built from, see {@link #isCompactDialect()}, so that saving a
+   * database keeps the dialect of its file.
+   *
+   * @param outputStream the output
+   * @param encoding the encoding to use
+   * @param indent the indent
+   * @param lineSeparator the lineSeparator
+   * @throws IOException in case the xml could not be written
+   */
+  public void write(OutputStream outputStream, String encoding, String indent, String lineSeparator)
+  throws IOException {
+    if (compactDialect) {
+      writeCompactXML(outputStream, encoding, indent, lineSeparator);
+    } else {
+      writeXML(outputStream, encoding, indent, lineSeparator);
+    }
+  }
+
+  /**
+   * Serializes the database to the output stream in the compact dialect,
+   * which stores each text node as a single <code>t</code> element with
+   * attributes, e.g.
+   * <pre>
+   * &lt;trema-compact version="1" masterLang="de"&gt;
+   *   &lt;t k="key" c="context" v.de="Wert" s.de="1" v.fr="valeur" /&gt;
+   * &lt;/trema-compact&gt;
+   * </pre>
+   * The status is stored by its position and omitted if initial, an
+   * empty context is omitted. The dialect is defined by
+   * <code>trema-compact-1.xsd</code>, the <code>build</code> methods
+   * detect it automatically.
+   *
+   * @param outputStream the output
+   * @param encoding the encoding to use
+   * @param indent the indent
+   * @param lineSeparator the lineSeparator
+   * @throws IOException in case the xml could not be written
+   */
+  public void writeCompactXML(OutputStream outputStream, String encoding, String indent, String lineSeparator)
+  throws IOException {
+    XMLOutputter outputter = new XMLOutputter(createFormat(encoding, indent, lineSeparator));
+    outputter.output(getCompactDocument(), outputStream);
+  }
+
+  /**
+   * Creates a <code>Document</code> object in the compact dialect for the
+   * current state of this xml database.
    *
    * @return a <code>Document</code> object.
    */
-  private Document getDocument() {
+  private Document getCompactDocument() {
     Document document = new Document();
-    Comment comment = new Comment(" generated on " + new Date() + " ");
-    document.addContent(comment);
+    document.addContent(new Comment(" generated on " + new Date() + " "));
 
-    Element rootElement = new Element(ROOT_ELEMENT_NAME);
+    Element rootElement = new Element(COMPACT_ROOT_ELEMENT_NAME);
+    rootElement.setAttribute(VERSION_ATTRIBUTE_NAME, COMPACT_VERSION);
     rootElement.setAttribute(MASTER_LANGUAGE_ATTRIBUTE_NAME, getMasterLanguage());
+    if (compactDialect) {
+      // the additional attributes of the other dialect may refer to its schema
+      addAdditionalRootAttributes(rootElement);
+    }
+    for (ITextNode textNode : textNodeList) {
+      Element textElement = new Element(COMPACT_TEXT_ELEMENT_NAME);
+      textElement.setAttribute(COMPACT_KEY_ATTRIBUTE_NAME, textNode.getKey());
+      if (!textNode.getContext().isEmpty()) {
+        textElement.setAttribute(COMPACT_CONTEXT_ATTRIBUTE_NAME, textNode.getContext());
+      }
+      for (IValueNode valueNode : textNode.getValueNodes()) {
+        textElement.setAttribute(COMPACT_VALUE_ATTRIBUTE_PREFIX + valueNode.getLanguage(), valueNode.getValue());
+        if (!Status.INITIAL.equals(valueNode.getStatus())) {
+          textElement.setAttribute(COMPACT_STATUS_ATTRIBUTE_PREFIX + valueNode.getLanguage(),
+                                   String.valueOf(valueNode.getStatus().getPosition()));
+        }
+      }
+      rootElement.addContent(textElement);
+    }
+    document.setRootElement(rootElement);
+    return document;
+  }
+
+  private void addAdditionalRootAttributes(Element rootElement) {
     for (Attribute attribute : additionalRootAttrs) {
       // need to set the attribute like a new attribute,
       // as the original one stored the parent element and cannot be set to a new parent
@@ -316,31 +678,75 @@ public class XMLDatabase implements IDatabase {
     for (Namespace namespace : additionalNamespaces) {
       rootElement.addNamespaceDeclaration(namespace);
     }
+  }
+
+  /**
+   * Creates a <code>Document</code> object for the current state of this xml database.
+   *
+   * @return a <code>Document</code> object.
+   */
+  private Document getDocument() {
+    Document document = new Document();
+    Comment comment = new Comment(" generated on " + new Date() + " ");
+    document.addContent(comment);
+
+    Element rootElement = new Element(ROOT_ELEMENT_NAME);
+    rootElement.setAttribute(MASTER_LANGUAGE_ATTRIBUTE_NAME, getMasterLanguage());
+    if (!compactDialect) {
+      // the additional attributes of the compact dialect may refer to its schema
+      addAdditionalRootAttributes(rootElement);
+    }
 
     for (ITextNode textNode : textNodeList) {
-      String key = textNode.getKey();
-      Element textElement = new Element(TEXT_ELEMENT_NAME);
-      textElement.setAttribute(KEY_ATTRIBUTE_NAME, key);
-
-      String context = textNode.getContext();
-      Element contextElement = new Element(CONTEXT_ELEMENT_NAME);
-      contextElement.setText(context);
-      textElement.addContent(contextElement);
-
-      IValueNode[] valueNodes = textNode.getValueNodes();
-      for (IValueNode valueNode : valueNodes) {
-        Element valueElement = new Element(VALUE_ELEMENT_NAME);
-        valueElement.setAttribute(LANGUAGE_ATTRIBUTE_NAME, valueNode.getLanguage());
-        valueElement.setAttribute(STATUS_ATTRIBUTE_NAME, valueNode.getStatus().getName());
-        valueElement.setText(valueNode.getValue());
-        textElement.addContent(valueElement);
-      }
-      rootElement.addContent(textElement);
+      rootElement.addContent(createTextElement(textNode));
     }
     document.setRootElement(rootElement);
     return document;
   }
 
+  private static Element createTextElement(ITextNode textNode) {
+    String key = textNode.getKey();
+    Element textElement = new Element(TEXT_ELEMENT_NAME);
+    textElement.setAttribute(KEY_ATTRIBUTE_NAME, key);
+
+    String context = textNode.getContext();
+    Element contextElement = new Element(CONTEXT_ELEMENT_NAME);
+    contextElement.setText(context);
+    textElement.addContent(contextElement);
+
+    IValueNode[] valueNodes = textNode.getValueNodes();
+    for (IValueNode valueNode : valueNodes) {
+      Element valueElement = new Element(VALUE_ELEMENT_NAME);
+      valueElement.setAttribute(LANGUAGE_ATTRIBUTE_NAME, valueNode.getLanguage());
+      valueElement.setAttribute(STATUS_ATTRIBUTE_NAME, valueNode.getStatus().getName());
+      valueElement.setText(valueNode.getValue());
+      textElement.addContent(valueElement);
+    }
+    return textElement;
+  }
+
+  /**
+   * Gets the XML code of a single text node exactly as the
+   * <code>writeXML</code> methods write it below the root element, but
+   * without the indent before the start tag.
+   *
+   * @param textNode the text node
+   * @param encoding the encoding to be used
+   * @param indent the indent string to be used
+   * @param lineSeparator the line separator to be used
+   * @return the XML code of the <code>text</code> element
+   */
+  public static String getTextNodeXML(ITextNode textNode, String encoding, String indent, String lineSeparator) {
+    XMLOutputter outputter = new XMLOutputter(createFormat(encoding, indent, lineSeparator));
+    // format the element within a root element to get the indents of the whole document
+    Element rootElement = new Element(ROOT_ELEMENT_NAME);
+    rootElement.addContent(createTextElement(textNode));
+    String xml = outputter.outputString(rootElement);
+    int start = xml.indexOf('>') + 1 + lineSeparator.length() + indent.length();
+    int end = xml.lastIndexOf(lineSeparator + "</" + ROOT_ELEMENT_NAME + ">");
+    return xml.substring(start, end);
+  }
+
   /**
    * Returns a flag indicating warnings during parse.
    *
@@ -407,7 +813,7 @@ public class XMLDatabase implements IDatabase {
   /** {@inheritDoc} */
   @Override
   public void addTextNode(ITextNode textNode) {
-    textNodeList.add(textNode);
+    insertTextNode(textNodeList.size(), textNode);
     textNode.setParent(this);
     fireTextNodeAdded(textNode);
   }
@@ -415,7 +821,7 @@ public class XMLDatabase implements IDatabase {
   /** {@inheritDoc} */
   @Override
   public void addTextNode(int position, ITextNode textNode) {
-    textNodeList.add(position, textNode);
+    insertTextNode(position, textNode);
     textNode.setParent(this);
     fireTextNodeAdded(textNode);
   }
@@ -426,7 +832,10 @@ public class XMLDatabase implements IDatabase {
     if (textNodes.length > 0) {
       int index = indexOf(textNodes[0]);
       for (ITextNode textNode : textNodes) {
-        textNodeList.remove(textNode);
+        int position = textNodeList.indexOf(textNode);
+        if (position >= 0) {
+          removeTextNodeAt(position);
+        }
       }
       fireTextNodesRemoved(textNodes, index);
     }
@@ -456,8 +865,8 @@ public class XMLDatabase implements IDatabase {
 
       if (index > 0) {
         ITextNode previousTextNode = textNodeList.get(index - 1);
-        textNodeList.set(index, previousTextNode);
-        textNodeList.set(index - 1, textNode);
+        setTextNodeAt(index, previousTextNode);
+        setTextNodeAt(index - 1, textNode);
       }
     }
     fireTextNodesMoved(textNodes);
@@ -471,13 +880,60 @@ public class XMLDatabase implements IDatabase {
 
       if (index < textNodeList.size() - 1) {
         ITextNode nextTextNode = textNodeList.get(index + 1);
-        textNodeList.set(index, nextTextNode);
-        textNodeList.set(index + 1, textNodes[i]);
+        setTextNodeAt(index, nextTextNode);
+        setTextNodeAt(index + 1, textNodes[i]);
       }
     }
     fireTextNodesMoved(textNodes);
   }
 
+  private void insertTextNode(int position, ITextNode textNode) {
+    textNodeList.add(position, textNode);
+    if (frozenOrder != null) {
+      frozenOrder = frozenOrder.insert(position, getTextNodeId(textNode));
+    }
+  }
+
+  private void removeTextNodeAt(int position) {
+    ITextNode textNode = textNodeList.remove(position);
+    discardFrozenTextNode(textNode);
+    if (frozenOrder != null) {
+      frozenOrder = frozenOrder.remove(position);
+    }
+  }
+
+  private void setTextNodeAt(int position, ITextNode textNode) {
+    textNodeList.set(position, textNode);
+    if (frozenOrder != null) {
+      frozenOrder = frozenOrder.set(position, getTextNodeId(textNode));
+    }
+  }
+
+  /**
+   * Gets the id of a text node in the snapshot state, assigning one to a
+   * text node which has none yet. Such a text node is frozen on the next
+   * snapshot.
+   * @param textNode the text node
+   * @return the id
+   */
+  private int getTextNodeId(ITextNode textNode) {
+    Integer id = textNodeIds.get(textNode);
+    if (id == null) {
+      id = nextTextNodeId++;
+      textNodeIds.put(textNode, id);
+      unfrozenTextNodes.add(textNode);
+    }
+    return id;
+  }
+
+  private void discardFrozenTextNode(ITextNode textNode) {
+    Integer id = textNodeIds.remove(textNode);
+    if (id != null) {
+      frozenTextNodes = frozenTextNodes.remove(id);
+      unfrozenTextNodes.remove(textNode);
+    }
+  }
+
   /** {@inheritDoc} */
   @Override
   public int indexOf(ITextNode textNode) {
@@ -520,13 +976,125 @@ public class XMLDatabase implements IDatabase {
     listeners.remove(listener);
   }
 
+  /**
+   * Sets a dispatcher to deliver the events to the listeners
+   * asynchronously. By default, the listeners are notified on the
+   * thread modifying the database before the modifying method returns.
+   * @param eventDispatcher the dispatcher or <code>null</code> to notify
+   * the listeners synchronously
+   */
+  public void setEventDispatcher(AsyncEventDispatcher eventDispatcher) {
+    this.eventDispatcher = eventDispatcher;
+  }
+
+  /**
+   * Waits until all events have been delivered to the listeners. Returns
+   * immediately if the events are delivered synchronously.
+   * @throws InterruptedException if interrupted while waiting
+   * @see #setEventDispatcher(AsyncEventDispatcher)
+   */
+  public void flushEvents() throws InterruptedException {
+    AsyncEventDispatcher dispatcher = eventDispatcher;
+    if (dispatcher != null) {
+      dispatcher.flush();
+    }
+  }
+
+  /**
+   * Takes an immutable snapshot of this database. The snapshot can be
+   * read by other threads without locking while this database keeps
+   * being modified, e.g. to export it in the background.
+   * <p>
+   * Taking a snapshot does not copy the whole database: if the database
+   * has not been modified since the last snapshot, the same snapshot is
+   * returned. Otherwise only the text nodes modified in the meantime are
+   * copied. The order and the copies of the text nodes are kept in
+   * persistent structures which share everything else with the previous
+   * snapshots, so a snapshot after k modifications takes O(k log n).
+   * Only the first snapshot after building or reloading the database
+   * takes linear time.
+   * <p>
+   * Like all other methods of this class, this method has to be called
+   * by the thread modifying the database.
+   * @return the snapshot
+   */
+  public DatabaseSnapshot snapshot() {
+    if (snapshot == null) {
+      if (frozenOrder == null) {
+        PersistentList order = PersistentList.empty();
+        for (int i = 0; i < textNodeList.size(); i++) {
+          order = order.insert(i, getTextNodeId(textNodeList.get(i)));
+        }
+        frozenOrder = order;
+      }
+      for (ITextNode textNode : unfrozenTextNodes) {
+        frozenTextNodes = frozenTextNodes.put(textNodeIds.get(textNode), DatabaseSnapshot.freeze(textNode));
+      }
+      unfrozenTextNodes.clear();
+      snapshot = new DatabaseSnapshot(masterLanguage, frozenOrder, frozenTextNodes);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Discards the current snapshot and marks a modified text node to be
+   * frozen again on the next snapshot. Called synchronously by the fire methods, even if the
+   * events are delivered asynchronously.
+   * @param textNode the modified text node or <code>null</code> if only
+   * the database itself has been modified
+   */
+  private void invalidateSnapshot(ITextNode textNode) {
+    if (textNode != null && textNodeIds.containsKey(textNode)) {
+      unfrozenTextNodes.add(textNode);
+    }
+    snapshot = null;
+  }
+
+  /**
+   * Delivers an event to the listeners, either immediately or through
+   * the event dispatcher.
+   * @param event the delivery of the event
+   */
+  private void dispatch(Runnable event) {
+    AsyncEventDispatcher dispatcher = eventDispatcher;
+    if (listeners.isEmpty()) {
+      // nobody to notify, e.g. while building the database
+      return;
+    }
+    if (dispatcher != null) {
+      dispatcher.dispatch(event);
+    } else {
+      event.run();
+    }
+  }
+
+  /**
+   * Checks whether a listener is to be notified of an individual event.
+   * During a batch, batch listeners are only notified at the end.
+   * @param listener the listener
+   * @param inBatch whether the event occurred during a batch
+   * @return true if the listener is to be notified
+   */
+  private static boolean isNotified(IDatabaseListener listener, boolean inBatch) {
+    return !inBatch || !(listener instanceof IDatabaseBatchListener);
+  }
+
   /**
    * Notifies the registered listeners of a master language change.
    */
   protected void fireMasterLanguageChanged() {
-    for (IDatabaseListener iDatabaseListener : listeners) {
-      iDatabaseListener.masterLanguageChanged(this);
+    invalidateSnapshot(null);
+    boolean inBatch = batchDepth > 0;
+    if (inBatch) {
+      batchChange.recordMasterLanguageChanged();
     }
+    dispatch(() -> {
+      for (IDatabaseListener iDatabaseListener : listeners) {
+        if (isNotified(iDatabaseListener, inBatch)) {
+          iDatabaseListener.masterLanguageChanged(this);
+        }
+      }
+    });
   }
 
   /**
@@ -535,9 +1103,18 @@ public class XMLDatabase implements IDatabase {
    * @param textNode the TextNode that has changed
    */
   protected void fireTextNodeChanged(ITextNode textNode) {
-    for (IDatabaseListener iDatabaseListener : listeners) {
-      iDatabaseListener.textNodeChanged(this, textNode);
+    invalidateSnapshot(textNode);
+    boolean inBatch = batchDepth > 0;
+    if (inBatch) {
+      batchChange.recordTextNodeChanged(textNode);
     }
+    dispatch(() -> {
+      for (IDatabaseListener iDatabaseListener : listeners) {
+        if (isNotified(iDatabaseListener, inBatch)) {
+          iDatabaseListener.textNodeChanged(this, textNode);
+        }
+      }
+    });
   }
 
   /**
@@ -545,9 +1122,18 @@ public class XMLDatabase implements IDatabase {
    * @param textNode the TextNode that has been added
    */
   protected void fireTextNodeAdded(ITextNode textNode) {
-    for (IDatabaseListener iDatabaseListener : listeners) {
-      iDatabaseListener.textNodeAdded(this, textNode);
+    invalidateSnapshot(textNode);
+    boolean inBatch = batchDepth > 0;
+    if (inBatch) {
+      batchChange.recordTextNodeAdded(textNode);
     }
+    dispatch(() -> {
+      for (IDatabaseListener iDatabaseListener : listeners) {
+        if (isNotified(iDatabaseListener, inBatch)) {
+          iDatabaseListener.textNodeAdded(this, textNode);
+        }
+      }
+    });
   }
 
   /**
@@ -558,9 +1144,20 @@ public class XMLDatabase implements IDatabase {
    * removed
    */
   protected void fireTextNodesRemoved(ITextNode[] textNodes, int index) {
-    for (IDatabaseListener iDatabaseListener : listeners) {
-      iDatabaseListener.textNodesRemoved(this, textNodes, index);
+    for (ITextNode textNode : textNodes) {
+      invalidateSnapshot(textNode);
     }
+    boolean inBatch = batchDepth > 0;
+    if (inBatch) {
+      batchChange.recordTextNodesRemoved(textNodes, index);
+    }
+    dispatch(() -> {
+      for (IDatabaseListener iDatabaseListener : listeners) {
+        if (isNotified(iDatabaseListener, inBatch)) {
+          iDatabaseListener.textNodesRemoved(this, textNodes, index);
+        }
+      }
+    });
   }
 
   /**
@@ -570,20 +1167,89 @@ public class XMLDatabase implements IDatabase {
    * list shall only contains <code>ITextNode</code> members.
    */
   protected void fireTextNodesMoved(ITextNode[] textNodes) {
-    for (IDatabaseListener iDatabaseListener : listeners) {
-      iDatabaseListener.textNodesMoved(this, textNodes);
+    invalidateSnapshot(null);
+    boolean inBatch = batchDepth > 0;
+    if (inBatch) {
+      batchChange.recordTextNodesMoved(textNodes);
     }
+    dispatch(() -> {
+      for (IDatabaseListener iDatabaseListener : listeners) {
+        if (isNotified(iDatabaseListener, inBatch)) {
+          iDatabaseListener.textNodesMoved(this, textNodes);
+        }
+      }
+    });
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The modifications of the batch are recorded in a
+   * {@link DatabaseChange}. Other listeners than batch listeners are
+   * notified of the structural modifications (text nodes and value nodes
+   * added, removed or moved) immediately.
+   */
+  @Override
+  public void beginBatch() {
+    if (batchDepth == 0) {
+      batchChange = new DatabaseChange();
+    }
+    batchDepth++;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void commitBatch() {
+    if (batchDepth == 0) {
+      throw new IllegalStateException("No batch has been started.");
+    }
+    batchDepth--;
+    if (batchDepth == 0) {
+      DatabaseChange change = batchChange;
+      batchChange = null;
+      if (!change.isEmpty()) {
+        change.computeAffectedRange(textNodeList);
+        fireBatchCommitted(change);
+      }
+    }
+  }
+
+  /**
+   * Notifies the registered listeners of a committed batch: batch
+   * listeners with the record of the batch, the other listeners of the
+   * changed value nodes.
+   * @param change the record of the batch
+   */
+  protected void fireBatchCommitted(IDatabaseChange change) {
+    IValueNode[] valueNodes = change.getChangedValueNodes();
+    dispatch(() -> {
+      for (IDatabaseListener iDatabaseListener : listeners) {
+        if (iDatabaseListener instanceof IDatabaseBatchListener) {
+          ((IDatabaseBatchListener) iDatabaseListener).batchCommitted(this, change);
+        } else if (valueNodes.length > 0) {
+          iDatabaseListener.valueNodesChanged(valueNodes);
+        }
+      }
+    });
   }
 
   /**
    * Notifies the registered listeners of a change in value node (value or status).
+   * Within a batch, the notification is deferred until the batch is committed.
    * @param valueNode the value node that has changed
    */
   @Override
   public void fireValueNodeChanged(IValueNode valueNode) {
-    for (IDatabaseListener iDatabaseListener : listeners) {
-      iDatabaseListener.valueNodeChanged(valueNode);
+    invalidateSnapshot(valueNode.getParent());
+    if (batchDepth > 0) {
+      batchChange.recordValueNodeChanged(valueNode);
+      return;
     }
+    dispatch(() -> {
+      for (IDatabaseListener iDatabaseListener : listeners) {
+        iDatabaseListener.valueNodeChanged(valueNode);
+      }
+    });
   }
 
   /**
@@ -593,9 +1259,18 @@ public class XMLDatabase implements IDatabase {
    */
   @Override
   public void fireValueNodeAdded(IValueNode valueNode) {
-    for (IDatabaseListener iDatabaseListener : listeners) {
-      iDatabaseListener.valueNodeAdded(valueNode);
+    invalidateSnapshot(valueNode.getParent());
+    boolean inBatch = batchDepth > 0;
+    if (inBatch) {
+      batchChange.recordValueNodeAdded(valueNode);
     }
+    dispatch(() -> {
+      for (IDatabaseListener iDatabaseListener : listeners) {
+        if (isNotified(iDatabaseListener, inBatch)) {
+          iDatabaseListener.valueNodeAdded(valueNode);
+        }
+      }
+    });
   }
 
   /**
@@ -605,9 +1280,18 @@ public class XMLDatabase implements IDatabase {
    */
   @Override
   public void fireValueNodeRemoved(IValueNode valueNode) {
-    for (IDatabaseListener iDatabaseListener : listeners) {
-      iDatabaseListener.valueNodeRemoved(valueNode);
+    invalidateSnapshot(valueNode.getParent());
+    boolean inBatch = batchDepth > 0;
+    if (inBatch) {
+      batchChange.recordValueNodeRemoved(valueNode);
     }
+    dispatch(() -> {
+      for (IDatabaseListener iDatabaseListener : listeners) {
+        if (isNotified(iDatabaseListener, inBatch)) {
+          iDatabaseListener.valueNodeRemoved(valueNode);
+        }
+      }
+    });
   }
 
   /**
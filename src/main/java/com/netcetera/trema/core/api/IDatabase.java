@@ -139,6 +139,34 @@ public interface IDatabase extends INode {
    */
   void removeListener(IDatabaseListener listener);
 
+  /**
+   * Starts a batch of modifications. Until the batch is committed, the
+   * changes of value nodes are collected instead of being notified one
+   * by one, and {@link IDatabaseBatchListener}s are not notified at all.
+   * Batches may be nested, the changes are notified when the outermost
+   * batch is committed.
+   * <p>
+   * The default implementation does nothing, so databases that do not
+   * support batches notify every modification immediately.
+   */
+  default void beginBatch() {
+  }
+
+  /**
+   * Commits a batch of modifications started by {@link #beginBatch()}.
+   * If this ends the outermost batch, the changed value nodes are
+   * notified with a single
+   * {@link IDatabaseListener#valueNodesChanged(IValueNode[])} event and
+   * the batch listeners receive a record of all modifications.
+   * <p>
+   * The default implementation does nothing, it does not track batches
+   * and therefore never throws.
+   * @throws IllegalStateException if no batch has been started, by the
+   * implementations supporting batches
+   */
+  default void commitBatch() {
+  }
+
   /**
    * Indicates that a value node has changed.
    * 
@@ -0,0 +1,22 @@
+package com.netcetera.trema.core.api;
+
+
+
+/**
+ * A database listener that is notified of the modifications of a batch
+ * at once. During a batch, a batch listener receives none of the
+ * individual events of {@link IDatabaseListener}. When the outermost
+ * batch is committed, it receives a single
+ * {@link #batchCommitted(IDatabase, IDatabaseChange)} event instead.
+ * Outside of batches, the individual events are received as usual.
+ */
+public interface IDatabaseBatchListener extends IDatabaseListener {
+
+  /**
+   * Handles the event of a committed batch of modifications.
+   * @param db the database that has been modified
+   * @param change the record of the modifications of the batch
+   */
+  void batchCommitted(IDatabase db, IDatabaseChange change);
+
+}
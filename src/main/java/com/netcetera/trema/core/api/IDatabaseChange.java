@@ -0,0 +1,81 @@
+package com.netcetera.trema.core.api;
+
+
+
+/**
+ * A compact record of the modifications of a database during a batch,
+ * see {@link IDatabase#beginBatch()}. Each node is recorded once, no
+ * matter how often it has been modified, and nodes that were added and
+ * removed again within the batch are not recorded at all.
+ */
+public interface IDatabaseChange {
+
+  /**
+   * Checks whether the master language has been changed.
+   * @return true if the master language has been changed.
+   */
+  boolean isMasterLanguageChanged();
+
+  /**
+   * Checks whether text nodes have been moved.
+   * @return true if text nodes have been moved.
+   */
+  boolean isOrderChanged();
+
+  /**
+   * Gets the text nodes that have been added.
+   * @return the added text nodes.
+   */
+  ITextNode[] getAddedTextNodes();
+
+  /**
+   * Gets the text nodes that have been removed.
+   * @return the removed text nodes.
+   */
+  ITextNode[] getRemovedTextNodes();
+
+  /**
+   * Gets the text nodes whose key or context has been changed. Added
+   * text nodes are not included.
+   * @return the changed text nodes.
+   */
+  ITextNode[] getChangedTextNodes();
+
+  /**
+   * Gets the value nodes that have been added to existing text nodes.
+   * @return the added value nodes.
+   */
+  IValueNode[] getAddedValueNodes();
+
+  /**
+   * Gets the value nodes that have been removed from text nodes.
+   * @return the removed value nodes.
+   */
+  IValueNode[] getRemovedValueNodes();
+
+  /**
+   * Gets the value nodes whose value or status has been changed. Added
+   * value nodes are not included.
+   * @return the changed value nodes.
+   */
+  IValueNode[] getChangedValueNodes();
+
+  /**
+   * Gets the position of the first text node affected by the batch. The
+   * range from the first to the last affected position contains all
+   * added, changed and moved text nodes as well as the positions at
+   * which text nodes have been removed.
+   * @return the first affected position or -1 if no text node has been
+   * affected.
+   */
+  int getFirstAffectedIndex();
+
+  /**
+   * Gets the position of the last text node affected by the batch, see
+   * {@link #getFirstAffectedIndex()}.
+   * @return the last affected position or -1 if no text node has been
+   * affected.
+   */
+  int getLastAffectedIndex();
+
+}
@@ -73,5 +73,25 @@ public interface IDatabaseListener {
    * @param valueNode the value node that has been removed
    */
   void valueNodeRemoved(IValueNode valueNode);
-  
+
+  /**
+   * Handles the event of changes in a number of value nodes at once.
+   * This event is fired instead of single
+   * {@link IDatabaseListener#valueNodeChanged(IValueNode)} events for
+   * value nodes changed during a batch of modifications, e.g. while
+   * applying the changes of an import. Each value node is reported
+   * once, no matter how often it has been changed.
+   * <p>
+   * The default implementation delegates to
+   * {@link IDatabaseListener#valueNodeChanged(IValueNode)} for each value
+   * node. Listeners that refresh a view should override it to refresh
+   * only once.
+   * @param valueNodes the value nodes that have been changed
+   */
+  default void valueNodesChanged(IValueNode[] valueNodes) {
+    for (IValueNode valueNode : valueNodes) {
+      valueNodeChanged(valueNode);
+    }
+  }
+
 }
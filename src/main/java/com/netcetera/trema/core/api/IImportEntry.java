@@ -0,0 +1,38 @@
+package com.netcetera.trema.core.api;
+
+import com.netcetera.trema.core.Status;
+
+
+
+/**
+ * Represents a single text of an <code>IImportSource</code>, i.e. a key
+ * together with its status, its value and possibly its master value.
+ */
+public interface IImportEntry {
+
+  /**
+   * Gets the key of this entry.
+   * @return the key of this entry.
+   */
+  String getKey();
+
+  /**
+   * Gets the status of this entry.
+   * @return the status of this entry.
+   */
+  Status getStatus();
+
+  /**
+   * Gets the master value of this entry.
+   * @return the master value or <code>null</code> if the import source
+   * has no master language.
+   */
+  String getMasterValue();
+
+  /**
+   * Gets the value of this entry.
+   * @return the value of this entry.
+   */
+  String getValue();
+
+}
@@ -1,5 +1,8 @@
 package com.netcetera.trema.core.api;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.netcetera.trema.core.Status;
 
 
@@ -79,5 +82,50 @@ public interface IImportSource {
    * @return the keys of the import source.
    */
   String[] getKeys();
+
+  /**
+   * Returns the entries of the import source in the order of their
+   * keys. Each entry provides the key, the status, the master value and
+   * the value at once, so iterating the entries avoids a lookup per key
+   * and attribute.
+   * <p>
+   * Implementations may produce the entries lazily while iterating
+   * rather than holding them in memory. The default implementation is
+   * based on {@link #getKeys()} and the lookup methods.
+   * @return the entries of the import source.
+   */
+  default Iterable<IImportEntry> getEntries() {
+    String[] keys = getKeys();
+    List<IImportEntry> entries = new ArrayList<>(keys.length);
+    for (String key : keys) {
+      entries.add(new IImportEntry() {
+
+        /** {@inheritDoc} */
+        @Override
+        public String getKey() {
+          return key;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public Status getStatus() {
+          return IImportSource.this.getStatus(key);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public String getMasterValue() {
+          return IImportSource.this.getMasterValue(key);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public String getValue() {
+          return IImportSource.this.getValue(key);
+        }
+      });
+    }
+    return entries;
+  }
   
 }
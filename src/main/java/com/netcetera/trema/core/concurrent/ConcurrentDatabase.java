@@ -0,0 +1,414 @@
+package com.netcetera.trema.core.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.netcetera.trema.core.api.IDatabase;
+import com.netcetera.trema.core.api.IDatabaseListener;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.api.IValueNode;
+
+
+
+/**
+ * A thread-safe database for applying edits of many threads at once.
+ * <p>
+ * The order and the keys of the text nodes are guarded by a read-write
+ * lock: adding, removing, moving and renaming text nodes are exclusive,
+ * all other reads run in parallel. Edits of contexts and value nodes
+ * only lock one of a fixed number of stripes, chosen by the text node,
+ * so edits of different text nodes rarely wait for each other. Values
+ * are read without locking.
+ * <p>
+ * The listeners are notified after the locks have been released, on the
+ * thread making the modification. They may therefore be notified
+ * concurrently and have to be thread-safe themselves. Text and value
+ * nodes of other implementations are copied when they are added.
+ */
+public class ConcurrentDatabase implements IDatabase {
+
+  private static final int DEFAULT_STRIPES = 64;
+
+  private final List<IDatabaseListener> listeners = new CopyOnWriteArrayList<>();
+  private final ReadWriteLock structureLock = new ReentrantReadWriteLock();
+  private final List<ConcurrentTextNode> textNodeList = new ArrayList<>();
+  // the text nodes by key, the keys in duplicateKeys have to be searched
+  private final Map<String, ConcurrentTextNode> keyIndex = new HashMap<>();
+  private final Set<String> duplicateKeys = new HashSet<>();
+  private final Object[] stripes;
+  private volatile String masterLanguage = null;
+
+  /**
+   * Creates an empty database with the default number of lock stripes.
+   */
+  public ConcurrentDatabase() {
+    this(DEFAULT_STRIPES);
+  }
+
+  /**
+   * Creates an empty database.
+   * @param stripes the number of lock stripes for the edits of the text
+   * nodes, rounded up to a power of two
+   * @throws IllegalArgumentException if the number is not positive
+   */
+  public ConcurrentDatabase(int stripes) {
+    if (stripes <= 0) {
+      throw new IllegalArgumentException("The number of stripes must be positive: " + stripes);
+    }
+    int count = Integer.highestOneBit(stripes);
+    this.stripes = new Object[count < stripes ? count << 1 : count];
+    for (int i = 0; i < this.stripes.length; i++) {
+      this.stripes[i] = new Object();
+    }
+  }
+
+  /**
+   * Gets the lock stripe of a text node. The stripe depends on the
+   * identity of the text node rather than its key, so renaming a text
+   * node does not change its lock.
+   * @param textNode the text node
+   * @return the lock object
+   */
+  Object getStripe(ConcurrentTextNode textNode) {
+    int hash = System.identityHashCode(textNode);
+    return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getMasterLanguage() {
+    return masterLanguage;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void setMasterLanguage(String masterLanguage) {
+    this.masterLanguage = masterLanguage;
+    for (IDatabaseListener listener : listeners) {
+      listener.masterLanguageChanged(this);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int getSize() {
+    structureLock.readLock().lock();
+    try {
+      return textNodeList.size();
+    } finally {
+      structureLock.readLock().unlock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ITextNode[] getTextNodes() {
+    structureLock.readLock().lock();
+    try {
+      return textNodeList.toArray(new ITextNode[textNodeList.size()]);
+    } finally {
+      structureLock.readLock().unlock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void addTextNode(ITextNode textNode) {
+    ConcurrentTextNode node = ConcurrentTextNode.of(textNode, this);
+    structureLock.writeLock().lock();
+    try {
+      textNodeList.add(node);
+      indexKey(node);
+    } finally {
+      structureLock.writeLock().unlock();
+    }
+    fireTextNodeAdded(node);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void addTextNode(int position, ITextNode textNode) {
+    ConcurrentTextNode node = ConcurrentTextNode.of(textNode, this);
+    structureLock.writeLock().lock();
+    try {
+      textNodeList.add(position, node);
+      indexKey(node);
+    } catch (IndexOutOfBoundsException e) {
+      // release the claimed text node
+      node.setParent(null);
+      throw e;
+    } finally {
+      structureLock.writeLock().unlock();
+    }
+    fireTextNodeAdded(node);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void removeTextNodes(ITextNode[] textNodes) {
+    if (textNodes.length > 0) {
+      int index;
+      structureLock.writeLock().lock();
+      try {
+        index = textNodeList.indexOf(textNodes[0]);
+        for (ITextNode textNode : textNodes) {
+          if (textNodeList.remove(textNode)) {
+            unindex((ConcurrentTextNode) textNode);
+          }
+        }
+      } finally {
+        structureLock.writeLock().unlock();
+      }
+      fireTextNodesRemoved(textNodes, index);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void removeTextNode(String key) {
+    ITextNode textNode = getTextNode(key);
+    if (textNode != null) {
+      removeTextNodes(new ITextNode[] {textNode});
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The text node is moved atomically.
+   */
+  @Override
+  public void moveTextNode(ITextNode textNode, int targetPosition) {
+    int index;
+    structureLock.writeLock().lock();
+    try {
+      index = textNodeList.indexOf(textNode);
+      if (index < 0) {
+        return;
+      }
+      textNodeList.add(targetPosition, textNodeList.remove(index));
+    } finally {
+      structureLock.writeLock().unlock();
+    }
+    fireTextNodesRemoved(new ITextNode[] {textNode}, index);
+    fireTextNodeAdded(textNode);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void moveUpTextNodes(ITextNode[] textNodes) {
+    structureLock.writeLock().lock();
+    try {
+      for (ITextNode textNode : textNodes) {
+        int index = textNodeList.indexOf(textNode);
+        if (index > 0) {
+          textNodeList.set(index, textNodeList.get(index - 1));
+          textNodeList.set(index - 1, (ConcurrentTextNode) textNode);
+        }
+      }
+    } finally {
+      structureLock.writeLock().unlock();
+    }
+    fireTextNodesMoved(textNodes);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void moveDownTextNodes(ITextNode[] textNodes) {
+    structureLock.writeLock().lock();
+    try {
+      for (int i = textNodes.length - 1; i >= 0; i--) {
+        int index = textNodeList.indexOf(textNodes[i]);
+        if (index >= 0 && index < textNodeList.size() - 1) {
+          textNodeList.set(index, textNodeList.get(index + 1));
+          textNodeList.set(index + 1, (ConcurrentTextNode) textNodes[i]);
+        }
+      }
+    } finally {
+      structureLock.writeLock().unlock();
+    }
+    fireTextNodesMoved(textNodes);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int indexOf(ITextNode textNode) {
+    structureLock.readLock().lock();
+    try {
+      return textNodeList.indexOf(textNode);
+    } finally {
+      structureLock.readLock().unlock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ITextNode getTextNode(int index) {
+    structureLock.readLock().lock();
+    try {
+      if (index < 0 || index >= textNodeList.size()) {
+        return null;
+      }
+      return textNodeList.get(index);
+    } finally {
+      structureLock.readLock().unlock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ITextNode getTextNode(String key) {
+    structureLock.readLock().lock();
+    try {
+      if (!duplicateKeys.contains(key)) {
+        return keyIndex.get(key);
+      }
+      for (ConcurrentTextNode textNode : textNodeList) {
+        if (key.equals(textNode.getKey())) {
+          return textNode;
+        }
+      }
+      return null;
+    } finally {
+      structureLock.readLock().unlock();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean existsTextNode(String key) {
+    return getTextNode(key) != null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Collection<String> getKeysAsCollection() {
+    structureLock.readLock().lock();
+    try {
+      List<String> keyList = new ArrayList<>(textNodeList.size());
+      for (ConcurrentTextNode textNode : textNodeList) {
+        keyList.add(textNode.getKey());
+      }
+      return keyList;
+    } finally {
+      structureLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Changes the key of a text node of this database under the structure
+   * lock.
+   * @param textNode the text node
+   * @param key the new key
+   * @return true if the key has changed
+   */
+  boolean changeKey(ConcurrentTextNode textNode, String key) {
+    structureLock.writeLock().lock();
+    try {
+      if (key.equals(textNode.getKey())) {
+        return false;
+      }
+      if (textNode.getParent() == this) {
+        keyIndex.remove(textNode.getKey(), textNode);
+        textNode.internalSetKey(key);
+        indexKey(textNode);
+      } else {
+        textNode.internalSetKey(key);
+      }
+      return true;
+    } finally {
+      structureLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Adds a text node to the key index. To be called under the write
+   * lock.
+   */
+  private void indexKey(ConcurrentTextNode textNode) {
+    String key = textNode.getKey();
+    if (keyIndex.putIfAbsent(key, textNode) != null) {
+      duplicateKeys.add(key);
+    }
+  }
+
+  /**
+   * Removes a removed text node from the key index and clears its
+   * parent. To be called under the write lock.
+   */
+  private void unindex(ConcurrentTextNode textNode) {
+    keyIndex.remove(textNode.getKey(), textNode);
+    textNode.setParent(null);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void addListener(IDatabaseListener listener) {
+    if (!listeners.contains(listener)) {
+      listeners.add(listener);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void removeListener(IDatabaseListener listener) {
+    listeners.remove(listener);
+  }
+
+  void fireTextNodeChanged(ITextNode textNode) {
+    for (IDatabaseListener listener : listeners) {
+      listener.textNodeChanged(this, textNode);
+    }
+  }
+
+  private void fireTextNodeAdded(ITextNode textNode) {
+    for (IDatabaseListener listener : listeners) {
+      listener.textNodeAdded(this, textNode);
+    }
+  }
+
+  private void fireTextNodesRemoved(ITextNode[] textNodes, int index) {
+    for (IDatabaseListener listener : listeners) {
+      listener.textNodesRemoved(this, textNodes, index);
+    }
+  }
+
+  private void fireTextNodesMoved(ITextNode[] textNodes) {
+    for (IDatabaseListener listener : listeners) {
+      listener.textNodesMoved(this, textNodes);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void fireValueNodeChanged(IValueNode valueNode) {
+    for (IDatabaseListener listener : listeners) {
+      listener.valueNodeChanged(valueNode);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void fireValueNodeAdded(IValueNode valueNode) {
+    for (IDatabaseListener listener : listeners) {
+      listener.valueNodeAdded(valueNode);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void fireValueNodeRemoved(IValueNode valueNode) {
+    for (IDatabaseListener listener : listeners) {
+      listener.valueNodeRemoved(valueNode);
+    }
+  }
+
+}
@@ -0,0 +1,221 @@
+package com.netcetera.trema.core.concurrent;
+
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import com.netcetera.trema.core.api.IDatabase;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.api.IValueNode;
+
+
+
+/**
+ * A thread-safe text node of a {@link ConcurrentDatabase}. Modifications
+ * lock the stripe of the text node in its database, reads do not lock.
+ */
+public class ConcurrentTextNode implements ITextNode {
+
+  private static final AtomicReferenceFieldUpdater<ConcurrentTextNode, ConcurrentDatabase> PARENT =
+    AtomicReferenceFieldUpdater.newUpdater(ConcurrentTextNode.class, ConcurrentDatabase.class, "parent");
+
+  private volatile String key;
+  private volatile String context;
+  private final ConcurrentNavigableMap<String, ConcurrentValueNode> valueNodeMap = new ConcurrentSkipListMap<>();
+  private volatile ConcurrentDatabase parent = null;
+
+  /**
+   * Constructs a text node with no value nodes.
+   * @param key the key of this text node
+   * @param context the context of this text node
+   */
+  public ConcurrentTextNode(String key, String context) {
+    this.key = key;
+    this.context = context;
+  }
+
+  /**
+   * Gets a text node to add to a database: the text node itself if it
+   * is a concurrent text node without database, a copy otherwise. The
+   * text node is claimed for the database atomically, so that concurrent
+   * threads cannot add the same text node twice.
+   * @param textNode the text node
+   * @param db the database to add the text node to
+   * @return the text node to add, with the database as its parent
+   */
+  static ConcurrentTextNode of(ITextNode textNode, ConcurrentDatabase db) {
+    if (textNode instanceof ConcurrentTextNode && PARENT.compareAndSet((ConcurrentTextNode) textNode, null, db)) {
+      return (ConcurrentTextNode) textNode;
+    }
+    ConcurrentTextNode copy = new ConcurrentTextNode(textNode.getKey(), textNode.getContext());
+    for (IValueNode valueNode : textNode.getValueNodes()) {
+      copy.addValueNode(valueNode);
+    }
+    copy.parent = db;
+    return copy;
+  }
+
+  /**
+   * Gets the lock guarding the modifications of this text node and its
+   * value nodes.
+   * @return the lock object
+   */
+  Object getLock() {
+    ConcurrentDatabase db = parent;
+    return db != null ? db.getStripe(this) : this;
+  }
+
+  void internalSetKey(String key) {
+    this.key = key;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Renaming a text node of a database takes the structure lock of the
+   * database.
+   */
+  @Override
+  public void setKey(String key) {
+    ConcurrentDatabase db = parent;
+    if (db != null) {
+      if (db.changeKey(this, key)) {
+        db.fireTextNodeChanged(this);
+      }
+    } else {
+      synchronized (getLock()) {
+        this.key = key;
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getContext() {
+    return context;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void setContext(String context) {
+    boolean changed;
+    synchronized (getLock()) {
+      changed = !context.equals(this.context);
+      this.context = context;
+    }
+    ConcurrentDatabase db = parent;
+    if (changed && db != null) {
+      db.fireTextNodeChanged(this);
+    }
+  }
+
+  /**
+   * Adds a value node. A value node of another implementation or of
+   * another text node is copied, use {@link #getValueNode(String)} to get
+   * the added value node.
+   * @param valueNode the value node to add
+   */
+  @Override
+  public void addValueNode(IValueNode valueNode) {
+    ConcurrentValueNode node = ConcurrentValueNode.of(valueNode, this);
+    synchronized (getLock()) {
+      ConcurrentValueNode previous = valueNodeMap.put(node.getLanguage(), node);
+      if (previous != null && previous != node) {
+        previous.setParent(null);
+      }
+    }
+    ConcurrentDatabase db = parent;
+    if (db != null) {
+      db.fireValueNodeAdded(node);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void removeValueNode(IValueNode valueNode) {
+    boolean removed;
+    synchronized (getLock()) {
+      removed = valueNodeMap.remove(valueNode.getLanguage(), valueNode);
+      if (removed) {
+        ((ConcurrentValueNode) valueNode).setParent(null);
+      }
+    }
+    ConcurrentDatabase db = parent;
+    if (removed && db != null) {
+      db.fireValueNodeRemoved(valueNode);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public IValueNode getValueNode(String language) {
+    if (language == null) {
+      return null;
+    }
+    return valueNodeMap.get(language);
+  }
+
+  /**
+   * Gets all value nodes of this text node, ordered alphabetically by
+   * the corresponding languages.
+   * @return all value nodes of this text node
+   */
+  @Override
+  public IValueNode[] getValueNodes() {
+    return valueNodeMap.values().toArray(new IValueNode[0]);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String[] getLanguages() {
+    return valueNodeMap.keySet().toArray(new String[0]);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean existsValueNode(String language) {
+    return language != null && valueNodeMap.containsKey(language);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void fireValueNodeChanged(IValueNode valueNode) {
+    ConcurrentDatabase db = parent;
+    if (db != null) {
+      db.fireValueNodeChanged(valueNode);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public IDatabase getParent() {
+    return parent;
+  }
+
+  /**
+   * Sets the database of this text node. Only a
+   * {@link ConcurrentDatabase} can be the parent of this text node.
+   * @param parent the database or <code>null</code>
+   * @throws IllegalArgumentException if the parent is another database
+   */
+  @Override
+  public void setParent(IDatabase parent) {
+    if (parent != null && !(parent instanceof ConcurrentDatabase)) {
+      throw new IllegalArgumentException("The parent of a concurrent text node must be a concurrent database.");
+    }
+    this.parent = (ConcurrentDatabase) parent;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return key;
+  }
+
+}
@@ -0,0 +1,151 @@
+package com.netcetera.trema.core.concurrent;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.api.IValueNode;
+
+
+
+/**
+ * A thread-safe value node of a {@link ConcurrentTextNode}.
+ * Modifications lock the stripe of the text node in its database, reads
+ * do not lock.
+ */
+public class ConcurrentValueNode implements IValueNode {
+
+  private static final AtomicReferenceFieldUpdater<ConcurrentValueNode, ConcurrentTextNode> PARENT =
+    AtomicReferenceFieldUpdater.newUpdater(ConcurrentValueNode.class, ConcurrentTextNode.class, "parent");
+
+  private final String language;
+  private volatile Status status;
+  private volatile String value;
+  private volatile ConcurrentTextNode parent = null;
+
+  /**
+   * Constructs a new value node.
+   * @param language the language of this value node
+   * @param status the status of this value node
+   * @param value the value of this value node
+   */
+  public ConcurrentValueNode(String language, Status status, String value) {
+    this.language = language;
+    this.status = status;
+    this.value = value;
+  }
+
+  /**
+   * Gets a value node to add to a text node: the value node itself if it
+   * is a concurrent value node without text node, a copy otherwise. The
+   * value node is claimed for the text node atomically, like in
+   * {@link ConcurrentTextNode#of(ITextNode, ConcurrentDatabase)}.
+   * @param valueNode the value node
+   * @param textNode the text node to add the value node to
+   * @return the value node to add, with the text node as its parent
+   */
+  static ConcurrentValueNode of(IValueNode valueNode, ConcurrentTextNode textNode) {
+    if (valueNode instanceof ConcurrentValueNode
+        && PARENT.compareAndSet((ConcurrentValueNode) valueNode, null, textNode)) {
+      return (ConcurrentValueNode) valueNode;
+    }
+    ConcurrentValueNode copy =
+      new ConcurrentValueNode(valueNode.getLanguage(), valueNode.getStatus(), valueNode.getValue());
+    copy.parent = textNode;
+    return copy;
+  }
+
+  private Object getLock() {
+    ConcurrentTextNode textNode = parent;
+    return textNode != null ? textNode.getLock() : this;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getLanguage() {
+    return language;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Status getStatus() {
+    return status;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void setStatus(Status status) {
+    boolean changed;
+    synchronized (getLock()) {
+      changed = !status.equals(this.status);
+      this.status = status;
+    }
+    fireChanged(changed);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getValue() {
+    return value;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void setValue(String value) {
+    boolean changed;
+    synchronized (getLock()) {
+      changed = !value.equals(this.value);
+      this.value = value;
+    }
+    fireChanged(changed);
+  }
+
+  /**
+   * Sets the value and the status atomically.
+   * @param newValue the new value
+   * @param newStatus the new status
+   */
+  public void setValueAndStatus(String newValue, Status newStatus) {
+    boolean changed;
+    synchronized (getLock()) {
+      changed = !newValue.equals(value) || !newStatus.equals(status);
+      value = newValue;
+      status = newStatus;
+    }
+    fireChanged(changed);
+  }
+
+  private void fireChanged(boolean changed) {
+    ConcurrentTextNode textNode = parent;
+    if (changed && textNode != null) {
+      textNode.fireValueNodeChanged(this);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ITextNode getParent() {
+    return parent;
+  }
+
+  /**
+   * Sets the text node of this value node. Only a
+   * {@link ConcurrentTextNode} can be the parent of this value node.
+   * @param parent the text node or <code>null</code>
+   * @throws IllegalArgumentException if the parent is another text node
+   */
+  @Override
+  public void setParent(ITextNode parent) {
+    if (parent != null && !(parent instanceof ConcurrentTextNode)) {
+      throw new IllegalArgumentException("The parent of a concurrent value node must be a concurrent text node.");
+    }
+    this.parent = (ConcurrentTextNode) parent;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return language + ": " + value;
+  }
+
+}
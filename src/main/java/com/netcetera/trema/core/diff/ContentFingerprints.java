@@ -0,0 +1,264 @@
+package com.netcetera.trema.core.diff;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.netcetera.trema.core.ContentHashes;
+import com.netcetera.trema.core.api.IDatabase;
+import com.netcetera.trema.core.api.IDatabaseListener;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.api.IValueNode;
+
+
+
+/**
+ * Maintains content fingerprints of a database: one per text node, one
+ * per language and a root fingerprint of the whole database. Comparing a
+ * fingerprint with one taken earlier tells cheaply whether the content
+ * has changed in the meantime, e.g. whether a language has to be
+ * exported again.
+ * <p>
+ * The fingerprint of a language is the sum of the hashes of the key and
+ * the value node of every text node in that language. Since a sum does
+ * not depend on the order of its terms, a change of a text node is
+ * applied by subtracting its old and adding its new terms, so the
+ * fingerprints are updated incrementally by the events of the database.
+ * The root fingerprint combines the master language with the sum of the
+ * hashes of the keys and contexts of all text nodes and the sum of the
+ * fingerprints of all languages, each combined with its language. It is
+ * therefore a sum of sums rather than the root of a Merkle tree, which
+ * is updated in constant time per change as well. None of the
+ * fingerprints depends on the order of the text nodes.
+ * <p>
+ * The fingerprints are only kept up to date while the instance is
+ * registered as listener of the database, see
+ * {@link #attach(IDatabase)}. Since
+ * {@link com.netcetera.trema.core.XMLDatabase#build(String, boolean)}
+ * does not notify the listeners, {@link #recompute()} has to be called
+ * after building the database.
+ */
+public class ContentFingerprints implements IDatabaseListener {
+
+  private final IDatabase db;
+  private final Map<ITextNode, TextNodeFingerprint> textNodeFingerprints = new IdentityHashMap<>();
+  // per language: the fingerprint, the number of value nodes and the hash of the language
+  private final Map<String, long[]> languageFingerprints = new HashMap<>();
+  private long structureFingerprint = 0;
+  private long languagesFingerprint = 0;
+
+  /**
+   * Creates the fingerprints of a database. The instance has to be
+   * registered as listener of the database to keep them up to date.
+   * @param db the database
+   */
+  public ContentFingerprints(IDatabase db) {
+    this.db = db;
+    recompute();
+  }
+
+  /**
+   * Creates the fingerprints of a database and registers them as
+   * listener of the database.
+   * @param db the database
+   * @return the fingerprints
+   */
+  public static ContentFingerprints attach(IDatabase db) {
+    ContentFingerprints fingerprints = new ContentFingerprints(db);
+    db.addListener(fingerprints);
+    return fingerprints;
+  }
+
+  /**
+   * Gets the database of the fingerprints.
+   * @return the database
+   */
+  public IDatabase getDatabase() {
+    return db;
+  }
+
+  /**
+   * Recomputes all fingerprints from the database.
+   */
+  public synchronized void recompute() {
+    textNodeFingerprints.clear();
+    languageFingerprints.clear();
+    structureFingerprint = 0;
+    languagesFingerprint = 0;
+    for (ITextNode textNode : db.getTextNodes()) {
+      add(textNode);
+    }
+  }
+
+  /**
+   * Gets the fingerprint of a text node, the same as its
+   * {@link ContentHashes#hash(ITextNode)}.
+   * @param textNode a text node of the database
+   * @return the fingerprint of the text node
+   * @throws IllegalArgumentException if the text node is not part of the
+   * database
+   */
+  public synchronized long getFingerprint(ITextNode textNode) {
+    TextNodeFingerprint fingerprint = textNodeFingerprints.get(textNode);
+    if (fingerprint == null) {
+      throw new IllegalArgumentException("The text node is not part of the database: " + textNode.getKey());
+    }
+    return fingerprint.hash;
+  }
+
+  /**
+   * Gets the fingerprint of a language.
+   * @param language the language
+   * @return the fingerprint of the language, 0 if no text node has a
+   * value in that language
+   */
+  public synchronized long getLanguageFingerprint(String language) {
+    long[] fingerprint = languageFingerprints.get(language);
+    return fingerprint != null ? fingerprint[0] : 0;
+  }
+
+  /**
+   * Gets the languages of all value nodes of the database.
+   * @return the languages
+   */
+  public synchronized String[] getLanguages() {
+    return languageFingerprints.keySet().toArray(new String[languageFingerprints.size()]);
+  }
+
+  /**
+   * Gets the root fingerprint of the whole database.
+   * @return the root fingerprint
+   */
+  public synchronized long getRootFingerprint() {
+    return ContentHashes.combine(ContentHashes.combine(ContentHashes.hash(db.getMasterLanguage()),
+                                                       structureFingerprint), languagesFingerprint);
+  }
+
+  private void add(ITextNode textNode) {
+    TextNodeFingerprint fingerprint = new TextNodeFingerprint(textNode);
+    textNodeFingerprints.put(textNode, fingerprint);
+    structureFingerprint += fingerprint.structure;
+    for (int i = 0; i < fingerprint.languages.length; i++) {
+      long[] languageFingerprint = languageFingerprints.computeIfAbsent(fingerprint.languages[i],
+        language -> new long[] {0, 0, ContentHashes.hash(language)});
+      if (languageFingerprint[1] > 0) {
+        languagesFingerprint -= getLanguageTerm(languageFingerprint);
+      }
+      languageFingerprint[0] += fingerprint.terms[i];
+      languageFingerprint[1]++;
+      languagesFingerprint += getLanguageTerm(languageFingerprint);
+    }
+  }
+
+  private void remove(ITextNode textNode) {
+    TextNodeFingerprint fingerprint = textNodeFingerprints.remove(textNode);
+    if (fingerprint == null) {
+      return;
+    }
+    structureFingerprint -= fingerprint.structure;
+    for (int i = 0; i < fingerprint.languages.length; i++) {
+      long[] languageFingerprint = languageFingerprints.get(fingerprint.languages[i]);
+      languagesFingerprint -= getLanguageTerm(languageFingerprint);
+      languageFingerprint[0] -= fingerprint.terms[i];
+      if (--languageFingerprint[1] == 0) {
+        languageFingerprints.remove(fingerprint.languages[i]);
+      } else {
+        languagesFingerprint += getLanguageTerm(languageFingerprint);
+      }
+    }
+  }
+
+  /**
+   * Gets the term of a language in the sum of the language fingerprints.
+   * @param languageFingerprint the fingerprint, the number of value nodes
+   * and the hash of the language
+   * @return the term of the language
+   */
+  private static long getLanguageTerm(long[] languageFingerprint) {
+    return ContentHashes.combine(languageFingerprint[2], languageFingerprint[0]);
+  }
+
+  private synchronized void update(ITextNode textNode) {
+    if (textNode != null && textNodeFingerprints.containsKey(textNode)) {
+      remove(textNode);
+      add(textNode);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void masterLanguageChanged(IDatabase database) {
+    // the root fingerprint is computed on demand
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void textNodeChanged(IDatabase database, ITextNode textNode) {
+    update(textNode);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized void textNodeAdded(IDatabase database, ITextNode textNode) {
+    remove(textNode);
+    add(textNode);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized void textNodesRemoved(IDatabase database, ITextNode[] textNodes, int index) {
+    for (ITextNode textNode : textNodes) {
+      remove(textNode);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void textNodesMoved(IDatabase database, ITextNode[] textNodes) {
+    // the fingerprints do not depend on the order of the text nodes
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void valueNodeChanged(IValueNode valueNode) {
+    update(valueNode.getParent());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void valueNodeAdded(IValueNode valueNode) {
+    update(valueNode.getParent());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void valueNodeRemoved(IValueNode valueNode) {
+    update(valueNode.getParent());
+  }
+
+  /**
+   * The fingerprint of a text node and its terms of the language and
+   * structure fingerprints.
+   */
+  private static final class TextNodeFingerprint {
+
+    private final long hash;
+    private final long structure;
+    private final String[] languages;
+    private final long[] terms;
+
+    TextNodeFingerprint(ITextNode textNode) {
+      hash = ContentHashes.hash(textNode);
+      long keyHash = ContentHashes.hash(textNode.getKey());
+      structure = ContentHashes.combine(keyHash, ContentHashes.hash(textNode.getContext()));
+      IValueNode[] valueNodes = textNode.getValueNodes();
+      languages = new String[valueNodes.length];
+      terms = new long[valueNodes.length];
+      for (int i = 0; i < valueNodes.length; i++) {
+        languages[i] = valueNodes[i].getLanguage();
+        terms[i] = ContentHashes.combine(keyHash, ContentHashes.hash(valueNodes[i]));
+      }
+    }
+  }
+
+}
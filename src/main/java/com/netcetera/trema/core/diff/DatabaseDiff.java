@@ -0,0 +1,253 @@
+package com.netcetera.trema.core.diff;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.netcetera.trema.core.api.IDatabase;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.api.IValueNode;
+
+
+
+/**
+ * Determines the differences between two databases, e.g. the trema
+ * files of two release branches.
+ * <p>
+ * The text nodes are matched by their key. If the {@link ContentFingerprints}
+ * of both databases are given, matching text nodes with the same
+ * fingerprint are skipped and only the others are compared field by
+ * field. The fingerprints are maintained by the databases' events, so
+ * unchanged text nodes cost a lookup each. Without fingerprints, all
+ * matching text nodes are compared field by field, which is cheaper than
+ * computing their hashes for a single comparison. If a key occurs more
+ * than once in a database, its first text node is used, as
+ * {@link IDatabase#getTextNode(String)} would return it.
+ * <p>
+ * The differences are reported in the order of the new database,
+ * followed by the removed keys in the order of the old database. Both
+ * databases must not be modified during the comparison.
+ */
+public final class DatabaseDiff {
+
+  /** Ranges of at most this many text nodes are compared by a single task. */
+  private static final int CHUNK_SIZE = 1024;
+
+  private final ITextNode[] oldTextNodes;
+  private final ITextNode[] newTextNodes;
+  private final Map<String, ITextNode> oldIndex;
+  private final Map<String, ITextNode> newIndex;
+  private final ContentFingerprints oldFingerprints;
+  private final ContentFingerprints newFingerprints;
+
+  private DatabaseDiff(IDatabase oldDb, IDatabase newDb, ContentFingerprints oldFingerprints,
+                       ContentFingerprints newFingerprints) {
+    oldTextNodes = oldDb.getTextNodes();
+    newTextNodes = newDb.getTextNodes();
+    oldIndex = index(oldTextNodes);
+    newIndex = index(newTextNodes);
+    this.oldFingerprints = oldFingerprints;
+    this.newFingerprints = newFingerprints;
+  }
+
+  /**
+   * Determines the differences between two databases.
+   * @param oldDb the old database
+   * @param newDb the new database
+   * @return the differences
+   */
+  public static List<Difference> compare(IDatabase oldDb, IDatabase newDb) {
+    return new DatabaseDiff(oldDb, newDb, null, null).compare();
+  }
+
+  /**
+   * Determines the differences between two databases, skipping the text
+   * nodes whose fingerprints are the same. The fingerprints must be up to
+   * date, e.g. registered as listeners of their databases with
+   * {@link ContentFingerprints#attach(IDatabase)}.
+   * @param oldFingerprints the fingerprints of the old database
+   * @param newFingerprints the fingerprints of the new database
+   * @return the differences
+   */
+  public static List<Difference> compare(ContentFingerprints oldFingerprints, ContentFingerprints newFingerprints) {
+    return new DatabaseDiff(oldFingerprints.getDatabase(), newFingerprints.getDatabase(), oldFingerprints,
+                            newFingerprints).compare();
+  }
+
+  /**
+   * Determines the differences between two databases in parallel. The
+   * text nodes are split into chunks which are compared by the tasks of
+   * the given pool. The result is the same as the one of
+   * {@link #compare(IDatabase, IDatabase)}.
+   * @param oldDb the old database
+   * @param newDb the new database
+   * @param pool the pool to run the comparison in
+   * @return the differences
+   */
+  public static List<Difference> compare(IDatabase oldDb, IDatabase newDb, ForkJoinPool pool) {
+    return new DatabaseDiff(oldDb, newDb, null, null).compare(pool);
+  }
+
+  /**
+   * Determines the differences between two databases in parallel,
+   * skipping the text nodes whose fingerprints are the same, see
+   * {@link #compare(ContentFingerprints, ContentFingerprints)}.
+   * @param oldFingerprints the fingerprints of the old database
+   * @param newFingerprints the fingerprints of the new database
+   * @param pool the pool to run the comparison in
+   * @return the differences
+   */
+  public static List<Difference> compare(ContentFingerprints oldFingerprints, ContentFingerprints newFingerprints,
+                                         ForkJoinPool pool) {
+    return new DatabaseDiff(oldFingerprints.getDatabase(), newFingerprints.getDatabase(), oldFingerprints,
+                            newFingerprints).compare(pool);
+  }
+
+  private List<Difference> compare() {
+    List<Difference> differences = new ArrayList<>();
+    compare(0, getSize(), differences);
+    return differences;
+  }
+
+  private List<Difference> compare(ForkJoinPool pool) {
+    int chunks = (getSize() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    @SuppressWarnings("unchecked")
+    List<Difference>[] results = new List[chunks];
+    pool.invoke(new CompareTask(results, 0, chunks));
+    List<Difference> differences = new ArrayList<>();
+    for (List<Difference> result : results) {
+      differences.addAll(result);
+    }
+    return differences;
+  }
+
+  private static Map<String, ITextNode> index(ITextNode[] textNodes) {
+    Map<String, ITextNode> index = new HashMap<>(textNodes.length * 4 / 3 + 1);
+    for (ITextNode textNode : textNodes) {
+      index.putIfAbsent(textNode.getKey(), textNode);
+    }
+    return index;
+  }
+
+  /**
+   * Gets the number of positions to compare: the text nodes of the new
+   * database followed by the text nodes of the old database.
+   * @return the number of positions to compare
+   */
+  private int getSize() {
+    return newTextNodes.length + oldTextNodes.length;
+  }
+
+  /**
+   * Compares a range of positions, see {@link #getSize()}.
+   * @param from the first position
+   * @param to the end position (exclusive)
+   * @param differences the list to add the differences to
+   */
+  private void compare(int from, int to, List<Difference> differences) {
+    for (int i = from; i < to; i++) {
+      if (i < newTextNodes.length) {
+        ITextNode newTextNode = newTextNodes[i];
+        if (newIndex.get(newTextNode.getKey()) == newTextNode) {
+          compare(oldIndex.get(newTextNode.getKey()), newTextNode, differences);
+        }
+      } else {
+        ITextNode oldTextNode = oldTextNodes[i - newTextNodes.length];
+        if (!newIndex.containsKey(oldTextNode.getKey()) && oldIndex.get(oldTextNode.getKey()) == oldTextNode) {
+          differences.add(new Difference(Difference.TYPE_KEY_REMOVAL, oldTextNode.getKey(), null,
+                                         oldTextNode.getContext(), null, null, null));
+        }
+      }
+    }
+  }
+
+  private void compare(ITextNode oldTextNode, ITextNode newTextNode, List<Difference> differences) {
+    String key = newTextNode.getKey();
+    if (oldTextNode == null) {
+      differences.add(new Difference(Difference.TYPE_KEY_ADDITION, key, null, null, newTextNode.getContext(),
+                                     null, null));
+      return;
+    }
+    if (oldFingerprints != null
+        && oldFingerprints.getFingerprint(oldTextNode) == newFingerprints.getFingerprint(newTextNode)) {
+      // same contents
+      return;
+    }
+    if (!Objects.equals(oldTextNode.getContext(), newTextNode.getContext())) {
+      differences.add(new Difference(Difference.TYPE_CONTEXT_CHANGED, key, null, oldTextNode.getContext(),
+                                     newTextNode.getContext(), null, null));
+    }
+    for (IValueNode newValueNode : newTextNode.getValueNodes()) {
+      IValueNode oldValueNode = oldTextNode.getValueNode(newValueNode.getLanguage());
+      if (oldValueNode == null) {
+        differences.add(new Difference(Difference.TYPE_LANGUAGE_ADDITION, key, newValueNode.getLanguage(), null,
+                                       newValueNode.getValue(), null, newValueNode.getStatus()));
+      } else {
+        compare(key, oldValueNode, newValueNode, differences);
+      }
+    }
+    for (IValueNode oldValueNode : oldTextNode.getValueNodes()) {
+      if (newTextNode.getValueNode(oldValueNode.getLanguage()) == null) {
+        differences.add(new Difference(Difference.TYPE_LANGUAGE_REMOVAL, key, oldValueNode.getLanguage(),
+                                       oldValueNode.getValue(), null, oldValueNode.getStatus(), null));
+      }
+    }
+  }
+
+  private static void compare(String key, IValueNode oldValueNode, IValueNode newValueNode,
+                              List<Difference> differences) {
+    boolean valueChanged = !Objects.equals(oldValueNode.getValue(), newValueNode.getValue());
+    boolean statusChanged = !Objects.equals(oldValueNode.getStatus(), newValueNode.getStatus());
+    int type;
+    if (valueChanged && statusChanged) {
+      type = Difference.TYPE_VALUE_AND_STATUS_CHANGED;
+    } else if (valueChanged) {
+      type = Difference.TYPE_VALUE_CHANGED;
+    } else if (statusChanged) {
+      type = Difference.TYPE_STATUS_CHANGED;
+    } else {
+      return;
+    }
+    differences.add(new Difference(type, key, newValueNode.getLanguage(), oldValueNode.getValue(),
+                                   newValueNode.getValue(), oldValueNode.getStatus(), newValueNode.getStatus()));
+  }
+
+  /**
+   * Compares a range of chunks, splitting it as long as it contains more
+   * than one chunk.
+   */
+  private final class CompareTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Difference>[] results;
+    private final int from;
+    private final int to;
+
+    CompareTask(List<Difference>[] results, int from, int to) {
+      this.results = results;
+      this.from = from;
+      this.to = to;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void compute() {
+      if (to - from <= 1) {
+        for (int chunk = from; chunk < to; chunk++) {
+          List<Difference> differences = new ArrayList<>();
+          compare(chunk * CHUNK_SIZE, Math.min((chunk + 1) * CHUNK_SIZE, getSize()), differences);
+          results[chunk] = differences;
+        }
+      } else {
+        int middle = (from + to) >>> 1;
+        invokeAll(new CompareTask(results, from, middle), new CompareTask(results, middle, to));
+      }
+    }
+  }
+
+}
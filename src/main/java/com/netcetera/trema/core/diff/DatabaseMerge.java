@@ -0,0 +1,299 @@
+package com.netcetera.trema.core.diff;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.XMLDatabase;
+import com.netcetera.trema.core.XMLTextNode;
+import com.netcetera.trema.core.XMLValueNode;
+import com.netcetera.trema.core.api.IDatabase;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.api.IValueNode;
+import com.netcetera.trema.core.importing.Change;
+import com.netcetera.trema.core.importing.ChangesAnalyzer;
+
+
+
+/**
+ * A three-way merge of databases, e.g. of the trema files of two
+ * branches with their common ancestor as base.
+ * <p>
+ * The text nodes are matched by their key and merged context by context
+ * and value by value: a side that did not change a context or value
+ * (compared to the base) takes the change of the other side. Text nodes
+ * which one side did not change at all are taken as a whole. The text
+ * nodes are compared directly rather than by content hashes, since each
+ * of them is compared only once.
+ * <p>
+ * If both sides changed the same value differently, our value is
+ * treated as the database value and their value as the imported value
+ * of a {@link Change}, and the conflict specification of
+ * {@link ChangesAnalyzer#setDefaultConflictAttributes(Change, boolean)}
+ * decides: a non-conflicting change is merged with the value and status
+ * to be accepted, a conflicting change is reported as a
+ * {@link MergeConflict}. For every conflict the merged database contains
+ * the state of ours.
+ * <p>
+ * The merged database contains copies of the text nodes, in the order
+ * of ours followed by the keys added by theirs. Its master language is
+ * the one of ours.
+ */
+public final class DatabaseMerge {
+
+  private final XMLDatabase database = new XMLDatabase();
+  private final List<MergeConflict> conflicts = new ArrayList<>();
+
+  private DatabaseMerge() {
+  }
+
+  /**
+   * Merges two databases.
+   * @param base the common base of both databases
+   * @param ours our database, which wins in case of conflicts
+   * @param theirs their database
+   * @return the merge result
+   */
+  public static DatabaseMerge merge(IDatabase base, IDatabase ours, IDatabase theirs) {
+    DatabaseMerge merge = new DatabaseMerge();
+    merge.mergeDatabases(base, ours, theirs);
+    return merge;
+  }
+
+  /**
+   * Gets the merged database.
+   * @return the merged database.
+   */
+  public XMLDatabase getDatabase() {
+    return database;
+  }
+
+  /**
+   * Gets the conflicts of the merge.
+   * @return the conflicts, in the order of the merged database.
+   */
+  public MergeConflict[] getConflicts() {
+    return conflicts.toArray(new MergeConflict[conflicts.size()]);
+  }
+
+  /**
+   * Checks whether the merge had conflicts.
+   * @return true if there are conflicts.
+   */
+  public boolean hasConflicts() {
+    return !conflicts.isEmpty();
+  }
+
+  private void mergeDatabases(IDatabase base, IDatabase ours, IDatabase theirs) {
+    Map<String, ITextNode> baseIndex = index(base.getTextNodes());
+    ITextNode[] ourTextNodes = ours.getTextNodes();
+    Map<String, ITextNode> ourIndex = index(ourTextNodes);
+    ITextNode[] theirTextNodes = theirs.getTextNodes();
+    Map<String, ITextNode> theirIndex = index(theirTextNodes);
+
+    database.setMasterLanguage(ours.getMasterLanguage());
+    for (ITextNode ourTextNode : ourTextNodes) {
+      String key = ourTextNode.getKey();
+      if (ourIndex.get(key) == ourTextNode) {
+        add(mergeTextNodes(key, baseIndex.get(key), ourTextNode, theirIndex.get(key)));
+      }
+    }
+    for (ITextNode theirTextNode : theirTextNodes) {
+      String key = theirTextNode.getKey();
+      if (theirIndex.get(key) == theirTextNode && !ourIndex.containsKey(key)) {
+        add(mergeTextNodes(key, baseIndex.get(key), null, theirTextNode));
+      }
+    }
+  }
+
+  private static Map<String, ITextNode> index(ITextNode[] textNodes) {
+    Map<String, ITextNode> index = new HashMap<>(textNodes.length * 4 / 3 + 1);
+    for (ITextNode textNode : textNodes) {
+      index.putIfAbsent(textNode.getKey(), textNode);
+    }
+    return index;
+  }
+
+  private void add(ITextNode textNode) {
+    if (textNode != null) {
+      database.addTextNode(textNode);
+    }
+  }
+
+  /**
+   * Merges the text nodes of a key.
+   * @param key the key
+   * @param base the base text node, may be <code>null</code>
+   * @param ours our text node, may be <code>null</code>
+   * @param theirs their text node, may be <code>null</code>
+   * @return the merged text node or <code>null</code> if the key is
+   * removed
+   */
+  private ITextNode mergeTextNodes(String key, ITextNode base, ITextNode ours, ITextNode theirs) {
+    if (ours != null && theirs != null) {
+      if (isSame(ours, theirs) || isSame(base, theirs)) {
+        return copy(ours);
+      }
+      if (isSame(base, ours)) {
+        return copy(theirs);
+      }
+      return mergeContents(key, base, ours, theirs);
+    }
+
+    ITextNode present = ours != null ? ours : theirs;
+    if (base == null) {
+      // added by one side
+      return copy(present);
+    }
+    if (isSame(base, present)) {
+      // removed by the other side
+      return null;
+    }
+    conflicts.add(new MergeConflict(MergeConflict.TYPE_REMOVAL_CONFLICT, key, null,
+                                    new String[] {base.getContext(), context(ours), context(theirs)},
+                                    new Status[3], null));
+    return ours != null ? copy(ours) : null;
+  }
+
+  private ITextNode mergeContents(String key, ITextNode base, ITextNode ours, ITextNode theirs) {
+    String baseContext = context(base);
+    String context = ours.getContext();
+    if (!Objects.equals(context, theirs.getContext())) {
+      if (Objects.equals(baseContext, context)) {
+        context = theirs.getContext();
+      } else if (!Objects.equals(baseContext, theirs.getContext())) {
+        conflicts.add(new MergeConflict(MergeConflict.TYPE_CONTEXT_CONFLICT, key, null,
+                                        new String[] {baseContext, context, theirs.getContext()},
+                                        new Status[3], null));
+      }
+    }
+
+    ITextNode merged = new XMLTextNode(key, context);
+    Set<String> languages = new LinkedHashSet<>();
+    for (IValueNode valueNode : ours.getValueNodes()) {
+      languages.add(valueNode.getLanguage());
+    }
+    for (IValueNode valueNode : theirs.getValueNodes()) {
+      languages.add(valueNode.getLanguage());
+    }
+    for (String language : languages) {
+      IValueNode valueNode = mergeValueNodes(key, context, base != null ? base.getValueNode(language) : null,
+                                             ours.getValueNode(language), theirs.getValueNode(language));
+      if (valueNode != null) {
+        merged.addValueNode(copy(valueNode));
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * Merges the value nodes of a key and language.
+   * @param key the key
+   * @param context the merged context
+   * @param base the base value node, may be <code>null</code>
+   * @param ours our value node, may be <code>null</code>
+   * @param theirs their value node, may be <code>null</code>
+   * @return the merged value node or <code>null</code> if the language
+   * is removed
+   */
+  private IValueNode mergeValueNodes(String key, String context, IValueNode base, IValueNode ours,
+                                     IValueNode theirs) {
+    if (isSame(ours, theirs) || isSame(base, theirs)) {
+      return ours;
+    }
+    if (isSame(base, ours)) {
+      return theirs;
+    }
+    String language = ours != null ? ours.getLanguage() : theirs.getLanguage();
+    if (ours == null || theirs == null) {
+      conflicts.add(new MergeConflict(MergeConflict.TYPE_REMOVAL_CONFLICT, key, language,
+                                      new String[] {value(base), value(ours), value(theirs)},
+                                      new Status[] {status(base), status(ours), status(theirs)}, null));
+      return ours;
+    }
+
+    Change change = new Change(getChangeType(ours, theirs), language, key, theirs.getValue(), theirs.getStatus());
+    change.setContext(context);
+    change.setDbValue(ours.getValue());
+    change.setDbStatus(ours.getStatus());
+    ChangesAnalyzer.setDefaultConflictAttributes(change, true);
+    if (!change.isConflicting() && change.isAccept()) {
+      return new XMLValueNode(language, change.getAcceptStatus(), change.getAcceptValue());
+    }
+    conflicts.add(new MergeConflict(MergeConflict.TYPE_VALUE_CONFLICT, key, language,
+                                    new String[] {value(base), ours.getValue(), theirs.getValue()},
+                                    new Status[] {status(base), ours.getStatus(), theirs.getStatus()}, change));
+    return ours;
+  }
+
+  private static int getChangeType(IValueNode ours, IValueNode theirs) {
+    if (Objects.equals(ours.getValue(), theirs.getValue())) {
+      return theirs.getStatus().compareTo(ours.getStatus()) < 0 ? Change.TYPE_IMPORTED_STATUS_OLDER
+                                                                 : Change.TYPE_IMPORTED_STATUS_NEWER;
+    }
+    return ours.getStatus() == theirs.getStatus() ? Change.TYPE_VALUE_CHANGED : Change.TYPE_VALUE_AND_STATUS_CHANGED;
+  }
+
+  /**
+   * Checks whether two text nodes of the same key have the same context
+   * and value nodes, independently of the order of the value nodes.
+   * @param textNode a text node, may be <code>null</code>
+   * @param other the other text node, may be <code>null</code>
+   * @return true if both are <code>null</code> or have the same contents
+   */
+  private static boolean isSame(ITextNode textNode, ITextNode other) {
+    if (textNode == null || other == null) {
+      return textNode == other;
+    }
+    if (!Objects.equals(textNode.getContext(), other.getContext())) {
+      return false;
+    }
+    IValueNode[] valueNodes = textNode.getValueNodes();
+    if (valueNodes.length != other.getValueNodes().length) {
+      return false;
+    }
+    for (IValueNode valueNode : valueNodes) {
+      if (!isSame(valueNode, other.getValueNode(valueNode.getLanguage()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isSame(IValueNode valueNode, IValueNode other) {
+    if (valueNode == null || other == null) {
+      return valueNode == other;
+    }
+    return Objects.equals(valueNode.getValue(), other.getValue()) && valueNode.getStatus() == other.getStatus();
+  }
+
+  private static ITextNode copy(ITextNode textNode) {
+    ITextNode copy = new XMLTextNode(textNode.getKey(), textNode.getContext());
+    for (IValueNode valueNode : textNode.getValueNodes()) {
+      copy.addValueNode(copy(valueNode));
+    }
+    return copy;
+  }
+
+  private static IValueNode copy(IValueNode valueNode) {
+    return new XMLValueNode(valueNode.getLanguage(), valueNode.getStatus(), valueNode.getValue());
+  }
+
+  private static String context(ITextNode textNode) {
+    return textNode != null ? textNode.getContext() : null;
+  }
+
+  private static String value(IValueNode valueNode) {
+    return valueNode != null ? valueNode.getValue() : null;
+  }
+
+  private static Status status(IValueNode valueNode) {
+    return valueNode != null ? valueNode.getStatus() : null;
+  }
+
+}
@@ -0,0 +1,135 @@
+package com.netcetera.trema.core.diff;
+
+import com.netcetera.trema.core.Status;
+
+
+
+/**
+ * Encapsulates a difference between two databases for a specific key
+ * and, for differences of values, a specific language. The old
+ * attributes are the ones of the first database, the new attributes the
+ * ones of the second database.
+ */
+public final class Difference {
+
+  /** The key appears in the new database, but not in the old database. */
+  public static final int TYPE_KEY_ADDITION = 1;
+
+  /** The key appears in the old database, but not in the new database. */
+  public static final int TYPE_KEY_REMOVAL = 2;
+
+  /** The context of the key is different. */
+  public static final int TYPE_CONTEXT_CHANGED = 3;
+
+  /** The language exists for the key in the new database only. */
+  public static final int TYPE_LANGUAGE_ADDITION = 4;
+
+  /** The language exists for the key in the old database only. */
+  public static final int TYPE_LANGUAGE_REMOVAL = 5;
+
+  /** The value is different, the status is the same. */
+  public static final int TYPE_VALUE_CHANGED = 6;
+
+  /** The status is different, the value is the same. */
+  public static final int TYPE_STATUS_CHANGED = 7;
+
+  /** Both the value and the status are different. */
+  public static final int TYPE_VALUE_AND_STATUS_CHANGED = 8;
+
+  private final int type;
+  private final String key;
+  private final String language;
+  private final String oldText;
+  private final String newText;
+  private final Status oldStatus;
+  private final Status newStatus;
+
+  /**
+   * Constructs a new difference.
+   * @param type the type
+   * @param key the key
+   * @param language the language, <code>null</code> for differences of
+   * keys and contexts
+   * @param oldText the old value or context, may be <code>null</code>
+   * @param newText the new value or context, may be <code>null</code>
+   * @param oldStatus the old status, may be <code>null</code>
+   * @param newStatus the new status, may be <code>null</code>
+   */
+  Difference(int type, String key, String language, String oldText, String newText, Status oldStatus,
+             Status newStatus) {
+    this.type = type;
+    this.key = key;
+    this.language = language;
+    this.oldText = oldText;
+    this.newText = newText;
+    this.oldStatus = oldStatus;
+    this.newStatus = newStatus;
+  }
+
+  /**
+   * Gets the type of this difference.
+   * @return the type of this difference.
+   */
+  public int getType() {
+    return type;
+  }
+
+  /**
+   * Gets the key this difference relates to.
+   * @return the key this difference relates to.
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Gets the language this difference relates to.
+   * @return the language or <code>null</code> if this is a difference
+   * of a key or a context.
+   */
+  public String getLanguage() {
+    return language;
+  }
+
+  /**
+   * Gets the old value, or the old context for
+   * <code>TYPE_CONTEXT_CHANGED</code>.
+   * @return the old value or context, <code>null</code> if there is none.
+   */
+  public String getOldText() {
+    return oldText;
+  }
+
+  /**
+   * Gets the new value, or the new context for
+   * <code>TYPE_CONTEXT_CHANGED</code>.
+   * @return the new value or context, <code>null</code> if there is none.
+   */
+  public String getNewText() {
+    return newText;
+  }
+
+  /**
+   * Gets the old status.
+   * @return the old status, <code>null</code> if there is none.
+   */
+  public Status getOldStatus() {
+    return oldStatus;
+  }
+
+  /**
+   * Gets the new status.
+   * @return the new status, <code>null</code> if there is none.
+   */
+  public Status getNewStatus() {
+    return newStatus;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return "Difference[type=" + type + ", key=" + key + ", language=" + language + ", old=" + oldText + "/"
+      + oldStatus + ", new=" + newText + "/" + newStatus + "]";
+  }
+
+}
@@ -0,0 +1,157 @@
+package com.netcetera.trema.core.diff;
+
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.importing.Change;
+
+
+
+/**
+ * Encapsulates a conflict of a three-way merge: both sides changed the
+ * same context or value in a way that cannot be merged automatically.
+ * The merged database contains the state of "ours" for a conflict.
+ */
+public final class MergeConflict {
+
+  /** Both sides changed the context of a key differently. */
+  public static final int TYPE_CONTEXT_CONFLICT = 1;
+
+  /** Both sides changed the value or status of a language differently. */
+  public static final int TYPE_VALUE_CONFLICT = 2;
+
+  /**
+   * One side removed a key or language, while the other side changed
+   * it.
+   */
+  public static final int TYPE_REMOVAL_CONFLICT = 3;
+
+  private final int type;
+  private final String key;
+  private final String language;
+  private final String baseText;
+  private final String ourText;
+  private final String theirText;
+  private final Status baseStatus;
+  private final Status ourStatus;
+  private final Status theirStatus;
+  private final Change change;
+
+  /**
+   * Constructs a new conflict.
+   * @param type the type
+   * @param key the key
+   * @param language the language, <code>null</code> for conflicts of
+   * keys and contexts
+   * @param texts the base, our and their value or context, an element
+   * is <code>null</code> if the value or key does not exist on a side
+   * @param states the base, our and their status, an element is
+   * <code>null</code> for contexts or if the value does not exist on a
+   * side
+   * @param change the change of our value to their value with the
+   * conflict attributes set, may be <code>null</code>
+   */
+  MergeConflict(int type, String key, String language, String[] texts, Status[] states, Change change) {
+    this.type = type;
+    this.key = key;
+    this.language = language;
+    this.baseText = texts[0];
+    this.ourText = texts[1];
+    this.theirText = texts[2];
+    this.baseStatus = states[0];
+    this.ourStatus = states[1];
+    this.theirStatus = states[2];
+    this.change = change;
+  }
+
+  /**
+   * Gets the type of this conflict.
+   * @return the type of this conflict.
+   */
+  public int getType() {
+    return type;
+  }
+
+  /**
+   * Gets the key this conflict relates to.
+   * @return the key this conflict relates to.
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Gets the language this conflict relates to.
+   * @return the language or <code>null</code> if this is a conflict of
+   * a key or a context.
+   */
+  public String getLanguage() {
+    return language;
+  }
+
+  /**
+   * Gets the value or context of the base.
+   * @return the value or context of the base, <code>null</code> if there
+   * is none.
+   */
+  public String getBaseText() {
+    return baseText;
+  }
+
+  /**
+   * Gets our value or context.
+   * @return our value or context, <code>null</code> if there is none.
+   */
+  public String getOurText() {
+    return ourText;
+  }
+
+  /**
+   * Gets their value or context.
+   * @return their value or context, <code>null</code> if there is none.
+   */
+  public String getTheirText() {
+    return theirText;
+  }
+
+  /**
+   * Gets the status of the base.
+   * @return the status of the base, <code>null</code> if there is none.
+   */
+  public Status getBaseStatus() {
+    return baseStatus;
+  }
+
+  /**
+   * Gets our status.
+   * @return our status, <code>null</code> if there is none.
+   */
+  public Status getOurStatus() {
+    return ourStatus;
+  }
+
+  /**
+   * Gets their status.
+   * @return their status, <code>null</code> if there is none.
+   */
+  public Status getTheirStatus() {
+    return theirStatus;
+  }
+
+  /**
+   * Gets the change of our value to their value for value conflicts. Its
+   * conflict attributes tell whether taking their value is acceptable
+   * and which value and status would be accepted.
+   * @return the change or <code>null</code> if this is not a value
+   * conflict.
+   */
+  public Change getChange() {
+    return change;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return "MergeConflict[type=" + type + ", key=" + key + ", language=" + language + ", base=" + baseText + "/"
+      + baseStatus + ", ours=" + ourText + "/" + ourStatus + ", theirs=" + theirText + "/" + theirStatus + "]";
+  }
+
+}
@@ -1,9 +1,11 @@
 package com.netcetera.trema.core.importing;
 
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.api.IImportEntry;
 import com.netcetera.trema.core.api.IImportSource;
 
 
@@ -79,12 +81,8 @@ public abstract class AbstractFile implements IImportSource {
    */
   @Override
   public String getValue(String key) {
-    if (textNodeMap.containsKey(key)) {
-      TextNode textNode = textNodeMap.get(key);
-      return textNode.getValue();
-    }
-    
-    return null;
+    TextNode textNode = textNodeMap.get(key);
+    return textNode != null ? textNode.getValue() : null;
   }
 
   /**
@@ -92,12 +90,8 @@ public abstract class AbstractFile implements IImportSource {
    */
   @Override
   public String getMasterValue(String key) {
-    if (textNodeMap.containsKey(key)) {
-      TextNode textNode = textNodeMap.get(key);
-      return textNode.getMasterValue();
-    }
-    
-    return null;
+    TextNode textNode = textNodeMap.get(key);
+    return textNode != null ? textNode.getMasterValue() : null;
   }
 
   /**
@@ -105,12 +99,8 @@ public abstract class AbstractFile implements IImportSource {
    */
   @Override
   public Status getStatus(String key) {
-    if (textNodeMap.containsKey(key)) {
-      TextNode textNode = textNodeMap.get(key);
-      return textNode.getStatus();
-    }
-    
-    return null;
+    TextNode textNode = textNodeMap.get(key);
+    return textNode != null ? textNode.getStatus() : null;
   }
   
   /**
@@ -128,5 +118,13 @@ public abstract class AbstractFile implements IImportSource {
   public String[] getKeys() {
     return textNodeMap.keySet().toArray(new String[textNodeMap.size()]);
   }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Iterable<IImportEntry> getEntries() {
+    return Collections.unmodifiableCollection(textNodeMap.values());
+  }
   
 }
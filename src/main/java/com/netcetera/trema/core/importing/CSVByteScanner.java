@@ -0,0 +1,327 @@
+package com.netcetera.trema.core.importing;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.netcetera.trema.core.ParseException;
+import com.netcetera.trema.core.Status;
+
+
+
+/**
+ * Scans the records of a CSV file directly on its bytes. The file has to
+ * be encoded in UTF-8 or in a single byte charset.
+ * <p>
+ * The scanner follows the rules of <code>CSVFormat.DEFAULT</code> with
+ * surrounding spaces ignored, as used by {@link CSVFile}: fields may be
+ * enclosed in double quotes (with <code>""</code> as escaped quote) and
+ * then contain separators and line breaks, records are terminated by
+ * LF, CR or CRLF and empty lines are skipped. Since the separator, the
+ * quote and the line breaks are ASCII characters, they can never be
+ * part of a multi-byte UTF-8 sequence.
+ * <p>
+ * A scanner may cover a range of a buffer only, which allows to scan
+ * the chunks of a file concurrently with one scanner per chunk.
+ * <p>
+ * Only the boundaries of the fields are recorded while scanning. A field
+ * is decoded to a <code>String</code> only when it is requested with
+ * {@link #getField(int)}, so columns that are not needed (such as the
+ * context) are never materialized. The boundary arrays are reused for
+ * all records.
+ * <p>
+ * This class should only be used internally by the CSV import sources.
+ */
+final class CSVByteScanner {
+
+  private static final byte QUOTE = '"';
+  private static final byte CR = '\r';
+  private static final byte LF = '\n';
+
+  private final ByteBuffer buffer;
+  private final Charset charset;
+  private final int end;
+  private final byte separator;
+  private int position;
+  private long lineCount;
+  private long lineNumber;
+
+  private int fieldCount = 0;
+  private int[] fieldStarts = new int[8];
+  private int[] fieldEnds = new int[8];
+  private boolean[] fieldEscaped = new boolean[8];
+  private byte[] decodeBuffer = new byte[256];
+
+  /**
+   * Constructs a scanner over a range of a buffer.
+   * @param buffer the buffer containing the CSV data
+   * @param charset the charset of the CSV data
+   * @param start the position of the first record in the buffer
+   * @param end the end position (exclusive) of the last record
+   * @param separator the CSV separator, must be an ASCII character
+   * @param lineCount the number of lines preceding <code>start</code>,
+   * used for the line numbers in parse errors
+   */
+  CSVByteScanner(ByteBuffer buffer, Charset charset, int start, int end, char separator, long lineCount) {
+    if (!isSupported(charset)) {
+      throw new IllegalArgumentException("Unsupported charset: " + charset);
+    }
+    if (separator >= 0x80 || separator == QUOTE || separator == CR || separator == LF) {
+      throw new IllegalArgumentException("Unsupported CSV separator: " + separator);
+    }
+    this.buffer = buffer;
+    this.charset = charset;
+    this.position = start;
+    this.end = end;
+    this.separator = (byte) separator;
+    this.lineCount = lineCount;
+  }
+
+  /**
+   * Checks whether a charset can be scanned on the byte level, i.e.
+   * whether the ASCII characters are encoded as single bytes which never
+   * occur within the encoding of other characters.
+   * @param charset the charset
+   * @return true if CSV data in the given charset can be scanned
+   */
+  static boolean isSupported(Charset charset) {
+    return StandardCharsets.UTF_8.equals(charset)
+      || charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1.0f
+      && "a;\"\r\n".equals(new String("a;\"\r\n".getBytes(StandardCharsets.US_ASCII), charset));
+  }
+
+  /**
+   * Gets the position of the first byte after a possible UTF-8 byte
+   * order mark at the beginning of a buffer.
+   * @param buffer the buffer
+   * @return 3 if the buffer starts with a byte order mark, 0 otherwise
+   */
+  static int skipByteOrderMark(ByteBuffer buffer) {
+    if (buffer.limit() >= 3 && buffer.get(0) == (byte) 0xEF && buffer.get(1) == (byte) 0xBB
+        && buffer.get(2) == (byte) 0xBF) {
+      return 3;
+    }
+    return 0;
+  }
+
+  /**
+   * Advances to the next non-empty record.
+   * @return false if there are no more records
+   * @throws ParseException if the record is malformed
+   */
+  boolean next() throws ParseException {
+    // skip empty lines
+    while (position < end && isLineBreak(buffer.get(position))) {
+      skipLineBreak();
+    }
+    if (position >= end) {
+      fieldCount = 0;
+      return false;
+    }
+    lineNumber = lineCount + 1;
+    fieldCount = 0;
+    while (true) {
+      while (position < end && isSpace(buffer.get(position))) {
+        position++;
+      }
+      if (position < end && buffer.get(position) == QUOTE) {
+        scanQuotedField();
+      } else {
+        scanPlainField();
+      }
+      if (position >= end) {
+        return true;
+      }
+      if (isLineBreak(buffer.get(position))) {
+        skipLineBreak();
+        return true;
+      }
+      // the separator, the next field follows
+      position++;
+    }
+  }
+
+  private void scanPlainField() {
+    int start = position;
+    while (position < end) {
+      byte b = buffer.get(position);
+      if (b == separator || b == CR || b == LF) {
+        break;
+      }
+      position++;
+    }
+    int fieldEnd = position;
+    while (fieldEnd > start && isSpace(buffer.get(fieldEnd - 1))) {
+      fieldEnd--;
+    }
+    addField(start, fieldEnd, false);
+  }
+
+  private void scanQuotedField() throws ParseException {
+    position++;
+    int start = position;
+    boolean escaped = false;
+    while (true) {
+      if (position >= end) {
+        throw new ParseException("EOF reached before encapsulated token finished.", (int) lineNumber);
+      }
+      if (buffer.get(position) == QUOTE) {
+        if (position + 1 < end && buffer.get(position + 1) == QUOTE) {
+          escaped = true;
+          position += 2;
+        } else {
+          break;
+        }
+      } else if (isLineBreak(buffer.get(position))) {
+        skipLineBreak();
+      } else {
+        position++;
+      }
+    }
+    addField(start, position, escaped);
+    position++;
+    while (position < end && isSpace(buffer.get(position))) {
+      position++;
+    }
+    if (position < end) {
+      byte b = buffer.get(position);
+      if (b != separator && b != CR && b != LF) {
+        throw new ParseException("Invalid character between encapsulated token and separator.",
+          (int) lineNumber);
+      }
+    }
+  }
+
+  /**
+   * Skips a line break at the current position, where CRLF counts as a
+   * single line break.
+   */
+  private void skipLineBreak() {
+    if (buffer.get(position++) == CR && position < end && buffer.get(position) == LF) {
+      position++;
+    }
+    lineCount++;
+  }
+
+  private void addField(int start, int fieldEnd, boolean escaped) {
+    if (fieldCount == fieldStarts.length) {
+      int length = fieldCount * 2;
+      fieldStarts = Arrays.copyOf(fieldStarts, length);
+      fieldEnds = Arrays.copyOf(fieldEnds, length);
+      fieldEscaped = Arrays.copyOf(fieldEscaped, length);
+    }
+    fieldStarts[fieldCount] = start;
+    fieldEnds[fieldCount] = fieldEnd;
+    fieldEscaped[fieldCount] = escaped;
+    fieldCount++;
+  }
+
+  /**
+   * Gets the position of the first byte after the current record.
+   * @return the position of the first byte after the current record.
+   */
+  int getPosition() {
+    return position;
+  }
+
+  /**
+   * Gets the number of fields of the current record.
+   * @return the number of fields of the current record.
+   */
+  int getFieldCount() {
+    return fieldCount;
+  }
+
+  /**
+   * Gets the number of the line the current record starts on. The first
+   * line has number 1.
+   * @return the line number of the current record.
+   */
+  long getLineNumber() {
+    return lineNumber;
+  }
+
+  /**
+   * Gets the number of lines before the current position, i.e. the
+   * lines preceding the next record.
+   * @return the number of lines before the current position.
+   */
+  long getLineCount() {
+    return lineCount;
+  }
+
+  /**
+   * Decodes a field of the current record.
+   * @param index the index of the field
+   * @return the field value
+   */
+  String getField(int index) {
+    int start = fieldStarts[index];
+    int length = fieldEnds[index] - start;
+    if (length > decodeBuffer.length) {
+      decodeBuffer = new byte[Math.max(length, decodeBuffer.length * 2)];
+    }
+    if (!fieldEscaped[index]) {
+      for (int i = 0; i < length; i++) {
+        decodeBuffer[i] = buffer.get(start + i);
+      }
+      return new String(decodeBuffer, 0, length, charset);
+    }
+    int decoded = 0;
+    for (int i = start; i < start + length; i++) {
+      byte b = buffer.get(i);
+      decodeBuffer[decoded++] = b;
+      if (b == QUOTE) {
+        // skip the second quote of an escaped quote
+        i++;
+      }
+    }
+    return new String(decodeBuffer, 0, decoded, charset);
+  }
+
+  /**
+   * Gets all fields of the current record.
+   * @return the decoded fields
+   */
+  String[] getFields() {
+    String[] fields = new String[fieldCount];
+    for (int i = 0; i < fieldCount; i++) {
+      fields[i] = getField(i);
+    }
+    return fields;
+  }
+
+  /**
+   * Advances to the next non-empty record and converts it to a text node.
+   * @param header the header of the CSV file
+   * @return the text node or <code>null</code> if there are no more
+   * records
+   * @throws ParseException if the record is malformed
+   */
+  TextNode nextTextNode(CSVHeader header) throws ParseException {
+    if (!next()) {
+      return null;
+    }
+    if (fieldCount != header.getSize()) {
+      throw new ParseException(String.format("Expected %d columns but got %d.", header.getSize(), fieldCount),
+        (int) lineNumber);
+    }
+    String key = getField(0);
+    Status status = Status.valueOf(getField(1));
+    String masterValue = header.hasMasterLanguage() ? getField(header.getMasterColumn()) : null;
+    String value = getField(header.getValueColumn());
+
+    // the context is irrelevant, so it is not decoded at all
+    return new TextNode(key, status, masterValue, value);
+  }
+
+  private static boolean isLineBreak(byte b) {
+    return b == CR || b == LF;
+  }
+
+  private boolean isSpace(byte b) {
+    return b != separator && (b == ' ' || b == '\t' || b == '\f' || b == 0x0B);
+  }
+
+}
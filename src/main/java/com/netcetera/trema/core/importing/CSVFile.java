@@ -3,10 +3,25 @@ package com.netcetera.trema.core.importing;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PushbackReader;
 import java.io.Reader;
 import java.io.StringReader;
 import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
@@ -24,9 +39,14 @@ public class CSVFile extends AbstractFile {
 
   public static final Logger LOG = LogManager.getLogger(MethodHandles.lookup().lookupClass());
 
-  /** Error message if a wrong header format is encountered. */
-  private static final String WRONG_HEADER_ERROR_MESSAGE =
-    "Expected header format: Key;Status;[Master (<language>);]Value (<language>);Context";
+  /** Files smaller than this are always parsed sequentially. */
+  private static final long MIN_PARALLEL_SIZE = 1 << 20;
+
+  /** The byte order mark as decoded from a UTF-8 file. */
+  private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+  /** The number of chunks per thread, more chunks balance the load better. */
+  private static final int CHUNKS_PER_THREAD = 4;
 
   private String pathName = null;
   private String masterLanguage = null;
@@ -57,6 +77,41 @@ public class CSVFile extends AbstractFile {
     }
   }
 
+  /**
+   * Constructs a new CSV file from a path name and parses it
+   * concurrently.
+   * <p>
+   * The file is mapped into memory and split into chunks at record
+   * boundaries, which are parsed in parallel and merged in file order.
+   * The result is the same as with sequential parsing, in particular a
+   * key that occurs more than once keeps its first position and gets the
+   * values of its last occurrence. If the encoding is neither UTF-8 nor
+   * a single byte charset, if the parallelism is 1 or if the file is
+   * small, the file is parsed sequentially.
+   * @param pathName the path
+   * @param encoding the encoding of the file
+   * @param separator the CSV separator used in the file
+   * @param parallelism the number of threads to use for parsing
+   * @throws ParseException if any parse errors occurs
+   * @throws IOException if any I/O errors occur
+   */
+  public CSVFile(String pathName, String encoding, char separator, int parallelism)
+  throws ParseException, IOException {
+    this.pathName = pathName;
+    Charset charset = Charset.forName(encoding);
+    long size = Files.size(Paths.get(pathName));
+    if (parallelism > 1 && size >= MIN_PARALLEL_SIZE && size <= Integer.MAX_VALUE
+        && CSVByteScanner.isSupported(charset)) {
+      try (FileChannel channel = FileChannel.open(Paths.get(pathName), StandardOpenOption.READ)) {
+        parseParallel(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), charset, separator, parallelism);
+      }
+    } else {
+      try (Reader reader = new InputStreamReader(new FileInputStream(pathName), charset)) {
+        parse(reader, separator);
+      }
+    }
+  }
+
   /**
    * Constructs a new CSV file from a string reader.
    * @param stringReader the string reader to read from
@@ -82,35 +137,54 @@ public class CSVFile extends AbstractFile {
      * this is of no use. Therefore, you'll get null if you were to call getHeaderMap() later on the parser. The header
      * is returned as the 1st record (i.e. row).
      */
-    CSVParser csvParser = CSVFormat.DEFAULT.withDelimiter(separator).withIgnoreSurroundingSpaces(true).parse(reader);
-
-    List<CSVRecord> records = csvParser.getRecords();
-
-    String[] header = transformHeaderMapToArray(records.get(0));
-    verifyHeader(header);
-
-    for (int i = 1; i < records.size(); i++) {
-      CSVRecord csvRecord = records.get(i);
+    CSVParser csvParser = CSVFormat.DEFAULT.withDelimiter(separator).withIgnoreSurroundingSpaces(true)
+      .parse(skipByteOrderMark(reader));
+
+    // the records are consumed one by one so that no more than the current record is held besides the text nodes
+    Iterator<CSVRecord> records = csvParser.iterator();
+    try {
+      parseRecords(csvParser, records);
+    } catch (IllegalStateException e) {
+      // the record iterator of commons-csv wraps its IO and parse errors
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw e;
+    }
+    LOG.info("Parsing of CSV file finished.");
+  }
 
-      if (csvRecord.size() != header.length) {
-        throw new ParseException(String.format("Expected %d columns but got %d.",  header.length, csvRecord.size()),
-          i + 1);
+  /**
+   * Parses the header and the text records, one record at a time.
+   * @param csvParser the parser, used for the line numbers in parse errors
+   * @param records the records of the CSV file
+   * @throws ParseException if any parse errors ocur
+   */
+  private void parseRecords(CSVParser csvParser, Iterator<CSVRecord> records) throws ParseException {
+    CSVHeader header = CSVHeader.parse(records.hasNext() ? transformHeaderMapToArray(records.next()) : null);
+    masterLanguage = header.getMasterLanguage();
+    language = header.getLanguage();
+
+    int valueColumn = header.getValueColumn();
+    // hasNext() already parses the next record, so the line a record starts on is taken before; the record number
+    // would be off after any multi-line value
+    long lineNumber = csvParser.getCurrentLineNumber() + 1;
+    while (records.hasNext()) {
+      CSVRecord csvRecord = records.next();
+
+      if (csvRecord.size() != header.getSize()) {
+        throw new ParseException(String.format("Expected %d columns but got %d.", header.getSize(), csvRecord.size()),
+          (int) lineNumber);
       }
       String key = csvRecord.get(0);
       Status status = Status.valueOf(csvRecord.get(1));
-      String masterValue = null;
-      String value;
-      if (hasMasterLanguage()) {
-        masterValue = csvRecord.get(2);
-        value = csvRecord.get(3);
-      } else {
-        value = csvRecord.get(2);
-      }
+      String masterValue = header.hasMasterLanguage() ? csvRecord.get(header.getMasterColumn()) : null;
+      String value = csvRecord.get(valueColumn);
 
       // the context is irrelevant, so it is not added
       add(key, status, masterValue, value);
+      lineNumber = csvParser.getCurrentLineNumber() + 1;
     }
-    LOG.info("Parsing of CSV file finished.");
   }
 
   private String[] transformHeaderMapToArray(CSVRecord headerRecord) {
@@ -121,76 +195,99 @@ public class CSVFile extends AbstractFile {
     return header;
   }
 
-  private void verifyHeader(String[] header) throws ParseException {
-    if (header == null || header.length == 0) {
-      throwWrongHeaderException();
-    } else {
-      verifyHeaderSize(header);
-      verifyHeaderColumn(header, 0, AbstractFile.KEY_HEADER);
-      verifyHeaderColumn(header, 1, AbstractFile.STATUS_HEADER);
-      boolean masterHeaderPresent = hasHeaderColumnStartingWith(header, 2, AbstractFile.MASTER_HEADER);
-      verifyHeaderColumnStartsWith(header, masterHeaderPresent ? 3 : 2, AbstractFile.VALUE_HEADER);
-      verifyHeaderColumn(header, masterHeaderPresent ? 4 : 3, AbstractFile.CONTEXT_HEADER);
-      if (masterHeaderPresent) {
-        masterLanguage = extractLanguage(header[2]);
-      }
-      language = extractLanguage(header[masterHeaderPresent ? 3 : 2]);
-      if (language.equals(masterLanguage)) {
-        throw new ParseException("The master language cannot be the same as the exported language.", 1);
-      }
-    }
-  }
-
-  private void verifyHeaderColumnStartsWith(String[] header, int index, String expectedHaderNamePrefix)
-      throws ParseException {
-    if (!hasHeaderColumnStartingWith(header, index, expectedHaderNamePrefix)) {
-      throwWrongHeaderException();
+  /**
+   * Skips a leading byte order mark, the same way as the parallel
+   * parsing does for UTF-8 files.
+   * @param reader the reader
+   * @return a reader which starts after the byte order mark, if any
+   * @throws IOException if any IO errors occur
+   */
+  private static Reader skipByteOrderMark(Reader reader) throws IOException {
+    PushbackReader pushbackReader = new PushbackReader(reader);
+    int first = pushbackReader.read();
+    if (first != -1 && first != BYTE_ORDER_MARK) {
+      pushbackReader.unread(first);
     }
+    return pushbackReader;
   }
 
-  private boolean hasHeaderColumnStartingWith(String[] header, int index, String expectedHeaderNamePrefix) {
-    String headerName = header[index];
-    return headerName != null && headerName.startsWith(expectedHeaderNamePrefix);
-  }
+  /**
+   * Parses a CSV file in chunks concurrently.
+   * @param buffer the mapped file
+   * @param charset the charset of the file
+   * @param separator the CSV separator
+   * @param parallelism the number of threads to use
+   * @throws ParseException if any parse errors ocur
+   * @throws IOException if any IO errors occur
+   */
+  private void parseParallel(ByteBuffer buffer, Charset charset, char separator, int parallelism)
+  throws IOException, ParseException {
+    LOG.info("Parsing CSV file with " + parallelism + " threads...");
+    int start = StandardCharsets.UTF_8.equals(charset) ? CSVByteScanner.skipByteOrderMark(buffer) : 0;
+    CSVByteScanner scanner = new CSVByteScanner(buffer, charset, start, buffer.limit(), separator, 0);
+    CSVHeader header = CSVHeader.parse(scanner.next() ? scanner.getFields() : null);
+    masterLanguage = header.getMasterLanguage();
+    language = header.getLanguage();
 
-  private void verifyHeaderColumn(String[] header, int index, String expectedHeaderName) throws ParseException {
-    String headerName = header[index];
-    if (headerName == null || !headerName.equals(expectedHeaderName)) {
-      throwWrongHeaderException();
+    /*
+     * Finding safe chunk boundaries requires to know whether a line break is within a quoted field, which can
+     * only be decided by scanning from the start. This pass only looks at the bytes, the expensive decoding of the
+     * fields happens in the chunks.
+     */
+    int chunkSize = Math.max(1, (buffer.limit() - scanner.getPosition()) / (parallelism * CHUNKS_PER_THREAD));
+    List<int[]> chunks = new ArrayList<>();
+    int chunkStart = scanner.getPosition();
+    long chunkLineCount = scanner.getLineCount();
+    while (scanner.next()) {
+      if (scanner.getPosition() - chunkStart >= chunkSize) {
+        chunks.add(new int[] {chunkStart, scanner.getPosition(), (int) chunkLineCount});
+        chunkStart = scanner.getPosition();
+        chunkLineCount = scanner.getLineCount();
+      }
     }
-  }
-
-  private void verifyHeaderSize(String[] headerMap) throws ParseException {
-    // header's got 4 or 5 elements (master lang is optional)
-    if (headerMap.length < 4) {
-      throwWrongHeaderException();
+    if (chunkStart < buffer.limit()) {
+      chunks.add(new int[] {chunkStart, buffer.limit(), (int) chunkLineCount});
     }
-  }
 
-  private void throwWrongHeaderException() throws ParseException {
-    throw new ParseException(WRONG_HEADER_ERROR_MESSAGE, 1);
+    ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+    try {
+      List<Future<List<TextNode>>> results = new ArrayList<>(chunks.size());
+      for (int[] chunk : chunks) {
+        // every chunk gets its own view of the buffer since buffers are not thread-safe
+        ByteBuffer view = buffer.duplicate();
+        results.add(pool.submit(() -> parseChunk(
+          new CSVByteScanner(view, charset, chunk[0], chunk[1], separator, chunk[2]), header)));
+      }
+      // merging in file order keeps the order and the "last key wins" semantics of the sequential parsing
+      Map<String, TextNode> textNodeMap = getTextNodeMap();
+      for (Future<List<TextNode>> result : results) {
+        for (TextNode textNode : result.get()) {
+          textNodeMap.put(textNode.getKey(), textNode);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while parsing " + pathName, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof ParseException) {
+        throw (ParseException) e.getCause();
+      }
+      throw new IOException("Failed to parse " + pathName, e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+    LOG.info("Parsing of CSV file finished.");
   }
 
-  /**
-   * Extracts the language of the "master language value" and "value"
-   * column heading in the first line of the trema CSV file.
-   * @param columnHeading the column heading. The expected format is:
-   * <code>master (&lt;lang&gt;)</code> or <code>value (&lt;lang&gt;)</code>.
-   * @return the extracted language
-   * @throws ParseException if any parse errors occur
-   */
-  private String extractLanguage(String columnHeading) throws ParseException {
-    int start = columnHeading.indexOf('(');
-    int end = columnHeading.indexOf(')');
-
-    if (start == -1 || end == -1 || start >= end) {
-      throwWrongHeaderException();
+  private static List<TextNode> parseChunk(CSVByteScanner scanner, CSVHeader header) throws ParseException {
+    List<TextNode> textNodes = new ArrayList<>();
+    TextNode textNode;
+    while ((textNode = scanner.nextTextNode(header)) != null) {
+      textNodes.add(textNode);
     }
-    return columnHeading.substring(start + 1, end);
+    return textNodes;
   }
 
-
-
   /**
    * Gets the pathname of this CSV file.
    * @return the pathname of this CSV file.
@@ -0,0 +1,154 @@
+package com.netcetera.trema.core.importing;
+
+import com.netcetera.trema.core.ParseException;
+
+
+
+/**
+ * The verified header line of a trema CSV file, i.e.
+ * <code>Key;Status;[Master (&lt;language&gt;);]Value (&lt;language&gt;);Context</code>.
+ * <p>
+ * This class should only be used internally by the CSV import sources.
+ */
+final class CSVHeader {
+
+  /** Error message if a wrong header format is encountered. */
+  private static final String WRONG_HEADER_ERROR_MESSAGE =
+    "Expected header format: Key;Status;[Master (<language>);]Value (<language>);Context";
+
+  private final int size;
+  private final String masterLanguage;
+  private final String language;
+
+  private CSVHeader(int size, String masterLanguage, String language) {
+    this.size = size;
+    this.masterLanguage = masterLanguage;
+    this.language = language;
+  }
+
+  /**
+   * Verifies the given header columns and extracts the languages.
+   * @param header the header columns, may be <code>null</code>
+   * @return the verified header
+   * @throws ParseException if the header does not have the expected format
+   */
+  static CSVHeader parse(String[] header) throws ParseException {
+    if (header == null || header.length == 0) {
+      throw wrongHeaderException();
+    }
+    verifyHeaderSize(header);
+    verifyHeaderColumn(header, 0, AbstractFile.KEY_HEADER);
+    verifyHeaderColumn(header, 1, AbstractFile.STATUS_HEADER);
+    boolean masterHeaderPresent = hasHeaderColumnStartingWith(header, 2, AbstractFile.MASTER_HEADER);
+    verifyHeaderColumnStartsWith(header, masterHeaderPresent ? 3 : 2, AbstractFile.VALUE_HEADER);
+    verifyHeaderColumn(header, masterHeaderPresent ? 4 : 3, AbstractFile.CONTEXT_HEADER);
+    String masterLanguage = null;
+    if (masterHeaderPresent) {
+      masterLanguage = extractLanguage(header[2]);
+    }
+    String language = extractLanguage(header[masterHeaderPresent ? 3 : 2]);
+    if (language.equals(masterLanguage)) {
+      throw new ParseException("The master language cannot be the same as the exported language.", 1);
+    }
+    return new CSVHeader(header.length, masterLanguage, language);
+  }
+
+  private static void verifyHeaderColumnStartsWith(String[] header, int index, String expectedHaderNamePrefix)
+      throws ParseException {
+    if (!hasHeaderColumnStartingWith(header, index, expectedHaderNamePrefix)) {
+      throw wrongHeaderException();
+    }
+  }
+
+  private static boolean hasHeaderColumnStartingWith(String[] header, int index, String expectedHeaderNamePrefix) {
+    String headerName = index < header.length ? header[index] : null;
+    return headerName != null && headerName.startsWith(expectedHeaderNamePrefix);
+  }
+
+  private static void verifyHeaderColumn(String[] header, int index, String expectedHeaderName)
+      throws ParseException {
+    String headerName = index < header.length ? header[index] : null;
+    if (headerName == null || !headerName.equals(expectedHeaderName)) {
+      throw wrongHeaderException();
+    }
+  }
+
+  private static void verifyHeaderSize(String[] headerMap) throws ParseException {
+    // header's got 4 or 5 elements (master lang is optional)
+    if (headerMap.length < 4) {
+      throw wrongHeaderException();
+    }
+  }
+
+  private static ParseException wrongHeaderException() {
+    return new ParseException(WRONG_HEADER_ERROR_MESSAGE, 1);
+  }
+
+  /**
+   * Extracts the language of the "master language value" and "value"
+   * column heading in the first line of the trema CSV file.
+   * @param columnHeading the column heading. The expected format is:
+   * <code>master (&lt;lang&gt;)</code> or <code>value (&lt;lang&gt;)</code>.
+   * @return the extracted language
+   * @throws ParseException if any parse errors occur
+   */
+  private static String extractLanguage(String columnHeading) throws ParseException {
+    int start = columnHeading.indexOf('(');
+    int end = columnHeading.indexOf(')');
+
+    if (start == -1 || end == -1 || start >= end) {
+      throw wrongHeaderException();
+    }
+    return columnHeading.substring(start + 1, end);
+  }
+
+  /**
+   * Gets the number of columns.
+   * @return the number of columns.
+   */
+  int getSize() {
+    return size;
+  }
+
+  /**
+   * Gets the master language.
+   * @return the master language or <code>null</code> if there is no
+   * master column.
+   */
+  String getMasterLanguage() {
+    return masterLanguage;
+  }
+
+  /**
+   * Gets the language of the value column.
+   * @return the language of the value column.
+   */
+  String getLanguage() {
+    return language;
+  }
+
+  /**
+   * Checks if a master column is present.
+   * @return true if a master column is present.
+   */
+  boolean hasMasterLanguage() {
+    return masterLanguage != null;
+  }
+
+  /**
+   * Gets the index of the master column.
+   * @return the index of the master column or -1 if there is none.
+   */
+  int getMasterColumn() {
+    return hasMasterLanguage() ? 2 : -1;
+  }
+
+  /**
+   * Gets the index of the value column.
+   * @return the index of the value column.
+   */
+  int getValueColumn() {
+    return hasMasterLanguage() ? 3 : 2;
+  }
+
+}
@@ -0,0 +1,292 @@
+package com.netcetera.trema.core.importing;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import com.netcetera.trema.core.Status;
+
+
+
+/**
+ * A compact collection of the changes of one import. Instead of holding
+ * a {@link Change} object per change, the attributes of the changes are
+ * stored column by column in parallel arrays: the types, statuses and
+ * flags as bytes, the keys, contexts and values as references to the
+ * strings of the import source and the database. The language and the
+ * master language are shared by all changes.
+ * <p>
+ * {@link #get(int)} creates a <code>Change</code> view of a single
+ * change on demand. Since views are independent of the set,
+ * modifications of the accept attribute have to be made with
+ * {@link #setAccept(int, boolean)}.
+ */
+public final class ChangeSet {
+
+  private static final int DEFAULT_CAPACITY = 16;
+  private static final byte NO_STATUS = -1;
+  private static final Status[] STATUS_BY_POSITION = Status.getAvailableStatus();
+
+  private static final byte CONFLICTING = 1;
+  private static final byte ACCEPTABLE = 2;
+  private static final byte ACCEPT = 4;
+
+  private final String language;
+  private final String masterLanguage;
+  private int size = 0;
+
+  private byte[] types;
+  private byte[] flags;
+  private byte[] dbStatus;
+  private byte[] importedStatus;
+  private byte[] acceptStatus;
+  private String[] keys;
+  private String[] contexts;
+  private String[] dbValues;
+  private String[] importedValues;
+  private String[] acceptValues;
+  private String[] dbMasterValues;
+  private String[] importedMasterValues;
+  private String[] acceptMasterValues;
+
+  /**
+   * Constructs an empty change set.
+   * @param language the language of the changes
+   * @param masterLanguage the master language of the changes, may be
+   * <code>null</code>
+   */
+  public ChangeSet(String language, String masterLanguage) {
+    this.language = language;
+    this.masterLanguage = masterLanguage;
+    types = new byte[DEFAULT_CAPACITY];
+    flags = new byte[DEFAULT_CAPACITY];
+    dbStatus = new byte[DEFAULT_CAPACITY];
+    importedStatus = new byte[DEFAULT_CAPACITY];
+    acceptStatus = new byte[DEFAULT_CAPACITY];
+    keys = new String[DEFAULT_CAPACITY];
+    contexts = new String[DEFAULT_CAPACITY];
+    dbValues = new String[DEFAULT_CAPACITY];
+    importedValues = new String[DEFAULT_CAPACITY];
+    acceptValues = new String[DEFAULT_CAPACITY];
+    if (masterLanguage != null) {
+      dbMasterValues = new String[DEFAULT_CAPACITY];
+      importedMasterValues = new String[DEFAULT_CAPACITY];
+      acceptMasterValues = new String[DEFAULT_CAPACITY];
+    }
+  }
+
+  /**
+   * Adds a change to this set. The change itself is not retained.
+   * @param change the change to add
+   * @throws IllegalArgumentException if the languages of the change do
+   * not match the languages of this set
+   */
+  public void add(Change change) {
+    if (!Objects.equals(language, change.getLanguage())
+        || !Objects.equals(masterLanguage, change.getMasterLanguage())) {
+      throw new IllegalArgumentException("The languages of the change do not match the change set: "
+                                         + change.getKey());
+    }
+    if (size == types.length) {
+      grow();
+    }
+    int i = size++;
+    types[i] = (byte) change.getType();
+    flags[i] = (byte) ((change.isConflicting() ? CONFLICTING : 0) | (change.isAcceptable() ? ACCEPTABLE : 0)
+                       | (change.isAccept() ? ACCEPT : 0));
+    dbStatus[i] = toByte(change.getDbStatus());
+    importedStatus[i] = toByte(change.getImportedStatus());
+    acceptStatus[i] = toByte(change.getAcceptStatus());
+    keys[i] = change.getKey();
+    contexts[i] = change.getContext();
+    dbValues[i] = change.getDbValue();
+    importedValues[i] = change.getImportedValue();
+    acceptValues[i] = change.getAcceptValue();
+    if (masterLanguage != null) {
+      dbMasterValues[i] = change.getDbMasterValue();
+      importedMasterValues[i] = change.getImportedMasterValue();
+      acceptMasterValues[i] = change.getAcceptMasterValue();
+    }
+  }
+
+  private void grow() {
+    int capacity = Math.max(DEFAULT_CAPACITY, types.length * 2);
+    types = Arrays.copyOf(types, capacity);
+    flags = Arrays.copyOf(flags, capacity);
+    dbStatus = Arrays.copyOf(dbStatus, capacity);
+    importedStatus = Arrays.copyOf(importedStatus, capacity);
+    acceptStatus = Arrays.copyOf(acceptStatus, capacity);
+    keys = Arrays.copyOf(keys, capacity);
+    contexts = Arrays.copyOf(contexts, capacity);
+    dbValues = Arrays.copyOf(dbValues, capacity);
+    importedValues = Arrays.copyOf(importedValues, capacity);
+    acceptValues = Arrays.copyOf(acceptValues, capacity);
+    if (masterLanguage != null) {
+      dbMasterValues = Arrays.copyOf(dbMasterValues, capacity);
+      importedMasterValues = Arrays.copyOf(importedMasterValues, capacity);
+      acceptMasterValues = Arrays.copyOf(acceptMasterValues, capacity);
+    }
+  }
+
+  private static byte toByte(Status status) {
+    return status != null ? (byte) status.getPosition() : NO_STATUS;
+  }
+
+  private static Status toStatus(byte position) {
+    return position != NO_STATUS ? STATUS_BY_POSITION[position] : null;
+  }
+
+  /**
+   * Gets the number of changes in this set.
+   * @return the number of changes in this set.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the language of the changes.
+   * @return the language of the changes.
+   */
+  public String getLanguage() {
+    return language;
+  }
+
+  /**
+   * Gets the master language of the changes.
+   * @return the master language or <code>null</code> if there is none.
+   */
+  public String getMasterLanguage() {
+    return masterLanguage;
+  }
+
+  /**
+   * Gets the type of a change.
+   * @param index the index of the change
+   * @return the type of the change
+   */
+  public int getType(int index) {
+    checkIndex(index);
+    return types[index];
+  }
+
+  /**
+   * Gets the key of a change.
+   * @param index the index of the change
+   * @return the key of the change
+   */
+  public String getKey(int index) {
+    checkIndex(index);
+    return keys[index];
+  }
+
+  /**
+   * Checks whether a change is conflicting.
+   * @param index the index of the change
+   * @return true if the change is conflicting
+   */
+  public boolean isConflicting(int index) {
+    checkIndex(index);
+    return (flags[index] & CONFLICTING) != 0;
+  }
+
+  /**
+   * Checks whether a change is to be accepted.
+   * @param index the index of the change
+   * @return true if the change is to be accepted
+   */
+  public boolean isAccept(int index) {
+    checkIndex(index);
+    return (flags[index] & ACCEPT) != 0;
+  }
+
+  /**
+   * Sets whether a change is to be accepted. Like with
+   * {@link Change#setAccept(boolean)}, a change which is not acceptable
+   * cannot be set to be accepted.
+   * @param index the index of the change
+   * @param accept true if the change is to be accepted
+   */
+  public void setAccept(int index, boolean accept) {
+    checkIndex(index);
+    flags[index] = (byte) (accept && (flags[index] & ACCEPTABLE) != 0 ? flags[index] | ACCEPT : flags[index] & ~ACCEPT);
+  }
+
+  /**
+   * Creates a <code>Change</code> view of a change of this set.
+   * @param index the index of the change
+   * @return a new <code>Change</code> with the attributes of the change
+   */
+  public Change get(int index) {
+    checkIndex(index);
+    Change change = new Change(types[index], language, keys[index], importedValues[index],
+                               toStatus(importedStatus[index]));
+    change.setContext(contexts[index]);
+    change.setDbValue(dbValues[index]);
+    change.setDbStatus(toStatus(dbStatus[index]));
+    if (masterLanguage != null) {
+      change.setMasterLanguage(masterLanguage);
+      change.setDbMasterValue(dbMasterValues[index]);
+      change.setImportedMasterValue(importedMasterValues[index]);
+      change.setAcceptMasterValue(acceptMasterValues[index]);
+    }
+    change.setConflicting((flags[index] & CONFLICTING) != 0);
+    change.setAcceptable((flags[index] & ACCEPTABLE) != 0);
+    change.setAccept((flags[index] & ACCEPT) != 0);
+    change.setAcceptStatus(toStatus(acceptStatus[index]));
+    change.setAcceptValue(acceptValues[index]);
+    return change;
+  }
+
+  /**
+   * Gets a list of <code>Change</code> views of the changes of this set,
+   * e.g. to apply them with
+   * {@link ChangesAnalyzer#applyChanges(com.netcetera.trema.core.api.IDatabase, java.util.Collection)}.
+   * The views are created when the elements are accessed.
+   * @return an unmodifiable list of views
+   */
+  public List<Change> asList() {
+    return new AbstractList<Change>() {
+      @Override
+      public Change get(int index) {
+        return ChangeSet.this.get(index);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  /**
+   * Reduces the capacity of this set to its size.
+   */
+  public void trimToSize() {
+    if (size < types.length) {
+      types = Arrays.copyOf(types, size);
+      flags = Arrays.copyOf(flags, size);
+      dbStatus = Arrays.copyOf(dbStatus, size);
+      importedStatus = Arrays.copyOf(importedStatus, size);
+      acceptStatus = Arrays.copyOf(acceptStatus, size);
+      keys = Arrays.copyOf(keys, size);
+      contexts = Arrays.copyOf(contexts, size);
+      dbValues = Arrays.copyOf(dbValues, size);
+      importedValues = Arrays.copyOf(importedValues, size);
+      acceptValues = Arrays.copyOf(acceptValues, size);
+      if (masterLanguage != null) {
+        dbMasterValues = Arrays.copyOf(dbMasterValues, size);
+        importedMasterValues = Arrays.copyOf(importedMasterValues, size);
+        acceptMasterValues = Arrays.copyOf(acceptMasterValues, size);
+      }
+    }
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    }
+  }
+
+}
@@ -2,12 +2,19 @@ package com.netcetera.trema.core.importing;
 
 import com.netcetera.trema.core.Status;
 import com.netcetera.trema.core.api.IDatabase;
+import com.netcetera.trema.core.api.IImportEntry;
 import com.netcetera.trema.core.api.IImportSource;
 import com.netcetera.trema.core.api.ITextNode;
 import com.netcetera.trema.core.api.IValueNode;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
 
 
 
@@ -31,18 +38,38 @@ public class ChangesAnalyzer {
 
   private boolean useMasterValueFromFile = true;
 
+  /** The text nodes of the database by their key. */
+  private final Map<String, ITextNode> textNodeIndex;
+
 
 
 
 
   /**
-   * Creates a new instance.
+   * Creates a new instance. The text nodes of the database are indexed
+   * by their key, so the keys of the database must not be changed
+   * until the analysis is done.
    * @param importSource the import source
    * @param db the database
    * @throws IllegalArgumentException if there is a mismatch between
    * the master languages
    */
   public ChangesAnalyzer(IImportSource importSource, IDatabase db) throws IllegalArgumentException {
+    this(importSource, db, indexTextNodes(db));
+  }
+
+  /**
+   * Creates a new instance with an index of the database text nodes,
+   * e.g. one shared with other analyzers.
+   * @param importSource the import source
+   * @param db the database
+   * @param textNodeIndex the index, built by
+   * {@link #indexTextNodes(IDatabase)} for the database
+   * @throws IllegalArgumentException if there is a mismatch between
+   * the master languages
+   */
+  ChangesAnalyzer(IImportSource importSource, IDatabase db, Map<String, ITextNode> textNodeIndex)
+    throws IllegalArgumentException {
     // if the import source has not got a master language, its language has to be the same as the db's
     // master language
     if (!importSource.hasMasterLanguage() && !importSource.getLanguage().equals(db.getMasterLanguage())) {
@@ -58,6 +85,7 @@ public class ChangesAnalyzer {
 
     this.importSource = importSource;
     this.db = db;
+    this.textNodeIndex = textNodeIndex;
   }
 
 
@@ -66,46 +94,163 @@ public class ChangesAnalyzer {
    * and classifies them as conflicting and non-conflicting.
    */
   public void analyze() {
-    for (String key : importSource.getKeys()) {
-      Change change = createChange(key);
-      setConflictAttributes(change);
-
-      if (change.getType() != Change.TYPE_NO_CHANGE) {
-        if (change.isConflicting()) {
-          conflictingChanges.add(change);
-        } else {
-          nonConflictingChanges.add(change);
-        }
+    for (IImportEntry entry : importSource.getEntries()) {
+      Change change = analyze(entry);
+      if (change != null) {
+        classify(change);
+      }
+    }
+  }
+
+  /**
+   * Determines the changes between the import source and the database
+   * and passes each of them to a consumer as soon as it is classified.
+   * In contrast to {@link #analyze()} the changes are not collected, so
+   * {@link #getConflictingChanges()} and {@link #getNonConflictingChanges()}
+   * are not affected. Entries which do not differ from the database are
+   * skipped without creating a <code>Change</code> for them, like changes
+   * of type <code>Change.TYPE_NO_CHANGE</code>.
+   * @param consumer the consumer of the changes, use
+   * {@link Change#isConflicting()} to tell conflicting from
+   * non-conflicting changes
+   */
+  public void analyze(Consumer<Change> consumer) {
+    for (IImportEntry entry : importSource.getEntries()) {
+      Change change = analyze(entry);
+      if (change != null && change.getType() != Change.TYPE_NO_CHANGE) {
+        consumer.accept(change);
       }
     }
   }
 
   /**
-   * Creates a <code>Change</code> object for a given key. Note that
-   * only the conflict attributes of the change (i.e.
+   * Determines the changes between the import source and the database
+   * and collects them in a compact {@link ChangeSet}, which is more
+   * economic than the <code>Change</code> objects of {@link #analyze()}
+   * for large imports.
+   * @return the changes, in the order of the import source
+   */
+  public ChangeSet analyzeToChangeSet() {
+    ChangeSet changeSet = new ChangeSet(importSource.getLanguage(),
+                                        importSource.hasMasterLanguage() ? importSource.getMasterLanguage() : null);
+    analyze(changeSet::add);
+    changeSet.trimToSize();
+    return changeSet;
+  }
+
+  /**
+   * Determines the changes between the import source and the database
+   * in parallel and classifies them as conflicting and non-conflicting.
+   * The entries of the import source are split into ranges which are
+   * analyzed by the tasks of the given pool. The changes are collected
+   * in the order of the import source, so the result is the same as the
+   * one of {@link #analyze()}.
+   * <p>
+   * The database must not be modified during the analysis. Subclasses
+   * overriding {@link #createChange(IImportEntry)}, <code>createChange(String)</code>,
+   * {@link #setChangeType(Change)} or {@link #setConflictAttributes(Change)}
+   * have to make sure these methods can be called concurrently.
+   * @param pool the pool to run the analysis in
+   */
+  public void analyze(ForkJoinPool pool) {
+    List<IImportEntry> entries = new ArrayList<>(importSource.getSize());
+    for (IImportEntry entry : importSource.getEntries()) {
+      entries.add(entry);
+    }
+    Change[] changes = new Change[entries.size()];
+    pool.invoke(new AnalyzeTask(entries, changes, 0, changes.length));
+    for (Change change : changes) {
+      if (change != null) {
+        classify(change);
+      }
+    }
+  }
+
+  /**
+   * Creates the change for an entry and sets its conflict attributes.
+   * The change type is determined from the imported and the database
+   * values first, so no <code>Change</code> is created for an entry which
+   * does not differ from the database.
+   * @param entry the entry of the import source
+   * @return the change or <code>null</code> if the entry does not differ
+   * from the database
+   */
+  private Change analyze(IImportEntry entry) {
+    if (getChangeType(entry) == Change.TYPE_NO_CHANGE) {
+      return null;
+    }
+    Change change = createChange(entry);
+    setConflictAttributes(change);
+    return change;
+  }
+
+  /**
+   * Adds a change to the conflicting or non-conflicting changes, unless
+   * it is of type <code>Change.TYPE_NO_CHANGE</code>.
+   * @param change the change
+   */
+  private void classify(Change change) {
+    if (change.getType() != Change.TYPE_NO_CHANGE) {
+      if (change.isConflicting()) {
+        conflictingChanges.add(change);
+      } else {
+        nonConflictingChanges.add(change);
+      }
+    }
+  }
+
+  /**
+   * Creates a <code>Change</code> object for a given entry of the import
+   * source. Note that only the conflict attributes of the change (i.e.
    * conflicting/non-conflicting, acceptable/not acceptable,
    * to be accepted/not to be accepted and the values to be accepted)
    * are <b>not</b> set. Use
    * {@link ChangesAnalyzer#setConflictAttributes(Change)} for that
    * purpose.
+   * <p>
+   * This is the method used by the analysis. The default implementation
+   * calls {@link #createChange(String)}, so subclasses overriding that
+   * method keep working.
+   * @param entry the entry of the import source
+   * @return a <code>Change</code> object
+   */
+  protected Change createChange(IImportEntry entry) {
+    return createChange(entry.getKey());
+  }
+
+  /**
+   * Creates a <code>Change</code> object for a given key, see
+   * {@link #createChange(IImportEntry)}.
    * @param key the key
    * @return a <code>Change</code> object
+   * @deprecated override {@link #createChange(IImportEntry)} instead
    */
+  @Deprecated
   protected Change createChange(String key) {
+    return newChange(new TextNode(key, importSource.getStatus(key), importSource.getMasterValue(key),
+                                  importSource.getValue(key)));
+  }
+
+  /**
+   * Creates the <code>Change</code> object for an entry of the import
+   * source, without conflict attributes.
+   * @param entry the entry of the import source
+   * @return a <code>Change</code> object
+   */
+  private Change newChange(IImportEntry entry) {
+    String key = entry.getKey();
     String language = importSource.getLanguage();
-    String importedValue = importSource.getValue(key);
-    Status importedStatus = importSource.getStatus(key);
 
     // basic change
-    Change change = new Change(Change.TYPE_NO_CHANGE, language, key, importedValue, importedStatus);
+    Change change = new Change(Change.TYPE_NO_CHANGE, language, key, entry.getValue(), entry.getStatus());
 
-    ITextNode textNode = db.getTextNode(key);
+    ITextNode textNode = getTextNode(key);
     if (importSource.hasMasterLanguage()) {
       String masterLanguage = importSource.getMasterLanguage();
       change.setMasterLanguage(masterLanguage);
 
       // imported master value
-      change.setImportedMasterValue(importSource.getMasterValue(key));
+      change.setImportedMasterValue(entry.getMasterValue());
 
       // db master value
       if (textNode != null) {
@@ -138,54 +283,115 @@ public class ChangesAnalyzer {
    * @param change the change
    */
   protected void setChangeType(Change change) {
-    if (db.getTextNode(change.getKey()) == null) {
+    change.setType(getChangeType(getTextNode(change.getKey()) != null, change.hasMasterLanguage(),
+                                 change.getDbMasterValue(), change.getImportedMasterValue(),
+                                 change.getDbValue(), change.getDbStatus(),
+                                 change.getImportedValue(), change.getImportedStatus()));
+  }
+
+  /**
+   * Determines the change type of an entry of the import source without
+   * creating a <code>Change</code> object.
+   * @param entry the entry of the import source
+   * @return the change type
+   */
+  private int getChangeType(IImportEntry entry) {
+    ITextNode textNode = getTextNode(entry.getKey());
+    if (textNode == null) {
+      return Change.TYPE_KEY_ADDITION;
+    }
+    String dbMasterValue = null;
+    if (importSource.hasMasterLanguage()) {
+      IValueNode masterValueNode = textNode.getValueNode(importSource.getMasterLanguage());
+      dbMasterValue = masterValueNode != null ? masterValueNode.getValue() : null;
+    }
+    IValueNode valueNode = textNode.getValueNode(importSource.getLanguage());
+    return getChangeType(true, importSource.hasMasterLanguage(), dbMasterValue, entry.getMasterValue(),
+                         valueNode != null ? valueNode.getValue() : null,
+                         valueNode != null ? valueNode.getStatus() : null,
+                         entry.getValue(), entry.getStatus());
+  }
+
+  /**
+   * Determines the change type from the imported and the database values.
+   * These are the rules of {@link #setChangeType(Change)}.
+   * @param keyExists whether the key exists in the database
+   * @param hasMasterLanguage whether the import source has a master
+   * language
+   * @param dbMasterValue the database master value
+   * @param importedMasterValue the imported master value
+   * @param dbValue the database value
+   * @param dbStatus the database status
+   * @param importedValue the imported value
+   * @param importedStatus the imported status
+   * @return the change type
+   */
+  private static int getChangeType(boolean keyExists, boolean hasMasterLanguage,
+                                   String dbMasterValue, String importedMasterValue,
+                                   String dbValue, Status dbStatus, String importedValue, Status importedStatus) {
+    if (!keyExists) {
       // addition (key appears in the import source but not in the db)
-      change.setType(Change.TYPE_KEY_ADDITION);
-      return;
+      return Change.TYPE_KEY_ADDITION;
     }
 
-    if (change.hasMasterLanguage()) {
-      String dbMasterValue = change.getDbMasterValue();
+    if (hasMasterLanguage) {
       if (dbMasterValue == null) {
         // master language value does not exist in the db
-        change.setType(Change.TYPE_MASTER_LANGUAGE_ADDITION);
-        return;
+        return Change.TYPE_MASTER_LANGUAGE_ADDITION;
       }
-      if (!dbMasterValue.equals(change.getImportedMasterValue())) {
+      if (!dbMasterValue.equals(importedMasterValue)) {
         // master language value has changed
-        change.setType(Change.TYPE_MASTER_VALUE_CHANGED);
-        return;
+        return Change.TYPE_MASTER_VALUE_CHANGED;
       }
     }
 
     // check the database value
-    String dbValue = change.getDbValue();
     if (dbValue == null) {
       // value does not exist in the database
-      change.setType(Change.TYPE_LANGUAGE_ADDITION);
-      return;
+      return Change.TYPE_LANGUAGE_ADDITION;
     }
 
-    String importedValue = change.getImportedValue();
-    Status importedStatus = change.getImportedStatus();
-
-    Status dbStatus = change.getDbStatus();
-
     if (dbValue.equals(importedValue)) {
       // values are the same, check status now
       if (importedStatus.compareTo(dbStatus) < 0) {
-        change.setType(Change.TYPE_IMPORTED_STATUS_OLDER);
+        return Change.TYPE_IMPORTED_STATUS_OLDER;
       } else if (importedStatus.compareTo(dbStatus) > 0) {
-        change.setType(Change.TYPE_IMPORTED_STATUS_NEWER);
-      }
-    } else {
-      // values have changed
-      if (dbStatus == importedStatus) {
-        change.setType(Change.TYPE_VALUE_CHANGED);
-      } else {
-        change.setType(Change.TYPE_VALUE_AND_STATUS_CHANGED);
+        return Change.TYPE_IMPORTED_STATUS_NEWER;
       }
+      return Change.TYPE_NO_CHANGE;
+    }
+
+    // values have changed
+    if (dbStatus == importedStatus) {
+      return Change.TYPE_VALUE_CHANGED;
+    }
+    return Change.TYPE_VALUE_AND_STATUS_CHANGED;
+  }
+
+  /**
+   * Gets the database text node for a given key. The text nodes are
+   * looked up in the index built when the analyzer was created.
+   * @param key the key
+   * @return the text node or <code>null</code> if there is none
+   */
+  protected ITextNode getTextNode(String key) {
+    return textNodeIndex.get(key);
+  }
+
+  /**
+   * Builds an index of the text nodes of a database by their key. If a
+   * key occurs more than once, the first text node is indexed, as
+   * {@link IDatabase#getTextNode(String)} would return it.
+   * @param db the database
+   * @return the text nodes by their key
+   */
+  static Map<String, ITextNode> indexTextNodes(IDatabase db) {
+    ITextNode[] textNodes = db.getTextNodes();
+    Map<String, ITextNode> index = new HashMap<>(textNodes.length * 4 / 3 + 1);
+    for (ITextNode textNode : textNodes) {
+      index.putIfAbsent(textNode.getKey(), textNode);
     }
+    return index;
   }
 
   /**
@@ -198,6 +404,22 @@ public class ChangesAnalyzer {
    * encountered.
    */
   protected void setConflictAttributes(Change change) throws IllegalArgumentException {
+    setDefaultConflictAttributes(change, useMasterValueFromFile);
+  }
+
+  /**
+   * Determines whether a change is conflicting, acceptable and to be
+   * accepted and sets the values to be accepted, following the default
+   * conflict specification: the "old status" / "new status" matrix with
+   * the database status as old and the imported status as new status.
+   * @param change the change to be analyzed
+   * @param useMasterValueFromFile whether the imported master value is
+   * to be accepted, see {@link #setUseMasterValueFromFile(boolean)}
+   * @throws IllegalArgumentException if an unknown change type is
+   * encountered.
+   */
+  public static void setDefaultConflictAttributes(Change change, boolean useMasterValueFromFile)
+      throws IllegalArgumentException {
     // default values
     change.setAcceptStatus(change.getImportedStatus());
     change.setAcceptValue(change.getImportedValue());
@@ -339,26 +561,61 @@ public class ChangesAnalyzer {
    */
   public static void applyChange(IDatabase db, Change change) {
     if (isApplicable(change)) {
-      ITextNode textNode = db.getTextNode(change.getKey());
+      // textNode would be null for TYPE_KEY_ADDITION
+      apply(db.getTextNode(change.getKey()), change);
+    }
+  }
 
-      if (textNode != null) {
-        // textNode would be null for TYPE_KEY_ADDITION
-        String language = change.getLanguage();
-        IValueNode valueNode = textNode.getValueNode(language);
-        if (valueNode != null) {
-          // valueNode would be null for TYPE_LANGUAGE_ADDITION
-          valueNode.setStatus(change.getAcceptStatus());
-          valueNode.setValue(change.getAcceptValue());
+  /**
+   * Applies a number of changes to a database. This has the same effect
+   * as calling {@link ChangesAnalyzer#applyChange(IDatabase, Change)}
+   * for each change, but the text nodes of all changes are resolved in
+   * a single pass over the database.
+   * <p>
+   * The changes are applied within a batch (see
+   * {@link IDatabase#beginBatch()}), so the listeners of the database
+   * are notified of all changed value nodes with a single event once all
+   * changes have been applied.
+   * @param db the database to apply the changes to
+   * @param changes the changes to be applied
+   * @see ChangesAnalyzer#isApplicable(Change)
+   */
+  public static void applyChanges(IDatabase db, Collection<Change> changes) {
+    Map<String, ITextNode> index = indexTextNodes(db);
+    db.beginBatch();
+    try {
+      for (Change change : changes) {
+        if (isApplicable(change)) {
+          apply(index.get(change.getKey()), change);
         }
+      }
+    } finally {
+      db.commitBatch();
+    }
+  }
 
-        if (change.hasMasterLanguage()) {
-          String masterLanguage = change.getMasterLanguage();
-          IValueNode masterValueNode = textNode.getValueNode(masterLanguage);
+  /**
+   * Sets the values to be accepted of an applicable change.
+   * @param textNode the text node of the change, may be <code>null</code>
+   * @param change the change to be applied
+   */
+  private static void apply(ITextNode textNode, Change change) {
+    if (textNode != null) {
+      String language = change.getLanguage();
+      IValueNode valueNode = textNode.getValueNode(language);
+      if (valueNode != null) {
+        // valueNode would be null for TYPE_LANGUAGE_ADDITION
+        valueNode.setStatus(change.getAcceptStatus());
+        valueNode.setValue(change.getAcceptValue());
+      }
 
-          if (masterValueNode != null) {
-            // masterValueNode would be null for TYPE_MASTER_LANGUAGE_ADDITION
-            masterValueNode.setValue(change.getAcceptMasterValue());
-          }
+      if (change.hasMasterLanguage()) {
+        String masterLanguage = change.getMasterLanguage();
+        IValueNode masterValueNode = textNode.getValueNode(masterLanguage);
+
+        if (masterValueNode != null) {
+          // masterValueNode would be null for TYPE_MASTER_LANGUAGE_ADDITION
+          masterValueNode.setValue(change.getAcceptMasterValue());
         }
       }
     }
@@ -399,4 +656,40 @@ public class ChangesAnalyzer {
     this.useMasterValueFromFile = useMasterValueFromFile;
   }
 
+  /**
+   * Analyzes a range of entries, splitting it as long as it is large.
+   */
+  private final class AnalyzeTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Ranges of at most this size are analyzed by a single task. */
+    private static final int THRESHOLD = 1024;
+
+    private final List<IImportEntry> entries;
+    private final Change[] changes;
+    private final int from;
+    private final int to;
+
+    AnalyzeTask(List<IImportEntry> entries, Change[] changes, int from, int to) {
+      this.entries = entries;
+      this.changes = changes;
+      this.from = from;
+      this.to = to;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void compute() {
+      if (to - from <= THRESHOLD) {
+        for (int i = from; i < to; i++) {
+          changes[i] = analyze(entries.get(i));
+        }
+      } else {
+        int middle = (from + to) >>> 1;
+        invokeAll(new AnalyzeTask(entries, changes, from, middle), new AnalyzeTask(entries, changes, middle, to));
+      }
+    }
+  }
+
 }
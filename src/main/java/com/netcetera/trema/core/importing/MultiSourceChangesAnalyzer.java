@@ -0,0 +1,169 @@
+package com.netcetera.trema.core.importing;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.netcetera.trema.core.ParseException;
+import com.netcetera.trema.core.api.IDatabase;
+import com.netcetera.trema.core.api.IImportSource;
+import com.netcetera.trema.core.api.ITextNode;
+
+
+
+/**
+ * Determines the changes between a number of import sources and a
+ * database in one run, e.g. for the files of a translation agency with
+ * one file per language.
+ * <p>
+ * The sources are loaded and analyzed concurrently, each by its own
+ * {@link ChangesAnalyzer}. The analyzers share a single index of the
+ * database text nodes, so the keys of the database are resolved only
+ * once. The database must not be modified during the analysis.
+ */
+public class MultiSourceChangesAnalyzer {
+
+  public static final Logger LOG = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final IDatabase db;
+  private final List<SourceLoader> loaders = new ArrayList<>();
+  private boolean useMasterValueFromFile = true;
+
+  /**
+   * Loads an import source, e.g. by parsing a file.
+   */
+  @FunctionalInterface
+  public interface SourceLoader {
+
+    /**
+     * Loads the import source.
+     * @return the import source
+     * @throws ParseException if any parse errors occur
+     * @throws IOException if any I/O errors occur
+     */
+    IImportSource load() throws ParseException, IOException;
+  }
+
+  /**
+   * Creates a new instance.
+   * @param db the database
+   */
+  public MultiSourceChangesAnalyzer(IDatabase db) {
+    this.db = db;
+  }
+
+  /**
+   * Adds an import source which has already been loaded.
+   * @param importSource the import source
+   */
+  public void addSource(IImportSource importSource) {
+    loaders.add(() -> importSource);
+  }
+
+  /**
+   * Adds an import source which is loaded during the analysis, e.g.
+   * <code>addSource(() -&gt; new CSVFile(path, "UTF-8", ';'))</code>.
+   * @param loader the loader of the import source
+   */
+  public void addSource(SourceLoader loader) {
+    loaders.add(loader);
+  }
+
+  /**
+   * Sets whether the master values of the import sources are used by
+   * default, see {@link ChangesAnalyzer#setUseMasterValueFromFile(boolean)}.
+   * @param useMasterValueFromFile boolean to control the default behaviour
+   */
+  public void setUseMasterValueFromFile(boolean useMasterValueFromFile) {
+    this.useMasterValueFromFile = useMasterValueFromFile;
+  }
+
+  /**
+   * Loads and analyzes all import sources concurrently.
+   * @param executor the executor to load and analyze the sources in
+   * @return the changes by language, in the order of the sources. If
+   * several sources have the same language, their changes are
+   * concatenated in the order the sources have been added.
+   * @throws ParseException if a source cannot be parsed
+   * @throws IOException if a source cannot be read
+   * @throws IllegalArgumentException if the languages of a source do not
+   * match the database master language
+   */
+  public SortedMap<String, List<Change>> analyze(ExecutorService executor) throws ParseException, IOException {
+    Map<String, ITextNode> index = ChangesAnalyzer.indexTextNodes(db);
+    List<Future<SourceChanges>> futures = new ArrayList<>(loaders.size());
+    for (SourceLoader loader : loaders) {
+      futures.add(executor.submit(() -> analyze(loader, index)));
+    }
+
+    SortedMap<String, List<Change>> changesByLanguage = new TreeMap<>();
+    try {
+      for (Future<SourceChanges> future : futures) {
+        SourceChanges sourceChanges = getResult(future);
+        changesByLanguage.computeIfAbsent(sourceChanges.language, language -> new ArrayList<>())
+          .addAll(sourceChanges.changes);
+      }
+    } finally {
+      for (Future<SourceChanges> future : futures) {
+        future.cancel(true);
+      }
+    }
+    return changesByLanguage;
+  }
+
+  private SourceChanges analyze(SourceLoader loader, Map<String, ITextNode> index) throws ParseException, IOException {
+    IImportSource importSource = loader.load();
+    ChangesAnalyzer analyzer = new ChangesAnalyzer(importSource, db, index);
+    analyzer.setUseMasterValueFromFile(useMasterValueFromFile);
+    List<Change> changes = new ArrayList<>();
+    analyzer.analyze(changes::add);
+    LOG.debug("Analyzed import source, language:" + importSource.getLanguage() + ", changes:" + changes.size());
+    return new SourceChanges(importSource.getLanguage(), changes);
+  }
+
+  private static SourceChanges getResult(Future<SourceChanges> future) throws ParseException, IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while analyzing the import sources.", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof ParseException) {
+        throw (ParseException) cause;
+      } else if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /**
+   * The changes of a single import source.
+   */
+  private static final class SourceChanges {
+
+    private final String language;
+    private final List<Change> changes;
+
+    SourceChanges(String language, List<Change> changes) {
+      this.language = language;
+      this.changes = changes;
+    }
+  }
+
+}
@@ -0,0 +1,251 @@
+package com.netcetera.trema.core.importing;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.netcetera.trema.core.ParseException;
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.api.IImportEntry;
+import com.netcetera.trema.core.api.IImportSource;
+
+/**
+ * Represents a CSV text resource file whose entries are produced lazily.
+ * <p>
+ * In contrast to {@link CSVFile} the records are not held in memory. The
+ * file is memory-mapped and checked for well-formedness when the
+ * instance is created, without decoding any field. Each iteration of
+ * {@link #getEntries()} then scans the file again and decodes one entry
+ * at a time, so an import only holds the entry that is currently
+ * processed.
+ * <p>
+ * The key based lookup methods need an index of all entries, which is
+ * built on their first use. As with {@link CSVFile}, a key that appears
+ * more than once in the file keeps its first position and gets the
+ * values of its last occurrence. The file has to be encoded in UTF-8 or
+ * in a single byte charset.
+ */
+public class StreamingCSVFile implements IImportSource {
+
+  public static final Logger LOG = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final String pathName;
+  private final ByteBuffer buffer;
+  private final Charset charset;
+  private final char separator;
+  private final CSVHeader header;
+  private final int firstRecordPosition;
+  private final long firstRecordLineCount;
+  private final int size;
+  /** The record positions of the first occurrences of duplicate keys, mapped to those of the last occurrences. */
+  private final Map<Integer, Integer> lastOccurrences = new HashMap<>();
+  /** The record positions of the further occurrences of duplicate keys, which are skipped. */
+  private final Set<Integer> skippedOccurrences = new HashSet<>();
+  private Map<String, TextNode> index = null;
+
+  /**
+   * Constructs a new streaming CSV file from a path name.
+   * @param pathName the path
+   * @param encoding the encoding of the file, UTF-8 or a single byte
+   * charset
+   * @param separator the CSV separator used in the file, must be an
+   * ASCII character
+   * @throws ParseException if any parse errors occurs
+   * @throws IOException if any I/O errors occur
+   */
+  public StreamingCSVFile(String pathName, String encoding, char separator) throws ParseException, IOException {
+    this.pathName = pathName;
+    this.charset = Charset.forName(encoding);
+    this.separator = separator;
+    if (!CSVByteScanner.isSupported(charset)) {
+      throw new IOException("Unsupported encoding for streaming: " + encoding);
+    }
+    try (FileChannel channel = FileChannel.open(Paths.get(pathName), StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("File too large to be mapped: " + pathName);
+      }
+      // the mapping stays valid after the channel has been closed
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    LOG.info("Checking CSV file...");
+    int start = StandardCharsets.UTF_8.equals(charset) ? CSVByteScanner.skipByteOrderMark(buffer) : 0;
+    CSVByteScanner scanner = new CSVByteScanner(buffer.duplicate(), charset, start, buffer.limit(), separator, 0);
+    header = CSVHeader.parse(scanner.next() ? scanner.getFields() : null);
+    firstRecordPosition = scanner.getPosition();
+    firstRecordLineCount = scanner.getLineCount();
+    // only the keys are decoded and only held while checking, to find the occurrences of duplicate keys
+    Map<String, Integer> firstPositions = new HashMap<>();
+    int recordPosition = scanner.getPosition();
+    while (scanner.next()) {
+      if (scanner.getFieldCount() != header.getSize()) {
+        throw new ParseException(String.format("Expected %d columns but got %d.", header.getSize(),
+          scanner.getFieldCount()), (int) scanner.getLineNumber());
+      }
+      Integer firstPosition = firstPositions.putIfAbsent(scanner.getField(0), recordPosition);
+      if (firstPosition != null) {
+        lastOccurrences.put(firstPosition, recordPosition);
+        skippedOccurrences.add(recordPosition);
+      }
+      recordPosition = scanner.getPosition();
+    }
+    size = firstPositions.size();
+    LOG.info("Checking of CSV file finished.");
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The entries are decoded from the file while iterating. Every call
+   * to <code>iterator()</code> starts a new scan of the file. The entry
+   * of a duplicate key is decoded from its last occurrence.
+   */
+  @Override
+  public Iterable<IImportEntry> getEntries() {
+    return EntryIterator::new;
+  }
+
+  /**
+   * Gets the index of all entries, building it on first use.
+   * @return the index of all entries by their key
+   */
+  private synchronized Map<String, TextNode> getIndex() {
+    if (index == null) {
+      Map<String, TextNode> entries = new LinkedHashMap<>();
+      for (IImportEntry entry : getEntries()) {
+        entries.put(entry.getKey(), (TextNode) entry);
+      }
+      index = entries;
+    }
+    return index;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int getSize() {
+    return size;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean existsKey(String key) {
+    return getIndex().containsKey(key);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Status getStatus(String key) {
+    TextNode textNode = getIndex().get(key);
+    return textNode != null ? textNode.getStatus() : null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getValue(String key) {
+    TextNode textNode = getIndex().get(key);
+    return textNode != null ? textNode.getValue() : null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getMasterValue(String key) {
+    TextNode textNode = getIndex().get(key);
+    return textNode != null ? textNode.getMasterValue() : null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String[] getKeys() {
+    Map<String, TextNode> entries = getIndex();
+    return entries.keySet().toArray(new String[entries.size()]);
+  }
+
+  /**
+   * Gets the pathname of this CSV file.
+   * @return the pathname of this CSV file.
+   */
+  public String getPathname() {
+    return pathName;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean hasMasterLanguage() {
+    return header.hasMasterLanguage();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getLanguage() {
+    return header.getLanguage();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getMasterLanguage() {
+    return header.getMasterLanguage();
+  }
+
+  /**
+   * Scans the records of the file one at a time.
+   */
+  private final class EntryIterator implements Iterator<IImportEntry> {
+
+    private final CSVByteScanner scanner =
+      new CSVByteScanner(buffer.duplicate(), charset, firstRecordPosition, buffer.limit(), separator,
+                         firstRecordLineCount);
+    private TextNode next = null;
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean hasNext() {
+      try {
+        while (next == null) {
+          int recordPosition = scanner.getPosition();
+          next = scanner.nextTextNode(header);
+          if (next == null) {
+            return false;
+          }
+          Integer lastPosition = lastOccurrences.get(recordPosition);
+          if (lastPosition != null) {
+            next = new CSVByteScanner(buffer.duplicate(), charset, lastPosition, buffer.limit(), separator,
+                                      scanner.getLineCount()).nextTextNode(header);
+          } else if (skippedOccurrences.contains(recordPosition)) {
+            next = null;
+          }
+        }
+      } catch (ParseException e) {
+        // cannot happen, the file has been checked on construction
+        throw new IllegalStateException(e);
+      }
+      return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public IImportEntry next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      TextNode entry = next;
+      next = null;
+      return entry;
+    }
+  }
+
+}
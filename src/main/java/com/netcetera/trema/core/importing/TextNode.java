@@ -1,6 +1,7 @@
 package com.netcetera.trema.core.importing;
 
 import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.api.IImportEntry;
 
 
 
@@ -11,7 +12,7 @@ import com.netcetera.trema.core.Status;
  * <p>
  * This class should only be used internally by {@link CSVFile} or {@link XLSFile}}.
  */
-class TextNode {
+class TextNode implements IImportEntry {
   
   private String key = null;
   private Status status = null;
@@ -37,6 +38,7 @@ class TextNode {
    * Gets the key of this text.
    * @return the key of this text.
    */
+  @Override
   public String getKey() {
     return key;
   }
@@ -46,6 +48,7 @@ class TextNode {
    * @return the master language value of this text, might be
    * <code>null</code>
    */
+  @Override
   public String getMasterValue() {
     return masterValue;
   }
@@ -54,6 +57,7 @@ class TextNode {
    * Gets the status of this text.
    * @return the status of this text.
    */
+  @Override
   public Status getStatus() {
     return status;
   }
@@ -62,6 +66,7 @@ class TextNode {
    * Gets the value of this text.
    * @return the value of this text.
    */
+  @Override
   public String getValue() {
     return value;
   }
@@ -0,0 +1,332 @@
+package com.netcetera.trema.core.importing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import com.netcetera.trema.core.ParseException;
+import com.netcetera.trema.core.Status;
+
+/**
+ * Represents a XLSX (Office Open XML) text resource file.
+ * <p>
+ * In contrast to {@link XLSFile} the workbook is not loaded into memory.
+ * The sheet XML is streamed through a SAX handler and the shared strings
+ * are read from a read-only table, so only the rows of the sheet end up
+ * in memory.
+ */
+public class XLSXFile extends AbstractFile {
+
+  public static final Logger LOG = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+  private String pathName = null;
+  private String masterLanguage = null;
+  private String language = null;
+
+  private final Map<String, Integer> cellMap = new HashMap<>();
+
+  /**
+   * Constructs a new XLSX file from a path name.
+   *
+   * @param pathName the path
+   * @throws ParseException if any parse errors occur
+   */
+  public XLSXFile(String pathName) throws ParseException {
+    this.pathName = pathName;
+    OPCPackage pkg = null;
+    try {
+      pkg = OPCPackage.open(pathName, PackageAccess.READ);
+      parse(pkg);
+    } catch (IOException | OpenXML4JException | SAXException | ParserConfigurationException e) {
+      throw new ParseException("Failed to import file: " + e.getMessage());
+    } finally {
+      // closing a read-only package logs a warning, reverting closes it without saving
+      if (pkg != null) {
+        pkg.revert();
+      }
+    }
+  }
+
+  /**
+   * Parses the text resource sheet of a given package.
+   *
+   * @param pkg the package
+   * @throws ParseException if any parse errors occur
+   */
+  private void parse(OPCPackage pkg)
+  throws IOException, OpenXML4JException, SAXException, ParserConfigurationException, ParseException {
+    LOG.info("Parsing XLSX file...");
+    ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+    XSSFReader reader = new XSSFReader(pkg);
+    StylesTable styles = reader.getStylesTable();
+
+    String sheetName = findSheetName(reader);
+    if (sheetName == null) {
+      throw new ParseException("No sheet found");
+    }
+
+    XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+    while (sheets.hasNext()) {
+      try (InputStream sheet = sheets.next()) {
+        if (sheetName.equals(sheets.getSheetName())) {
+          RowHandler rowHandler = new RowHandler();
+          XMLReader xmlReader = createXMLReader();
+          xmlReader.setContentHandler(
+            new XSSFSheetXMLHandler(styles, null, strings, rowHandler, new NumericFormatter(), false));
+          try {
+            xmlReader.parse(new InputSource(sheet));
+          } catch (RowParseException e) {
+            throw e.getParseException();
+          }
+          if (!rowHandler.headerSeen) {
+            throw new ParseException("No header found");
+          }
+          break;
+        }
+      }
+    }
+    LOG.info("Parsing of XLSX file finished.");
+  }
+
+  /**
+   * Determines the sheet to read, i.e. the sheet named
+   * {@link XLSFile#SHEET_NAME} or the first sheet if there is none.
+   */
+  private String findSheetName(XSSFReader reader) throws IOException, OpenXML4JException {
+    String first = null;
+    XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+    while (sheets.hasNext()) {
+      sheets.next().close();
+      String name = sheets.getSheetName();
+      if (XLSFile.SHEET_NAME.equals(name)) {
+        return name;
+      }
+      if (first == null) {
+        first = name;
+      }
+    }
+    return first;
+  }
+
+  private XMLReader createXMLReader() throws SAXException, ParserConfigurationException {
+    SAXParserFactory factory = SAXParserFactory.newInstance();
+    factory.setNamespaceAware(true);
+    // sheets never need a DTD, refuse to resolve one
+    factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+    return factory.newSAXParser().getXMLReader();
+  }
+
+  private void analyzeHeader(String[] header) throws ParseException {
+    cellMap.clear();
+    for (int i = 0; i < header.length; i++) {
+      String value = header[i];
+      if (value == null) {
+        continue;
+      }
+      if (value.contains(AbstractFile.KEY_HEADER)) {
+        cellMap.put(AbstractFile.KEY_HEADER, i);
+      } else if (value.contains(AbstractFile.STATUS_HEADER)) {
+        cellMap.put(AbstractFile.STATUS_HEADER, i);
+      } else if (value.contains(AbstractFile.CONTEXT_HEADER)) {
+        cellMap.put(AbstractFile.CONTEXT_HEADER, i);
+      } else if (value.contains(AbstractFile.MASTER_HEADER)) {
+        cellMap.put(AbstractFile.MASTER_HEADER, i);
+        String master = StringUtils.substringBetween(value, "(", ")");
+        if (master == null) {
+          throw new ParseException("Found master column but no masterlanguage");
+        }
+        masterLanguage = master;
+      } else if (value.contains(AbstractFile.VALUE_HEADER)) {
+        cellMap.put(AbstractFile.VALUE_HEADER, i);
+        String lang = StringUtils.substringBetween(value, "(", ")");
+        if (lang == null) {
+          throw new ParseException("Found value column but no language");
+        }
+        language = lang;
+      }
+    }
+    // four headers are at least needed.
+    checkForHeader(KEY_HEADER);
+    checkForHeader(STATUS_HEADER);
+    checkForHeader(VALUE_HEADER);
+    checkForHeader(CONTEXT_HEADER);
+  }
+
+  private void checkForHeader(String headerName) throws ParseException {
+    if (cellMap.get(headerName) == null) {
+      LOG.warn("Header row check failed, column not found, columnname:" + headerName);
+      throw new ParseException("Header not found in file, headername:" + headerName);
+    }
+  }
+
+  private void extractRowData(String[] row, int rowNumber) throws ParseException {
+    String keyStr = row[cellMap.get(AbstractFile.KEY_HEADER)];
+    String statusStr = row[cellMap.get(AbstractFile.STATUS_HEADER)];
+    String valueStr = row[cellMap.get(AbstractFile.VALUE_HEADER)];
+    // the master column is missing if the xlsx is the export of the master language
+    String masterStr = null;
+    if (cellMap.containsKey(AbstractFile.MASTER_HEADER)) {
+      masterStr = row[cellMap.get(AbstractFile.MASTER_HEADER)];
+    }
+
+    // sometimes there are blank lines in the file which are ignored
+    if (keyStr == null && masterStr == null && statusStr == null && StringUtils.isEmpty(valueStr)) {
+      LOG.debug("ignoring row: all cells are null or blank, rownumber:" + rowNumber);
+      return;
+    }
+    checkCell(keyStr, rowNumber, AbstractFile.KEY_HEADER);
+    checkCell(statusStr, rowNumber, AbstractFile.STATUS_HEADER);
+    if (cellMap.containsKey(AbstractFile.MASTER_HEADER)) {
+      checkCell(masterStr, rowNumber, AbstractFile.MASTER_HEADER);
+    }
+    add(keyStr, Status.valueOf(statusStr), masterStr, valueStr == null ? "" : valueStr);
+  }
+
+  private void checkCell(String cellText, int rowNumber, String columnType) throws ParseException {
+    if (cellText == null) {
+      throw new ParseException("Cell is null, rownumber:" + rowNumber + ", columntype:" + columnType);
+    }
+  }
+
+  /**
+   * Gets the pathname of this XLSX file.
+   *
+   * @return the pathname of this XLSX file.
+   */
+  public String getPathname() {
+    return pathName;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean hasMasterLanguage() {
+    return masterLanguage != null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getLanguage() {
+    return language;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String getMasterLanguage() {
+    return masterLanguage;
+  }
+
+  /**
+   * Receives the cells of the sheet row by row. Only the cells of the
+   * current row are kept, one slot per column.
+   */
+  private final class RowHandler implements SheetContentsHandler {
+
+    private String[] cells = new String[8];
+    private int rowNumber;
+    private int column;
+    private boolean headerSeen = false;
+
+    /** {@inheritDoc} */
+    @Override
+    public void startRow(int rowNum) {
+      rowNumber = rowNum;
+      column = -1;
+      Arrays.fill(cells, null);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void endRow(int rowNum) {
+      try {
+        if (!headerSeen) {
+          analyzeHeader(cells);
+          headerSeen = true;
+        } else {
+          extractRowData(cells, rowNumber);
+        }
+      } catch (ParseException e) {
+        throw new RowParseException(e);
+      }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+      // the cell reference is optional, a missing one refers to the next cell
+      column = cellReference == null ? column + 1 : new CellReference(cellReference).getCol();
+      if (column >= cells.length) {
+        cells = Arrays.copyOf(cells, Math.max(column + 1, cells.length * 2));
+      }
+      cells[column] = formattedValue;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void headerFooter(String text, boolean isHeader, String tagName) {
+      // not relevant for the import
+    }
+  }
+
+  /**
+   * Formats numeric cells like {@link XLSFile} does, i.e. as the double
+   * value (e.g. <code>1.0</code>) regardless of the cell format.
+   */
+  private static final class NumericFormatter extends DataFormatter {
+
+    /** {@inheritDoc} */
+    @Override
+    public String formatRawCellContents(double value, int formatIndex, String formatString) {
+      return Double.toString(value);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String formatRawCellContents(double value, int formatIndex, String formatString,
+                                        boolean use1904Windowing) {
+      return Double.toString(value);
+    }
+  }
+
+  /**
+   * Tunnels a <code>ParseException</code> through the SAX callbacks.
+   */
+  private static final class RowParseException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    RowParseException(ParseException cause) {
+      super(cause);
+    }
+
+    ParseException getParseException() {
+      return (ParseException) getCause();
+    }
+  }
+
+}
@@ -0,0 +1,382 @@
+package com.netcetera.trema.core.persistent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.netcetera.trema.core.PersistentHashMap;
+import com.netcetera.trema.core.PersistentList;
+import com.netcetera.trema.core.api.IDatabase;
+import com.netcetera.trema.core.api.IDatabaseListener;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.api.IValueNode;
+
+
+
+/**
+ * A database whose versions share their structure, so that
+ * {@link #fork()} takes constant time, e.g. to try an import on a copy
+ * of the database.
+ * <p>
+ * The state of the text nodes is immutable and stored in a hash array
+ * mapped trie under an id, the order of the text nodes in a persistent
+ * AVL tree of ids and the keys in another trie. A modification copies
+ * only the O(log n) nodes on its path and leaves the other versions
+ * untouched. Locating a given text node (e.g. for
+ * {@link #indexOf(ITextNode)} or {@link #removeTextNodes(ITextNode[])})
+ * takes linear time, like in {@link com.netcetera.trema.core.XMLDatabase}.
+ * <p>
+ * The text and value nodes returned by this database are handles to the
+ * current version. Nodes of other implementations are copied when they
+ * are added, so modifications have to be made on the nodes obtained from
+ * this database after adding. Like the text nodes, the listeners are not
+ * shared with forks.
+ */
+public class PersistentDatabase implements IDatabase {
+
+  // marks a key shared by several text nodes
+  private static final Integer DUPLICATE_KEY = -1;
+
+  private final List<IDatabaseListener> listeners = new CopyOnWriteArrayList<>();
+  private final Map<Integer, PersistentTextNode> handles = new HashMap<>();
+  private String masterLanguage = null;
+  private PersistentList order = PersistentList.empty();
+  private PersistentHashMap<Integer, TextEntry> entries = PersistentHashMap.empty();
+  private PersistentHashMap<String, Integer> keyIndex = PersistentHashMap.empty();
+  private int nextId = 0;
+
+  /**
+   * Creates an empty database.
+   */
+  public PersistentDatabase() {
+  }
+
+  private PersistentDatabase(PersistentDatabase other) {
+    masterLanguage = other.masterLanguage;
+    order = other.order;
+    entries = other.entries;
+    keyIndex = other.keyIndex;
+    nextId = other.nextId;
+  }
+
+  /**
+   * Creates a persistent database with copies of the text nodes of
+   * another database.
+   * @param db the database to copy
+   * @return the persistent database
+   */
+  public static PersistentDatabase copyOf(IDatabase db) {
+    PersistentDatabase copy = new PersistentDatabase();
+    copy.masterLanguage = db.getMasterLanguage();
+    for (ITextNode textNode : db.getTextNodes()) {
+      copy.addTextNode(textNode);
+    }
+    return copy;
+  }
+
+  /**
+   * Creates an independent copy of the current version of this database
+   * in constant time. Modifications of the fork do not affect this
+   * database and vice versa.
+   * @return the fork, without listeners
+   */
+  public PersistentDatabase fork() {
+    return new PersistentDatabase(this);
+  }
+
+  TextEntry getEntry(int id) {
+    return entries.get(id);
+  }
+
+  void setEntry(int id, TextEntry entry) {
+    TextEntry previous = entries.get(id);
+    entries = entries.put(id, entry);
+    if (!Objects.equals(previous.key, entry.key)) {
+      unindexKey(previous.key, id);
+      indexKey(entry.key, id);
+    }
+  }
+
+  private PersistentTextNode handle(int id) {
+    return handles.computeIfAbsent(id, i -> new PersistentTextNode(this, i));
+  }
+
+  private void indexKey(String key, int id) {
+    if (key != null) {
+      keyIndex = keyIndex.put(key, keyIndex.get(key) == null ? Integer.valueOf(id) : DUPLICATE_KEY);
+    }
+  }
+
+  private void unindexKey(String key, int id) {
+    Integer indexed = key != null ? keyIndex.get(key) : null;
+    if (indexed != null && indexed == id) {
+      keyIndex = keyIndex.remove(key);
+    }
+  }
+
+  /**
+   * Gets the id of a text node of this database.
+   * @param textNode the text node
+   * @return the id or -1 if the text node is not part of this database
+   */
+  private int idOf(ITextNode textNode) {
+    if (textNode instanceof PersistentTextNode) {
+      PersistentTextNode node = (PersistentTextNode) textNode;
+      if (node.getDatabase() == this && node.isAttached()) {
+        return node.getId();
+      }
+    }
+    return -1;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getMasterLanguage() {
+    return masterLanguage;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void setMasterLanguage(String masterLanguage) {
+    this.masterLanguage = masterLanguage;
+    for (IDatabaseListener listener : listeners) {
+      listener.masterLanguageChanged(this);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int getSize() {
+    return order.size();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ITextNode[] getTextNodes() {
+    int[] ids = order.toArray();
+    ITextNode[] textNodes = new ITextNode[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      textNodes[i] = handle(ids[i]);
+    }
+    return textNodes;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void addTextNode(ITextNode textNode) {
+    addTextNode(order.size(), textNode);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * A text node of another database is copied, a text node that has been
+   * removed from this database is added again.
+   * @throws IllegalArgumentException if the text node is already part of
+   * this database
+   */
+  @Override
+  public void addTextNode(int position, ITextNode textNode) {
+    if (idOf(textNode) >= 0) {
+      throw new IllegalArgumentException("The text node is already part of the database: " + textNode.getKey());
+    }
+    boolean removed = textNode instanceof PersistentTextNode
+      && ((PersistentTextNode) textNode).getDatabase() == this;
+    int id = removed ? ((PersistentTextNode) textNode).getId() : nextId;
+    order = order.insert(position, id);
+
+    PersistentTextNode node;
+    TextEntry entry;
+    if (removed) {
+      node = (PersistentTextNode) textNode;
+      entry = node.attach();
+      handles.put(id, node);
+    } else {
+      nextId++;
+      node = handle(id);
+      entry = new TextEntry(textNode.getKey(), textNode.getContext());
+      for (IValueNode valueNode : textNode.getValueNodes()) {
+        entry = entry.withValue(new TextEntry.Value(valueNode.getLanguage(), valueNode.getStatus(),
+                                                    valueNode.getValue()));
+      }
+    }
+    entries = entries.put(node.getId(), entry);
+    indexKey(entry.key, node.getId());
+    for (IDatabaseListener listener : listeners) {
+      listener.textNodeAdded(this, node);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void removeTextNodes(ITextNode[] textNodes) {
+    if (textNodes.length > 0) {
+      int index = indexOf(textNodes[0]);
+      for (ITextNode textNode : textNodes) {
+        int id = idOf(textNode);
+        int position = id >= 0 ? order.indexOf(id) : -1;
+        if (position >= 0) {
+          TextEntry entry = entries.get(id);
+          order = order.remove(position);
+          entries = entries.remove(id);
+          unindexKey(entry.key, id);
+          handles.remove(id).detach(entry);
+        }
+      }
+      for (IDatabaseListener listener : listeners) {
+        listener.textNodesRemoved(this, textNodes, index);
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void removeTextNode(String key) {
+    ITextNode textNode = getTextNode(key);
+    if (textNode != null) {
+      removeTextNodes(new ITextNode[] {textNode});
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void moveTextNode(ITextNode textNode, int targetPosition) {
+    removeTextNodes(new ITextNode[] {textNode});
+    addTextNode(targetPosition, textNode);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void moveUpTextNodes(ITextNode[] textNodes) {
+    for (ITextNode textNode : textNodes) {
+      int index = indexOf(textNode);
+      if (index > 0) {
+        swap(index - 1, index);
+      }
+    }
+    fireTextNodesMoved(textNodes);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void moveDownTextNodes(ITextNode[] textNodes) {
+    for (int i = textNodes.length - 1; i >= 0; i--) {
+      int index = indexOf(textNodes[i]);
+      if (index >= 0 && index < order.size() - 1) {
+        swap(index, index + 1);
+      }
+    }
+    fireTextNodesMoved(textNodes);
+  }
+
+  private void swap(int index, int otherIndex) {
+    int id = order.get(index);
+    order = order.set(index, order.get(otherIndex)).set(otherIndex, id);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int indexOf(ITextNode textNode) {
+    int id = idOf(textNode);
+    return id >= 0 ? order.indexOf(id) : -1;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ITextNode getTextNode(int index) {
+    if (index < 0 || index >= order.size()) {
+      return null;
+    }
+    return handle(order.get(index));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ITextNode getTextNode(String key) {
+    Integer id = keyIndex.get(key);
+    if (id == null) {
+      return null;
+    }
+    if (id.equals(DUPLICATE_KEY)) {
+      for (int candidate : order.toArray()) {
+        if (key.equals(entries.get(candidate).key)) {
+          return handle(candidate);
+        }
+      }
+      return null;
+    }
+    return handle(id);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean existsTextNode(String key) {
+    return getTextNode(key) != null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Collection<String> getKeysAsCollection() {
+    int[] ids = order.toArray();
+    List<String> keyList = new ArrayList<>(ids.length);
+    for (int id : ids) {
+      keyList.add(entries.get(id).key);
+    }
+    return keyList;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void addListener(IDatabaseListener listener) {
+    if (!listeners.contains(listener)) {
+      listeners.add(listener);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void removeListener(IDatabaseListener listener) {
+    listeners.remove(listener);
+  }
+
+  void fireTextNodeChanged(ITextNode textNode) {
+    for (IDatabaseListener listener : listeners) {
+      listener.textNodeChanged(this, textNode);
+    }
+  }
+
+  private void fireTextNodesMoved(ITextNode[] textNodes) {
+    for (IDatabaseListener listener : listeners) {
+      listener.textNodesMoved(this, textNodes);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void fireValueNodeChanged(IValueNode valueNode) {
+    for (IDatabaseListener listener : listeners) {
+      listener.valueNodeChanged(valueNode);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void fireValueNodeAdded(IValueNode valueNode) {
+    for (IDatabaseListener listener : listeners) {
+      listener.valueNodeAdded(valueNode);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void fireValueNodeRemoved(IValueNode valueNode) {
+    for (IDatabaseListener listener : listeners) {
+      listener.valueNodeRemoved(valueNode);
+    }
+  }
+
+}
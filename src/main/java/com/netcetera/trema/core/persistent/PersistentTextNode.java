@@ -0,0 +1,209 @@
+package com.netcetera.trema.core.persistent;
+
+import com.netcetera.trema.core.api.IDatabase;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.api.IValueNode;
+
+
+
+/**
+ * A text node of a {@link PersistentDatabase}. The node is a handle to
+ * the immutable state stored in the database under its id: reading it
+ * reads the current version of the database, modifying it creates a new
+ * version. Once removed from the database, the node keeps its last
+ * state.
+ */
+final class PersistentTextNode implements ITextNode {
+
+  private final PersistentDatabase db;
+  private final int id;
+  // the state of the node while it is not part of the database
+  private TextEntry detached = null;
+
+  PersistentTextNode(PersistentDatabase db, int id) {
+    this.db = db;
+    this.id = id;
+  }
+
+  PersistentDatabase getDatabase() {
+    return db;
+  }
+
+  int getId() {
+    return id;
+  }
+
+  boolean isAttached() {
+    return detached == null;
+  }
+
+  void detach(TextEntry entry) {
+    detached = entry;
+  }
+
+  TextEntry attach() {
+    TextEntry entry = detached;
+    detached = null;
+    return entry;
+  }
+
+  TextEntry entry() {
+    return detached != null ? detached : db.getEntry(id);
+  }
+
+  private void update(TextEntry entry) {
+    if (detached != null) {
+      detached = entry;
+    } else {
+      db.setEntry(id, entry);
+    }
+  }
+
+  /**
+   * Sets the state of a value node.
+   * @param value the new state
+   * @return true if the value node is part of this text node and the
+   * listeners are to be notified
+   */
+  boolean updateValue(TextEntry.Value value) {
+    TextEntry entry = entry();
+    if (entry.getValue(value.language) == null) {
+      return false;
+    }
+    update(entry.withValue(value));
+    return detached == null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getKey() {
+    return entry().key;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void setKey(String key) {
+    TextEntry entry = entry();
+    if (!key.equals(entry.key)) {
+      update(entry.withKey(key));
+      if (detached == null) {
+        db.fireTextNodeChanged(this);
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getContext() {
+    return entry().context;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void setContext(String context) {
+    TextEntry entry = entry();
+    if (!context.equals(entry.context)) {
+      update(entry.withContext(context));
+      if (detached == null) {
+        db.fireTextNodeChanged(this);
+      }
+    }
+  }
+
+  /**
+   * Adds a copy of a value node. Use {@link #getValueNode(String)} to
+   * get the added value node.
+   * @param valueNode the value node to copy
+   */
+  @Override
+  public void addValueNode(IValueNode valueNode) {
+    TextEntry.Value value = new TextEntry.Value(valueNode.getLanguage(), valueNode.getStatus(), valueNode.getValue());
+    update(entry().withValue(value));
+    if (detached == null) {
+      db.fireValueNodeAdded(new PersistentValueNode(this, value));
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void removeValueNode(IValueNode valueNode) {
+    TextEntry entry = entry();
+    TextEntry.Value value = entry.getValue(valueNode.getLanguage());
+    if (value != null) {
+      update(entry.withoutValue(value.language));
+      if (detached == null) {
+        db.fireValueNodeRemoved(new PersistentValueNode(this, value));
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public IValueNode getValueNode(String language) {
+    TextEntry.Value value = entry().getValue(language);
+    return value != null ? new PersistentValueNode(this, value) : null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public IValueNode[] getValueNodes() {
+    TextEntry.Value[] values = entry().values;
+    IValueNode[] valueNodes = new IValueNode[values.length];
+    for (int i = 0; i < values.length; i++) {
+      valueNodes[i] = new PersistentValueNode(this, values[i]);
+    }
+    return valueNodes;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String[] getLanguages() {
+    TextEntry.Value[] values = entry().values;
+    String[] languages = new String[values.length];
+    for (int i = 0; i < values.length; i++) {
+      languages[i] = values[i].language;
+    }
+    return languages;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean existsValueNode(String language) {
+    return entry().getValue(language) != null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void fireValueNodeChanged(IValueNode valueNode) {
+    if (detached == null) {
+      db.fireValueNodeChanged(valueNode);
+    }
+  }
+
+  /**
+   * Gets the database of this text node.
+   * @return the database or <code>null</code> if the text node has been
+   * removed from its database
+   */
+  @Override
+  public IDatabase getParent() {
+    return detached == null ? db : null;
+  }
+
+  /**
+   * Not supported, the text nodes of a persistent database cannot be
+   * moved to another database.
+   * @param parent the parent
+   */
+  @Override
+  public void setParent(IDatabase parent) {
+    throw new UnsupportedOperationException("The text node belongs to a persistent database.");
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return getKey();
+  }
+
+}
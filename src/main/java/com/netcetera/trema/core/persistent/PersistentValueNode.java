@@ -0,0 +1,120 @@
+package com.netcetera.trema.core.persistent;
+
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.api.IValueNode;
+
+
+
+/**
+ * A value node of a {@link PersistentDatabase}, a handle to the value
+ * of a language of a {@link PersistentTextNode}. Two value nodes of the
+ * same text node and language are equal. Once removed from its text
+ * node, the value node keeps its last state.
+ */
+final class PersistentValueNode implements IValueNode {
+
+  private final PersistentTextNode textNode;
+  private final String language;
+  // the last known state, used when the value node has been removed
+  private TextEntry.Value last;
+
+  PersistentValueNode(PersistentTextNode textNode, TextEntry.Value value) {
+    this.textNode = textNode;
+    this.language = value.language;
+    this.last = value;
+  }
+
+  private TextEntry.Value value() {
+    TextEntry.Value value = textNode.entry().getValue(language);
+    if (value != null) {
+      last = value;
+    }
+    return last;
+  }
+
+  private void update(TextEntry.Value value) {
+    last = value;
+    if (textNode.updateValue(value)) {
+      textNode.fireValueNodeChanged(this);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getLanguage() {
+    return language;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Status getStatus() {
+    return value().status;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void setStatus(Status status) {
+    TextEntry.Value value = value();
+    if (!status.equals(value.status)) {
+      update(new TextEntry.Value(language, status, value.value));
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getValue() {
+    return value().value;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void setValue(String newValue) {
+    TextEntry.Value value = value();
+    if (!newValue.equals(value.value)) {
+      update(new TextEntry.Value(language, value.status, newValue));
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public ITextNode getParent() {
+    return textNode;
+  }
+
+  /**
+   * Not supported, the value nodes of a persistent database cannot be
+   * moved to another text node.
+   * @param parent the parent
+   */
+  @Override
+  public void setParent(ITextNode parent) {
+    throw new UnsupportedOperationException("The value node belongs to a persistent database.");
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof PersistentValueNode)) {
+      return false;
+    }
+    PersistentValueNode other = (PersistentValueNode) obj;
+    return textNode == other.textNode && language.equals(other.language);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int hashCode() {
+    return 31 * System.identityHashCode(textNode) + language.hashCode();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return language + ": " + getValue();
+  }
+
+}
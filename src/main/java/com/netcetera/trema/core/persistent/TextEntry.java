@@ -0,0 +1,125 @@
+package com.netcetera.trema.core.persistent;
+
+import com.netcetera.trema.core.Status;
+
+
+
+/**
+ * The immutable state of a text node of a {@link PersistentDatabase}.
+ * The values are ordered by language.
+ */
+final class TextEntry {
+
+  private static final Value[] NO_VALUES = new Value[0];
+
+  final String key;
+  final String context;
+  final Value[] values;
+
+  TextEntry(String key, String context) {
+    this(key, context, NO_VALUES);
+  }
+
+  private TextEntry(String key, String context, Value[] values) {
+    this.key = key;
+    this.context = context;
+    this.values = values;
+  }
+
+  TextEntry withKey(String newKey) {
+    return new TextEntry(newKey, context, values);
+  }
+
+  TextEntry withContext(String newContext) {
+    return new TextEntry(key, newContext, values);
+  }
+
+  /**
+   * Gets the value of a language.
+   * @param language the language
+   * @return the value or <code>null</code> if there is none
+   */
+  Value getValue(String language) {
+    if (language == null) {
+      return null;
+    }
+    int index = find(language);
+    return index >= 0 ? values[index] : null;
+  }
+
+  /**
+   * Adds or replaces the value of a language.
+   * @param value the value
+   * @return the new entry
+   */
+  TextEntry withValue(Value value) {
+    int index = find(value.language);
+    Value[] newValues;
+    if (index >= 0) {
+      newValues = values.clone();
+      newValues[index] = value;
+    } else {
+      int insertion = -index - 1;
+      newValues = new Value[values.length + 1];
+      System.arraycopy(values, 0, newValues, 0, insertion);
+      newValues[insertion] = value;
+      System.arraycopy(values, insertion, newValues, insertion + 1, values.length - insertion);
+    }
+    return new TextEntry(key, context, newValues);
+  }
+
+  /**
+   * Removes the value of a language.
+   * @param language the language
+   * @return the new entry, this entry if there is no value of the
+   * language
+   */
+  TextEntry withoutValue(String language) {
+    int index = find(language);
+    if (index < 0) {
+      return this;
+    }
+    Value[] newValues = new Value[values.length - 1];
+    System.arraycopy(values, 0, newValues, 0, index);
+    System.arraycopy(values, index + 1, newValues, index, newValues.length - index);
+    return new TextEntry(key, context, newValues);
+  }
+
+  /**
+   * Binary search for a language.
+   * @return the index of the language or <code>-(insertion point) - 1</code>
+   */
+  private int find(String language) {
+    int low = 0;
+    int high = values.length - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int comparison = values[middle].language.compareTo(language);
+      if (comparison < 0) {
+        low = middle + 1;
+      } else if (comparison > 0) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * The immutable state of a value node.
+   */
+  static final class Value {
+
+    final String language;
+    final Status status;
+    final String value;
+
+    Value(String language, Status status, String value) {
+      this.language = language;
+      this.status = status;
+      this.value = value;
+    }
+  }
+
+}
@@ -0,0 +1,245 @@
+package com.netcetera.trema.core.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.netcetera.trema.core.ParseException;
+import com.netcetera.trema.core.XMLDatabase;
+
+
+
+/**
+ * Watches an XML file and reloads the database whenever the file
+ * changes, e.g. for a development server showing edited texts without a
+ * restart.
+ * <p>
+ * The file is watched with a {@link WatchService} by a background
+ * thread. A burst of changes, e.g. several writes of an editor, causes a
+ * single reload once the file has not changed for the debounce interval.
+ * Each reload builds a new database, which replaces the current one
+ * atomically only if it has been built completely. Readers therefore
+ * always get a fully built database from {@link #getDatabase()}; if the
+ * file cannot be parsed, the previous database remains current.
+ * <p>
+ * The databases returned by this watcher must not be modified.
+ */
+public class DatabaseWatcher implements Closeable {
+
+  public static final Logger LOG = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final Path xmlFile;
+  private final boolean treatWarningsAsErrors;
+  private final AtomicReference<XMLDatabase> database = new AtomicReference<>();
+  private long debounceMillis = 200;
+  private WatchService watchService;
+  private Thread thread;
+  private volatile boolean closed = false;
+
+  // reload metrics, the latency is measured from the first change of a burst to the replacement
+  private final AtomicLong reloadCount = new AtomicLong();
+  private final AtomicLong failedReloadCount = new AtomicLong();
+  private final AtomicLong totalLatencyNanos = new AtomicLong();
+  private volatile long lastLatencyNanos = 0;
+  private volatile long maxLatencyNanos = 0;
+
+  /**
+   * Constructs a new watcher and builds the database from the XML file.
+   * The file is not watched before {@link #start()} is called.
+   * @param xmlFile the XML file
+   * @param treatWarningsAsErrors see
+   * {@link XMLDatabase#build(InputStream, boolean)}
+   * @throws IOException if any IO errors occur
+   * @throws ParseException if the XML file cannot be parsed
+   */
+  public DatabaseWatcher(File xmlFile, boolean treatWarningsAsErrors) throws IOException, ParseException {
+    this.xmlFile = xmlFile.toPath().toAbsolutePath();
+    this.treatWarningsAsErrors = treatWarningsAsErrors;
+    database.set(build());
+  }
+
+  /**
+   * Sets the interval without changes of the file after which the
+   * database is reloaded. The default is 200 milliseconds.
+   * @param debounceMillis the interval in milliseconds
+   */
+  public void setDebounceMillis(long debounceMillis) {
+    this.debounceMillis = debounceMillis;
+  }
+
+  /**
+   * Gets the current database, always a completely built one.
+   * @return the database
+   */
+  public XMLDatabase getDatabase() {
+    return database.get();
+  }
+
+  /**
+   * Starts watching the XML file.
+   * @throws IOException if the directory of the file cannot be watched
+   * @throws IllegalStateException if the watcher has already been started
+   */
+  public synchronized void start() throws IOException {
+    if (thread != null) {
+      throw new IllegalStateException("The watcher has already been started.");
+    }
+    watchService = xmlFile.getFileSystem().newWatchService();
+    xmlFile.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                 StandardWatchEventKinds.ENTRY_MODIFY);
+    thread = new Thread(this::watch, "trema-watcher-" + xmlFile.getFileName());
+    thread.setDaemon(true);
+    thread.start();
+    LOG.debug("Watching XML file, file:" + xmlFile);
+  }
+
+  /**
+   * Stops watching the XML file.
+   * @throws IOException if any IO errors occur
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    if (watchService != null) {
+      watchService.close();
+    }
+    if (thread != null) {
+      thread.interrupt();
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Gets the number of successful reloads.
+   * @return the number of reloads
+   */
+  public long getReloadCount() {
+    return reloadCount.get();
+  }
+
+  /**
+   * Gets the number of reloads which failed, e.g. because the file could
+   * not be parsed.
+   * @return the number of failed reloads
+   */
+  public long getFailedReloadCount() {
+    return failedReloadCount.get();
+  }
+
+  /**
+   * Gets the latency of the last successful reload, from the first
+   * change of the file to the replacement of the database, including the
+   * debounce interval.
+   * @param unit the unit of the result
+   * @return the latency or 0 if there has not been any reload
+   */
+  public long getLastReloadLatency(TimeUnit unit) {
+    return unit.convert(lastLatencyNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Gets the maximum latency of the successful reloads, see
+   * {@link #getLastReloadLatency(TimeUnit)}.
+   * @param unit the unit of the result
+   * @return the latency or 0 if there has not been any reload
+   */
+  public long getMaxReloadLatency(TimeUnit unit) {
+    return unit.convert(maxLatencyNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Gets the average latency of the successful reloads, see
+   * {@link #getLastReloadLatency(TimeUnit)}.
+   * @param unit the unit of the result
+   * @return the latency or 0 if there has not been any reload
+   */
+  public long getAverageReloadLatency(TimeUnit unit) {
+    long count = reloadCount.get();
+    return count == 0 ? 0 : unit.convert(totalLatencyNanos.get() / count, TimeUnit.NANOSECONDS);
+  }
+
+  private XMLDatabase build() throws IOException, ParseException {
+    XMLDatabase db = new XMLDatabase();
+    try (InputStream inputStream = Files.newInputStream(xmlFile)) {
+      db.build(inputStream, treatWarningsAsErrors);
+    }
+    if (!db.isXmlInternalized()) {
+      throw new ParseException("The database has not been built completely: " + xmlFile);
+    }
+    return db;
+  }
+
+  /**
+   * Waits for changes of the file until the watcher is closed.
+   */
+  private void watch() {
+    try {
+      while (!closed) {
+        if (!isFileChanged(watchService.take())) {
+          continue;
+        }
+        long firstChange = System.nanoTime();
+        // wait until the burst of changes is over
+        WatchKey key;
+        while ((key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+          isFileChanged(key);
+        }
+        reload(firstChange);
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // closed
+    }
+  }
+
+  private boolean isFileChanged(WatchKey key) {
+    boolean changed = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW
+          || xmlFile.getFileName().equals(event.context())) {
+        changed = true;
+      }
+    }
+    key.reset();
+    return changed;
+  }
+
+  private void reload(long firstChange) {
+    XMLDatabase db;
+    try {
+      db = build();
+    } catch (IOException | ParseException e) {
+      failedReloadCount.incrementAndGet();
+      LOG.warn("Could not reload XML file, keeping the current database, file:" + xmlFile, e);
+      return;
+    }
+    database.set(db);
+    long latency = System.nanoTime() - firstChange;
+    lastLatencyNanos = latency;
+    if (latency > maxLatencyNanos) {
+      maxLatencyNanos = latency;
+    }
+    totalLatencyNanos.addAndGet(latency);
+    reloadCount.incrementAndGet();
+    LOG.debug("Reloaded XML file, file:" + xmlFile + ", latency:" + TimeUnit.NANOSECONDS.toMillis(latency) + "ms");
+  }
+
+}
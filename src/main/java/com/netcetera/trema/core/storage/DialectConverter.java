@@ -0,0 +1,83 @@
+package com.netcetera.trema.core.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.netcetera.trema.core.ParseException;
+import com.netcetera.trema.core.XMLDatabase;
+
+
+
+/**
+ * Converts trema XML files between the classic dialect of
+ * <code>trema-1.0.xsd</code> and the compact dialect of
+ * <code>trema-compact-1.xsd</code>, see
+ * {@link XMLDatabase#writeCompactXML(OutputStream, String, String, String)}.
+ * The conversions preserve the master language, the order of the text
+ * nodes, the contexts, values and statuses. Only the classic dialect
+ * trims leading and trailing whitespace of contexts and values, like
+ * every classic file written by {@link XMLDatabase}. The dialect of the
+ * source file is detected automatically.
+ */
+public final class DialectConverter {
+
+  public static final Logger LOG = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+  private DialectConverter() {
+  }
+
+  /**
+   * Converts a trema XML file to the compact dialect, written in UTF-8.
+   * The target file is replaced atomically, it may be the source file.
+   * @param source the source file
+   * @param target the target file
+   * @throws IOException if any IO errors occur
+   * @throws ParseException if the source file cannot be parsed
+   */
+  public static void toCompact(File source, File target) throws IOException, ParseException {
+    convert(source, target, true);
+  }
+
+  /**
+   * Converts a trema XML file to the classic dialect, written in UTF-8.
+   * The target file is replaced atomically, it may be the source file.
+   * @param source the source file
+   * @param target the target file
+   * @throws IOException if any IO errors occur
+   * @throws ParseException if the source file cannot be parsed
+   */
+  public static void toClassic(File source, File target) throws IOException, ParseException {
+    convert(source, target, false);
+  }
+
+  private static void convert(File source, File target, boolean compact) throws IOException, ParseException {
+    XMLDatabase db = new XMLDatabase();
+    try (InputStream inputStream = Files.newInputStream(source.toPath())) {
+      db.build(inputStream, false);
+    }
+    Path targetPath = target.toPath().toAbsolutePath();
+    Path tempFile = Files.createTempFile(targetPath.getParent(), targetPath.getFileName().toString(), ".tmp");
+    try {
+      try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+        if (compact) {
+          db.writeCompactXML(outputStream, "UTF-8", "  ", "\n");
+        } else {
+          db.writeXML(outputStream, "UTF-8", "  ", "\n");
+        }
+      }
+      EditJournal.moveAtomically(tempFile, targetPath);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+    LOG.debug("Converted trema file, source:" + source + ", target:" + target + ", compact:" + compact);
+  }
+
+}
@@ -0,0 +1,594 @@
+package com.netcetera.trema.core.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.netcetera.trema.core.ParseException;
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.XMLDatabase;
+import com.netcetera.trema.core.XMLTextNode;
+import com.netcetera.trema.core.XMLValueNode;
+import com.netcetera.trema.core.api.IDatabase;
+import com.netcetera.trema.core.api.IDatabaseListener;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.api.IValueNode;
+
+
+
+/**
+ * Journaled persistence of an {@link XMLDatabase}: instead of rewriting
+ * the whole XML file on every save, the modifications are appended to a
+ * compact binary journal next to the XML file (the XML file name with
+ * the suffix {@value #FILE_SUFFIX}). A save only writes the modifications
+ * since the last save. Until then they are only kept in memory, so the
+ * journal never contains modifications which have not been saved.
+ * <p>
+ * {@link #open(File, boolean)} builds the database from the XML file and
+ * replays the journal. The journal is folded into the XML file by
+ * {@link #compact()}, either on demand or on a save once the journal
+ * contains more entries than the compaction threshold.
+ * <p>
+ * The journal starts with the length and the checksum of the XML file it
+ * is based on. A journal which does not match the XML file, e.g. because
+ * the XML file has been replaced by a compaction that was interrupted
+ * before the journal could be emptied, is discarded when opening.
+ * <p>
+ * The journal records the modifications from the listener events, with
+ * the text nodes identified by their position. The events therefore
+ * have to be delivered synchronously, i.e. the database must not have an
+ * event dispatcher.
+ */
+public class EditJournal implements IDatabaseListener, Closeable {
+
+  public static final Logger LOG = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+  /** The suffix appended to the name of the XML file for the journal. */
+  public static final String FILE_SUFFIX = ".journal";
+
+  private static final int MAGIC = 0x54524a32;
+
+  /** The length of the magic number, the length and the checksum of the XML file. */
+  private static final int HEADER_LENGTH = 20;
+
+  private static final byte OP_MASTER_LANGUAGE = 1;
+  private static final byte OP_TEXT_NODE_ADDED = 2;
+  private static final byte OP_TEXT_NODE_CHANGED = 3;
+  private static final byte OP_TEXT_NODE_REMOVED = 4;
+  private static final byte OP_TEXT_NODE_MOVED = 5;
+  private static final byte OP_ORDER = 6;
+  private static final byte OP_VALUE_SET = 7;
+  private static final byte OP_VALUE_REMOVED = 8;
+
+  private final XMLDatabase db;
+  private final Path xmlFile;
+  private final Path journalFile;
+  // the order of the text nodes as recorded in the journal
+  private final List<ITextNode> recordedOrder;
+  // the entries recorded since the last save
+  private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+  private final DataOutputStream out = new DataOutputStream(pending);
+  private int entryCount;
+  // the length and the checksum of the XML file the journal is based on
+  private long baseLength;
+  private long baseChecksum;
+  private int compactionThreshold = 10000;
+  private String encoding = "UTF-8";
+  private String indent = "  ";
+  private String lineSeparator = "\n";
+  private boolean failed = false;
+
+  private EditJournal(XMLDatabase db, Path xmlFile, int entryCount, long baseLength, long baseChecksum)
+  throws IOException {
+    this.db = db;
+    this.xmlFile = xmlFile;
+    this.journalFile = getJournalFile(xmlFile);
+    this.entryCount = entryCount;
+    this.baseLength = baseLength;
+    this.baseChecksum = baseChecksum;
+    this.recordedOrder = new ArrayList<>(Arrays.asList(db.getTextNodes()));
+    if (entryCount == 0) {
+      createJournal();
+    }
+  }
+
+  /**
+   * Builds a database from an XML file and replays the modifications of
+   * its journal, if there is one. A journal which is not based on the
+   * current contents of the XML file is discarded. The returned journal
+   * records all further modifications of the database.
+   * @param xmlFile the XML file
+   * @param treatWarningsAsErrors see
+   * {@link XMLDatabase#build(InputStream, boolean)}
+   * @return the journal, see {@link #getDatabase()}
+   * @throws IOException if any IO errors occur
+   * @throws ParseException if the XML file or the journal cannot be
+   * parsed
+   */
+  public static EditJournal open(File xmlFile, boolean treatWarningsAsErrors) throws IOException, ParseException {
+    Path xmlPath = xmlFile.toPath();
+    byte[] xml = Files.readAllBytes(xmlPath);
+    XMLDatabase db = new XMLDatabase();
+    db.build(new ByteArrayInputStream(xml), treatWarningsAsErrors);
+    CRC32 checksum = new CRC32();
+    checksum.update(xml, 0, xml.length);
+    int entryCount = replay(db, getJournalFile(xmlPath), xml.length, checksum.getValue());
+    EditJournal journal = new EditJournal(db, xmlPath, entryCount, xml.length, checksum.getValue());
+    db.addListener(journal);
+    return journal;
+  }
+
+  private static Path getJournalFile(Path xmlFile) {
+    return xmlFile.resolveSibling(xmlFile.getFileName() + FILE_SUFFIX);
+  }
+
+  /**
+   * Gets the journaled database.
+   * @return the database
+   */
+  public XMLDatabase getDatabase() {
+    return db;
+  }
+
+  /**
+   * Gets the number of entries recorded since the last compaction,
+   * including the ones which have not been saved yet.
+   * @return the number of entries
+   */
+  public int getEntryCount() {
+    return entryCount;
+  }
+
+  /**
+   * Sets the number of journal entries above which {@link #save()}
+   * compacts the journal. The default is 10000.
+   * @param compactionThreshold the number of entries
+   */
+  public void setCompactionThreshold(int compactionThreshold) {
+    this.compactionThreshold = compactionThreshold;
+  }
+
+  /**
+   * Sets the format of the XML file written on compaction, see
+   * {@link XMLDatabase#write(OutputStream, String, String, String)}. The
+   * dialect of the XML file is kept.
+   * @param encoding the encoding, by default UTF-8
+   * @param indent the indent, by default two spaces
+   * @param lineSeparator the line separator, by default a line feed
+   */
+  public void setFormat(String encoding, String indent, String lineSeparator) {
+    this.encoding = encoding;
+    this.indent = indent;
+    this.lineSeparator = lineSeparator;
+  }
+
+  /**
+   * Writes the modifications since the last save to the journal, or
+   * compacts the journal if it contains more entries than the
+   * compaction threshold. The journal is compacted as well if recording
+   * a modification has failed.
+   * @throws IOException if any IO errors occur
+   */
+  public void save() throws IOException {
+    if (failed || entryCount > compactionThreshold) {
+      compact();
+    } else if (pending.size() > 0) {
+      try (OutputStream outputStream = Files.newOutputStream(journalFile, StandardOpenOption.APPEND)) {
+        pending.writeTo(outputStream);
+      } catch (IOException e) {
+        // the entries may have been written partially, only a compaction restores a consistent journal
+        failed = true;
+        throw e;
+      }
+      pending.reset();
+    }
+  }
+
+  /**
+   * Writes the whole database to the XML file and empties the journal.
+   * The XML file is replaced atomically.
+   * @throws IOException if any IO errors occur
+   */
+  public void compact() throws IOException {
+    Path tempFile = Files.createTempFile(xmlFile.toAbsolutePath().getParent(), xmlFile.getFileName().toString(),
+                                         ".tmp");
+    CheckedOutputStream checkedOutputStream;
+    try {
+      try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+        checkedOutputStream = new CheckedOutputStream(outputStream, new CRC32());
+        db.write(checkedOutputStream, encoding, indent, lineSeparator);
+      }
+      moveAtomically(tempFile, xmlFile);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+    // if this process ends here, the journal does not match the new XML file and is discarded on opening
+    baseLength = Files.size(xmlFile);
+    baseChecksum = checkedOutputStream.getChecksum().getValue();
+    createJournal();
+    pending.reset();
+    entryCount = 0;
+    failed = false;
+    LOG.debug("Compacted journal, file:" + xmlFile);
+  }
+
+  /**
+   * Saves the modifications and stops recording.
+   * @throws IOException if any IO errors occur
+   */
+  @Override
+  public void close() throws IOException {
+    db.removeListener(this);
+    save();
+  }
+
+  static void moveAtomically(Path source, Path target) throws IOException {
+    try {
+      Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Creates an empty journal based on the current XML file. The header is
+   * written immediately, so that it is complete before any entry.
+   */
+  private void createJournal() throws IOException {
+    try (DataOutputStream dataOutputStream =
+           new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(journalFile)))) {
+      dataOutputStream.writeInt(MAGIC);
+      dataOutputStream.writeLong(baseLength);
+      dataOutputStream.writeLong(baseChecksum);
+    }
+  }
+
+  /**
+   * Replays a journal on a database. An incomplete last entry, e.g. of
+   * an interrupted save, is discarded. A journal which is based on
+   * another XML file than the given one is not replayed.
+   * @return the number of replayed entries
+   */
+  private static int replay(XMLDatabase db, Path journalFile, long baseLength, long baseChecksum)
+  throws IOException, ParseException {
+    if (!Files.exists(journalFile)) {
+      return 0;
+    }
+    byte[] bytes = Files.readAllBytes(journalFile);
+    if (bytes.length == 0) {
+      return 0;
+    }
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    if (bytes.length < HEADER_LENGTH || in.readInt() != MAGIC) {
+      throw new ParseException("Invalid journal file: " + journalFile);
+    }
+    if (in.readLong() != baseLength || in.readLong() != baseChecksum) {
+      LOG.warn("Discarding journal which is not based on the current XML file, file:" + journalFile);
+      return 0;
+    }
+    int entryCount = 0;
+    int validLength = HEADER_LENGTH;
+    try {
+      while (in.available() > 0) {
+        replayEntry(db, in);
+        entryCount++;
+        validLength = bytes.length - in.available();
+      }
+    } catch (EOFException e) {
+      LOG.warn("Discarding incomplete journal entry, file:" + journalFile);
+      try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+        channel.truncate(validLength);
+      }
+    }
+    LOG.debug("Replayed journal, file:" + journalFile + ", entries:" + entryCount);
+    return entryCount;
+  }
+
+  private static void replayEntry(XMLDatabase db, DataInputStream in) throws IOException, ParseException {
+    byte op = in.readByte();
+    switch (op) {
+      case OP_MASTER_LANGUAGE:
+        db.setMasterLanguage(readString(in));
+        break;
+      case OP_TEXT_NODE_ADDED: {
+        int index = in.readInt();
+        ITextNode textNode = new XMLTextNode(readString(in), readString(in));
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          textNode.addValueNode(new XMLValueNode(readString(in), Status.valueOf((int) in.readByte()),
+                                                 readString(in)));
+        }
+        db.addTextNode(index, textNode);
+        break;
+      }
+      case OP_TEXT_NODE_CHANGED: {
+        ITextNode textNode = getTextNode(db, in.readInt());
+        textNode.setKey(readString(in));
+        textNode.setContext(readString(in));
+        break;
+      }
+      case OP_TEXT_NODE_REMOVED:
+        db.removeTextNodes(new ITextNode[] {getTextNode(db, in.readInt())});
+        break;
+      case OP_TEXT_NODE_MOVED:
+        db.moveTextNode(getTextNode(db, in.readInt()), in.readInt());
+        break;
+      case OP_ORDER: {
+        ITextNode[] textNodes = db.getTextNodes();
+        int count = in.readInt();
+        if (count != textNodes.length) {
+          throw new ParseException("Invalid journal entry, order of " + count + " text nodes.");
+        }
+        ITextNode[] reordered = new ITextNode[count];
+        for (int i = 0; i < count; i++) {
+          reordered[i] = textNodes[in.readInt()];
+        }
+        db.removeTextNodes(textNodes);
+        for (ITextNode textNode : reordered) {
+          db.addTextNode(textNode);
+        }
+        break;
+      }
+      case OP_VALUE_SET: {
+        ITextNode textNode = getTextNode(db, in.readInt());
+        String language = readString(in);
+        Status status = Status.valueOf((int) in.readByte());
+        String value = readString(in);
+        IValueNode valueNode = textNode.getValueNode(language);
+        if (valueNode == null) {
+          textNode.addValueNode(new XMLValueNode(language, status, value));
+        } else {
+          valueNode.setStatus(status);
+          valueNode.setValue(value);
+        }
+        break;
+      }
+      case OP_VALUE_REMOVED: {
+        ITextNode textNode = getTextNode(db, in.readInt());
+        IValueNode valueNode = textNode.getValueNode(readString(in));
+        if (valueNode != null) {
+          textNode.removeValueNode(valueNode);
+        }
+        break;
+      }
+      default:
+        throw new ParseException("Invalid journal entry: " + op);
+    }
+  }
+
+  private static ITextNode getTextNode(IDatabase db, int index) throws ParseException {
+    ITextNode textNode = db.getTextNode(index);
+    if (textNode == null) {
+      throw new ParseException("Invalid journal entry, no text node at position " + index + ".");
+    }
+    return textNode;
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private void writeString(String string) throws IOException {
+    if (string == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private void writeValue(IValueNode valueNode) throws IOException {
+    writeString(valueNode.getLanguage());
+    out.writeByte(valueNode.getStatus().getPosition());
+    writeString(valueNode.getValue());
+  }
+
+  /**
+   * Writes an entry to the journal. After an error, nothing is recorded
+   * until the next compaction.
+   */
+  private void record(EntryWriter writer) {
+    if (failed) {
+      return;
+    }
+    try {
+      writer.write();
+      entryCount++;
+    } catch (IOException e) {
+      LOG.error("Could not record a modification, the journal will be compacted on the next save", e);
+      failed = true;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void masterLanguageChanged(IDatabase database) {
+    record(() -> {
+      out.writeByte(OP_MASTER_LANGUAGE);
+      writeString(database.getMasterLanguage());
+    });
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void textNodeChanged(IDatabase database, ITextNode textNode) {
+    int index = database.indexOf(textNode);
+    if (index >= 0) {
+      record(() -> {
+        out.writeByte(OP_TEXT_NODE_CHANGED);
+        out.writeInt(index);
+        writeString(textNode.getKey());
+        writeString(textNode.getContext());
+      });
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void textNodeAdded(IDatabase database, ITextNode textNode) {
+    int index = database.indexOf(textNode);
+    recordedOrder.add(index, textNode);
+    record(() -> {
+      out.writeByte(OP_TEXT_NODE_ADDED);
+      out.writeInt(index);
+      writeString(textNode.getKey());
+      writeString(textNode.getContext());
+      IValueNode[] valueNodes = textNode.getValueNodes();
+      out.writeInt(valueNodes.length);
+      for (IValueNode valueNode : valueNodes) {
+        writeValue(valueNode);
+      }
+    });
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void textNodesRemoved(IDatabase database, ITextNode[] textNodes, int index) {
+    for (ITextNode textNode : textNodes) {
+      int recordedIndex = indexOfIdentical(recordedOrder, textNode);
+      if (recordedIndex >= 0) {
+        recordedOrder.remove(recordedIndex);
+        record(() -> {
+          out.writeByte(OP_TEXT_NODE_REMOVED);
+          out.writeInt(recordedIndex);
+        });
+      }
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void textNodesMoved(IDatabase database, ITextNode[] textNodes) {
+    for (ITextNode textNode : textNodes) {
+      int from = indexOfIdentical(recordedOrder, textNode);
+      int to = database.indexOf(textNode);
+      if (from >= 0 && to >= 0 && from != to) {
+        recordedOrder.add(to, recordedOrder.remove(from));
+        record(() -> {
+          out.writeByte(OP_TEXT_NODE_MOVED);
+          out.writeInt(from);
+          out.writeInt(to);
+        });
+      }
+    }
+    ITextNode[] current = database.getTextNodes();
+    if (!isSameOrder(current)) {
+      recordOrder(current);
+    }
+  }
+
+  private boolean isSameOrder(ITextNode[] current) {
+    if (current.length != recordedOrder.size()) {
+      return false;
+    }
+    for (int i = 0; i < current.length; i++) {
+      if (current[i] != recordedOrder.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Records the whole order of the text nodes as permutation of the
+   * recorded order.
+   */
+  private void recordOrder(ITextNode[] current) {
+    Map<ITextNode, Integer> recordedIndexes = new IdentityHashMap<>();
+    for (int i = 0; i < recordedOrder.size(); i++) {
+      recordedIndexes.put(recordedOrder.get(i), i);
+    }
+    record(() -> {
+      out.writeByte(OP_ORDER);
+      out.writeInt(current.length);
+      for (ITextNode textNode : current) {
+        out.writeInt(recordedIndexes.get(textNode));
+      }
+    });
+    recordedOrder.clear();
+    recordedOrder.addAll(Arrays.asList(current));
+  }
+
+  private static int indexOfIdentical(List<ITextNode> textNodes, ITextNode textNode) {
+    for (int i = 0; i < textNodes.size(); i++) {
+      if (textNodes.get(i) == textNode) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void valueNodeChanged(IValueNode valueNode) {
+    int index = db.indexOf(valueNode.getParent());
+    if (index >= 0) {
+      record(() -> {
+        out.writeByte(OP_VALUE_SET);
+        out.writeInt(index);
+        writeValue(valueNode);
+      });
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void valueNodeAdded(IValueNode valueNode) {
+    valueNodeChanged(valueNode);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void valueNodeRemoved(IValueNode valueNode) {
+    int index = db.indexOf(valueNode.getParent());
+    if (index >= 0) {
+      record(() -> {
+        out.writeByte(OP_VALUE_REMOVED);
+        out.writeInt(index);
+        writeString(valueNode.getLanguage());
+      });
+    }
+  }
+
+  /**
+   * Writes a journal entry.
+   */
+  @FunctionalInterface
+  private interface EntryWriter {
+    void write() throws IOException;
+  }
+
+}
@@ -0,0 +1,497 @@
+package com.netcetera.trema.core.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.netcetera.trema.core.ParseException;
+import com.netcetera.trema.core.XMLDatabase;
+import com.netcetera.trema.core.api.IDatabase;
+import com.netcetera.trema.core.api.IDatabaseListener;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.api.IValueNode;
+
+
+
+/**
+ * Incremental saving of an {@link XMLDatabase} to the XML file it was
+ * built from. The saver remembers the byte range of every
+ * <code>text</code> element in the file and only rewrites the elements
+ * of text nodes which were added or modified since the last save. All
+ * other bytes, including comments and the original formatting, are
+ * copied unchanged from the old file with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+ * The XML file is replaced atomically.
+ * <p>
+ * New elements are written with the encoding, indent and line separator
+ * detected from the file. The whole file is rewritten if the master
+ * language changed or if the byte ranges are unknown, e.g. for a file
+ * without text nodes, in an encoding which is not ASCII compatible or in
+ * the compact dialect. Rewriting keeps the dialect of the file.
+ * <p>
+ * The saver tracks the modifications from the listener events, which
+ * therefore have to be delivered synchronously, i.e. the database must
+ * not have an event dispatcher.
+ */
+public class IncrementalXMLSaver implements IDatabaseListener, Closeable {
+
+  public static final Logger LOG = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final Pattern ENCODING_PATTERN =
+    Pattern.compile("^<\\?xml[^>]*encoding\\s*=\\s*[\"']([A-Za-z0-9._-]+)[\"']");
+  private static final byte[] TEXT_TAG = "<text".getBytes(StandardCharsets.US_ASCII);
+
+  private final XMLDatabase db;
+  private final Path xmlFile;
+  private final Charset charset;
+  private final Set<ITextNode> modified = Collections.newSetFromMap(new IdentityHashMap<>());
+  // the byte ranges of the text elements in the XML file, empty if unknown
+  private Map<ITextNode, Range> ranges = new IdentityHashMap<>();
+  private long headerLength;
+  private long trailerStart;
+  private long fileLength;
+  private String indent = "  ";
+  private String lineSeparator = "\n";
+  private boolean rewriteAll = false;
+
+  private IncrementalXMLSaver(XMLDatabase db, Path xmlFile, Charset charset) {
+    this.db = db;
+    this.xmlFile = xmlFile;
+    this.charset = charset;
+  }
+
+  /**
+   * Builds a database from an XML file. The returned saver tracks all
+   * further modifications of the database.
+   * @param xmlFile the XML file
+   * @param treatWarningsAsErrors see
+   * {@link XMLDatabase#build(InputStream, boolean)}
+   * @return the saver, see {@link #getDatabase()}
+   * @throws IOException if any IO errors occur
+   * @throws ParseException if the XML file cannot be parsed
+   */
+  public static IncrementalXMLSaver open(File xmlFile, boolean treatWarningsAsErrors)
+    throws IOException, ParseException {
+    byte[] bytes = Files.readAllBytes(xmlFile.toPath());
+    XMLDatabase db = new XMLDatabase();
+    db.build(new ByteArrayInputStream(bytes), treatWarningsAsErrors);
+    IncrementalXMLSaver saver = new IncrementalXMLSaver(db, xmlFile.toPath(), getCharset(bytes));
+    saver.index(bytes);
+    db.addListener(saver);
+    return saver;
+  }
+
+  /**
+   * Gets the database.
+   * @return the database
+   */
+  public XMLDatabase getDatabase() {
+    return db;
+  }
+
+  /**
+   * Gets the number of text elements which the next save rewrites
+   * instead of copying them from the old file.
+   * @return the number of text elements or -1 if the whole file is
+   * rewritten
+   */
+  public int getModifiedCount() {
+    if (rewriteAll || ranges.isEmpty()) {
+      return -1;
+    }
+    int count = 0;
+    for (ITextNode textNode : db.getTextNodes()) {
+      if (!ranges.containsKey(textNode) || modified.contains(textNode)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Writes the database to the XML file, rewriting only the text elements
+   * of the text nodes added or modified since the last save.
+   * @throws IOException if any IO errors occur
+   */
+  public void save() throws IOException {
+    if (rewriteAll || ranges.isEmpty()) {
+      rewrite();
+      return;
+    }
+    if (Files.size(xmlFile) != fileLength) {
+      LOG.warn("The XML file has been modified by someone else, rewriting it, file:" + xmlFile);
+      rewrite();
+      return;
+    }
+    Map<ITextNode, Range> newRanges = new IdentityHashMap<>();
+    byte[] separator = (lineSeparator + indent).getBytes(charset);
+    long position = 0;
+    long newTrailerStart;
+    int rewritten = 0;
+    Path tempFile = createTempFile();
+    try {
+      try (FileChannel source = FileChannel.open(xmlFile, StandardOpenOption.READ);
+           FileChannel target = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+        position += transfer(source, 0, headerLength, target);
+        for (ITextNode textNode : db.getTextNodes()) {
+          Range range = ranges.get(textNode);
+          long gapStart = position;
+          if (range != null && !modified.contains(textNode)) {
+            position += transfer(source, range.gapStart, range.end - range.gapStart, target);
+            newRanges.put(textNode, new Range(gapStart, gapStart + range.start - range.gapStart, position));
+          } else {
+            position += write(target, separator);
+            long start = position;
+            position += write(target, XMLDatabase.getTextNodeXML(textNode, charset.name(), indent, lineSeparator)
+                                                 .getBytes(charset));
+            newRanges.put(textNode, new Range(gapStart, start, position));
+            rewritten++;
+          }
+        }
+        newTrailerStart = position;
+        position += transfer(source, trailerStart, fileLength - trailerStart, target);
+        target.force(true);
+      }
+      EditJournal.moveAtomically(tempFile, xmlFile);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+    ranges = newRanges;
+    trailerStart = newTrailerStart;
+    fileLength = position;
+    modified.clear();
+    LOG.debug("Saved XML file incrementally, file:" + xmlFile + ", rewritten text nodes:" + rewritten);
+  }
+
+  /**
+   * Writes the whole database to the XML file, in the dialect of the
+   * file.
+   * @throws IOException if any IO errors occur
+   */
+  public void rewrite() throws IOException {
+    Path tempFile = createTempFile();
+    try {
+      try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+        db.write(outputStream, charset.name(), indent, lineSeparator);
+      }
+      EditJournal.moveAtomically(tempFile, xmlFile);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+    index(Files.readAllBytes(xmlFile));
+    modified.clear();
+    rewriteAll = false;
+    LOG.debug("Rewrote XML file, file:" + xmlFile);
+  }
+
+  /**
+   * Stops tracking the modifications of the database.
+   */
+  @Override
+  public void close() {
+    db.removeListener(this);
+  }
+
+  private Path createTempFile() throws IOException {
+    return Files.createTempFile(xmlFile.toAbsolutePath().getParent(), xmlFile.getFileName().toString(), ".tmp");
+  }
+
+  private static long transfer(FileChannel source, long position, long count, FileChannel target)
+    throws IOException {
+    long transferred = 0;
+    while (transferred < count) {
+      transferred += source.transferTo(position + transferred, count - transferred, target);
+    }
+    return count;
+  }
+
+  private static long write(FileChannel target, byte[] bytes) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining()) {
+      target.write(buffer);
+    }
+    return bytes.length;
+  }
+
+  private static Charset getCharset(byte[] bytes) {
+    String head = new String(bytes, 0, Math.min(bytes.length, 200), StandardCharsets.ISO_8859_1);
+    Matcher matcher = ENCODING_PATTERN.matcher(head);
+    return matcher.find() ? Charset.forName(matcher.group(1)) : StandardCharsets.UTF_8;
+  }
+
+  /**
+   * Remembers the byte ranges of the text elements of the XML file and
+   * detects its format. The ranges remain unknown if the file cannot be
+   * scanned or does not match the database.
+   */
+  private void index(byte[] bytes) {
+    ranges = new IdentityHashMap<>();
+    fileLength = bytes.length;
+    List<Range> scanned = null;
+    if (!db.isCompactDialect() && Arrays.equals("<text".getBytes(charset), TEXT_TAG)) {
+      scanned = scan(bytes);
+    }
+    ITextNode[] textNodes = db.getTextNodes();
+    if (scanned == null || scanned.size() != textNodes.length) {
+      LOG.debug("Unknown text elements, the whole file will be rewritten, file:" + xmlFile);
+      return;
+    }
+    for (int i = 0; i < textNodes.length; i++) {
+      ranges.put(textNodes[i], scanned.get(i));
+    }
+    Range first = scanned.get(0);
+    headerLength = first.gapStart;
+    trailerStart = scanned.get(scanned.size() - 1).end;
+    detectFormat(new String(bytes, (int) first.gapStart, (int) (first.start - first.gapStart), charset));
+  }
+
+  /**
+   * Detects the indent and the line separator from the whitespace before
+   * the first text element.
+   */
+  private void detectFormat(String gap) {
+    int lineEnd = gap.lastIndexOf('\n');
+    if (lineEnd < 0 || !gap.substring(lineEnd + 1).trim().isEmpty()) {
+      return;
+    }
+    lineSeparator = lineEnd > 0 && gap.charAt(lineEnd - 1) == '\r' ? "\r\n" : "\n";
+    indent = gap.substring(lineEnd + 1);
+  }
+
+  /**
+   * Scans XML code in an ASCII compatible encoding for the
+   * <code>text</code> elements below the root element. The range of an
+   * element starts with the content between the previous element, or
+   * the start tag of the root element, and the element.
+   * @return the ranges or <code>null</code> if the code cannot be scanned
+   * or has no text elements
+   */
+  static List<Range> scan(byte[] bytes) {
+    List<Range> ranges = new ArrayList<>();
+    int depth = 0;
+    int gapStart = -1;
+    int elementStart = -1;
+    int i = 0;
+    while (i < bytes.length) {
+      if (bytes[i] != '<') {
+        i++;
+        continue;
+      }
+      int end;
+      if (startsWith(bytes, i, "<!--")) {
+        end = skip(bytes, i, "-->");
+      } else if (startsWith(bytes, i, "<![CDATA[")) {
+        end = skip(bytes, i, "]]>");
+      } else if (startsWith(bytes, i, "<?")) {
+        end = skip(bytes, i, "?>");
+      } else if (startsWith(bytes, i, "<!")) {
+        end = indexOf(bytes, i, ">");
+        int bracket = indexOf(bytes, i, "[");
+        if (depth > 0 || bracket >= 0 && bracket < end) {
+          // a document type declaration with an internal subset
+          return null;
+        }
+      } else if (startsWith(bytes, i, "</")) {
+        end = indexOf(bytes, i, ">");
+        if (end < 0) {
+          return null;
+        }
+        depth--;
+        if (depth == 1) {
+          if (elementStart < 0) {
+            return null;
+          }
+          ranges.add(new Range(gapStart, elementStart, end + 1));
+          gapStart = end + 1;
+          elementStart = -1;
+        }
+      } else {
+        end = getTagEnd(bytes, i);
+        if (end < 0) {
+          return null;
+        }
+        boolean empty = bytes[end - 1] == '/';
+        if (depth == 0) {
+          if (empty) {
+            return null;
+          }
+          gapStart = end + 1;
+        } else if (depth == 1) {
+          if (!isTextTag(bytes, i)) {
+            return null;
+          }
+          if (empty) {
+            ranges.add(new Range(gapStart, i, end + 1));
+            gapStart = end + 1;
+          } else {
+            elementStart = i;
+          }
+        }
+        if (!empty) {
+          depth++;
+        }
+      }
+      if (end < 0) {
+        return null;
+      }
+      i = end + 1;
+    }
+    return depth == 0 && !ranges.isEmpty() ? ranges : null;
+  }
+
+  private static boolean startsWith(byte[] bytes, int index, String prefix) {
+    if (index + prefix.length() > bytes.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (bytes[index + i] != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int indexOf(byte[] bytes, int fromIndex, String string) {
+    for (int i = fromIndex; i <= bytes.length - string.length(); i++) {
+      if (startsWith(bytes, i, string)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Gets the index of the last character of the first occurrence of a
+   * terminator, or -1 if there is none.
+   */
+  private static int skip(byte[] bytes, int fromIndex, String terminator) {
+    int index = indexOf(bytes, fromIndex, terminator);
+    return index < 0 ? -1 : index + terminator.length() - 1;
+  }
+
+  private static boolean isTextTag(byte[] bytes, int index) {
+    if (!startsWith(bytes, index, "<text") || index + 5 >= bytes.length) {
+      return false;
+    }
+    byte next = bytes[index + 5];
+    return next == '>' || next == '/' || Character.isWhitespace(next);
+  }
+
+  /**
+   * Gets the index of the <code>&gt;</code> ending a start tag, ignoring
+   * the characters in attribute values.
+   */
+  private static int getTagEnd(byte[] bytes, int index) {
+    byte quote = 0;
+    for (int i = index + 1; i < bytes.length; i++) {
+      byte b = bytes[i];
+      if (quote != 0) {
+        if (b == quote) {
+          quote = 0;
+        }
+      } else if (b == '"' || b == '\'') {
+        quote = b;
+      } else if (b == '>') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void masterLanguageChanged(IDatabase database) {
+    rewriteAll = true;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void textNodeChanged(IDatabase database, ITextNode textNode) {
+    modified.add(textNode);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void textNodeAdded(IDatabase database, ITextNode textNode) {
+    // text nodes without range are written anyway
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void textNodesRemoved(IDatabase database, ITextNode[] textNodes, int index) {
+    // removed text nodes are not written, a range of a text node added again is still valid
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void textNodesMoved(IDatabase database, ITextNode[] textNodes) {
+    // the ranges move with the text nodes
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void valueNodeChanged(IValueNode valueNode) {
+    modified.add(valueNode.getParent());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void valueNodeAdded(IValueNode valueNode) {
+    modified.add(valueNode.getParent());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void valueNodeRemoved(IValueNode valueNode) {
+    modified.add(valueNode.getParent());
+  }
+
+  /**
+   * The byte range of a text element in the XML file.
+   */
+  static final class Range {
+
+    // the start of the content between the previous element and this one
+    private final long gapStart;
+    private final long start;
+    private final long end;
+
+    Range(long gapStart, long start, long end) {
+      this.gapStart = gapStart;
+      this.start = start;
+      this.end = end;
+    }
+
+    long getStart() {
+      return start;
+    }
+
+    long getEnd() {
+      return end;
+    }
+  }
+
+}
@@ -0,0 +1,463 @@
+package com.netcetera.trema.core.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.JDOMParseException;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.XMLOutputter;
+
+import com.netcetera.trema.core.ParseException;
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.XMLDatabase;
+import com.netcetera.trema.core.XMLTextNode;
+import com.netcetera.trema.core.XMLValueNode;
+import com.netcetera.trema.core.api.IDatabase;
+import com.netcetera.trema.core.api.IDatabaseListener;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.api.IValueNode;
+
+
+
+/**
+ * Stores a database as a master file with the keys and contexts and one
+ * value file per language in a directory, so that a single language can
+ * be loaded and saved without the others.
+ * <p>
+ * The master file {@value #MASTER_FILE_NAME} is a trema XML file whose
+ * text elements have no values. The value file of a language, e.g.
+ * <code>texts_fr.xml</code>, contains the values and statuses of the
+ * language by key:
+ * <pre>
+ * &lt;values lang="fr"&gt;
+ *   &lt;value key="key" status="initial"&gt;valeur&lt;/value&gt;
+ * &lt;/values&gt;
+ * </pre>
+ * {@link #open(File, boolean, String...)} only loads the requested
+ * languages, further languages can be loaded with
+ * {@link #loadLanguage(String)}. The storage tracks the modifications of
+ * the database from the listener events and {@link #save()} only
+ * rewrites the master file if text nodes were added, removed, moved or
+ * changed and the value files of the modified languages. The value files
+ * of languages which are not loaded are only rewritten if keys were
+ * changed or text nodes removed, their values are preserved. The events have to be delivered
+ * synchronously, i.e. the database must not have an event dispatcher.
+ */
+public class PerLanguageStorage implements IDatabaseListener, Closeable {
+
+  public static final Logger LOG = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+  /** The name of the master file. */
+  public static final String MASTER_FILE_NAME = "texts.trm";
+
+  private static final String VALUE_FILE_PREFIX = "texts_";
+  private static final String VALUE_FILE_SUFFIX = ".xml";
+  private static final String VALUES_ELEMENT_NAME = "values";
+  private static final String VALUE_ELEMENT_NAME = "value";
+  private static final String LANGUAGE_ATTRIBUTE_NAME = "lang";
+  private static final String KEY_ATTRIBUTE_NAME = "key";
+  private static final String STATUS_ATTRIBUTE_NAME = "status";
+
+  private final XMLDatabase db;
+  private final Path directory;
+  // the keys of the text nodes in the files, to find the values of changed keys
+  private final Map<ITextNode, String> savedKeys = new IdentityHashMap<>();
+  private final Map<String, ITextNode> textNodesBySavedKey = new HashMap<>();
+  private final Set<String> availableLanguages = new TreeSet<>();
+  private final Set<String> loadedLanguages = new TreeSet<>();
+  private final Set<String> modifiedLanguages = new TreeSet<>();
+  private boolean masterModified = false;
+  private boolean loading = false;
+  private String encoding = "UTF-8";
+  private String indent = "  ";
+  private String lineSeparator = "\n";
+
+  private PerLanguageStorage(XMLDatabase db, Path directory) throws IOException {
+    this.db = db;
+    this.directory = directory;
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                                                                 VALUE_FILE_PREFIX + "*" + VALUE_FILE_SUFFIX)) {
+      for (Path file : stream) {
+        String fileName = file.getFileName().toString();
+        availableLanguages.add(fileName.substring(VALUE_FILE_PREFIX.length(),
+                                                  fileName.length() - VALUE_FILE_SUFFIX.length()));
+      }
+    }
+    updateSavedKeys();
+  }
+
+  /**
+   * Builds a database from the master file in a directory and loads the
+   * values of the given languages. The returned storage tracks all
+   * further modifications of the database.
+   * @param directory the directory
+   * @param treatWarningsAsErrors see
+   * {@link XMLDatabase#build(InputStream, boolean)}
+   * @param languages the languages to load
+   * @return the storage, see {@link #getDatabase()}
+   * @throws IOException if any IO errors occur
+   * @throws ParseException if a file cannot be parsed
+   */
+  public static PerLanguageStorage open(File directory, boolean treatWarningsAsErrors, String... languages)
+    throws IOException, ParseException {
+    XMLDatabase db = new XMLDatabase();
+    try (InputStream inputStream = Files.newInputStream(directory.toPath().resolve(MASTER_FILE_NAME))) {
+      db.build(inputStream, treatWarningsAsErrors);
+    }
+    PerLanguageStorage storage = new PerLanguageStorage(db, directory.toPath());
+    db.addListener(storage);
+    for (String language : languages) {
+      storage.loadLanguage(language);
+    }
+    return storage;
+  }
+
+  /**
+   * Stores a whole database in a directory. Value files of languages
+   * without values in the database are deleted. The returned storage
+   * tracks all further modifications of the database.
+   * @param db the database
+   * @param directory the directory, created if necessary
+   * @return the storage
+   * @throws IOException if any IO errors occur
+   */
+  public static PerLanguageStorage create(XMLDatabase db, File directory) throws IOException {
+    Files.createDirectories(directory.toPath());
+    PerLanguageStorage storage = new PerLanguageStorage(db, directory.toPath());
+    // the database is complete, i.e. all languages are loaded
+    storage.loadedLanguages.addAll(storage.availableLanguages);
+    for (ITextNode textNode : db.getTextNodes()) {
+      for (IValueNode valueNode : textNode.getValueNodes()) {
+        storage.loadedLanguages.add(valueNode.getLanguage());
+      }
+    }
+    storage.modifiedLanguages.addAll(storage.loadedLanguages);
+    storage.masterModified = true;
+    storage.save();
+    db.addListener(storage);
+    return storage;
+  }
+
+  /**
+   * Gets the database.
+   * @return the database
+   */
+  public XMLDatabase getDatabase() {
+    return db;
+  }
+
+  /**
+   * Gets the languages which have a value file.
+   * @return the languages
+   */
+  public Set<String> getAvailableLanguages() {
+    return Collections.unmodifiableSet(availableLanguages);
+  }
+
+  /**
+   * Gets the languages whose values have been loaded.
+   * @return the languages
+   */
+  public Set<String> getLoadedLanguages() {
+    return Collections.unmodifiableSet(loadedLanguages);
+  }
+
+  /**
+   * Gets the languages whose value files the next save rewrites because
+   * of modified value nodes.
+   * @return the languages
+   */
+  public Set<String> getModifiedLanguages() {
+    return Collections.unmodifiableSet(modifiedLanguages);
+  }
+
+  /**
+   * Checks whether the next save rewrites the master file.
+   * @return true if the master file will be rewritten
+   */
+  public boolean isMasterModified() {
+    return masterModified;
+  }
+
+  /**
+   * Sets the format of the written files, see
+   * {@link XMLDatabase#write(OutputStream, String, String, String)}. The
+   * master file is written in the dialect of the database.
+   * @param encoding the encoding, by default UTF-8
+   * @param indent the indent, by default two spaces
+   * @param lineSeparator the line separator, by default a line feed
+   */
+  public void setFormat(String encoding, String indent, String lineSeparator) {
+    this.encoding = encoding;
+    this.indent = indent;
+    this.lineSeparator = lineSeparator;
+  }
+
+  /**
+   * Loads the values of a language into the database, if not already
+   * done. Values added to the database before are kept. Loading a
+   * language without value file does nothing.
+   * @param language the language
+   * @throws IOException if any IO errors occur
+   * @throws ParseException if the value file cannot be parsed
+   */
+  public void loadLanguage(String language) throws IOException, ParseException {
+    if (loadedLanguages.contains(language)) {
+      return;
+    }
+    Map<String, IValueNode> values = readValues(language);
+    loading = true;
+    try {
+      for (Map.Entry<String, IValueNode> entry : values.entrySet()) {
+        ITextNode textNode = textNodesBySavedKey.get(entry.getKey());
+        if (textNode != null && textNode.getValueNode(language) == null) {
+          textNode.addValueNode(entry.getValue());
+        }
+      }
+    } finally {
+      loading = false;
+    }
+    loadedLanguages.add(language);
+    LOG.debug("Loaded language, directory:" + directory + ", language:" + language + ", values:" + values.size());
+  }
+
+  /**
+   * Writes the master file and the value files of the modified
+   * languages. Each file is replaced atomically, value files without
+   * values are deleted.
+   * @throws IOException if any IO errors occur
+   */
+  public void save() throws IOException {
+    Set<String> languages = new TreeSet<>(modifiedLanguages);
+    Set<ITextNode> textNodes = Collections.newSetFromMap(new IdentityHashMap<>());
+    Collections.addAll(textNodes, db.getTextNodes());
+    for (Map.Entry<ITextNode, String> entry : savedKeys.entrySet()) {
+      if (!textNodes.contains(entry.getKey()) || !entry.getValue().equals(entry.getKey().getKey())) {
+        // the value files of the languages which are not loaded refer to the old key or still contain the values
+        // of a removed text node, which a new text node with the same key would get otherwise
+        languages.addAll(availableLanguages);
+        break;
+      }
+    }
+    for (String language : languages) {
+      writeValues(language);
+    }
+    if (masterModified) {
+      writeMaster();
+    }
+    updateSavedKeys();
+    modifiedLanguages.clear();
+    masterModified = false;
+    LOG.debug("Saved database, directory:" + directory + ", languages:" + languages);
+  }
+
+  /**
+   * Stops tracking the modifications of the database.
+   */
+  @Override
+  public void close() {
+    db.removeListener(this);
+  }
+
+  private void updateSavedKeys() {
+    savedKeys.clear();
+    textNodesBySavedKey.clear();
+    for (ITextNode textNode : db.getTextNodes()) {
+      savedKeys.put(textNode, textNode.getKey());
+      textNodesBySavedKey.putIfAbsent(textNode.getKey(), textNode);
+    }
+  }
+
+  private Path getValueFile(String language) {
+    return directory.resolve(VALUE_FILE_PREFIX + language + VALUE_FILE_SUFFIX);
+  }
+
+  /**
+   * Reads the value file of a language.
+   * @return the value nodes by key, empty if there is no value file
+   */
+  private Map<String, IValueNode> readValues(String language) throws IOException, ParseException {
+    Map<String, IValueNode> values = new LinkedHashMap<>();
+    Path file = getValueFile(language);
+    if (!Files.exists(file)) {
+      return values;
+    }
+    Document document;
+    try (InputStream inputStream = Files.newInputStream(file)) {
+      document = new SAXBuilder().build(inputStream);
+    } catch (JDOMParseException e) {
+      throw new ParseException(e.toString(), e.getLineNumber());
+    } catch (JDOMException e) {
+      throw new ParseException(e.toString());
+    }
+    List<Element> valueElements = document.getRootElement().getChildren(VALUE_ELEMENT_NAME);
+    for (Element valueElement : valueElements) {
+      String key = valueElement.getAttributeValue(KEY_ATTRIBUTE_NAME);
+      if (key == null) {
+        throw new ParseException("No key found for value in " + file.getFileName() + ".");
+      }
+      String statusName = valueElement.getAttributeValue(STATUS_ATTRIBUTE_NAME);
+      Status status = Status.valueOf(statusName);
+      if (status == null) {
+        throw new ParseException("Invalid status for key \"" + key + "\": " + statusName);
+      }
+      values.put(key, new XMLValueNode(language, status, valueElement.getText()));
+    }
+    return values;
+  }
+
+  /**
+   * Writes the value file of a language. For a language which is not
+   * loaded, the values of the value file are kept unless the database
+   * contains a value.
+   */
+  private void writeValues(String language) throws IOException {
+    Map<String, IValueNode> storedValues = Collections.emptyMap();
+    if (!loadedLanguages.contains(language)) {
+      try {
+        storedValues = readValues(language);
+      } catch (ParseException e) {
+        throw new IOException("Cannot preserve the values of " + getValueFile(language).getFileName(), e);
+      }
+    }
+    Element rootElement = new Element(VALUES_ELEMENT_NAME);
+    rootElement.setAttribute(LANGUAGE_ATTRIBUTE_NAME, language);
+    for (ITextNode textNode : db.getTextNodes()) {
+      IValueNode valueNode = textNode.getValueNode(language);
+      if (valueNode == null && savedKeys.containsKey(textNode)) {
+        valueNode = storedValues.get(savedKeys.get(textNode));
+      }
+      if (valueNode != null) {
+        Element valueElement = new Element(VALUE_ELEMENT_NAME);
+        valueElement.setAttribute(KEY_ATTRIBUTE_NAME, textNode.getKey());
+        valueElement.setAttribute(STATUS_ATTRIBUTE_NAME, valueNode.getStatus().getName());
+        valueElement.setText(valueNode.getValue());
+        rootElement.addContent(valueElement);
+      }
+    }
+    Path file = getValueFile(language);
+    if (rootElement.getChildren().isEmpty()) {
+      Files.deleteIfExists(file);
+      availableLanguages.remove(language);
+      return;
+    }
+    Path tempFile = createTempFile(file);
+    try {
+      try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+        XMLOutputter outputter = new XMLOutputter(XMLDatabase.createFormat(encoding, indent, lineSeparator));
+        outputter.output(new Document(rootElement), outputStream);
+      }
+      EditJournal.moveAtomically(tempFile, file);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+    availableLanguages.add(language);
+  }
+
+  private void writeMaster() throws IOException {
+    // the text nodes are copied without values, they cannot be added to a second database
+    XMLDatabase masterDb = new XMLDatabase();
+    masterDb.setMasterLanguage(db.getMasterLanguage());
+    masterDb.setCompactDialect(db.isCompactDialect());
+    for (ITextNode textNode : db.getTextNodes()) {
+      masterDb.addTextNode(new XMLTextNode(textNode.getKey(), textNode.getContext()));
+    }
+    Path file = directory.resolve(MASTER_FILE_NAME);
+    Path tempFile = createTempFile(file);
+    try {
+      try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+        masterDb.write(outputStream, encoding, indent, lineSeparator);
+      }
+      EditJournal.moveAtomically(tempFile, file);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  private Path createTempFile(Path file) throws IOException {
+    return Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+  }
+
+  private void markLanguagesModified(ITextNode textNode) {
+    for (IValueNode valueNode : textNode.getValueNodes()) {
+      modifiedLanguages.add(valueNode.getLanguage());
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void masterLanguageChanged(IDatabase database) {
+    masterModified = true;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void textNodeChanged(IDatabase database, ITextNode textNode) {
+    masterModified = true;
+    // the values refer to the key
+    markLanguagesModified(textNode);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void textNodeAdded(IDatabase database, ITextNode textNode) {
+    masterModified = true;
+    markLanguagesModified(textNode);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void textNodesRemoved(IDatabase database, ITextNode[] textNodes, int index) {
+    masterModified = true;
+    for (ITextNode textNode : textNodes) {
+      markLanguagesModified(textNode);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void textNodesMoved(IDatabase database, ITextNode[] textNodes) {
+    masterModified = true;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void valueNodeChanged(IValueNode valueNode) {
+    if (!loading) {
+      modifiedLanguages.add(valueNode.getLanguage());
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void valueNodeAdded(IValueNode valueNode) {
+    valueNodeChanged(valueNode);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void valueNodeRemoved(IValueNode valueNode) {
+    valueNodeChanged(valueNode);
+  }
+
+}
@@ -0,0 +1,414 @@
+package com.netcetera.trema.core.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.netcetera.trema.core.ParseException;
+import com.netcetera.trema.core.XMLDatabase;
+import com.netcetera.trema.core.XMLTextNode;
+import com.netcetera.trema.core.XMLValueNode;
+import com.netcetera.trema.core.api.IDatabase;
+import com.netcetera.trema.core.api.IDatabaseListener;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.api.IValueNode;
+
+
+
+/**
+ * Stores one database as several XML files in a directory, partitioned
+ * by the prefix of the keys: a text node belongs to the shard named after
+ * the part of its key before the first {@value #PREFIX_DELIMITER}, see
+ * {@link #getShardName(String)}. Each shard is a regular trema XML file
+ * named after the shard with the suffix {@value #FILE_SUFFIX}. An empty
+ * database is stored as an empty {@value #DEFAULT_SHARD} shard.
+ * <p>
+ * {@link #open(File, boolean, ForkJoinPool)} builds and validates the
+ * shards in parallel and merges them into one database, ordered by the
+ * shard names and within a shard by the order in its file. The storage
+ * tracks the modifications of the database from the listener events and
+ * {@link #save()} only rewrites the shards containing modified text
+ * nodes. The events therefore have to be delivered synchronously, i.e.
+ * the database must not have an event dispatcher.
+ */
+public class ShardedStorage implements IDatabaseListener, Closeable {
+
+  public static final Logger LOG = LogManager.getLogger(MethodHandles.lookup().lookupClass());
+
+  /** The suffix of the shard files. */
+  public static final String FILE_SUFFIX = ".trm";
+
+  /** The delimiter ending the key prefix which determines the shard. */
+  public static final char PREFIX_DELIMITER = '.';
+
+  /** The shard of the keys without prefix. */
+  public static final String DEFAULT_SHARD = "_default";
+
+  private final XMLDatabase db;
+  private final Path directory;
+  // the shard of every text node, also for keys changed since
+  private final Map<ITextNode, String> shards = new IdentityHashMap<>();
+  private final Set<String> existingShards = new HashSet<>();
+  private final Set<String> modifiedShards = new TreeSet<>();
+  private String encoding = "UTF-8";
+  private String indent = "  ";
+  private String lineSeparator = "\n";
+
+  private ShardedStorage(XMLDatabase db, Path directory) {
+    this.db = db;
+    this.directory = directory;
+    for (ITextNode textNode : db.getTextNodes()) {
+      shards.put(textNode, getShardName(textNode.getKey()));
+    }
+  }
+
+  /**
+   * Builds a database from the shards in a directory, using the common
+   * pool, see {@link #open(File, boolean, ForkJoinPool)}.
+   * @param directory the directory
+   * @param treatWarningsAsErrors see
+   * {@link XMLDatabase#build(InputStream, boolean)}
+   * @return the storage, see {@link #getDatabase()}
+   * @throws IOException if any IO errors occur
+   * @throws ParseException if a shard cannot be parsed or the shards are
+   * inconsistent
+   */
+  public static ShardedStorage open(File directory, boolean treatWarningsAsErrors)
+    throws IOException, ParseException {
+    return open(directory, treatWarningsAsErrors, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Builds a database from the shards in a directory. The shards are
+   * built in parallel and checked for consistency: all shards must have
+   * the same master language and contain only keys belonging to them.
+   * The returned storage tracks all further modifications of the
+   * database.
+   * @param directory the directory
+   * @param treatWarningsAsErrors see
+   * {@link XMLDatabase#build(InputStream, boolean)}
+   * @param pool the pool to build the shards in
+   * @return the storage, see {@link #getDatabase()}
+   * @throws IOException if any IO errors occur
+   * @throws ParseException if a shard cannot be parsed, the shards are
+   * inconsistent or there are no shards
+   */
+  public static ShardedStorage open(File directory, boolean treatWarningsAsErrors, ForkJoinPool pool)
+    throws IOException, ParseException {
+    Map<String, Future<XMLDatabase>> builds = new LinkedHashMap<>();
+    for (Path file : listShardFiles(directory.toPath())) {
+      builds.put(getShardName(file), pool.submit(() -> build(file, treatWarningsAsErrors)));
+    }
+    if (builds.isEmpty()) {
+      throw new ParseException("No shards found in " + directory);
+    }
+
+    XMLDatabase db = new XMLDatabase();
+    for (Map.Entry<String, Future<XMLDatabase>> entry : builds.entrySet()) {
+      String shard = entry.getKey();
+      XMLDatabase shardDb = getResult(entry.getValue());
+      if (db.getMasterLanguage() == null) {
+        db.setMasterLanguage(shardDb.getMasterLanguage());
+        // the shards are saved in the dialect of the first one
+        db.setCompactDialect(shardDb.isCompactDialect());
+      } else if (!db.getMasterLanguage().equals(shardDb.getMasterLanguage())) {
+        throw new ParseException("Master language of shard \"" + shard + "\" differs: "
+                                 + shardDb.getMasterLanguage());
+      }
+      for (ITextNode textNode : shardDb.getTextNodes()) {
+        if (!shard.equals(getShardName(textNode.getKey()))) {
+          throw new ParseException("Key \"" + textNode.getKey() + "\" does not belong to shard \"" + shard + "\".");
+        }
+        db.addTextNode(textNode);
+      }
+    }
+    ShardedStorage storage = new ShardedStorage(db, directory.toPath());
+    storage.existingShards.addAll(builds.keySet());
+    db.addListener(storage);
+    LOG.debug("Opened sharded database, directory:" + directory + ", shards:" + builds.size());
+    return storage;
+  }
+
+  /**
+   * Stores a database as shards in a directory. Existing shard files of
+   * the directory are replaced. The returned storage tracks all further
+   * modifications of the database.
+   * @param db the database
+   * @param directory the directory, created if necessary
+   * @return the storage
+   * @throws IOException if any IO errors occur
+   */
+  public static ShardedStorage create(XMLDatabase db, File directory) throws IOException {
+    Files.createDirectories(directory.toPath());
+    ShardedStorage storage = new ShardedStorage(db, directory.toPath());
+    for (Path file : listShardFiles(directory.toPath())) {
+      storage.existingShards.add(getShardName(file));
+    }
+    storage.modifiedShards.addAll(storage.existingShards);
+    storage.modifiedShards.addAll(storage.shards.values());
+    storage.save();
+    db.addListener(storage);
+    return storage;
+  }
+
+  /**
+   * Gets the shard of a key: the part of the key before the first
+   * {@value #PREFIX_DELIMITER} in lower case, with characters other than
+   * letters, digits, <code>-</code> and <code>_</code> replaced by
+   * <code>_</code>, or {@value #DEFAULT_SHARD} if the key has no prefix.
+   * Prefixes differing only in case therefore share a shard, their files
+   * would collide on case-insensitive file systems.
+   * @param key the key
+   * @return the name of the shard
+   */
+  public static String getShardName(String key) {
+    int end = key.indexOf(PREFIX_DELIMITER);
+    if (end <= 0) {
+      return DEFAULT_SHARD;
+    }
+    StringBuilder name = new StringBuilder(end);
+    for (int i = 0; i < end; i++) {
+      char c = key.charAt(i);
+      if (c >= 'A' && c <= 'Z') {
+        name.append((char) (c - 'A' + 'a'));
+      } else {
+        boolean valid = c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '-' || c == '_';
+        name.append(valid ? c : '_');
+      }
+    }
+    return name.toString();
+  }
+
+  private static String getShardName(Path file) {
+    String fileName = file.getFileName().toString();
+    return fileName.substring(0, fileName.length() - FILE_SUFFIX.length());
+  }
+
+  private static List<Path> listShardFiles(Path directory) throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+      for (Path file : stream) {
+        files.add(file);
+      }
+    }
+    Collections.sort(files);
+    return files;
+  }
+
+  private static XMLDatabase build(Path file, boolean treatWarningsAsErrors) throws IOException, ParseException {
+    XMLDatabase shardDb = new XMLDatabase();
+    try (InputStream inputStream = Files.newInputStream(file)) {
+      shardDb.build(inputStream, treatWarningsAsErrors);
+    } catch (ParseException e) {
+      throw new ParseException("Invalid shard " + file.getFileName() + ": " + e.getMessage(), e.getLineNumber());
+    }
+    return shardDb;
+  }
+
+  private static XMLDatabase getResult(Future<XMLDatabase> future) throws IOException, ParseException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while building the shards.", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof ParseException) {
+        throw (ParseException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /**
+   * Gets the database.
+   * @return the database
+   */
+  public XMLDatabase getDatabase() {
+    return db;
+  }
+
+  /**
+   * Gets the names of the shards which the next save rewrites.
+   * @return the names of the shards
+   */
+  public Set<String> getModifiedShards() {
+    return Collections.unmodifiableSet(modifiedShards);
+  }
+
+  /**
+   * Sets the format of the shard files, see
+   * {@link XMLDatabase#write(OutputStream, String, String, String)}. The
+   * shards are written in the dialect of the database.
+   * @param encoding the encoding, by default UTF-8
+   * @param indent the indent, by default two spaces
+   * @param lineSeparator the line separator, by default a line feed
+   */
+  public void setFormat(String encoding, String indent, String lineSeparator) {
+    this.encoding = encoding;
+    this.indent = indent;
+    this.lineSeparator = lineSeparator;
+  }
+
+  /**
+   * Rewrites the shards containing text nodes modified since the last
+   * save. Each shard file is replaced atomically, shards without text
+   * nodes are deleted unless the database is empty.
+   * @throws IOException if any IO errors occur
+   */
+  public void save() throws IOException {
+    // an empty database keeps an empty default shard, so that it can be opened again
+    boolean empty = db.getSize() == 0;
+    if (empty && !existingShards.contains(DEFAULT_SHARD)) {
+      modifiedShards.add(DEFAULT_SHARD);
+    }
+    if (modifiedShards.isEmpty()) {
+      return;
+    }
+    Map<String, List<ITextNode>> textNodesByShard = new LinkedHashMap<>();
+    for (ITextNode textNode : db.getTextNodes()) {
+      String shard = getShardName(textNode.getKey());
+      if (modifiedShards.contains(shard)) {
+        textNodesByShard.computeIfAbsent(shard, name -> new ArrayList<>()).add(textNode);
+      }
+    }
+    for (String shard : new ArrayList<>(modifiedShards)) {
+      Path file = directory.resolve(shard + FILE_SUFFIX);
+      List<ITextNode> textNodes = textNodesByShard.get(shard);
+      if (textNodes == null && empty && DEFAULT_SHARD.equals(shard)) {
+        textNodes = Collections.emptyList();
+      }
+      if (textNodes == null) {
+        Files.deleteIfExists(file);
+        existingShards.remove(shard);
+      } else {
+        write(file, textNodes);
+        existingShards.add(shard);
+      }
+      modifiedShards.remove(shard);
+    }
+    LOG.debug("Saved sharded database, directory:" + directory);
+  }
+
+  private void write(Path file, List<ITextNode> textNodes) throws IOException {
+    // the text nodes are copied, they cannot be added to a second database
+    XMLDatabase shardDb = new XMLDatabase();
+    shardDb.setMasterLanguage(db.getMasterLanguage());
+    shardDb.setCompactDialect(db.isCompactDialect());
+    for (ITextNode textNode : textNodes) {
+      ITextNode copy = new XMLTextNode(textNode.getKey(), textNode.getContext());
+      for (IValueNode valueNode : textNode.getValueNodes()) {
+        copy.addValueNode(new XMLValueNode(valueNode.getLanguage(), valueNode.getStatus(), valueNode.getValue()));
+      }
+      shardDb.addTextNode(copy);
+    }
+    Path tempFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    try {
+      try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+        shardDb.write(outputStream, encoding, indent, lineSeparator);
+      }
+      EditJournal.moveAtomically(tempFile, file);
+    } finally {
+      Files.deleteIfExists(tempFile);
+    }
+  }
+
+  /**
+   * Stops tracking the modifications of the database.
+   */
+  @Override
+  public void close() {
+    db.removeListener(this);
+  }
+
+  private void markModified(ITextNode textNode) {
+    String shard = shards.get(textNode);
+    modifiedShards.add(shard != null ? shard : getShardName(textNode.getKey()));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void masterLanguageChanged(IDatabase database) {
+    modifiedShards.addAll(existingShards);
+    modifiedShards.addAll(shards.values());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void textNodeChanged(IDatabase database, ITextNode textNode) {
+    // a changed key may move the text node to another shard
+    markModified(textNode);
+    String shard = getShardName(textNode.getKey());
+    shards.put(textNode, shard);
+    modifiedShards.add(shard);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void textNodeAdded(IDatabase database, ITextNode textNode) {
+    String shard = getShardName(textNode.getKey());
+    shards.put(textNode, shard);
+    modifiedShards.add(shard);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void textNodesRemoved(IDatabase database, ITextNode[] textNodes, int index) {
+    for (ITextNode textNode : textNodes) {
+      markModified(textNode);
+      shards.remove(textNode);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void textNodesMoved(IDatabase database, ITextNode[] textNodes) {
+    for (ITextNode textNode : textNodes) {
+      markModified(textNode);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void valueNodeChanged(IValueNode valueNode) {
+    markModified(valueNode.getParent());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void valueNodeAdded(IValueNode valueNode) {
+    markModified(valueNode.getParent());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void valueNodeRemoved(IValueNode valueNode) {
+    markModified(valueNode.getParent());
+  }
+
+}
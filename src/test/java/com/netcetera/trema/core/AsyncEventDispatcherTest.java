@@ -0,0 +1,110 @@
+package com.netcetera.trema.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+/**
+ * Test for {@link AsyncEventDispatcher}.
+ */
+class AsyncEventDispatcherTest {
+
+  private ExecutorService executor;
+
+  @BeforeEach
+  void setUp() {
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void shouldBlockWhenQueueIsFull() throws Exception {
+    AsyncEventDispatcher dispatcher = new AsyncEventDispatcher(executor, 2);
+    CountDownLatch release = new CountDownLatch(1);
+    List<Integer> delivered = new CopyOnWriteArrayList<>();
+    dispatcher.dispatch(() -> {
+      await(release);
+      delivered.add(1);
+    });
+    dispatcher.dispatch(() -> delivered.add(2));
+    dispatcher.dispatch(() -> delivered.add(3));
+
+    CountDownLatch dispatched = new CountDownLatch(1);
+    executor.execute(() -> {
+      dispatcher.dispatch(() -> delivered.add(4));
+      dispatched.countDown();
+    });
+
+    assertThat(dispatched.await(200, TimeUnit.MILLISECONDS), equalTo(false));
+    release.countDown();
+    assertThat(dispatched.await(5, TimeUnit.SECONDS), equalTo(true));
+    dispatcher.flush();
+    assertThat(delivered, contains(1, 2, 3, 4));
+    assertThat(dispatcher.getPendingEvents(), equalTo(0));
+  }
+
+  @Test
+  void shouldNotFlushWhileDelivering() throws Exception {
+    AsyncEventDispatcher dispatcher = new AsyncEventDispatcher(executor, 2);
+    List<Class<?>> failures = new CopyOnWriteArrayList<>();
+    dispatcher.dispatch(() -> {
+      try {
+        dispatcher.flush();
+      } catch (IllegalStateException | InterruptedException e) {
+        failures.add(e.getClass());
+      }
+    });
+    dispatcher.flush();
+
+    assertThat(failures, contains(IllegalStateException.class));
+    assertThrows(IllegalArgumentException.class, () -> new AsyncEventDispatcher(executor, 0));
+  }
+
+  @Test
+  void shouldDeliverAfterRejectedExecution() throws Exception {
+    AtomicBoolean reject = new AtomicBoolean(true);
+    Executor rejectingOnce = task -> {
+      if (reject.getAndSet(false)) {
+        throw new RejectedExecutionException("rejected");
+      }
+      executor.execute(task);
+    };
+    AsyncEventDispatcher dispatcher = new AsyncEventDispatcher(rejectingOnce, 2);
+    List<Integer> delivered = new CopyOnWriteArrayList<>();
+
+    assertThrows(RejectedExecutionException.class, () -> dispatcher.dispatch(() -> delivered.add(1)));
+    dispatcher.dispatch(() -> delivered.add(2));
+    dispatcher.flush();
+
+    assertThat(delivered, contains(1, 2));
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
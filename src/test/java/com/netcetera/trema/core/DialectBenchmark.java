@@ -0,0 +1,90 @@
+package com.netcetera.trema.core;
+
+import com.netcetera.trema.core.api.ITextNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures the time to build a database from the classic and from the
+ * compact dialect. The main method also prints the sizes of both files.
+ * <p>
+ * Run with the main method from the test classpath, e.g. from the IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DialectBenchmark {
+
+  private static final int TEXT_NODES = 20000;
+  private static final String[] LANGUAGES = {"de", "fr", "it", "en"};
+
+  @Param({"classic", "compact"})
+  private String dialect;
+
+  private byte[] xml;
+
+  @Setup
+  public void setUp() throws IOException {
+    xml = write(createDatabase(), "compact".equals(dialect));
+  }
+
+  @Benchmark
+  public XMLDatabase build() throws IOException, ParseException {
+    XMLDatabase db = new XMLDatabase();
+    db.build(new ByteArrayInputStream(xml), false);
+    return db;
+  }
+
+  private static XMLDatabase createDatabase() {
+    XMLDatabase db = new XMLDatabase();
+    db.setMasterLanguage("de");
+    for (int i = 0; i < TEXT_NODES; i++) {
+      ITextNode textNode = new XMLTextNode("module" + i % 50 + ".label" + i, "context of label " + i);
+      for (String language : LANGUAGES) {
+        textNode.addValueNode(new XMLValueNode(language, i % 3 == 0 ? Status.INITIAL : Status.TRANSLATED,
+                                               "value " + i + " in " + language));
+      }
+      db.addTextNode(textNode);
+    }
+    return db;
+  }
+
+  private static byte[] write(XMLDatabase db, boolean compact) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    if (compact) {
+      db.writeCompactXML(out, "UTF-8", "  ", "\n");
+    } else {
+      db.writeXML(out, "UTF-8", "  ", "\n");
+    }
+    return out.toByteArray();
+  }
+
+  public static void main(String[] args) throws RunnerException, IOException {
+    XMLDatabase db = createDatabase();
+    System.out.println("classic: " + write(db, false).length + " bytes, compact: " + write(db, true).length
+                       + " bytes");
+    new Runner(new OptionsBuilder().include(DialectBenchmark.class.getSimpleName()).build()).run();
+  }
+
+}
@@ -1,21 +1,38 @@
 package com.netcetera.trema.core;
 
 import com.netcetera.trema.TestUtils;
+import com.netcetera.trema.core.api.IDatabase;
+import com.netcetera.trema.core.api.IDatabaseBatchListener;
+import com.netcetera.trema.core.api.IDatabaseChange;
+import com.netcetera.trema.core.api.IDatabaseListener;
 import com.netcetera.trema.core.api.ITextNode;
 import com.netcetera.trema.core.api.IValueNode;
+import com.netcetera.trema.core.diff.DatabaseDiff;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.emptyArray;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 
 /**
@@ -157,6 +174,239 @@ class XMLDatabaseTest {
     assertThat(db.getSize(), equalTo(0));
  }
 
+  @Test
+  void shouldCoalesceEventsOfBatch() {
+    XMLDatabase db = new XMLDatabase();
+    db.setMasterLanguage("de");
+    for (int i = 0; i < 5; i++) {
+      ITextNode textNode = new XMLTextNode("key" + i, "context" + i);
+      textNode.addValueNode(new XMLValueNode("de", Status.INITIAL, "value" + i));
+      db.addTextNode(textNode);
+    }
+    RecordingListener plainListener = new RecordingListener();
+    BatchRecordingListener batchListener = new BatchRecordingListener();
+    db.addListener(plainListener);
+    db.addListener(batchListener);
+
+    db.beginBatch();
+    db.getTextNode("key1").getValueNode("de").setValue("new value");
+    db.getTextNode("key1").getValueNode("de").setStatus(Status.TRANSLATED);
+    db.beginBatch();
+    db.getTextNode("key3").setContext("new context");
+    db.commitBatch();
+    ITextNode added = new XMLTextNode("added", "context");
+    db.addTextNode(added);
+    added.addValueNode(new XMLValueNode("de", Status.INITIAL, "value"));
+    ITextNode temporary = new XMLTextNode("temporary", "context");
+    db.addTextNode(temporary);
+    db.removeTextNode("temporary");
+
+    assertThat(batchListener.events, empty());
+    assertThat(plainListener.events, contains("textNodeChanged:key3", "textNodeAdded:added", "valueNodeAdded:de",
+      "textNodeAdded:temporary", "textNodesRemoved:temporary"));
+
+    db.commitBatch();
+
+    assertThat(plainListener.events.get(plainListener.events.size() - 1), equalTo("valueNodesChanged:1"));
+    assertThat(batchListener.events, contains("batchCommitted"));
+    IDatabaseChange change = batchListener.change;
+    assertThat(change.getChangedValueNodes(), arrayContaining(db.getTextNode("key1").getValueNode("de")));
+    assertThat(change.getChangedTextNodes(), arrayContaining(db.getTextNode("key3")));
+    assertThat(change.getAddedTextNodes(), arrayContaining(added));
+    assertThat(change.getAddedValueNodes(), emptyArray());
+    assertThat(change.getRemovedTextNodes(), emptyArray());
+    assertThat(change.getFirstAffectedIndex(), equalTo(1));
+    assertThat(change.getLastAffectedIndex(), equalTo(5));
+
+    db.getTextNode("key0").setContext("outside of batch");
+    assertThat(batchListener.events, contains("batchCommitted", "textNodeChanged:key0"));
+  }
+
+  @Test
+  void shouldDeliverEventsAsynchronouslyInOrder() throws Exception {
+    XMLDatabase db = new XMLDatabase();
+    db.setMasterLanguage("de");
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      db.setEventDispatcher(new AsyncEventDispatcher(executor, 16));
+      List<Thread> threads = new CopyOnWriteArrayList<>();
+      RecordingListener listener = new RecordingListener() {
+        @Override
+        public void textNodeAdded(IDatabase database, ITextNode textNode) {
+          threads.add(Thread.currentThread());
+          super.textNodeAdded(database, textNode);
+        }
+      };
+      db.addListener(listener);
+
+      List<String> expected = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        db.addTextNode(new XMLTextNode("key" + i, "context"));
+        expected.add("textNodeAdded:key" + i);
+      }
+      db.flushEvents();
+
+      assertThat(listener.events, equalTo(expected));
+      assertThat(threads.contains(Thread.currentThread()), equalTo(false));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void shouldShareUnmodifiedTextNodesBetweenSnapshots() {
+    XMLDatabase db = new XMLDatabase();
+    db.setMasterLanguage("de");
+    for (int i = 0; i < 3; i++) {
+      ITextNode textNode = new XMLTextNode("key" + i, "context" + i);
+      textNode.addValueNode(new XMLValueNode("de", Status.INITIAL, "wert" + i));
+      db.addTextNode(textNode);
+    }
+
+    DatabaseSnapshot first = db.snapshot();
+    assertThat(db.snapshot(), sameInstance(first));
+
+    db.getTextNode("key1").getValueNode("de").setValue("neuer Wert");
+    db.addTextNode(new XMLTextNode("key3", "context3"));
+    DatabaseSnapshot second = db.snapshot();
+
+    assertThat(first.getSize(), equalTo(3));
+    assertThat(first.getTextNode("key1").getValueNode("de").getValue(), equalTo("wert1"));
+    assertThat(second.getSize(), equalTo(4));
+    assertThat(second.getTextNode("key1").getValueNode("de").getValue(), equalTo("neuer Wert"));
+    assertThat(second.getTextNode(0), sameInstance(first.getTextNode(0)));
+    assertThat(second.getTextNode(1), not(sameInstance(first.getTextNode(1))));
+    assertThat(second.getTextNode(2), sameInstance(first.getTextNode(2)));
+
+    db.moveUpTextNodes(new ITextNode[] {db.getTextNode("key3")});
+    assertThat(db.snapshot().getKeysAsCollection(), contains("key0", "key1", "key3", "key2"));
+    assertThat(second.getKeysAsCollection(), contains("key0", "key1", "key2", "key3"));
+
+    db.removeTextNode("key1");
+    db.addTextNode(0, new XMLTextNode("key4", "context4"));
+    DatabaseSnapshot third = db.snapshot();
+    assertThat(third.getKeysAsCollection(), contains("key4", "key0", "key3", "key2"));
+    assertThat(third.getTextNode(1), sameInstance(first.getTextNode(0)));
+    assertThat(second.getKeysAsCollection(), contains("key0", "key1", "key2", "key3"));
+    assertThrows(UnsupportedOperationException.class, () -> second.removeTextNode("key0"));
+    assertThrows(UnsupportedOperationException.class,
+      () -> second.getTextNode("key0").getValueNode("de").setValue("x"));
+  }
+
+  @Test
+  void shouldReloadOnlyChangedTextNodes() throws Exception {
+    XMLDatabase db = new XMLDatabase();
+    db.build(toXML("de", "key0:context:wert0", "key1:context:wert1", "key2:context:wert2", "key3:context:wert3"),
+             false);
+    ITextNode[] textNodes = db.getTextNodes();
+    IValueNode unchangedValueNode = textNodes[0].getValueNode("de");
+    RecordingListener listener = new RecordingListener();
+    db.addListener(listener);
+
+    String xml = toXML("de", "key3:context:wert3", "key0:context:wert0", "added:context:neu",
+                       "key2:new context:neuer Wert");
+    db.reload(xml, false);
+
+    assertThat(db.getKeysAsCollection(), contains("key3", "key0", "added", "key2"));
+    assertThat(db.getTextNode(0), sameInstance(textNodes[3]));
+    assertThat(db.getTextNode(1), sameInstance(textNodes[0]));
+    assertThat(db.getTextNode(3), sameInstance(textNodes[2]));
+    assertThat(db.getTextNode("key0").getValueNode("de"), sameInstance(unchangedValueNode));
+    assertThat(db.getTextNode("added").getParent(), sameInstance(db));
+    assertThat(listener.events, contains("textNodesRemoved:key1", "textNodesMoved", "textNodeAdded:added",
+      "textNodeChanged:key2", "valueNodesChanged:1"));
+    XMLDatabase expected = new XMLDatabase();
+    expected.build(xml, false);
+    assertThat(DatabaseDiff.compare(expected, db), empty());
+
+    listener.events.clear();
+    db.reload(xml, false);
+    assertThat(listener.events, empty());
+    assertThrows(ParseException.class, () -> db.reload("<trema>", false));
+    assertThat(db.getSize(), equalTo(4));
+  }
+
+  private static String toXML(String masterLanguage, String... texts) throws Exception {
+    XMLDatabase db = new XMLDatabase();
+    db.setMasterLanguage(masterLanguage);
+    for (String text : texts) {
+      String[] parts = text.split(":");
+      ITextNode textNode = new XMLTextNode(parts[0], parts[1]);
+      textNode.addValueNode(new XMLValueNode("de", Status.INITIAL, parts[2]));
+      db.addTextNode(textNode);
+    }
+    StringWriter writer = new StringWriter();
+    db.writeXML(writer, "UTF-8", "  ", "\n");
+    return writer.toString();
+  }
+
+  /**
+   * Records the events of a database.
+   */
+  private static class RecordingListener implements IDatabaseListener {
+
+    protected final List<String> events = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void masterLanguageChanged(IDatabase db) {
+      events.add("masterLanguageChanged");
+    }
+
+    @Override
+    public void textNodeChanged(IDatabase db, ITextNode textNode) {
+      events.add("textNodeChanged:" + textNode.getKey());
+    }
+
+    @Override
+    public void textNodeAdded(IDatabase db, ITextNode textNode) {
+      events.add("textNodeAdded:" + textNode.getKey());
+    }
+
+    @Override
+    public void textNodesRemoved(IDatabase db, ITextNode[] textNodes, int index) {
+      events.add("textNodesRemoved:" + textNodes[0].getKey());
+    }
+
+    @Override
+    public void textNodesMoved(IDatabase db, ITextNode[] textNodes) {
+      events.add("textNodesMoved");
+    }
+
+    @Override
+    public void valueNodeChanged(IValueNode valueNode) {
+      events.add("valueNodeChanged:" + valueNode.getLanguage());
+    }
+
+    @Override
+    public void valueNodeAdded(IValueNode valueNode) {
+      events.add("valueNodeAdded:" + valueNode.getLanguage());
+    }
+
+    @Override
+    public void valueNodeRemoved(IValueNode valueNode) {
+      events.add("valueNodeRemoved:" + valueNode.getLanguage());
+    }
+
+    @Override
+    public void valueNodesChanged(IValueNode[] valueNodes) {
+      events.add("valueNodesChanged:" + valueNodes.length);
+    }
+  }
+
+  /**
+   * Records the events of a database, including committed batches.
+   */
+  private static final class BatchRecordingListener extends RecordingListener implements IDatabaseBatchListener {
+
+    private IDatabaseChange change;
+
+    @Override
+    public void batchCommitted(IDatabase db, IDatabaseChange change) {
+      events.add("batchCommitted");
+      this.change = change;
+    }
+  }
+
   /*
    * This tests tries to write a big xml file to disk.
    */
@@ -0,0 +1,88 @@
+package com.netcetera.trema.core.concurrent;
+
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.XMLDatabase;
+import com.netcetera.trema.core.XMLTextNode;
+import com.netcetera.trema.core.XMLValueNode;
+import com.netcetera.trema.core.api.IDatabase;
+import com.netcetera.trema.core.api.ITextNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Measures the throughput of value edits by several writer threads on a
+ * {@link ConcurrentDatabase} compared to an {@link XMLDatabase} behind a
+ * global lock.
+ * <p>
+ * Run with the main method from the test classpath, e.g. from the IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class ConcurrentDatabaseBenchmark {
+
+  private static final int TEXT_NODES = 10000;
+
+  private final Object globalLock = new Object();
+  private ConcurrentDatabase concurrentDatabase;
+  private XMLDatabase xmlDatabase;
+
+  @Setup
+  public void setUp() {
+    concurrentDatabase = new ConcurrentDatabase();
+    xmlDatabase = new XMLDatabase();
+    for (int i = 0; i < TEXT_NODES; i++) {
+      concurrentDatabase.addTextNode(createTextNode("key" + i));
+      xmlDatabase.addTextNode(createTextNode("key" + i));
+    }
+  }
+
+  @Benchmark
+  public void editConcurrentDatabase() {
+    edit(concurrentDatabase);
+  }
+
+  @Benchmark
+  public void editLockedXMLDatabase() {
+    synchronized (globalLock) {
+      edit(xmlDatabase);
+    }
+  }
+
+  private static void edit(IDatabase db) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    ITextNode textNode = db.getTextNode(random.nextInt(TEXT_NODES));
+    textNode.getValueNode("de").setValue("value" + random.nextInt(100));
+  }
+
+  private static ITextNode createTextNode(String key) {
+    ITextNode textNode = new XMLTextNode(key, "context");
+    textNode.addValueNode(new XMLValueNode("de", Status.INITIAL, "wert"));
+    return textNode;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(ConcurrentDatabaseBenchmark.class.getSimpleName()).build()).run();
+  }
+
+}
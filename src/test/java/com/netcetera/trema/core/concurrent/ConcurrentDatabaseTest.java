@@ -0,0 +1,186 @@
+package com.netcetera.trema.core.concurrent;
+
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.XMLTextNode;
+import com.netcetera.trema.core.XMLValueNode;
+import com.netcetera.trema.core.api.IDatabase;
+import com.netcetera.trema.core.api.IDatabaseListener;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.api.IValueNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+
+/**
+ * Test for {@link ConcurrentDatabase}.
+ */
+class ConcurrentDatabaseTest {
+
+  private static final int WRITERS = 8;
+  private static final int EDITS = 2000;
+  private static final int TEXT_NODES = 100;
+
+  @Test
+  void shouldApplyEditsOfConcurrentWriters() throws Exception {
+    ConcurrentDatabase db = new ConcurrentDatabase();
+    db.setMasterLanguage("de");
+    for (int i = 0; i < TEXT_NODES; i++) {
+      db.addTextNode(createTextNode("key" + i));
+    }
+    CountingListener listener = new CountingListener();
+    db.addListener(listener);
+
+    ExecutorService executor = Executors.newFixedThreadPool(WRITERS + 1);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<?>> futures = new ArrayList<>();
+      for (int writer = 0; writer < WRITERS; writer++) {
+        int number = writer;
+        futures.add(executor.submit(() -> {
+          start.await();
+          for (int edit = 0; edit < EDITS; edit++) {
+            // every writer edits its own language of all text nodes
+            ITextNode textNode = db.getTextNode("key" + (edit % TEXT_NODES));
+            IValueNode valueNode = textNode.getValueNode("l" + number);
+            if (valueNode == null) {
+              textNode.addValueNode(new ConcurrentValueNode("l" + number, Status.INITIAL, "value" + edit));
+            } else {
+              valueNode.setValue("value" + edit);
+            }
+          }
+          return null;
+        }));
+      }
+      futures.add(executor.submit(() -> {
+        start.await();
+        for (int i = 0; i < TEXT_NODES; i++) {
+          db.addTextNode(0, createTextNode("added" + i));
+          db.moveDownTextNodes(new ITextNode[] {db.getTextNode(0)});
+        }
+        return null;
+      }));
+      start.countDown();
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertThat(db.getSize(), equalTo(2 * TEXT_NODES));
+    for (int i = 0; i < TEXT_NODES; i++) {
+      ITextNode textNode = db.getTextNode("key" + i);
+      for (int writer = 0; writer < WRITERS; writer++) {
+        int lastEdit = EDITS - TEXT_NODES + i;
+        assertThat(textNode.getValueNode("l" + writer).getValue(), equalTo("value" + lastEdit));
+      }
+    }
+    assertThat(listener.valueNodesAdded.get(), equalTo(WRITERS * TEXT_NODES));
+    assertThat(listener.valueNodesChanged.get(), equalTo(WRITERS * (EDITS - TEXT_NODES)));
+    assertThat(listener.textNodesAdded.get(), equalTo(TEXT_NODES));
+  }
+
+  @Test
+  void shouldFollowRenamedKeys() {
+    ConcurrentDatabase db = new ConcurrentDatabase(3);
+    db.addTextNode(createTextNode("key0"));
+    db.addTextNode(createTextNode("key1"));
+    db.addTextNode(createTextNode("key0"));
+
+    db.getTextNode(0).setKey("key2");
+    assertThat(db.getTextNode("key0"), sameInstance(db.getTextNode(2)));
+    assertThat(db.getTextNode("key2"), sameInstance(db.getTextNode(0)));
+
+    ITextNode removed = db.getTextNode("key1");
+    db.removeTextNode("key1");
+    removed.setKey("key3");
+    assertThat(db.getTextNode("key3"), nullValue());
+    assertThat(removed.getParent(), nullValue());
+    assertThat(db.getKeysAsCollection(), contains("key2", "key0"));
+  }
+
+  @Test
+  void shouldClaimTextNodeOnlyOnce() {
+    ConcurrentDatabase db = new ConcurrentDatabase();
+    ConcurrentTextNode textNode = new ConcurrentTextNode("key", "context");
+    textNode.addValueNode(new ConcurrentValueNode("de", Status.INITIAL, "wert"));
+
+    // the text node is claimed before it is added, so a concurrent add of the same text node gets a copy
+    ConcurrentTextNode claimed = ConcurrentTextNode.of(textNode, db);
+    ConcurrentTextNode copy = ConcurrentTextNode.of(textNode, db);
+
+    assertThat(claimed, sameInstance(textNode));
+    assertThat(textNode.getParent(), sameInstance(db));
+    assertThat(copy, not(sameInstance(textNode)));
+    assertThat(copy.getParent(), sameInstance(db));
+    assertThat(copy.getValueNode("de").getValue(), equalTo("wert"));
+    IValueNode valueNode = textNode.getValueNode("de");
+    assertThat(ConcurrentValueNode.of(valueNode, copy), not(sameInstance(valueNode)));
+  }
+
+  private static ITextNode createTextNode(String key) {
+    ITextNode textNode = new XMLTextNode(key, "context");
+    textNode.addValueNode(new XMLValueNode("de", Status.INITIAL, "wert"));
+    return textNode;
+  }
+
+  /**
+   * Counts the events of a database.
+   */
+  private static final class CountingListener implements IDatabaseListener {
+
+    private final AtomicInteger textNodesAdded = new AtomicInteger();
+    private final AtomicInteger valueNodesAdded = new AtomicInteger();
+    private final AtomicInteger valueNodesChanged = new AtomicInteger();
+
+    @Override
+    public void masterLanguageChanged(IDatabase db) {
+    }
+
+    @Override
+    public void textNodeChanged(IDatabase db, ITextNode textNode) {
+    }
+
+    @Override
+    public void textNodeAdded(IDatabase db, ITextNode textNode) {
+      textNodesAdded.incrementAndGet();
+    }
+
+    @Override
+    public void textNodesRemoved(IDatabase db, ITextNode[] textNodes, int index) {
+    }
+
+    @Override
+    public void textNodesMoved(IDatabase db, ITextNode[] textNodes) {
+    }
+
+    @Override
+    public void valueNodeChanged(IValueNode valueNode) {
+      valueNodesChanged.incrementAndGet();
+    }
+
+    @Override
+    public void valueNodeAdded(IValueNode valueNode) {
+      valueNodesAdded.incrementAndGet();
+    }
+
+    @Override
+    public void valueNodeRemoved(IValueNode valueNode) {
+    }
+  }
+
+}
@@ -0,0 +1,104 @@
+package com.netcetera.trema.core.diff;
+
+import com.netcetera.trema.core.ContentHashes;
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.XMLDatabase;
+import com.netcetera.trema.core.XMLTextNode;
+import com.netcetera.trema.core.XMLValueNode;
+import com.netcetera.trema.core.api.ITextNode;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayContainingInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+
+
+/**
+ * Test for {@link ContentFingerprints}.
+ */
+class ContentFingerprintsTest {
+
+  @Test
+  void shouldUpdateFingerprintsIncrementally() {
+    XMLDatabase db = createDatabase();
+    ContentFingerprints fingerprints = ContentFingerprints.attach(db);
+    long root = fingerprints.getRootFingerprint();
+    long german = fingerprints.getLanguageFingerprint("de");
+    long french = fingerprints.getLanguageFingerprint("fr");
+
+    db.getTextNode("key1").getValueNode("fr").setValue("nouvelle valeur");
+
+    assertThat(fingerprints.getLanguageFingerprint("de"), equalTo(german));
+    assertThat(fingerprints.getLanguageFingerprint("fr"), not(equalTo(french)));
+    assertThat(fingerprints.getRootFingerprint(), not(equalTo(root)));
+    assertIncrementalEqualsRecomputed(db, fingerprints);
+
+    db.getTextNode("key1").getValueNode("fr").setValue("valeur1");
+
+    assertThat(fingerprints.getLanguageFingerprint("fr"), equalTo(french));
+    assertThat(fingerprints.getRootFingerprint(), equalTo(root));
+  }
+
+  @Test
+  void shouldFollowStructuralChanges() {
+    XMLDatabase db = createDatabase();
+    ContentFingerprints fingerprints = ContentFingerprints.attach(db);
+    long root = fingerprints.getRootFingerprint();
+
+    db.getTextNode("key2").setContext("new context");
+    assertIncrementalEqualsRecomputed(db, fingerprints);
+    db.getTextNode("key2").setKey("key3");
+    assertIncrementalEqualsRecomputed(db, fingerprints);
+    db.getTextNode("key1").addValueNode(new XMLValueNode("it", Status.INITIAL, "valore1"));
+    assertIncrementalEqualsRecomputed(db, fingerprints);
+    assertThat(fingerprints.getLanguages(), arrayContainingInAnyOrder("de", "fr", "it"));
+    db.getTextNode("key1").removeValueNode(db.getTextNode("key1").getValueNode("it"));
+    assertThat(fingerprints.getLanguages(), arrayContainingInAnyOrder("de", "fr"));
+    db.removeTextNode("key3");
+    assertIncrementalEqualsRecomputed(db, fingerprints);
+    db.addTextNode(createTextNode("key2", "context2"));
+    db.moveUpTextNodes(new ITextNode[] {db.getTextNode("key2")});
+
+    assertIncrementalEqualsRecomputed(db, fingerprints);
+    assertThat(fingerprints.getRootFingerprint(), equalTo(root));
+    assertThat(fingerprints.getFingerprint(db.getTextNode("key2")),
+      equalTo(ContentHashes.hash(db.getTextNode("key2"))));
+  }
+
+  @Test
+  void shouldCoverMasterLanguageInRootFingerprint() {
+    XMLDatabase db = createDatabase();
+    ContentFingerprints fingerprints = ContentFingerprints.attach(db);
+    long root = fingerprints.getRootFingerprint();
+
+    db.setMasterLanguage("fr");
+    assertThat(fingerprints.getRootFingerprint(), not(equalTo(root)));
+    db.setMasterLanguage("de");
+    assertThat(fingerprints.getRootFingerprint(), equalTo(root));
+  }
+
+  private static void assertIncrementalEqualsRecomputed(XMLDatabase db, ContentFingerprints fingerprints) {
+    ContentFingerprints recomputed = new ContentFingerprints(db);
+    assertThat(fingerprints.getRootFingerprint(), equalTo(recomputed.getRootFingerprint()));
+    for (String language : recomputed.getLanguages()) {
+      assertThat(fingerprints.getLanguageFingerprint(language), equalTo(recomputed.getLanguageFingerprint(language)));
+    }
+  }
+
+  private static XMLDatabase createDatabase() {
+    XMLDatabase db = new XMLDatabase();
+    db.setMasterLanguage("de");
+    db.addTextNode(createTextNode("key1", "context1"));
+    db.addTextNode(createTextNode("key2", "context2"));
+    return db;
+  }
+
+  private static ITextNode createTextNode(String key, String context) {
+    ITextNode textNode = new XMLTextNode(key, context);
+    textNode.addValueNode(new XMLValueNode("de", Status.VERIFIED, "wert" + key.substring(3)));
+    textNode.addValueNode(new XMLValueNode("fr", Status.TRANSLATED, "valeur" + key.substring(3)));
+    return textNode;
+  }
+
+}
@@ -0,0 +1,158 @@
+package com.netcetera.trema.core.diff;
+
+import com.netcetera.trema.core.ContentHashes;
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.XMLDatabase;
+import com.netcetera.trema.core.XMLTextNode;
+import com.netcetera.trema.core.XMLValueNode;
+import com.netcetera.trema.core.api.ITextNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+
+
+/**
+ * Test for {@link DatabaseDiff}.
+ */
+class DatabaseDiffTest {
+
+  @Test
+  void shouldReportDifferences() {
+    XMLDatabase oldDb = new XMLDatabase();
+    oldDb.addTextNode(createTextNode("same", "context", "de", Status.VERIFIED, "value"));
+    oldDb.addTextNode(createTextNode("removed", "context", "de", Status.VERIFIED, "value"));
+    ITextNode textNode = createTextNode("changed", "old context", "de", Status.VERIFIED, "value");
+    textNode.addValueNode(new XMLValueNode("fr", Status.INITIAL, "valeur"));
+    textNode.addValueNode(new XMLValueNode("it", Status.INITIAL, "valore"));
+    textNode.addValueNode(new XMLValueNode("en", Status.INITIAL, "value"));
+    oldDb.addTextNode(textNode);
+
+    XMLDatabase newDb = new XMLDatabase();
+    newDb.addTextNode(createTextNode("added", "context", "de", Status.INITIAL, "value"));
+    textNode = createTextNode("changed", "new context", "de", Status.VERIFIED, "value");
+    textNode.addValueNode(new XMLValueNode("fr", Status.TRANSLATED, "valeur"));
+    textNode.addValueNode(new XMLValueNode("it", Status.INITIAL, "nuovo valore"));
+    textNode.addValueNode(new XMLValueNode("es", Status.INITIAL, "valor"));
+    newDb.addTextNode(textNode);
+    newDb.addTextNode(createTextNode("same", "context", "de", Status.VERIFIED, "value"));
+
+    List<Difference> differences = DatabaseDiff.compare(oldDb, newDb);
+
+    assertThat(describe(differences), containsInAnyOrder(
+      "added:null:" + Difference.TYPE_KEY_ADDITION,
+      "changed:null:" + Difference.TYPE_CONTEXT_CHANGED,
+      "changed:fr:" + Difference.TYPE_STATUS_CHANGED,
+      "changed:it:" + Difference.TYPE_VALUE_CHANGED,
+      "changed:es:" + Difference.TYPE_LANGUAGE_ADDITION,
+      "changed:en:" + Difference.TYPE_LANGUAGE_REMOVAL,
+      "removed:null:" + Difference.TYPE_KEY_REMOVAL));
+    assertThat(differences.get(0).getKey(), equalTo("added"));
+    assertThat(differences.get(differences.size() - 1).getKey(), equalTo("removed"));
+    Difference contextChange = find(differences, Difference.TYPE_CONTEXT_CHANGED);
+    assertThat(contextChange.getOldText(), equalTo("old context"));
+    assertThat(contextChange.getNewText(), equalTo("new context"));
+    Difference statusChange = find(differences, Difference.TYPE_STATUS_CHANGED);
+    assertThat(statusChange.getOldStatus(), equalTo(Status.INITIAL));
+    assertThat(statusChange.getNewStatus(), equalTo(Status.TRANSLATED));
+  }
+
+  @Test
+  void shouldCompareInParallelLikeSequentially() {
+    XMLDatabase oldDb = new XMLDatabase();
+    XMLDatabase newDb = new XMLDatabase();
+    Status[] states = {Status.INITIAL, Status.TRANSLATED, Status.VERIFIED};
+    for (int i = 0; i < 5000; i++) {
+      if (i % 7 != 0) {
+        oldDb.addTextNode(createTextNode("key" + i, "context", "de", states[i % 3], "value" + i));
+      }
+      if (i % 11 != 0) {
+        newDb.addTextNode(createTextNode("key" + i, "context", "de", states[i % 2],
+          i % 5 == 0 ? "new value" + i : "value" + i));
+      }
+    }
+
+    List<Difference> sequential = DatabaseDiff.compare(oldDb, newDb);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    List<Difference> parallel;
+    try {
+      parallel = DatabaseDiff.compare(oldDb, newDb, pool);
+    } finally {
+      pool.shutdown();
+    }
+
+    assertThat(sequential, not(empty()));
+    assertThat(describe(parallel), equalTo(describe(sequential)));
+  }
+
+  @Test
+  void shouldSkipTextNodesWithSameFingerprint() {
+    XMLDatabase oldDb = new XMLDatabase();
+    XMLDatabase newDb = new XMLDatabase();
+    for (int i = 0; i < 3000; i++) {
+      oldDb.addTextNode(createTextNode("key" + i, "context", "de", Status.TRANSLATED, "value" + i));
+      newDb.addTextNode(createTextNode("key" + i, "context", "de", Status.TRANSLATED, "value" + i));
+    }
+    ContentFingerprints oldFingerprints = ContentFingerprints.attach(oldDb);
+    ContentFingerprints newFingerprints = ContentFingerprints.attach(newDb);
+    newDb.getTextNode("key1").getValueNode("de").setValue("new value");
+    newDb.getTextNode("key2000").setContext("new context");
+    newDb.removeTextNode("key3");
+
+    List<Difference> differences = DatabaseDiff.compare(oldFingerprints, newFingerprints);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    List<Difference> parallel;
+    try {
+      parallel = DatabaseDiff.compare(oldFingerprints, newFingerprints, pool);
+    } finally {
+      pool.shutdown();
+    }
+
+    assertThat(describe(differences), equalTo(describe(DatabaseDiff.compare(oldDb, newDb))));
+    assertThat(describe(parallel), equalTo(describe(differences)));
+    assertThat(differences.size(), equalTo(3));
+
+    // fingerprints which are not kept up to date hide the change, so the text node has not been compared
+    ContentFingerprints staleFingerprints = new ContentFingerprints(newDb);
+    newDb.getTextNode("key4").setContext("new context");
+    assertThat(DatabaseDiff.compare(oldFingerprints, staleFingerprints).size(), equalTo(3));
+  }
+
+  @Test
+  void shouldHashIndependentlyOfValueNodeOrder() {
+    ITextNode first = createTextNode("key", "context", "de", Status.VERIFIED, "value");
+    first.addValueNode(new XMLValueNode("fr", Status.INITIAL, "valeur"));
+    ITextNode second = new XMLTextNode("key", "context");
+    second.addValueNode(new XMLValueNode("fr", Status.INITIAL, "valeur"));
+    second.addValueNode(new XMLValueNode("de", Status.VERIFIED, "value"));
+
+    assertThat(ContentHashes.hash(first), equalTo(ContentHashes.hash(second)));
+    second.getValueNode("fr").setStatus(Status.TRANSLATED);
+    assertThat(ContentHashes.hash(first), not(equalTo(ContentHashes.hash(second))));
+  }
+
+  private static ITextNode createTextNode(String key, String context, String language, Status status,
+                                          String value) {
+    ITextNode textNode = new XMLTextNode(key, context);
+    textNode.addValueNode(new XMLValueNode(language, status, value));
+    return textNode;
+  }
+
+  private static Difference find(List<Difference> differences, int type) {
+    return differences.stream().filter(difference -> difference.getType() == type).findFirst().get();
+  }
+
+  private static List<String> describe(List<Difference> differences) {
+    return differences.stream()
+      .map(difference -> difference.getKey() + ":" + difference.getLanguage() + ":" + difference.getType())
+      .collect(Collectors.toList());
+  }
+
+}
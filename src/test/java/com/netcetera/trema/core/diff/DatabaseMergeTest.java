@@ -0,0 +1,137 @@
+package com.netcetera.trema.core.diff;
+
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.XMLDatabase;
+import com.netcetera.trema.core.XMLTextNode;
+import com.netcetera.trema.core.XMLValueNode;
+import com.netcetera.trema.core.api.ITextNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayWithSize;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+
+/**
+ * Test for {@link DatabaseMerge}.
+ */
+class DatabaseMergeTest {
+
+  @Test
+  void shouldMergeNonConflictingChanges() {
+    XMLDatabase base = createDatabase();
+    XMLDatabase ours = createDatabase();
+    XMLDatabase theirs = createDatabase();
+    // ours: changes the context of key1 and the french value of key2, adds key4, removes key3
+    ours.getTextNode("key1").setContext("our context");
+    ours.getTextNode("key2").getValueNode("fr").setValue("notre valeur");
+    ours.addTextNode(createTextNode("key4", "de", Status.INITIAL, "our addition"));
+    ours.removeTextNode("key3");
+    // theirs: changes the german value of key2, adds key5
+    theirs.getTextNode("key2").getValueNode("de").setValue("ihr Wert");
+    theirs.addTextNode(createTextNode("key5", "de", Status.INITIAL, "their addition"));
+
+    DatabaseMerge merge = DatabaseMerge.merge(base, ours, theirs);
+    XMLDatabase merged = merge.getDatabase();
+
+    assertThat(merge.hasConflicts(), equalTo(false));
+    assertThat(keys(merged), contains("key1", "key2", "key4", "key5"));
+    assertThat(merged.getTextNode("key1").getContext(), equalTo("our context"));
+    assertThat(merged.getTextNode("key2").getValueNode("fr").getValue(), equalTo("notre valeur"));
+    assertThat(merged.getTextNode("key2").getValueNode("de").getValue(), equalTo("ihr Wert"));
+    assertThat(merged.getMasterLanguage(), equalTo("de"));
+  }
+
+  @Test
+  void shouldResolveValueChangesWithStatusMatrix() {
+    XMLDatabase base = createDatabase();
+    XMLDatabase ours = createDatabase();
+    XMLDatabase theirs = createDatabase();
+    // initial -> translated wins over initial -> initial
+    ours.getTextNode("key1").getValueNode("fr").setValue("notre valeur");
+    theirs.getTextNode("key1").getValueNode("fr").setValue("leur valeur");
+    theirs.getTextNode("key1").getValueNode("fr").setStatus(Status.TRANSLATED);
+    // verified values changed on both sides are a true conflict
+    ours.getTextNode("key2").getValueNode("de").setValue("unser Wert");
+    theirs.getTextNode("key2").getValueNode("de").setValue("ihr Wert");
+
+    DatabaseMerge merge = DatabaseMerge.merge(base, ours, theirs);
+    XMLDatabase merged = merge.getDatabase();
+
+    assertThat(merged.getTextNode("key1").getValueNode("fr").getValue(), equalTo("leur valeur"));
+    assertThat(merged.getTextNode("key1").getValueNode("fr").getStatus(), equalTo(Status.TRANSLATED));
+    assertThat(merged.getTextNode("key2").getValueNode("de").getValue(), equalTo("unser Wert"));
+    assertThat(merge.getConflicts(), arrayWithSize(1));
+    MergeConflict conflict = merge.getConflicts()[0];
+    assertThat(conflict.getType(), equalTo(MergeConflict.TYPE_VALUE_CONFLICT));
+    assertThat(conflict.getKey(), equalTo("key2"));
+    assertThat(conflict.getLanguage(), equalTo("de"));
+    assertThat(conflict.getBaseText(), equalTo("value2"));
+    assertThat(conflict.getTheirText(), equalTo("ihr Wert"));
+    assertThat(conflict.getChange().isConflicting(), equalTo(true));
+  }
+
+  @Test
+  void shouldReportRemovalOfChangedKey() {
+    XMLDatabase base = createDatabase();
+    XMLDatabase ours = createDatabase();
+    XMLDatabase theirs = createDatabase();
+    ours.removeTextNode("key3");
+    theirs.getTextNode("key3").setContext("their context");
+
+    DatabaseMerge merge = DatabaseMerge.merge(base, ours, theirs);
+
+    assertThat(merge.getDatabase().getTextNode("key3"), nullValue());
+    assertThat(merge.getConflicts(), arrayWithSize(1));
+    assertThat(merge.getConflicts()[0].getType(), equalTo(MergeConflict.TYPE_REMOVAL_CONFLICT));
+    assertThat(merge.getConflicts()[0].getTheirText(), equalTo("their context"));
+  }
+
+  @Test
+  void shouldTakeTheirsIfOursOnlyReorderedTheValues() {
+    XMLDatabase base = createDatabase();
+    XMLDatabase ours = createDatabase();
+    XMLDatabase theirs = createDatabase();
+    ITextNode textNode = ours.getTextNode("key1");
+    textNode.removeValueNode(textNode.getValueNode("de"));
+    textNode.addValueNode(new XMLValueNode("de", Status.VERIFIED, "value1"));
+    theirs.getTextNode("key1").getValueNode("fr").setValue("leur valeur");
+    theirs.getTextNode("key1").setContext("their context");
+
+    DatabaseMerge merge = DatabaseMerge.merge(base, ours, theirs);
+
+    assertThat(merge.hasConflicts(), equalTo(false));
+    assertThat(merge.getDatabase().getTextNode("key1").getContext(), equalTo("their context"));
+    assertThat(merge.getDatabase().getTextNode("key1").getValueNode("fr").getValue(), equalTo("leur valeur"));
+  }
+
+  private static XMLDatabase createDatabase() {
+    XMLDatabase db = new XMLDatabase();
+    db.setMasterLanguage("de");
+    ITextNode textNode = createTextNode("key1", "de", Status.VERIFIED, "value1");
+    textNode.addValueNode(new XMLValueNode("fr", Status.INITIAL, "valeur1"));
+    db.addTextNode(textNode);
+    textNode = createTextNode("key2", "de", Status.VERIFIED, "value2");
+    textNode.addValueNode(new XMLValueNode("fr", Status.TRANSLATED, "valeur2"));
+    db.addTextNode(textNode);
+    db.addTextNode(createTextNode("key3", "de", Status.VERIFIED, "value3"));
+    return db;
+  }
+
+  private static ITextNode createTextNode(String key, String language, Status status, String value) {
+    ITextNode textNode = new XMLTextNode(key, "context");
+    textNode.addValueNode(new XMLValueNode(language, status, value));
+    return textNode;
+  }
+
+  private static List<String> keys(XMLDatabase db) {
+    return Arrays.stream(db.getTextNodes()).map(ITextNode::getKey).collect(Collectors.toList());
+  }
+
+}
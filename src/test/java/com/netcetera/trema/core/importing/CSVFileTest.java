@@ -3,8 +3,13 @@ package com.netcetera.trema.core.importing;
 import com.netcetera.trema.core.ParseException;
 import com.netcetera.trema.core.Status;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.IOException;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
@@ -126,4 +131,81 @@ class CSVFileTest {
     assertThat(ex2.getLineNumber(), equalTo(2));
   }
 
+  @Test
+  void shouldThrowForEmptyFile() {
+    assertThrows(ParseException.class, () -> new CSVFile(new StringReader(""), ';'));
+  }
+
+  @Test
+  void shouldThrowIOExceptionForUnterminatedQuote() {
+    assertThrows(IOException.class,
+      () -> new CSVFile(new StringReader("Key;Status;Value (de);Context\nk;initial;\"unterminated\n"), ';'));
+  }
+
+  @Test
+  void shouldReportLineNumberAfterMultiLineValue() {
+    ParseException ex = assertThrows(ParseException.class,
+      () -> new CSVFile(new StringReader("Key;Status;Value (de);Context"
+        + CRLF + "key1;initial;\"line1" + CRLF + "line2\";context1"
+        + CRLF + "key2;initial"), ';'));
+    assertThat(ex.getLineNumber(), equalTo(4));
+  }
+
+  @Test
+  void shouldParseLargeFileInParallelLikeSequentially(@TempDir Path tempDirectory) throws Exception {
+    // given: a file larger than the minimal size for parallel parsing, with multi-line values and duplicate keys
+    StringBuilder contents = new StringBuilder("Key;Status;Master (de);Value (fr);Context");
+    for (int i = 0; i < 30000; i++) {
+      contents.append(CRLF).append("key").append(i % 20000).append(";translated;master öäü ").append(i)
+        .append(";\"value ").append(i).append(CRLF).append("with \"\"quotes\"\" and ; separator\";context");
+    }
+    Path file = tempDirectory.resolve("large.csv");
+    Files.write(file, contents.toString().getBytes(StandardCharsets.UTF_8));
+
+    // when
+    CSVFile sequential = new CSVFile(file.toString(), "UTF-8", ';');
+    CSVFile parallel = new CSVFile(file.toString(), "UTF-8", ';', 4);
+
+    // then
+    assertThat(parallel.getSize(), equalTo(20000));
+    assertThat(parallel.getKeys(), equalTo(sequential.getKeys()));
+    for (String key : sequential.getKeys()) {
+      assertThat(parallel.getMasterValue(key), equalTo(sequential.getMasterValue(key)));
+      assertThat(parallel.getValue(key), equalTo(sequential.getValue(key)));
+    }
+    assertThat(parallel.getValue("key0"), equalTo("value 20000" + CRLF + "with \"quotes\" and ; separator"));
+  }
+
+  @Test
+  void shouldSkipByteOrderMarkInParallelAndSequentially(@TempDir Path tempDirectory) throws Exception {
+    StringBuilder contents = new StringBuilder("\uFEFFKey;Status;Value (de);Context");
+    for (int i = 0; i < 40000; i++) {
+      contents.append(CRLF).append("key").append(i).append(";translated;value").append(i).append(";context");
+    }
+    Path file = tempDirectory.resolve("bom.csv");
+    Files.write(file, contents.toString().getBytes(StandardCharsets.UTF_8));
+
+    CSVFile sequential = new CSVFile(file.toString(), "UTF-8", ';');
+    CSVFile parallel = new CSVFile(file.toString(), "UTF-8", ';', 4);
+
+    assertThat(sequential.getLanguage(), equalTo("de"));
+    assertThat(parallel.getLanguage(), equalTo("de"));
+    assertThat(parallel.getKeys(), equalTo(sequential.getKeys()));
+  }
+
+  @Test
+  void shouldReportLineNumberWhenParsingInParallel(@TempDir Path tempDirectory) throws Exception {
+    StringBuilder contents = new StringBuilder("Key;Status;Value (de);Context");
+    for (int i = 0; i < 40000; i++) {
+      contents.append(CRLF).append("key").append(i).append(";translated;\"value").append(CRLF).append(i)
+        .append("\";context");
+    }
+    contents.append(CRLF).append("brokenKey;initial");
+    Path file = tempDirectory.resolve("large.csv");
+    Files.write(file, contents.toString().getBytes(StandardCharsets.UTF_8));
+
+    ParseException ex = assertThrows(ParseException.class, () -> new CSVFile(file.toString(), "UTF-8", ';', 4));
+    assertThat(ex.getLineNumber(), equalTo(80002));
+  }
+
 }
@@ -4,18 +4,29 @@ import com.netcetera.trema.core.Status;
 import com.netcetera.trema.core.XMLDatabase;
 import com.netcetera.trema.core.XMLTextNode;
 import com.netcetera.trema.core.XMLValueNode;
+import com.netcetera.trema.core.api.IDatabase;
+import com.netcetera.trema.core.api.IDatabaseListener;
+import com.netcetera.trema.core.api.IImportEntry;
 import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.api.IValueNode;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayContainingInAnyOrder;
 import static org.hamcrest.Matchers.arrayWithSize;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.nullValue;
 
 
 /**
@@ -143,6 +154,203 @@ class ChangesAnalyzerTest {
     verifyNumberOfChanges(analyzer, expectedChangeCounts);
   }
 
+  @Test
+  void shouldAnalyzeInParallelLikeSequentially() {
+    XMLDatabase db = new XMLDatabase();
+    db.setMasterLanguage("de");
+    CSVFile csvFile = new CSVFile(null, "de");
+    Status[] states = {Status.INITIAL, Status.TRANSLATED, Status.VERIFIED, Status.SPECIAL};
+    for (int i = 0; i < 10000; i++) {
+      if (i % 7 != 0) {
+        ITextNode textNode = new XMLTextNode("key" + i, "context" + i);
+        textNode.addValueNode(new XMLValueNode("de", states[i % 4], "value" + i));
+        db.addTextNode(textNode);
+      }
+      csvFile.add("key" + i, states[i % 3], null, i % 5 == 0 ? "value" + i : "newValue" + i);
+    }
+
+    ChangesAnalyzer sequential = new ChangesAnalyzer(csvFile, db);
+    sequential.analyze();
+    ChangesAnalyzer parallel = new ChangesAnalyzer(csvFile, db);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      parallel.analyze(pool);
+    } finally {
+      pool.shutdown();
+    }
+
+    assertThat(describe(parallel.getConflictingChanges()), equalTo(describe(sequential.getConflictingChanges())));
+    assertThat(describe(parallel.getNonConflictingChanges()),
+      equalTo(describe(sequential.getNonConflictingChanges())));
+  }
+
+  @Test
+  void shouldStreamChangesLikeCollected() {
+    XMLDatabase db = new XMLDatabase();
+    db.setMasterLanguage("de");
+    CSVFile csvFile = new CSVFile(null, "de");
+    Status[] states = {Status.INITIAL, Status.TRANSLATED, Status.VERIFIED, Status.SPECIAL};
+    for (int i = 0; i < 1000; i++) {
+      if (i % 7 != 0) {
+        ITextNode textNode = new XMLTextNode("key" + i, "context" + i);
+        textNode.addValueNode(new XMLValueNode("de", states[i % 4], "value" + i));
+        db.addTextNode(textNode);
+      }
+      csvFile.add("key" + i, states[i % 3], null, i % 5 == 0 ? "value" + i : "newValue" + i);
+    }
+
+    ChangesAnalyzer collecting = new ChangesAnalyzer(csvFile, db);
+    collecting.analyze();
+    ChangesAnalyzer streaming = new ChangesAnalyzer(csvFile, db);
+    List<Change> conflicting = new ArrayList<>();
+    List<Change> nonConflicting = new ArrayList<>();
+    streaming.analyze(change -> (change.isConflicting() ? conflicting : nonConflicting).add(change));
+
+    assertThat(describe(conflicting.toArray(new Change[0])), equalTo(describe(collecting.getConflictingChanges())));
+    assertThat(describe(nonConflicting.toArray(new Change[0])),
+      equalTo(describe(collecting.getNonConflictingChanges())));
+    assertThat(streaming.getConflictingChanges(), arrayWithSize(0));
+  }
+
+  @Test
+  void shouldNotCreateChangesForUnchangedEntries() {
+    XMLDatabase db = new XMLDatabase();
+    db.setMasterLanguage("de");
+    ITextNode textNode = new XMLTextNode("same", "context");
+    textNode.addValueNode(new XMLValueNode("de", Status.TRANSLATED, "value"));
+    db.addTextNode(textNode);
+    textNode = new XMLTextNode("changed", "context");
+    textNode.addValueNode(new XMLValueNode("de", Status.TRANSLATED, "value"));
+    db.addTextNode(textNode);
+    CSVFile csvFile = new CSVFile(null, "de");
+    csvFile.add("same", Status.TRANSLATED, null, "value");
+    csvFile.add("changed", Status.TRANSLATED, null, "new value");
+    List<String> keys = new ArrayList<>();
+    ChangesAnalyzer analyzer = new ChangesAnalyzer(csvFile, db) {
+      @Override
+      protected Change createChange(IImportEntry entry) {
+        keys.add(entry.getKey());
+        return super.createChange(entry);
+      }
+    };
+
+    List<Change> changes = new ArrayList<>();
+    analyzer.analyze(changes::add);
+
+    assertThat(keys, equalTo(Arrays.asList("changed")));
+    assertThat(changes, hasSize(1));
+  }
+
+  @Test
+  void shouldUseOverriddenCreateChangeByKey() {
+    XMLDatabase db = new XMLDatabase();
+    db.setMasterLanguage("de");
+    CSVFile csvFile = new CSVFile(null, "de");
+    csvFile.add("key1", Status.TRANSLATED, null, "value1");
+    List<String> keys = new ArrayList<>();
+    ChangesAnalyzer analyzer = new ChangesAnalyzer(csvFile, db) {
+      @Override
+      protected Change createChange(String key) {
+        keys.add(key);
+        return super.createChange(key);
+      }
+    };
+
+    analyzer.analyze();
+
+    assertThat(keys, equalTo(Arrays.asList("key1")));
+    assertThat(analyzer.getConflictingChanges(), arrayWithSize(1));
+  }
+
+  @Test
+  void shouldCollectChangeSetLikeChanges() {
+    XMLDatabase db = new XMLDatabase();
+    db.setMasterLanguage("de");
+    CSVFile csvFile = new CSVFile("de", "fr");
+    Status[] states = {Status.INITIAL, Status.TRANSLATED, Status.VERIFIED, Status.SPECIAL};
+    for (int i = 0; i < 1000; i++) {
+      if (i % 7 != 0) {
+        ITextNode textNode = new XMLTextNode("key" + i, "context" + i);
+        textNode.addValueNode(new XMLValueNode("de", Status.VERIFIED, "master" + i));
+        textNode.addValueNode(new XMLValueNode("fr", states[i % 4], "value" + i));
+        db.addTextNode(textNode);
+      }
+      csvFile.add("key" + i, states[i % 3], i % 11 == 0 ? "newMaster" + i : "master" + i,
+        i % 5 == 0 ? "value" + i : "newValue" + i);
+    }
+
+    ChangesAnalyzer analyzer = new ChangesAnalyzer(csvFile, db);
+    analyzer.analyze();
+    ChangeSet changeSet = new ChangesAnalyzer(csvFile, db).analyzeToChangeSet();
+
+    List<Change> changes = new ArrayList<>();
+    for (int i = 0; i < changeSet.size(); i++) {
+      changes.add(changeSet.get(i));
+      assertThat(changeSet.getType(i), equalTo(changes.get(i).getType()));
+    }
+    Change[] expected = Stream.of(analyzer.getConflictingChanges(), analyzer.getNonConflictingChanges())
+      .flatMap(Arrays::stream).sorted(Comparator.comparing(change -> Integer.valueOf(change.getKey().substring(3))))
+      .toArray(Change[]::new);
+    assertThat(changes.stream().map(ChangesAnalyzerTest::describeFully).collect(Collectors.toList()),
+      equalTo(Arrays.stream(expected).map(ChangesAnalyzerTest::describeFully).collect(Collectors.toList())));
+
+    int acceptable = changes.indexOf(changes.stream().filter(Change::isAcceptable).findFirst().get());
+    changeSet.setAccept(acceptable, !changeSet.isAccept(acceptable));
+    assertThat(changeSet.get(acceptable).isAccept(), equalTo(!expected[acceptable].isAccept()));
+  }
+
+  @Test
+  void shouldApplyChangesWithSingleNotification() {
+    XMLDatabase db = new XMLDatabase();
+    db.setMasterLanguage("de");
+    for (int i = 0; i < 3; i++) {
+      ITextNode textNode = new XMLTextNode("key" + i, "context" + i);
+      textNode.addValueNode(new XMLValueNode("de", Status.INITIAL, "masterValue" + i));
+      textNode.addValueNode(new XMLValueNode("fr", Status.INITIAL, "oldValue" + i));
+      db.addTextNode(textNode);
+    }
+    CSVFile csvFile = new CSVFile("de", "fr");
+    csvFile.add("key0", Status.TRANSLATED, "masterValue0", "newValue0");
+    csvFile.add("key1", Status.TRANSLATED, "newMasterValue1", "newValue1");
+    csvFile.add("key2", Status.INITIAL, "masterValue2", "oldValue2");
+    csvFile.add("newKey", Status.TRANSLATED, "masterValue", "addition");
+    ChangesAnalyzer analyzer = new ChangesAnalyzer(csvFile, db);
+    analyzer.analyze();
+    RecordingListener listener = new RecordingListener();
+    db.addListener(listener);
+
+    List<Change> changes = new ArrayList<>(Arrays.asList(analyzer.getNonConflictingChanges()));
+    for (Change change : analyzer.getConflictingChanges()) {
+      change.setAccept(true);
+      changes.add(change);
+    }
+    ChangesAnalyzer.applyChanges(db, changes);
+
+    assertThat(listener.singleEvents, equalTo(0));
+    assertThat(listener.batches, hasSize(1));
+    assertThat(listener.batches.get(0), arrayContainingInAnyOrder(db.getTextNode("key0").getValueNode("fr"),
+      db.getTextNode("key1").getValueNode("fr"), db.getTextNode("key1").getValueNode("de")));
+    assertThat(db.getTextNode("key0").getValueNode("fr").getValue(), equalTo("newValue0"));
+    assertThat(db.getTextNode("key1").getValueNode("de").getValue(), equalTo("newMasterValue1"));
+    assertThat(db.getTextNode("newKey"), nullValue());
+  }
+
+  private static String describeFully(Change change) {
+    return String.join("|", change.getKey(), String.valueOf(change.getType()), change.getLanguage(),
+      change.getMasterLanguage(), change.getContext(), change.getDbValue(), String.valueOf(change.getDbStatus()),
+      change.getDbMasterValue(), change.getImportedValue(), String.valueOf(change.getImportedStatus()),
+      change.getImportedMasterValue(), String.valueOf(change.isConflicting()), String.valueOf(change.isAcceptable()),
+      String.valueOf(change.isAccept()), String.valueOf(change.getAcceptStatus()), change.getAcceptValue(),
+      change.getAcceptMasterValue());
+  }
+
+  private static List<String> describe(Change[] changes) {
+    return Arrays.stream(changes)
+      .map(change -> change.getKey() + ":" + change.getType() + ":" + change.isAccept() + ":"
+        + change.getAcceptStatus())
+      .collect(Collectors.toList());
+  }
+
   /**
    * Verifies that the given changes analyzer has the expected number of changes by change type.
    *
@@ -157,4 +365,51 @@ class ChangesAnalyzerTest {
 
     assertThat(actualCountByChangeType, equalTo(expectedCountByChangeType));
   }
+
+  /**
+   * Records the value node change events of a database.
+   */
+  private static final class RecordingListener implements IDatabaseListener {
+
+    private int singleEvents = 0;
+    private final List<IValueNode[]> batches = new ArrayList<>();
+
+    @Override
+    public void masterLanguageChanged(IDatabase db) {
+    }
+
+    @Override
+    public void textNodeChanged(IDatabase db, ITextNode textNode) {
+    }
+
+    @Override
+    public void textNodeAdded(IDatabase db, ITextNode textNode) {
+    }
+
+    @Override
+    public void textNodesRemoved(IDatabase db, ITextNode[] textNodes, int index) {
+    }
+
+    @Override
+    public void textNodesMoved(IDatabase db, ITextNode[] textNodes) {
+    }
+
+    @Override
+    public void valueNodeChanged(IValueNode valueNode) {
+      singleEvents++;
+    }
+
+    @Override
+    public void valueNodeAdded(IValueNode valueNode) {
+    }
+
+    @Override
+    public void valueNodeRemoved(IValueNode valueNode) {
+    }
+
+    @Override
+    public void valueNodesChanged(IValueNode[] valueNodes) {
+      batches.add(valueNodes);
+    }
+  }
 }
@@ -0,0 +1,93 @@
+package com.netcetera.trema.core.importing;
+
+import com.netcetera.trema.core.ParseException;
+import com.netcetera.trema.core.Status;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+/**
+ * Test for {@link MappedCSVFile}.
+ */
+class MappedCSVFileTest {
+
+  private static final String CRLF = "\r\n";
+
+  private static final String CONTENTS = "Key;Status;Master (de);Value (fr);Context"
+    + CRLF + "key1;initial;masterValue1;value1öäü;context1"
+    + CRLF + "key2 ; translated ;\"master;Value2\";\"line1" + CRLF + "line2 \"\"quoted\"\"\";context2"
+    + CRLF
+    + CRLF + "key3;verified;  masterValue3  ; \"\" ;\"context" + CRLF + "with line break\""
+    + CRLF + "key1;special;masterValue1;value1 again;";
+
+  @Test
+  void shouldReadSameValuesAsCsvFile(@TempDir Path tempDirectory) throws Exception {
+    // given
+    Path file = tempDirectory.resolve("test.csv");
+    Files.write(file, ("\uFEFF" + CONTENTS).getBytes(StandardCharsets.UTF_8));
+
+    // when
+    MappedCSVFile mapped = new MappedCSVFile(file.toString(), ';');
+    CSVFile csvFile = new CSVFile(new StringReader(CONTENTS), ';');
+
+    // then
+    assertThat(mapped.getMasterLanguage(), equalTo("de"));
+    assertThat(mapped.getLanguage(), equalTo("fr"));
+    assertThat(mapped.getKeys(), arrayContaining("key1", "key2", "key3"));
+    assertThat(mapped.getStatus("key1"), equalTo(Status.SPECIAL));
+    assertThat(mapped.getValue("key1"), equalTo("value1 again"));
+    assertThat(mapped.getMasterValue("key2"), equalTo("master;Value2"));
+    assertThat(mapped.getValue("key2"), equalTo("line1" + CRLF + "line2 \"quoted\""));
+    assertThat(mapped.getMasterValue("key3"), equalTo("masterValue3"));
+    assertThat(mapped.getValue("key3"), equalTo(""));
+    for (String key : csvFile.getKeys()) {
+      assertThat(mapped.getStatus(key), equalTo(csvFile.getStatus(key)));
+      assertThat(mapped.getMasterValue(key), equalTo(csvFile.getMasterValue(key)));
+      assertThat(mapped.getValue(key), equalTo(csvFile.getValue(key)));
+    }
+  }
+
+  @Test
+  void shouldReadFileWithoutMasterLanguage(@TempDir Path tempDirectory) throws Exception {
+    // given
+    Path file = tempDirectory.resolve("test.csv");
+    Files.write(file, ("Key\tStatus\tValue (de)\tContext\nkey1\tinitial\tvalue 1\tcontext1\n")
+      .getBytes(StandardCharsets.UTF_8));
+
+    // when
+    MappedCSVFile mapped = new MappedCSVFile(file.toString(), '\t');
+
+    // then
+    assertThat(mapped.hasMasterLanguage(), equalTo(false));
+    assertThat(mapped.getValue("key1"), equalTo("value 1"));
+    assertThat(mapped.getMasterValue("key1"), nullValue());
+  }
+
+  @Test
+  void shouldThrowForInvalidRows(@TempDir Path tempDirectory) throws Exception {
+    Path file = tempDirectory.resolve("test.csv");
+    Files.write(file, ("Key;Status;Value (de);Context" + CRLF + "key1;initial;\"line1" + CRLF + "line2\";context1"
+      + CRLF + "key2;initial").getBytes(StandardCharsets.UTF_8));
+    ParseException ex = assertThrows(ParseException.class, () -> new MappedCSVFile(file.toString(), ';'));
+    assertThat(ex.getLineNumber(), equalTo(4));
+
+    Files.write(file, ("Key;Status;Value (de);Context" + CRLF + "key1;initial;\"unterminated;context1")
+      .getBytes(StandardCharsets.UTF_8));
+    assertThrows(ParseException.class, () -> new MappedCSVFile(file.toString(), ';'));
+
+    Files.write(file, "Key;Status;Value (de)".getBytes(StandardCharsets.UTF_8));
+    assertThrows(ParseException.class, () -> new MappedCSVFile(file.toString(), ';'));
+  }
+
+}
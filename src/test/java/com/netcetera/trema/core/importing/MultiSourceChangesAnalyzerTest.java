@@ -0,0 +1,91 @@
+package com.netcetera.trema.core.importing;
+
+import com.netcetera.trema.core.ParseException;
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.XMLDatabase;
+import com.netcetera.trema.core.XMLTextNode;
+import com.netcetera.trema.core.XMLValueNode;
+import com.netcetera.trema.core.api.ITextNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+/**
+ * Test for {@link MultiSourceChangesAnalyzer}.
+ */
+class MultiSourceChangesAnalyzerTest {
+
+  private ExecutorService executor;
+  private XMLDatabase db;
+
+  @BeforeEach
+  void setUp() {
+    executor = Executors.newFixedThreadPool(2);
+    db = new XMLDatabase();
+    db.setMasterLanguage("de");
+    for (int i = 1; i <= 3; i++) {
+      ITextNode textNode = new XMLTextNode("key" + i, "context" + i);
+      textNode.addValueNode(new XMLValueNode("de", Status.VERIFIED, "master" + i));
+      textNode.addValueNode(new XMLValueNode("fr", Status.INITIAL, "fr" + i));
+      db.addTextNode(textNode);
+    }
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdown();
+  }
+
+  @Test
+  void shouldGroupChangesByLanguage() throws Exception {
+    CSVFile french = new CSVFile("de", "fr");
+    french.add("key1", Status.TRANSLATED, "master1", "fr1 new");
+    french.add("key2", Status.INITIAL, "master2", "fr2");
+    CSVFile english = new CSVFile("de", "en");
+    english.add("key2", Status.TRANSLATED, "master2", "en2");
+    english.add("key4", Status.TRANSLATED, "master4", "en4");
+    CSVFile moreFrench = new CSVFile("de", "fr");
+    moreFrench.add("key3", Status.TRANSLATED, "master3", "fr3 new");
+
+    MultiSourceChangesAnalyzer analyzer = new MultiSourceChangesAnalyzer(db);
+    analyzer.addSource(french);
+    analyzer.addSource(() -> english);
+    analyzer.addSource(moreFrench);
+    SortedMap<String, List<Change>> changes = analyzer.analyze(executor);
+
+    assertThat(changes.keySet(), contains("en", "fr"));
+    assertThat(describe(changes.get("en")), contains("key2:" + Change.TYPE_LANGUAGE_ADDITION,
+      "key4:" + Change.TYPE_KEY_ADDITION));
+    assertThat(describe(changes.get("fr")), contains("key1:" + Change.TYPE_VALUE_AND_STATUS_CHANGED,
+      "key3:" + Change.TYPE_VALUE_AND_STATUS_CHANGED));
+  }
+
+  @Test
+  void shouldPropagateLoadingErrors() {
+    MultiSourceChangesAnalyzer analyzer = new MultiSourceChangesAnalyzer(db);
+    analyzer.addSource(new CSVFile("de", "fr"));
+    analyzer.addSource(() -> {
+      throw new ParseException("broken", 7);
+    });
+
+    ParseException ex = assertThrows(ParseException.class, () -> analyzer.analyze(executor));
+    assertThat(ex.getLineNumber(), equalTo(7));
+  }
+
+  private static List<String> describe(List<Change> changes) {
+    return changes.stream().map(change -> change.getKey() + ":" + change.getType()).collect(Collectors.toList());
+  }
+
+}
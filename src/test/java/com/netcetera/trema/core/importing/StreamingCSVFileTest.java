@@ -0,0 +1,120 @@
+package com.netcetera.trema.core.importing;
+
+import com.netcetera.trema.core.ParseException;
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.XMLDatabase;
+import com.netcetera.trema.core.XMLTextNode;
+import com.netcetera.trema.core.XMLValueNode;
+import com.netcetera.trema.core.api.IImportEntry;
+import com.netcetera.trema.core.api.ITextNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayWithSize;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+/**
+ * Test for {@link StreamingCSVFile}.
+ */
+class StreamingCSVFileTest {
+
+  private static final String CRLF = "\r\n";
+
+  @Test
+  void shouldStreamEntries(@TempDir Path tempDirectory) throws Exception {
+    // given
+    Path file = tempDirectory.resolve("test.csv");
+    Files.write(file, ("Key;Status;Master (de);Value (fr);Context"
+      + CRLF + "key1;initial;masterValue1;value1öäü;context1"
+      + CRLF + "key2;translated;masterValue2;\"value2" + CRLF + "second line\";context2")
+      .getBytes(StandardCharsets.UTF_8));
+
+    // when
+    StreamingCSVFile csvFile = new StreamingCSVFile(file.toString(), "UTF-8", ';');
+
+    // then
+    assertThat(csvFile.getSize(), equalTo(2));
+    assertThat(csvFile.getMasterLanguage(), equalTo("de"));
+    List<String> values = new ArrayList<>();
+    // the entries can be iterated more than once
+    for (int i = 0; i < 2; i++) {
+      for (IImportEntry entry : csvFile.getEntries()) {
+        values.add(entry.getKey() + "=" + entry.getValue() + "/" + entry.getMasterValue() + "/" + entry.getStatus());
+      }
+    }
+    String key1 = "key1=value1öäü/masterValue1/initial";
+    String key2 = "key2=value2" + CRLF + "second line/masterValue2/translated";
+    assertThat(values, contains(key1, key2, key1, key2));
+    assertThat(csvFile.getValue("key2"), equalTo("value2" + CRLF + "second line"));
+    assertThat(csvFile.getStatus("key1"), equalTo(Status.INITIAL));
+  }
+
+  @Test
+  void shouldBeAnalyzedLikeCsvFile(@TempDir Path tempDirectory) throws Exception {
+    // given
+    XMLDatabase db = new XMLDatabase();
+    db.setMasterLanguage("de");
+    ITextNode textNode = new XMLTextNode("key1", "context1");
+    textNode.addValueNode(new XMLValueNode("de", Status.INITIAL, "oldValue1"));
+    db.addTextNode(textNode);
+    textNode = new XMLTextNode("key2", "context2");
+    textNode.addValueNode(new XMLValueNode("de", Status.TRANSLATED, "value2"));
+    db.addTextNode(textNode);
+    Path file = tempDirectory.resolve("test.csv");
+    Files.write(file, ("Key;Status;Value (de);Context"
+      + CRLF + "key1;translated;newValue1;context1"
+      + CRLF + "key2;translated;value2;context2"
+      + CRLF + "newKey;translated;addition;context").getBytes(StandardCharsets.UTF_8));
+
+    // when
+    ChangesAnalyzer analyzer = new ChangesAnalyzer(new StreamingCSVFile(file.toString(), "UTF-8", ';'), db);
+    analyzer.analyze();
+
+    // then
+    assertThat(analyzer.getNonConflictingChanges(), arrayWithSize(1));
+    assertThat(analyzer.getNonConflictingChanges()[0].getType(), equalTo(Change.TYPE_VALUE_AND_STATUS_CHANGED));
+    assertThat(analyzer.getConflictingChanges(), arrayWithSize(1));
+    assertThat(analyzer.getConflictingChanges()[0].getType(), equalTo(Change.TYPE_KEY_ADDITION));
+  }
+
+  @Test
+  void shouldKeepLastOccurrenceOfDuplicateKeys(@TempDir Path tempDirectory) throws Exception {
+    Path file = tempDirectory.resolve("test.csv");
+    Files.write(file, ("Key;Status;Value (de);Context"
+      + CRLF + "key1;initial;first;context1"
+      + CRLF + "key2;initial;value2;context2"
+      + CRLF + "key1;translated;last;context1").getBytes(StandardCharsets.UTF_8));
+
+    StreamingCSVFile csvFile = new StreamingCSVFile(file.toString(), "UTF-8", ';');
+    List<String> values = new ArrayList<>();
+    for (IImportEntry entry : csvFile.getEntries()) {
+      values.add(entry.getKey() + "=" + entry.getValue() + "/" + entry.getStatus());
+    }
+
+    assertThat(csvFile.getSize(), equalTo(2));
+    assertThat(values, contains("key1=last/translated", "key2=value2/initial"));
+    assertThat(csvFile.getKeys(), equalTo(new CSVFile(file.toString(), "UTF-8", ';').getKeys()));
+  }
+
+  @Test
+  void shouldCheckFileOnConstruction(@TempDir Path tempDirectory) throws Exception {
+    Path file = tempDirectory.resolve("test.csv");
+    Files.write(file, ("Key;Status;Value (de);Context" + CRLF + "key1;initial;value1;context1"
+      + CRLF + "key2;initial").getBytes(StandardCharsets.UTF_8));
+
+    ParseException ex = assertThrows(ParseException.class,
+      () -> new StreamingCSVFile(file.toString(), "UTF-8", ';'));
+    assertThat(ex.getLineNumber(), equalTo(3));
+  }
+
+}
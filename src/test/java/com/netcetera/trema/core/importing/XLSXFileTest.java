@@ -0,0 +1,107 @@
+package com.netcetera.trema.core.importing;
+
+
+import com.netcetera.trema.core.ParseException;
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.api.IImportSource;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Path;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+/**
+ * Test for {@link XLSXFile}.
+ */
+class XLSXFileTest {
+
+  @Test
+  void shouldReadXlsxFile(@TempDir Path tempDirectory) throws Exception {
+    // given
+    File file = tempDirectory.resolve("test.xlsx").toFile();
+    try (XSSFWorkbook wb = new XSSFWorkbook()) {
+      wb.createSheet("Other");
+      Sheet sheet = wb.createSheet(XLSFile.SHEET_NAME);
+      addRow(sheet, 0, "Key", "Status", "Master (de)", "Value (fr)", "Context");
+      addRow(sheet, 1, "key1", "initial", "masterValue1", "value1öäü", "context1");
+      addRow(sheet, 2, "key2", "translated", "masterValue2", null, "context2");
+      // a blank row in between is ignored
+      sheet.createRow(4);
+      addRow(sheet, 5, "key3", "evil", "masterValue3", "value3", "context3");
+      try (FileOutputStream out = new FileOutputStream(file)) {
+        wb.write(out);
+      }
+    }
+
+    // when
+    IImportSource xlsx = new XLSXFile(file.getPath());
+
+    // then
+    assertThat(xlsx.getKeys(), arrayContaining("key1", "key2", "key3"));
+    assertThat(xlsx.getMasterLanguage(), equalTo("de"));
+    assertThat(xlsx.getLanguage(), equalTo("fr"));
+    assertThat(xlsx.getValue("key1"), equalTo("value1öäü"));
+    assertThat(xlsx.getMasterValue("key1"), equalTo("masterValue1"));
+    assertThat(xlsx.getStatus("key1"), equalTo(Status.INITIAL));
+    // a blank value is tolerated
+    assertThat(xlsx.getValue("key2"), equalTo(""));
+    assertThat(xlsx.getStatus("key2"), equalTo(Status.TRANSLATED));
+    assertThat(xlsx.getStatus("key3"), equalTo(Status.UNDEFINED));
+  }
+
+  @Test
+  void shouldReadNumericCellsLikeXlsFile(@TempDir Path tempDirectory) throws Exception {
+    // given
+    File file = tempDirectory.resolve("test.xlsx").toFile();
+    try (XSSFWorkbook wb = new XSSFWorkbook()) {
+      Sheet sheet = wb.createSheet(XLSFile.SHEET_NAME);
+      addRow(sheet, 0, "Key", "Status", "Value (fr)", "Context");
+      addRow(sheet, 1, "key1", "initial", null, "context1");
+      sheet.getRow(1).createCell(2).setCellValue(1);
+      try (FileOutputStream out = new FileOutputStream(file)) {
+        wb.write(out);
+      }
+    }
+
+    // when
+    IImportSource xlsx = new XLSXFile(file.getPath());
+
+    // then
+    assertThat(xlsx.getValue("key1"), equalTo("1.0"));
+  }
+
+  @Test
+  void shouldThrowForMissingHeader(@TempDir Path tempDirectory) throws Exception {
+    // given
+    File file = tempDirectory.resolve("test.xlsx").toFile();
+    try (XSSFWorkbook wb = new XSSFWorkbook()) {
+      Sheet sheet = wb.createSheet(XLSFile.SHEET_NAME);
+      addRow(sheet, 0, "Key", "Status", "Value (fr)");
+      try (FileOutputStream out = new FileOutputStream(file)) {
+        wb.write(out);
+      }
+    }
+
+    // when / then
+    assertThrows(ParseException.class, () -> new XLSXFile(file.getPath()));
+  }
+
+  private static void addRow(Sheet sheet, int rowNumber, String... values) {
+    Row row = sheet.createRow(rowNumber);
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] != null) {
+        row.createCell(i).setCellValue(values[i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package com.netcetera.trema.core.persistent;
+
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.XMLDatabase;
+import com.netcetera.trema.core.XMLTextNode;
+import com.netcetera.trema.core.XMLValueNode;
+import com.netcetera.trema.core.api.IDatabase;
+import com.netcetera.trema.core.api.ITextNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Compares a "what-if" copy of a database by {@link PersistentDatabase#fork()}
+ * with rebuilding an {@link XMLDatabase} from XML. Each copy is followed by
+ * some value edits, like a small import.
+ * <p>
+ * Run with the main method from the test classpath, e.g. from the IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersistentDatabaseBenchmark {
+
+  private static final int EDITS = 20;
+
+  @Param({"1000", "10000"})
+  private int size;
+
+  private String xml;
+  private PersistentDatabase persistentDatabase;
+
+  @Setup
+  public void setUp() throws IOException {
+    XMLDatabase db = new XMLDatabase();
+    db.setMasterLanguage("de");
+    for (int i = 0; i < size; i++) {
+      ITextNode textNode = new XMLTextNode("key" + i, "context" + i);
+      textNode.addValueNode(new XMLValueNode("de", Status.VERIFIED, "wert" + i));
+      textNode.addValueNode(new XMLValueNode("fr", Status.TRANSLATED, "valeur" + i));
+      db.addTextNode(textNode);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    db.writeXML(out, "UTF-8", "  ", "\n");
+    xml = new String(out.toByteArray(), StandardCharsets.UTF_8);
+    persistentDatabase = PersistentDatabase.copyOf(db);
+  }
+
+  @Benchmark
+  public IDatabase forkAndEdit() {
+    return edit(persistentDatabase.fork());
+  }
+
+  @Benchmark
+  public IDatabase rebuildAndEdit() throws Exception {
+    XMLDatabase db = new XMLDatabase();
+    db.build(xml, false);
+    return edit(db);
+  }
+
+  private IDatabase edit(IDatabase db) {
+    for (int i = 0; i < EDITS; i++) {
+      db.getTextNode(i * (size / EDITS)).getValueNode("fr").setValue("nouvelle valeur");
+    }
+    return db;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(PersistentDatabaseBenchmark.class.getSimpleName()).build()).run();
+  }
+
+}
@@ -0,0 +1,130 @@
+package com.netcetera.trema.core.persistent;
+
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.XMLDatabase;
+import com.netcetera.trema.core.XMLTextNode;
+import com.netcetera.trema.core.XMLValueNode;
+import com.netcetera.trema.core.api.IDatabase;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.diff.DatabaseDiff;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+
+/**
+ * Test for {@link PersistentDatabase}.
+ */
+class PersistentDatabaseTest {
+
+  @Test
+  void shouldIsolateForks() {
+    PersistentDatabase db = new PersistentDatabase();
+    db.setMasterLanguage("de");
+    for (int i = 0; i < 3; i++) {
+      db.addTextNode(createTextNode("key" + i));
+    }
+
+    PersistentDatabase fork = db.fork();
+    fork.getTextNode("key1").getValueNode("de").setValue("neuer Wert");
+    fork.getTextNode("key2").setKey("key3");
+    fork.removeTextNode("key0");
+    fork.addTextNode(0, createTextNode("key4"));
+
+    assertThat(db.getKeysAsCollection(), contains("key0", "key1", "key2"));
+    assertThat(db.getTextNode("key1").getValueNode("de").getValue(), equalTo("wert"));
+    assertThat(db.getTextNode("key3"), nullValue());
+    assertThat(fork.getKeysAsCollection(), contains("key4", "key1", "key3"));
+    assertThat(fork.getTextNode("key1").getValueNode("de").getValue(), equalTo("neuer Wert"));
+    assertThat(fork.getTextNode("key1"), sameInstance(fork.getTextNode(1)));
+  }
+
+  @Test
+  void shouldResolveKeysWithSameHashCode() {
+    // "Aa" and "BB" have the same hash code
+    PersistentDatabase db = new PersistentDatabase();
+    db.addTextNode(createTextNode("Aa"));
+    db.addTextNode(createTextNode("BB"));
+    db.addTextNode(createTextNode("Aa"));
+
+    assertThat(db.getTextNode("BB"), sameInstance(db.getTextNode(1)));
+    assertThat(db.getTextNode("Aa"), sameInstance(db.getTextNode(0)));
+    db.removeTextNodes(new ITextNode[] {db.getTextNode(0)});
+    assertThat(db.getTextNode("Aa"), sameInstance(db.getTextNode(1)));
+    db.removeTextNode("BB");
+    assertThat(db.getTextNode("BB"), nullValue());
+    assertThat(db.getKeysAsCollection(), contains("Aa"));
+  }
+
+  @Test
+  void shouldBehaveLikeXMLDatabase() {
+    XMLDatabase expected = new XMLDatabase();
+    PersistentDatabase actual = new PersistentDatabase();
+    Random random = new Random(42);
+    for (int i = 0; i < 2000; i++) {
+      int size = expected.getSize();
+      int operation = size == 0 ? 0 : random.nextInt(6);
+      int index = size == 0 ? 0 : random.nextInt(size);
+      String key = "key" + random.nextInt(500);
+      switch (operation) {
+        case 0:
+          expected.addTextNode(index, createTextNode(key));
+          actual.addTextNode(index, createTextNode(key));
+          break;
+        case 1:
+          expected.removeTextNodes(new ITextNode[] {expected.getTextNode(index)});
+          actual.removeTextNodes(new ITextNode[] {actual.getTextNode(index)});
+          break;
+        case 2:
+          expected.moveUpTextNodes(new ITextNode[] {expected.getTextNode(index)});
+          actual.moveUpTextNodes(new ITextNode[] {actual.getTextNode(index)});
+          break;
+        case 3:
+          expected.moveTextNode(expected.getTextNode(index), size - 1);
+          actual.moveTextNode(actual.getTextNode(index), size - 1);
+          break;
+        case 4:
+          expected.getTextNode(index).setKey(key);
+          actual.getTextNode(index).setKey(key);
+          break;
+        default:
+          expected.getTextNode(index).getValueNode("de").setStatus(Status.VERIFIED);
+          actual.getTextNode(index).getValueNode("de").setStatus(Status.VERIFIED);
+          expected.getTextNode(index).addValueNode(new XMLValueNode("fr", Status.INITIAL, key));
+          actual.getTextNode(index).addValueNode(new XMLValueNode("fr", Status.INITIAL, key));
+          break;
+      }
+      assertThat(actual.getSize(), equalTo(expected.getSize()));
+      assertThat(actual.indexOf(actual.getTextNode(key)), equalTo(expected.indexOf(expected.getTextNode(key))));
+    }
+    assertThat(actual.getKeysAsCollection(), equalTo(expected.getKeysAsCollection()));
+    assertThat(DatabaseDiff.compare(expected, actual), empty());
+  }
+
+  @Test
+  void shouldCopyDatabase() {
+    XMLDatabase xmlDatabase = new XMLDatabase();
+    xmlDatabase.setMasterLanguage("de");
+    xmlDatabase.addTextNode(createTextNode("key0"));
+    IDatabase copy = PersistentDatabase.copyOf(xmlDatabase);
+
+    xmlDatabase.getTextNode("key0").setContext("changed");
+
+    assertThat(copy.getMasterLanguage(), equalTo("de"));
+    assertThat(copy.getTextNode("key0").getContext(), equalTo("context"));
+  }
+
+  private static ITextNode createTextNode(String key) {
+    ITextNode textNode = new XMLTextNode(key, "context");
+    textNode.addValueNode(new XMLValueNode("de", Status.INITIAL, "wert"));
+    return textNode;
+  }
+
+}
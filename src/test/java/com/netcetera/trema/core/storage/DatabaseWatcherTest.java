@@ -0,0 +1,81 @@
+package com.netcetera.trema.core.storage;
+
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.XMLDatabase;
+import com.netcetera.trema.core.XMLTextNode;
+import com.netcetera.trema.core.XMLValueNode;
+import com.netcetera.trema.core.api.ITextNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.sameInstance;
+
+
+/**
+ * Test for {@link DatabaseWatcher}.
+ */
+class DatabaseWatcherTest {
+
+  @Test
+  void shouldReloadChangedFile(@TempDir Path tempDirectory) throws Exception {
+    File xmlFile = tempDirectory.resolve("texts.trm").toFile();
+    write(xmlFile, "wert");
+
+    try (DatabaseWatcher watcher = new DatabaseWatcher(xmlFile, false)) {
+      watcher.setDebounceMillis(50);
+      watcher.start();
+      XMLDatabase initial = watcher.getDatabase();
+      assertThat(initial.getTextNode("key").getValueNode("de").getValue(), equalTo("wert"));
+
+      write(xmlFile, "neuer Wert");
+      waitFor(() -> watcher.getReloadCount() > 0);
+
+      assertThat(watcher.getDatabase().getTextNode("key").getValueNode("de").getValue(), equalTo("neuer Wert"));
+      assertThat(initial.getTextNode("key").getValueNode("de").getValue(), equalTo("wert"));
+      assertThat(watcher.getLastReloadLatency(TimeUnit.MILLISECONDS), greaterThanOrEqualTo(50L));
+      assertThat(watcher.getMaxReloadLatency(TimeUnit.NANOSECONDS),
+                 greaterThanOrEqualTo(watcher.getLastReloadLatency(TimeUnit.NANOSECONDS)));
+
+      // an invalid file does not replace the current database
+      XMLDatabase reloaded = watcher.getDatabase();
+      Files.write(xmlFile.toPath(), "<trema masterLang=".getBytes(StandardCharsets.UTF_8));
+      waitFor(() -> watcher.getFailedReloadCount() > 0);
+      assertThat(watcher.getDatabase(), sameInstance(reloaded));
+      assertThat(watcher.getDatabase().isXmlInternalized(), equalTo(true));
+    }
+  }
+
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long end = System.currentTimeMillis() + 20000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < end) {
+      Thread.sleep(10);
+    }
+    assertThat(condition.getAsBoolean(), equalTo(true));
+  }
+
+  private static void write(File xmlFile, String value) throws Exception {
+    XMLDatabase db = new XMLDatabase();
+    db.setMasterLanguage("de");
+    ITextNode textNode = new XMLTextNode("key", "context");
+    textNode.addValueNode(new XMLValueNode("de", Status.INITIAL, value));
+    db.addTextNode(textNode);
+    Path tempFile = Files.createTempFile(xmlFile.getParentFile().toPath(), "texts", ".tmp");
+    try (OutputStream out = Files.newOutputStream(tempFile)) {
+      db.writeXML(out, "UTF-8", "  ", "\n");
+    }
+    Files.move(tempFile, xmlFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+}
@@ -0,0 +1,116 @@
+package com.netcetera.trema.core.storage;
+
+import com.netcetera.trema.core.ParseException;
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.XMLDatabase;
+import com.netcetera.trema.core.XMLTextNode;
+import com.netcetera.trema.core.XMLValueNode;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.diff.DatabaseDiff;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.SchemaFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+/**
+ * Test for {@link DialectConverter} and the compact dialect.
+ */
+class DialectConverterTest {
+
+  @Test
+  void shouldConvertLosslessly(@TempDir Path tempDirectory) throws Exception {
+    XMLDatabase original = new XMLDatabase();
+    original.setMasterLanguage("de");
+    ITextNode textNode = new XMLTextNode("key1", "context with \"quotes\" & <brackets>");
+    textNode.addValueNode(new XMLValueNode("de", Status.TRANSLATED, "über"));
+    textNode.addValueNode(new XMLValueNode("fr", Status.INITIAL, "line 1\nline 2\ttab"));
+    original.addTextNode(textNode);
+    ITextNode emptyContext = new XMLTextNode("key0", "");
+    emptyContext.addValueNode(new XMLValueNode("de_CH", Status.SPECIAL, "Grüezi"));
+    original.addTextNode(emptyContext);
+
+    File classic = tempDirectory.resolve("texts.trm").toFile();
+    try (OutputStream out = Files.newOutputStream(classic.toPath())) {
+      original.writeXML(out, "UTF-8", "  ", "\n");
+    }
+    File compact = tempDirectory.resolve("texts-compact.trm").toFile();
+    DialectConverter.toCompact(classic, compact);
+
+    SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI)
+      .newSchema(getClass().getResource("/trema-compact-1.xsd"))
+      .newValidator()
+      .validate(new StreamSource(compact));
+    XMLDatabase compactDb = build(compact);
+    assertThat(compactDb.isCompactDialect(), equalTo(true));
+    assertThat(compactDb.getKeysAsCollection(), contains("key1", "key0"));
+    assertThat(DatabaseDiff.compare(original, compactDb), empty());
+    assertThat(compact.length(), lessThan(classic.length()));
+
+    File converted = tempDirectory.resolve("texts-classic.trm").toFile();
+    DialectConverter.toClassic(compact, converted);
+    XMLDatabase classicDb = build(converted);
+    assertThat(classicDb.isCompactDialect(), equalTo(false));
+    assertThat(classicDb.getMasterLanguage(), equalTo("de"));
+    assertThat(DatabaseDiff.compare(original, classicDb), empty());
+  }
+
+  @Test
+  void shouldPreserveSurroundingWhitespaceOnlyInCompactDialect() throws Exception {
+    XMLDatabase original = new XMLDatabase();
+    original.setMasterLanguage("de");
+    ITextNode textNode = new XMLTextNode("key1", " context ");
+    textNode.addValueNode(new XMLValueNode("de", Status.TRANSLATED, " leading and trailing "));
+    original.addTextNode(textNode);
+
+    ByteArrayOutputStream compact = new ByteArrayOutputStream();
+    original.writeCompactXML(compact, "UTF-8", "  ", "\n");
+    assertThat(DatabaseDiff.compare(original, build(compact.toString("UTF-8"))), empty());
+
+    // the classic dialect trims the text content, like before the compact dialect existed
+    StringWriter classic = new StringWriter();
+    original.writeXML(classic, "UTF-8", "  ", "\n");
+    XMLDatabase classicDb = build(classic.toString());
+    assertThat(classicDb.getTextNode("key1").getContext(), equalTo("context"));
+    assertThat(classicDb.getTextNode("key1").getValueNode("de").getValue(), equalTo("leading and trailing"));
+  }
+
+  @Test
+  void shouldRejectInvalidCompactDocuments() {
+    assertThrows(ParseException.class, () -> build("<trema-compact version=\"2\" masterLang=\"de\"/>"));
+    assertThrows(ParseException.class,
+      () -> build("<trema-compact version=\"1\" masterLang=\"de\"><t k=\"a\" s.de=\"1\"/></trema-compact>"));
+    assertThrows(ParseException.class,
+      () -> build("<trema-compact version=\"1\" masterLang=\"de\"><t k=\"a\" v.de=\"x\" s.de=\"x\"/></trema-compact>"));
+    assertThrows(ParseException.class,
+      () -> build("<trema-compact version=\"1\" masterLang=\"de\"><t k=\"a\" de=\"x\"/></trema-compact>"));
+  }
+
+  private static XMLDatabase build(File file) throws Exception {
+    XMLDatabase db = new XMLDatabase();
+    db.build(new String(Files.readAllBytes(file.toPath()), "UTF-8"), false);
+    return db;
+  }
+
+  private static XMLDatabase build(String xml) throws Exception {
+    XMLDatabase db = new XMLDatabase();
+    db.build(xml, false);
+    return db;
+  }
+
+}
@@ -0,0 +1,189 @@
+package com.netcetera.trema.core.storage;
+
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.XMLDatabase;
+import com.netcetera.trema.core.XMLTextNode;
+import com.netcetera.trema.core.XMLValueNode;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.diff.DatabaseDiff;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+
+
+/**
+ * Test for {@link EditJournal}.
+ */
+class EditJournalTest {
+
+  @Test
+  void shouldReplayJournal(@TempDir Path tempDirectory) throws Exception {
+    File xmlFile = createXmlFile(tempDirectory);
+    byte[] xml = Files.readAllBytes(xmlFile.toPath());
+
+    EditJournal journal = EditJournal.open(xmlFile, false);
+    XMLDatabase db = journal.getDatabase();
+    edit(db);
+    journal.close();
+
+    assertThat(Files.readAllBytes(xmlFile.toPath()), equalTo(xml));
+    assertThat(journal.getEntryCount() > 0, equalTo(true));
+    assertSameContent(EditJournal.open(xmlFile, false).getDatabase(), db);
+  }
+
+  @Test
+  void shouldNotKeepUnsavedModifications(@TempDir Path tempDirectory) throws Exception {
+    File xmlFile = createXmlFile(tempDirectory);
+    EditJournal journal = EditJournal.open(xmlFile, false);
+    XMLDatabase db = journal.getDatabase();
+    db.getTextNode("key1").setContext("saved");
+    journal.save();
+    // more than any buffer of the journal file would hold
+    for (int i = 0; i < 1000; i++) {
+      db.getTextNode("key2").getValueNode("de").setValue("unsaved value " + i);
+    }
+
+    // quit without saving
+    XMLDatabase reopened = EditJournal.open(xmlFile, false).getDatabase();
+
+    assertThat(reopened.getTextNode("key1").getContext(), equalTo("saved"));
+    assertThat(reopened.getTextNode("key2").getValueNode("de").getValue(), equalTo("wert2"));
+  }
+
+  @Test
+  void shouldCompactJournal(@TempDir Path tempDirectory) throws Exception {
+    File xmlFile = createXmlFile(tempDirectory);
+
+    EditJournal journal = EditJournal.open(xmlFile, false);
+    journal.setCompactionThreshold(3);
+    XMLDatabase db = journal.getDatabase();
+    edit(db);
+    journal.save();
+
+    assertThat(journal.getEntryCount(), equalTo(0));
+    db.getTextNode("key3").getValueNode("de").setValue("nach der Kompaktierung");
+    journal.close();
+
+    XMLDatabase rebuilt = new XMLDatabase();
+    rebuilt.build(new String(Files.readAllBytes(xmlFile.toPath()), "UTF-8"), false);
+    assertThat(rebuilt.getTextNode("key3").getValueNode("de").getValue(), equalTo("wert3"));
+    assertSameContent(EditJournal.open(xmlFile, false).getDatabase(), db);
+  }
+
+  @Test
+  void shouldDiscardIncompleteEntry(@TempDir Path tempDirectory) throws Exception {
+    File xmlFile = createXmlFile(tempDirectory);
+    EditJournal journal = EditJournal.open(xmlFile, false);
+    journal.getDatabase().getTextNode("key1").setContext("changed");
+    journal.close();
+    try (OutputStream out = Files.newOutputStream(new File(xmlFile.getPath() + EditJournal.FILE_SUFFIX).toPath(),
+                                                  StandardOpenOption.APPEND)) {
+      // the start of an entry setting a value
+      out.write(new byte[] {7, 0, 0});
+    }
+
+    journal = EditJournal.open(xmlFile, false);
+
+    assertThat(journal.getEntryCount(), equalTo(1));
+    assertThat(journal.getDatabase().getTextNode("key1").getContext(), equalTo("changed"));
+    journal.getDatabase().getTextNode("key2").setContext("changed");
+    journal.close();
+    assertThat(EditJournal.open(xmlFile, false).getDatabase().getTextNode("key2").getContext(), equalTo("changed"));
+  }
+
+  @Test
+  void shouldDiscardJournalOfReplacedXmlFile(@TempDir Path tempDirectory) throws Exception {
+    File xmlFile = createXmlFile(tempDirectory);
+    Path journalFile = new File(xmlFile.getPath() + EditJournal.FILE_SUFFIX).toPath();
+    EditJournal journal = EditJournal.open(xmlFile, false);
+    XMLDatabase db = journal.getDatabase();
+    db.addTextNode(createTextNode("key5"));
+    journal.save();
+    byte[] journalBeforeCompaction = Files.readAllBytes(journalFile);
+    journal.compact();
+    journal.close();
+    // as if the process had ended after replacing the XML file but before emptying the journal
+    Files.write(journalFile, journalBeforeCompaction);
+
+    journal = EditJournal.open(xmlFile, false);
+
+    assertThat(journal.getEntryCount(), equalTo(0));
+    assertSameContent(journal.getDatabase(), db);
+    journal.getDatabase().getTextNode("key1").setContext("changed");
+    journal.close();
+    assertThat(EditJournal.open(xmlFile, false).getDatabase().getTextNode("key1").getContext(), equalTo("changed"));
+  }
+
+  @Test
+  void shouldKeepCompactDialectOnCompaction(@TempDir Path tempDirectory) throws Exception {
+    File xmlFile = createXmlFile(tempDirectory, true);
+
+    EditJournal journal = EditJournal.open(xmlFile, false);
+    XMLDatabase db = journal.getDatabase();
+    edit(db);
+    journal.compact();
+    journal.close();
+
+    String saved = new String(Files.readAllBytes(xmlFile.toPath()), "UTF-8");
+    assertThat(saved, containsString("<trema-compact "));
+    XMLDatabase rebuilt = new XMLDatabase();
+    rebuilt.build(saved, false);
+    assertThat(rebuilt.isCompactDialect(), equalTo(true));
+    assertSameContent(rebuilt, db);
+  }
+
+  private static void edit(XMLDatabase db) {
+    db.getTextNode("key1").getValueNode("de").setValue("neuer Wert");
+    db.getTextNode("key1").getValueNode("de").setStatus(Status.TRANSLATED);
+    db.getTextNode("key2").setKey("key2a");
+    db.getTextNode("key3").addValueNode(new XMLValueNode("fr", Status.INITIAL, "valeur"));
+    db.getTextNode("key0").removeValueNode(db.getTextNode("key0").getValueNode("de"));
+    db.addTextNode(1, createTextNode("added"));
+    db.removeTextNode("key4");
+    db.moveUpTextNodes(new ITextNode[] {db.getTextNode("key3"), db.getTextNode("key2a")});
+    db.moveDownTextNodes(new ITextNode[] {db.getTextNode("key0"), db.getTextNode("added")});
+    db.moveTextNode(db.getTextNode("key1"), 0);
+    db.setMasterLanguage("fr");
+  }
+
+  private static void assertSameContent(XMLDatabase actual, XMLDatabase expected) {
+    assertThat(actual.getMasterLanguage(), equalTo(expected.getMasterLanguage()));
+    assertThat(actual.getKeysAsCollection(), equalTo(expected.getKeysAsCollection()));
+    assertThat(DatabaseDiff.compare(expected, actual), empty());
+  }
+
+  private static File createXmlFile(Path directory) throws Exception {
+    return createXmlFile(directory, false);
+  }
+
+  private static File createXmlFile(Path directory, boolean compact) throws Exception {
+    XMLDatabase db = new XMLDatabase();
+    db.setMasterLanguage("de");
+    for (int i = 0; i < 5; i++) {
+      db.addTextNode(createTextNode("key" + i));
+    }
+    File xmlFile = directory.resolve("texts.trm").toFile();
+    try (OutputStream out = Files.newOutputStream(xmlFile.toPath())) {
+      db.setCompactDialect(compact);
+      db.write(out, "UTF-8", "  ", "\n");
+    }
+    return xmlFile;
+  }
+
+  private static ITextNode createTextNode(String key) {
+    ITextNode textNode = new XMLTextNode(key, "context");
+    textNode.addValueNode(new XMLValueNode("de", Status.VERIFIED, "wert" + key.substring(3)));
+    return textNode;
+  }
+
+}
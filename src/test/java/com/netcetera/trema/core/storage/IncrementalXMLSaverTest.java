@@ -0,0 +1,153 @@
+package com.netcetera.trema.core.storage;
+
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.XMLDatabase;
+import com.netcetera.trema.core.XMLTextNode;
+import com.netcetera.trema.core.XMLValueNode;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.diff.DatabaseDiff;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+
+
+/**
+ * Test for {@link IncrementalXMLSaver}.
+ */
+class IncrementalXMLSaverTest {
+
+  private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n"
+    + "<!-- hand written -->\r\n"
+    + "<trema masterLang=\"de\">\r\n"
+    + "\t<text key=\"key0\"><context>context</context><value lang=\"de\" status=\"initial\">wert0</value></text>\r\n"
+    + "\t<!-- the first key -->\r\n"
+    + "\t<text key=\"key1\">\r\n"
+    + "\t\t<context>context &amp; more</context>\r\n"
+    + "\t\t<value lang=\"de\" status=\"initial\"><![CDATA[wert</text>1]]></value>\r\n"
+    + "\t</text>\r\n"
+    + "\t<text key=\"key2\"><context/><value status=\"initial\" lang=\"de\">wert2</value></text>\r\n"
+    + "</trema>\r\n";
+
+  @Test
+  void shouldRewriteOnlyModifiedTextElements(@TempDir Path tempDirectory) throws Exception {
+    File xmlFile = tempDirectory.resolve("texts.trm").toFile();
+    Files.write(xmlFile.toPath(), XML.getBytes(StandardCharsets.UTF_8));
+
+    IncrementalXMLSaver saver = IncrementalXMLSaver.open(xmlFile, false);
+    XMLDatabase db = saver.getDatabase();
+    db.getTextNode("key2").getValueNode("de").setValue("neuer Wert");
+    db.moveTextNode(db.getTextNode("key0"), 1);
+    ITextNode added = new XMLTextNode("key3", "context");
+    added.addValueNode(new XMLValueNode("de", Status.TRANSLATED, "wert3"));
+    db.addTextNode(0, added);
+    assertThat(saver.getModifiedCount(), equalTo(2));
+    saver.save();
+
+    String saved = new String(Files.readAllBytes(xmlFile.toPath()), StandardCharsets.UTF_8);
+    assertThat(saved, equalTo("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n"
+      + "<!-- hand written -->\r\n"
+      + "<trema masterLang=\"de\">\r\n"
+      + "\t<text key=\"key3\">\r\n"
+      + "\t\t<context>context</context>\r\n"
+      + "\t\t<value lang=\"de\" status=\"translated\">wert3</value>\r\n"
+      + "\t</text>\r\n"
+      + "\t<!-- the first key -->\r\n"
+      + "\t<text key=\"key1\">\r\n"
+      + "\t\t<context>context &amp; more</context>\r\n"
+      + "\t\t<value lang=\"de\" status=\"initial\"><![CDATA[wert</text>1]]></value>\r\n"
+      + "\t</text>\r\n"
+      + "\t<text key=\"key0\"><context>context</context><value lang=\"de\" status=\"initial\">wert0</value></text>\r\n"
+      + "\t<text key=\"key2\">\r\n"
+      + "\t\t<context />\r\n"
+      + "\t\t<value lang=\"de\" status=\"initial\">neuer Wert</value>\r\n"
+      + "\t</text>\r\n"
+      + "</trema>\r\n"));
+    assertSameContent(db, saved);
+
+    // the ranges of the saved file are used for the next save
+    assertThat(saver.getModifiedCount(), equalTo(0));
+    db.getTextNode("key1").setContext("changed");
+    db.removeTextNode("key3");
+    saver.save();
+    saved = new String(Files.readAllBytes(xmlFile.toPath()), StandardCharsets.UTF_8);
+    assertThat(saved, containsString("\t<text key=\"key0\"><context>context</context>"));
+    assertSameContent(db, saved);
+  }
+
+  @Test
+  void shouldWriteLikeFullRewrite(@TempDir Path tempDirectory) throws Exception {
+    XMLDatabase original = new XMLDatabase();
+    original.setMasterLanguage("de");
+    for (int i = 0; i < 5; i++) {
+      ITextNode textNode = new XMLTextNode("key" + i, "context");
+      textNode.addValueNode(new XMLValueNode("de", Status.VERIFIED, "wert <" + i + ">"));
+      original.addTextNode(textNode);
+    }
+    File xmlFile = tempDirectory.resolve("texts.trm").toFile();
+    Files.write(xmlFile.toPath(), toXML(original).getBytes(StandardCharsets.UTF_8));
+
+    IncrementalXMLSaver saver = IncrementalXMLSaver.open(xmlFile, false);
+    XMLDatabase db = saver.getDatabase();
+    db.getTextNode("key1").addValueNode(new XMLValueNode("fr", Status.INITIAL, "valeur"));
+    db.getTextNode("key3").setKey("key3a");
+    saver.save();
+
+    String saved = new String(Files.readAllBytes(xmlFile.toPath()), StandardCharsets.UTF_8);
+    assertThat(withoutComment(saved), equalTo(withoutComment(toXML(db))));
+
+    db.setMasterLanguage("fr");
+    assertThat(saver.getModifiedCount(), equalTo(-1));
+    saver.save();
+    saved = new String(Files.readAllBytes(xmlFile.toPath()), StandardCharsets.UTF_8);
+    assertThat(saved, containsString("masterLang=\"fr\""));
+    assertThat(saver.getModifiedCount(), equalTo(0));
+  }
+
+  @Test
+  void shouldKeepCompactDialect(@TempDir Path tempDirectory) throws Exception {
+    XMLDatabase original = new XMLDatabase();
+    original.build(XML, false);
+    File xmlFile = tempDirectory.resolve("texts.trm").toFile();
+    try (OutputStream out = Files.newOutputStream(xmlFile.toPath())) {
+      original.writeCompactXML(out, "UTF-8", "  ", "\n");
+    }
+
+    IncrementalXMLSaver saver = IncrementalXMLSaver.open(xmlFile, false);
+    XMLDatabase db = saver.getDatabase();
+    db.getTextNode("key2").getValueNode("de").setValue("neuer Wert");
+    saver.save();
+
+    String saved = new String(Files.readAllBytes(xmlFile.toPath()), StandardCharsets.UTF_8);
+    assertThat(saved, containsString("<trema-compact "));
+    assertSameContent(db, saved);
+  }
+
+  private static String toXML(XMLDatabase db) throws Exception {
+    StringWriter writer = new StringWriter();
+    db.writeXML(writer, "UTF-8", "  ", "\n");
+    return writer.toString();
+  }
+
+  private static String withoutComment(String xml) {
+    return xml.replaceFirst("<!-- generated on [^>]* -->", "");
+  }
+
+  private static void assertSameContent(XMLDatabase expected, String xml) throws Exception {
+    XMLDatabase actual = new XMLDatabase();
+    actual.build(xml, false);
+    assertThat(actual.getKeysAsCollection(), equalTo(expected.getKeysAsCollection()));
+    assertThat(DatabaseDiff.compare(expected, actual), empty());
+  }
+
+}
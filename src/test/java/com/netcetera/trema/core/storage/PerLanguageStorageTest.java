@@ -0,0 +1,135 @@
+package com.netcetera.trema.core.storage;
+
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.XMLDatabase;
+import com.netcetera.trema.core.XMLTextNode;
+import com.netcetera.trema.core.XMLValueNode;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.diff.DatabaseDiff;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+
+/**
+ * Test for {@link PerLanguageStorage}.
+ */
+class PerLanguageStorageTest {
+
+  private static final FileTime UNTOUCHED = FileTime.fromMillis(0);
+  private static final String[] LANGUAGES = {"de", "fr", "it"};
+
+  @Test
+  void shouldLoadAndSaveSingleLanguage(@TempDir Path directory) throws Exception {
+    XMLDatabase original = new XMLDatabase();
+    original.setMasterLanguage("de");
+    for (int i = 0; i < 3; i++) {
+      ITextNode textNode = new XMLTextNode("key" + i, "context" + i);
+      for (String language : LANGUAGES) {
+        textNode.addValueNode(new XMLValueNode(language, Status.INITIAL, language + i));
+      }
+      original.addTextNode(textNode);
+    }
+    PerLanguageStorage.create(original, directory.toFile()).close();
+
+    PerLanguageStorage storage = PerLanguageStorage.open(directory.toFile(), false, "fr");
+    XMLDatabase db = storage.getDatabase();
+    assertThat(storage.getAvailableLanguages(), contains(LANGUAGES));
+    assertThat(storage.getLoadedLanguages(), contains("fr"));
+    assertThat(db.getTextNode("key1").getContext(), equalTo("context1"));
+    assertThat(db.getTextNode("key1").getValueNode("fr").getValue(), equalTo("fr1"));
+    assertThat(db.getTextNode("key1").getValueNode("de"), nullValue());
+
+    resetModificationTimes(directory);
+    db.getTextNode("key1").getValueNode("fr").setValue("neu");
+    assertThat(storage.isMasterModified(), equalTo(false));
+    assertThat(storage.getModifiedLanguages(), contains("fr"));
+    storage.save();
+    assertThat(Files.getLastModifiedTime(directory.resolve("texts_fr.xml")), not(equalTo(UNTOUCHED)));
+    assertThat(Files.getLastModifiedTime(directory.resolve("texts_de.xml")), equalTo(UNTOUCHED));
+    assertThat(Files.getLastModifiedTime(directory.resolve(PerLanguageStorage.MASTER_FILE_NAME)),
+               equalTo(UNTOUCHED));
+
+    // the values of the languages which are not loaded follow changed keys
+    db.getTextNode("key2").setKey("key2a");
+    storage.loadLanguage("it");
+    assertThat(db.getTextNode("key2a").getValueNode("it").getValue(), equalTo("it2"));
+    storage.save();
+    assertThat(storage.getModifiedLanguages(), empty());
+
+    original.getTextNode("key1").getValueNode("fr").setValue("neu");
+    original.getTextNode("key2").setKey("key2a");
+    XMLDatabase reopened = PerLanguageStorage.open(directory.toFile(), false, LANGUAGES).getDatabase();
+    assertThat(reopened.getKeysAsCollection(), contains("key0", "key1", "key2a"));
+    assertThat(DatabaseDiff.compare(original, reopened), empty());
+  }
+
+  @Test
+  void shouldPruneValuesOfRemovedTextNodesInUnloadedLanguages(@TempDir Path directory) throws Exception {
+    XMLDatabase original = new XMLDatabase();
+    original.setMasterLanguage("de");
+    for (int i = 0; i < 2; i++) {
+      ITextNode textNode = new XMLTextNode("key" + i, "context" + i);
+      for (String language : LANGUAGES) {
+        textNode.addValueNode(new XMLValueNode(language, Status.INITIAL, language + i));
+      }
+      original.addTextNode(textNode);
+    }
+    PerLanguageStorage.create(original, directory.toFile()).close();
+
+    PerLanguageStorage storage = PerLanguageStorage.open(directory.toFile(), false, "fr");
+    XMLDatabase db = storage.getDatabase();
+    db.removeTextNode("key1");
+    storage.save();
+    db.addTextNode(new XMLTextNode("key1", "new context"));
+    storage.save();
+
+    XMLDatabase reopened = PerLanguageStorage.open(directory.toFile(), false, LANGUAGES).getDatabase();
+    assertThat(reopened.getTextNode("key1").getValueNodes().length, equalTo(0));
+    assertThat(reopened.getTextNode("key0").getValueNode("it").getValue(), equalTo("it0"));
+  }
+
+  @Test
+  void shouldKeepCompactDialectOfMasterFile(@TempDir Path directory) throws Exception {
+    XMLDatabase original = new XMLDatabase();
+    original.setMasterLanguage("de");
+    original.setCompactDialect(true);
+    ITextNode textNode = new XMLTextNode("key0", "context0");
+    textNode.addValueNode(new XMLValueNode("de", Status.INITIAL, "de0"));
+    original.addTextNode(textNode);
+    PerLanguageStorage.create(original, directory.toFile()).close();
+
+    PerLanguageStorage storage = PerLanguageStorage.open(directory.toFile(), false, "de");
+    XMLDatabase db = storage.getDatabase();
+    assertThat(db.isCompactDialect(), equalTo(true));
+    db.addTextNode(new XMLTextNode("key1", "context1"));
+    storage.save();
+
+    String saved = new String(Files.readAllBytes(directory.resolve(PerLanguageStorage.MASTER_FILE_NAME)),
+                              StandardCharsets.UTF_8);
+    assertThat(saved, containsString("<trema-compact "));
+    XMLDatabase reopened = PerLanguageStorage.open(directory.toFile(), false, "de").getDatabase();
+    assertThat(reopened.getKeysAsCollection(), contains("key0", "key1"));
+    assertThat(DatabaseDiff.compare(db, reopened), empty());
+  }
+
+  private static void resetModificationTimes(Path directory) throws Exception {
+    for (File file : directory.toFile().listFiles()) {
+      Files.setLastModifiedTime(file.toPath(), UNTOUCHED);
+    }
+  }
+
+}
@@ -0,0 +1,158 @@
+package com.netcetera.trema.core.storage;
+
+import com.netcetera.trema.core.ParseException;
+import com.netcetera.trema.core.Status;
+import com.netcetera.trema.core.XMLDatabase;
+import com.netcetera.trema.core.XMLTextNode;
+import com.netcetera.trema.core.XMLValueNode;
+import com.netcetera.trema.core.api.ITextNode;
+import com.netcetera.trema.core.diff.DatabaseDiff;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+/**
+ * Test for {@link ShardedStorage}.
+ */
+class ShardedStorageTest {
+
+  private static final FileTime UNTOUCHED = FileTime.fromMillis(0);
+
+  @Test
+  void shouldRewriteOnlyModifiedShards(@TempDir Path tempDirectory) throws Exception {
+    File directory = tempDirectory.resolve("shards").toFile();
+    XMLDatabase original = new XMLDatabase();
+    original.setMasterLanguage("de");
+    for (String key : new String[] {"b.one", "a.one", "plain", "b.two", "a.two"}) {
+      original.addTextNode(createTextNode(key));
+    }
+    ShardedStorage.create(original, directory).close();
+    assertThat(new File(directory, "_default.trm").exists(), equalTo(true));
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    ShardedStorage storage;
+    try {
+      storage = ShardedStorage.open(directory, false, pool);
+    } finally {
+      pool.shutdown();
+    }
+    XMLDatabase db = storage.getDatabase();
+    assertThat(db.getKeysAsCollection(), contains("plain", "a.one", "a.two", "b.one", "b.two"));
+    assertThat(DatabaseDiff.compare(original, db), empty());
+
+    for (String shard : new String[] {"_default", "a", "b"}) {
+      Files.setLastModifiedTime(directory.toPath().resolve(shard + ".trm"), UNTOUCHED);
+    }
+    db.getTextNode("b.one").getValueNode("de").setValue("neuer Wert");
+    db.getTextNode("a.two").setKey("c.two");
+    assertThat(storage.getModifiedShards(), contains("a", "b", "c"));
+    storage.save();
+
+    assertThat(storage.getModifiedShards(), empty());
+    assertThat(Files.getLastModifiedTime(directory.toPath().resolve("_default.trm")), equalTo(UNTOUCHED));
+    assertThat(Files.getLastModifiedTime(directory.toPath().resolve("a.trm")), not(equalTo(UNTOUCHED)));
+    assertThat(new File(directory, "c.trm").exists(), equalTo(true));
+
+    db.removeTextNode("plain");
+    storage.save();
+    assertThat(new File(directory, "_default.trm").exists(), equalTo(false));
+
+    XMLDatabase reopened = ShardedStorage.open(directory, false).getDatabase();
+    assertThat(reopened.getKeysAsCollection(), contains("a.one", "b.one", "b.two", "c.two"));
+    assertThat(DatabaseDiff.compare(db, reopened), empty());
+  }
+
+  @Test
+  void shouldRejectKeyOfOtherShard(@TempDir Path tempDirectory) throws Exception {
+    XMLDatabase db = new XMLDatabase();
+    db.setMasterLanguage("de");
+    db.addTextNode(createTextNode("a.one"));
+    ShardedStorage.create(db, tempDirectory.toFile()).close();
+    Files.move(tempDirectory.resolve("a.trm"), tempDirectory.resolve("b.trm"));
+
+    ParseException e = assertThrows(ParseException.class, () -> ShardedStorage.open(tempDirectory.toFile(), false));
+    assertThat(e.getMessage(), equalTo("Key \"a.one\" does not belong to shard \"b\"."));
+  }
+
+  @Test
+  void shouldKeepCompactDialect(@TempDir Path tempDirectory) throws Exception {
+    XMLDatabase original = new XMLDatabase();
+    original.setMasterLanguage("de");
+    original.setCompactDialect(true);
+    original.addTextNode(createTextNode("a.one"));
+    original.addTextNode(createTextNode("b.one"));
+    ShardedStorage.create(original, tempDirectory.toFile()).close();
+
+    ShardedStorage storage = ShardedStorage.open(tempDirectory.toFile(), false);
+    XMLDatabase db = storage.getDatabase();
+    assertThat(db.isCompactDialect(), equalTo(true));
+    db.getTextNode("a.one").getValueNode("de").setValue("neuer Wert");
+    db.addTextNode(createTextNode("c.one"));
+    storage.save();
+
+    for (String shard : new String[] {"a", "b", "c"}) {
+      String saved = new String(Files.readAllBytes(tempDirectory.resolve(shard + ".trm")), StandardCharsets.UTF_8);
+      assertThat(saved, containsString("<trema-compact "));
+    }
+    XMLDatabase reopened = ShardedStorage.open(tempDirectory.toFile(), false).getDatabase();
+    assertThat(DatabaseDiff.compare(db, reopened), empty());
+  }
+
+  @Test
+  void shouldShareShardOfPrefixesDifferingInCase(@TempDir Path tempDirectory) throws Exception {
+    XMLDatabase original = new XMLDatabase();
+    original.setMasterLanguage("de");
+    original.addTextNode(createTextNode("Foo.x"));
+    original.addTextNode(createTextNode("foo.y"));
+    ShardedStorage.create(original, tempDirectory.toFile()).close();
+
+    assertThat(ShardedStorage.getShardName("Foo.x"), equalTo("foo"));
+    assertThat(new File(tempDirectory.toFile(), "foo.trm").exists(), equalTo(true));
+    XMLDatabase reopened = ShardedStorage.open(tempDirectory.toFile(), false).getDatabase();
+    assertThat(reopened.getKeysAsCollection(), contains("Foo.x", "foo.y"));
+  }
+
+  @Test
+  void shouldOpenEmptyDatabase(@TempDir Path tempDirectory) throws Exception {
+    XMLDatabase original = new XMLDatabase();
+    original.setMasterLanguage("de");
+    original.addTextNode(createTextNode("a.one"));
+    ShardedStorage storage = ShardedStorage.create(original, tempDirectory.toFile());
+    original.removeTextNode("a.one");
+    storage.save();
+
+    assertThat(new File(tempDirectory.toFile(), "a.trm").exists(), equalTo(false));
+    XMLDatabase reopened = ShardedStorage.open(tempDirectory.toFile(), false).getDatabase();
+    assertThat(reopened.getSize(), equalTo(0));
+    assertThat(reopened.getMasterLanguage(), equalTo("de"));
+
+    XMLDatabase empty = new XMLDatabase();
+    empty.setMasterLanguage("en");
+    ShardedStorage.create(empty, tempDirectory.resolve("empty").toFile()).close();
+    reopened = ShardedStorage.open(tempDirectory.resolve("empty").toFile(), false).getDatabase();
+    assertThat(reopened.getSize(), equalTo(0));
+    assertThat(reopened.getMasterLanguage(), equalTo("en"));
+  }
+
+  private static ITextNode createTextNode(String key) {
+    ITextNode textNode = new XMLTextNode(key, "context");
+    textNode.addValueNode(new XMLValueNode("de", Status.INITIAL, "wert"));
+    return textNode;
+  }
+
+}